@@ -0,0 +1,422 @@
+package de.mainzelhandler.backend.core.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import de.mainzelhandler.backend.core.exceptions.DeadlineExceededException;
+import de.mainzelhandler.backend.core.json.JsonWriter;
+import de.mainzelhandler.backend.core.mainzelliste.Deadline;
+import de.mainzelhandler.backend.core.transport.JdkHttpClientTransport;
+import de.mainzelhandler.backend.core.transport.MainzellisteTransport;
+import de.mainzelhandler.backend.core.transport.TransportRequest;
+import de.mainzelhandler.backend.core.transport.TransportResponse;
+
+/**
+ * Identity of this instance of the application and the other instances it
+ * shares the load with. The callback URL of an addPatient token contains the
+ * id of the node that created the token, so a callback request arriving at
+ * another node gets forwarded to the issuing node and the pseudonyms stay in
+ * the local store of the node that will receive the patient data. Tokens of a
+ * rerouted patient request that are not found locally get taken from the
+ * peers. Without a node id the instance runs alone and nothing gets forwarded.
+ *
+ * A take is two-phased like the processing of the patients: a peer only
+ * reserves the taken pseudonyms and puts them back unless the take gets
+ * confirmed after its response arrived, so a lost response does not lose the
+ * pseudonyms.
+ */
+public class PeerNodes implements Closeable, MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PeerNodes.class);
+
+	/**
+	 * Header containing the id of the node that forwarded a callback request.
+	 * Forwarded requests are never forwarded again.
+	 */
+	public static final String FORWARDED_HEADER = "X-Mainzelhandler-Forwarded-By";
+
+	/**
+	 * Header containing the shared secret of the nodes.
+	 */
+	public static final String SECRET_HEADER = "X-Mainzelhandler-Node-Secret";
+
+	/**
+	 * Path of the callback requests relative to the URL of a node.
+	 */
+	public static final String CALLBACK_PATH = "/patients/send/pseudonyms";
+
+	/**
+	 * Path of the requests taking pseudonyms from a peer relative to the URL of a
+	 * node.
+	 */
+	public static final String TAKE_PATH = "/patients/peer/pseudonyms";
+
+	/**
+	 * Header containing the id under which a peer reserves the taken
+	 * pseudonyms. The reservation is confirmed with a POST and cancelled with a
+	 * DELETE request to the take path followed by the id.
+	 */
+	public static final String RESERVATION_HEADER = "X-Mainzelhandler-Reservation";
+
+	/**
+	 * Id of this node, empty if the instance runs alone.
+	 */
+	private final String nodeId;
+
+	/**
+	 * URLs of the other nodes by their id.
+	 */
+	private final Map<String, String> peers;
+
+	/**
+	 * Secret shared by the nodes, empty if pseudonyms can not be taken from the
+	 * peers.
+	 */
+	private final String secret;
+
+	/**
+	 * Time in milliseconds to connect to a peer and to wait for its response.
+	 */
+	private final long timeout;
+
+	/**
+	 * HTTP transport to the peers.
+	 */
+	private final MainzellisteTransport transport;
+
+	/**
+	 * Number of reservations on the peers that could not be confirmed or
+	 * cancelled.
+	 */
+	private final AtomicLong unconfirmed;
+
+	/**
+	 * Constructs new PeerNodes.
+	 *
+	 * @param nodeId  Id of this node, empty if the instance runs alone.
+	 * @param peers   URLs of the other nodes by their id. A URL contains the
+	 *                context path and the request path of the node, but not the
+	 *                patients resource.
+	 * @param secret  Secret shared by the nodes, empty to forbid taking
+	 *                pseudonyms from the peers.
+	 * @param timeout Time in milliseconds to connect to a peer and to wait for its
+	 *                response. The {@link Deadline} of the request shortens it.
+	 */
+	public PeerNodes(final String nodeId, final Map<String, String> peers, final String secret,
+			final long timeout) {
+		this(nodeId, peers, secret, timeout, new JdkHttpClientTransport(HttpClient.Version.HTTP_1_1, timeout));
+	}
+
+	/**
+	 * Constructs new PeerNodes.
+	 *
+	 * @param nodeId    Id of this node, empty if the instance runs alone.
+	 * @param peers     URLs of the other nodes by their id.
+	 * @param secret    Secret shared by the nodes, empty to forbid taking
+	 *                  pseudonyms from the peers.
+	 * @param timeout   Time in milliseconds to wait for the response of a peer.
+	 * @param transport HTTP transport to the peers.
+	 */
+	public PeerNodes(final String nodeId, final Map<String, String> peers, final String secret,
+			final long timeout, final MainzellisteTransport transport) {
+		if (!nodeId.matches("[A-Za-z0-9._-]*"))
+			throw new IllegalArgumentException("Invalid node id '" + nodeId + "', expected letters, digits, '.', '_'"
+					+ " or '-'");
+
+		this.nodeId = nodeId;
+		this.peers = new LinkedHashMap<String, String>(peers);
+		this.peers.remove(nodeId);
+		this.secret = secret;
+		this.timeout = timeout;
+		this.transport = transport;
+		this.unconfirmed = new AtomicLong();
+	}
+
+	/**
+	 * Parses a list of peers in the format {@code id=url,id=url}.
+	 *
+	 * @param peers The list, may be empty.
+	 * @return URLs of the peers by their id.
+	 * @throws IllegalArgumentException If an entry has no id or URL.
+	 */
+	public static Map<String, String> parsePeers(final String peers) {
+		final Map<String, String> result = new LinkedHashMap<String, String>();
+
+		for (final String entry : peers.split(",")) {
+			if (entry.isBlank())
+				continue;
+
+			final int separator = entry.indexOf('=');
+
+			if (separator <= 0 || separator == entry.length() - 1)
+				throw new IllegalArgumentException("Invalid peer '" + entry.trim() + "', expected 'id=url'");
+
+			final String url = entry.substring(separator + 1).trim();
+			result.put(entry.substring(0, separator).trim(), url.endsWith("/") ? url.substring(0, url.length() - 1)
+					: url);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return Id of this node, empty if the instance runs alone.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @return URLs of the other nodes by their id.
+	 */
+	public Map<String, String> getPeers() {
+		return Collections.unmodifiableMap(peers);
+	}
+
+	/**
+	 * Appends the id of this node to the callback URL, so the callback request
+	 * can be routed to this node.
+	 *
+	 * @param callbackUrl Callback URL of the application.
+	 * @return Callback URL of this node.
+	 */
+	public String callbackUrl(final String callbackUrl) {
+		return nodeId.isEmpty() ? callbackUrl : callbackUrl + "/" + nodeId;
+	}
+
+	/**
+	 * Checks whether a request for the given node has to be handled by this
+	 * node. Requests for unknown nodes are handled locally, so their pseudonyms
+	 * can still be taken by the issuing node.
+	 *
+	 * @param node Id of the node from the callback URL.
+	 * @return true if the request is not forwarded.
+	 */
+	public boolean isLocal(final String node) {
+		return nodeId.isEmpty() || nodeId.equals(node) || !peers.containsKey(node);
+	}
+
+	/**
+	 * Checks the secret sent by a peer.
+	 *
+	 * @param secret Secret of the request, may be null.
+	 * @return true if a secret is configured and equal to the given secret.
+	 */
+	public boolean isTrusted(final String secret) {
+		return !this.secret.isEmpty() && secret != null && MessageDigest.isEqual(
+				this.secret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Forwards a callback request to the node that issued the token. Waits at
+	 * most the timeout of the peers or until the {@link Deadline} passes.
+	 *
+	 * @param node Id of the issuing node.
+	 * @param body Body of the callback request.
+	 * @return The response of the issuing node.
+	 * @throws IOException               If the node could not be reached in time.
+	 * @throws DeadlineExceededException If the deadline already passed.
+	 */
+	public TransportResponse forwardCallback(final String node, final byte[] body) throws IOException {
+		final TransportRequest request = new TransportRequest("POST", peers.get(node) + CALLBACK_PATH + "/" + node);
+		request.addHeader("Content-Type", "application/json");
+		request.addHeader(FORWARDED_HEADER, nodeId);
+		request.setBody(body);
+		request.setTimeout(Deadline.timeout(timeout));
+		return transport.execute(request);
+	}
+
+	/**
+	 * Takes the pseudonyms of the given tokens from the peers. All peers are
+	 * asked at once, so tokens not present on any node cost at most the timeout
+	 * of the peers and no peer is asked after the {@link Deadline} passed. A
+	 * peer reserves the pseudonyms it found under the id of the take and keeps
+	 * them until the take is confirmed. The reservation of a peer whose response
+	 * failed is cancelled, so its pseudonyms are put back. A peer cancels a
+	 * reservation neither confirmed nor cancelled after
+	 * {@link #getReservationTimeout()}.
+	 *
+	 * @param tokens Tokens not found in the local store.
+	 * @return The tokens with their pseudonyms, removed from the stores of the
+	 *         peers. Tokens not found are missing.
+	 */
+	public Map<String, String> takePseudonyms(final Collection<String> tokens) {
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+
+		if (tokens.isEmpty() || peers.isEmpty() || secret.isEmpty())
+			return pseudonyms;
+
+		final long requestTimeout;
+
+		try {
+			requestTimeout = Deadline.timeout(timeout);
+		} catch (final DeadlineExceededException exception) {
+			LOGGER.warn("Stopped taking pseudonyms from the peers: " + exception.getMessage());
+			return pseudonyms;
+		}
+
+		final String reservation = UUID.randomUUID().toString();
+		final byte[] body = tokensBody(tokens);
+		final Map<String, CompletableFuture<TransportResponse>> responses =
+				new LinkedHashMap<String, CompletableFuture<TransportResponse>>();
+
+		for (final Entry<String, String> peer : peers.entrySet()) {
+			final TransportRequest request = new TransportRequest("POST", peer.getValue() + TAKE_PATH);
+			request.addHeader("Content-Type", "application/json");
+			request.addHeader(SECRET_HEADER, secret);
+			request.addHeader(RESERVATION_HEADER, reservation);
+			request.setBody(body);
+			request.setTimeout(requestTimeout);
+			responses.put(peer.getKey(), transport.executeAsync(request));
+		}
+
+		for (final Entry<String, CompletableFuture<TransportResponse>> response : responses.entrySet()) {
+			final String url = peers.get(response.getKey()) + TAKE_PATH + "/" + reservation;
+
+			try {
+				final Map<String, String> taken = parseTaken(response.getValue().join());
+
+				if (!taken.isEmpty()) {
+					finish("POST", url);
+					taken.keySet().removeAll(pseudonyms.keySet());
+					pseudonyms.putAll(taken);
+					LOGGER.debug("Took " + taken.size() + " pseudonyms from node " + response.getKey());
+				}
+			} catch (final CompletionException | IOException | JSONException exception) {
+				final Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+
+				if (!(cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException))
+					finish("DELETE", url);
+
+				LOGGER.warn("Could not take pseudonyms from node " + response.getKey() + ": " + cause.getMessage());
+			}
+		}
+
+		return pseudonyms;
+	}
+
+	/**
+	 * @param tokens The tokens.
+	 * @return Body of a take request, a JSON array of the tokens.
+	 */
+	private static byte[] tokensBody(final Collection<String> tokens) {
+		final StringBuilder body = new StringBuilder("[");
+
+		for (final String token : tokens) {
+			if (body.length() > 1)
+				body.append(',');
+
+			JsonWriter.appendString(body, token);
+		}
+
+		return body.append(']').toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the pseudonyms reserved by a peer from its response.
+	 *
+	 * @param response Response of the peer.
+	 * @return The tokens found by the peer with their pseudonyms.
+	 * @throws IOException   If the peer answered with an error.
+	 * @throws JSONException If the response of the peer is malformed.
+	 */
+	private static Map<String, String> parseTaken(final TransportResponse response) throws IOException {
+		if (response.getStatusCode() != 200)
+			throw new IOException("Peer answered with status " + response.getStatusCode());
+
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+		final JSONObject json = new JSONObject(response.getBody());
+
+		for (final String token : json.keySet())
+			pseudonyms.put(token, json.getString(token));
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Confirms or cancels a reservation on a peer without waiting for the
+	 * response. A reservation whose request fails is counted as unconfirmed and
+	 * resolved by the reservation timeout of the peer.
+	 *
+	 * @param method POST to confirm, DELETE to cancel.
+	 * @param url    URL of the reservation.
+	 */
+	private void finish(final String method, final String url) {
+		final TransportRequest request = new TransportRequest(method, url);
+		request.addHeader(SECRET_HEADER, secret);
+		request.setTimeout(timeout);
+
+		transport.executeAsync(request).whenComplete((response, exception) -> {
+			if (exception != null || response.getStatusCode() >= 300) {
+				unconfirmed.incrementAndGet();
+				LOGGER.warn("Could not " + ("POST".equals(method) ? "confirm" : "cancel") + " reservation " + url
+						+ ": " + (exception != null ? exception.getMessage() : "status " + response.getStatusCode()));
+			}
+		});
+	}
+
+	/**
+	 * @return Time in milliseconds a peer keeps a reservation of its pseudonyms
+	 *         until it cancels it, twice the timeout of the peers, so the
+	 *         response and the confirmation both fit in.
+	 */
+	public long getReservationTimeout() {
+		return 2 * timeout;
+	}
+
+	/**
+	 * @return Number of reservations on the peers that could not be confirmed
+	 *         or cancelled. A peer cancels them after the reservation timeout,
+	 *         the pseudonyms of an unconfirmed reservation may be taken twice.
+	 */
+	public long getUnconfirmed() {
+		return unconfirmed.get();
+	}
+
+	/**
+	 * Binds the counter of the unconfirmed reservations.
+	 *
+	 * @param registry The registry.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		FunctionCounter.builder("mainzelhandler.peers.take.unconfirmed", unconfirmed, AtomicLong::get)
+				.description("Reservations on a peer that could not be confirmed or cancelled")
+				.register(registry);
+	}
+
+	/**
+	 * Closes the HTTP transport.
+	 *
+	 * @throws IOException If the transport could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		transport.close();
+	}
+
+}
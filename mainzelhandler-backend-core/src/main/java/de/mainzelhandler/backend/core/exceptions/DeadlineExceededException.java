@@ -0,0 +1,23 @@
+package de.mainzelhandler.backend.core.exceptions;
+
+/**
+ * MainzellisteConnectionException indicating that a request was not sent,
+ * because the deadline of the client request passed.
+ */
+public class DeadlineExceededException extends MainzellisteConnectionException {
+
+	/**
+	 * Generated serialVersionUID.
+	 */
+	private static final long serialVersionUID = -6150384729163547210L;
+
+	/**
+	 * Constructs a new DeadlineExceededException.
+	 *
+	 * @param message The detail message.
+	 */
+	public DeadlineExceededException(final String message) {
+		super(message);
+	}
+
+}
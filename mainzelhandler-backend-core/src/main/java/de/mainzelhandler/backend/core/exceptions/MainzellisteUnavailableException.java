@@ -0,0 +1,40 @@
+package de.mainzelhandler.backend.core.exceptions;
+
+/**
+ * MainzellisteConnectionException indicating that a request was not sent,
+ * because the circuit breaker of the connection is open after repeated
+ * failures of the Mainzelliste or the concurrency limiter rejected it.
+ */
+public class MainzellisteUnavailableException extends MainzellisteConnectionException {
+
+	/**
+	 * Generated serialVersionUID.
+	 */
+	private static final long serialVersionUID = 3917482650391827465L;
+
+	/**
+	 * Time in milliseconds after which the Mainzelliste gets probed again.
+	 */
+	private final long retryAfter;
+
+	/**
+	 * Constructs a new MainzellisteUnavailableException.
+	 *
+	 * @param message    The detail message.
+	 * @param retryAfter Time in milliseconds after which the Mainzelliste gets
+	 *                   probed again.
+	 */
+	public MainzellisteUnavailableException(final String message, final long retryAfter) {
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return Time in milliseconds after which the Mainzelliste gets probed
+	 *         again.
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+}
@@ -0,0 +1,34 @@
+package de.mainzelhandler.backend.core.exceptions;
+
+/**
+ * RuntimeException indicating an issue with an external pseudonym store like a
+ * database.
+ */
+public class PseudonymStoreException extends RuntimeException {
+
+	/**
+	 * Generated serialVersionUID.
+	 */
+	private static final long serialVersionUID = 5127946620374816083L;
+
+	/**
+	 * Constructs a new PseudonymStoreException.
+	 *
+	 * @param message The detail message.
+	 */
+	public PseudonymStoreException(final String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructs a new PseudonymStoreException.
+	 *
+	 * @param message The detail message.
+	 * @param cause   The cause. (A null value is permitted, and indicates that the
+	 *                cause is nonexistent or unknown.)
+	 */
+	public PseudonymStoreException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+
+}
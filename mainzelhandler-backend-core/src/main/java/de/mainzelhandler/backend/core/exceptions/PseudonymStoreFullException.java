@@ -0,0 +1,39 @@
+package de.mainzelhandler.backend.core.exceptions;
+
+/**
+ * RuntimeException indicating that the pseudonym store reached its capacity
+ * and rejected a new pseudonym.
+ */
+public class PseudonymStoreFullException extends RuntimeException {
+
+	/**
+	 * Generated serialVersionUID.
+	 */
+	private static final long serialVersionUID = -2841378026651927340L;
+
+	/**
+	 * Time in milliseconds after which the store is expected to have room again.
+	 */
+	private final long retryAfter;
+
+	/**
+	 * Constructs a new PseudonymStoreFullException.
+	 *
+	 * @param message    The detail message.
+	 * @param retryAfter Time in milliseconds after which the store is expected to
+	 *                   have room again.
+	 */
+	public PseudonymStoreFullException(final String message, final long retryAfter) {
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return Time in milliseconds after which the store is expected to have room
+	 *         again.
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+}
@@ -0,0 +1,24 @@
+package de.mainzelhandler.backend.core.exceptions;
+
+/**
+ * MainzellisteRuntimeException indicating that a token request failed, because
+ * its session does not exist on the Mainzelliste anymore, e.g. after a restart
+ * or a server-side expiry of the session.
+ */
+public class SessionNotFoundException extends MainzellisteRuntimeException {
+
+	/**
+	 * Generated serialVersionUID.
+	 */
+	private static final long serialVersionUID = 2783159046213578904L;
+
+	/**
+	 * Constructs a new SessionNotFoundException.
+	 *
+	 * @param message The detail message.
+	 */
+	public SessionNotFoundException(final String message) {
+		super(message);
+	}
+
+}
@@ -1,7 +1,9 @@
 package de.mainzelhandler.backend.core.interfaces;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import de.mainzelhandler.backend.core.model.Patient;
 
@@ -12,31 +14,37 @@ public interface PatientInterface {
 
 	/**
 	 * REST interface for incoming patients. Has to be available at
-	 * '/patients/send'.
+	 * '/patients/send'. Completes asynchronously if pseudonyms are awaited.
 	 *
 	 * @param patients List of patients to be processed on the server.
-	 * @return Response whether the processing was successful. Key is the id of the
-	 *         patient and value is true, if the patient got processed successfully.
+	 * @return Future of the response whether the processing was successful. Key
+	 *         is the id of the patient and value is true, if the patient got
+	 *         processed successfully. The response may carry the status of the
+	 *         tokens in a header.
 	 */
-	Map<String, Boolean> acceptPatientsRequest(final List<Patient> patients);
+	CompletableFuture<?> acceptPatientsRequest(final List<Patient> patients);
 
 	/**
 	 * REST interface for the callback request of the Mainzelliste. Has to be
-	 * available at '/patients/send/pseudonyms'.
+	 * available at '/patients/send/pseudonyms'. Also accepts an array of
+	 * callback bodies, e.g. collected by a relay in front of the application.
 	 *
-	 * @param requestBody Body of the request. See Mainzelliste documentation for
-	 *                    more informations.
+	 * @param requestBody Stream of the body of the request. See Mainzelliste
+	 *                    documentation for more informations.
+	 * @throws IOException If the request body could not be read.
 	 */
-	void acceptPatientsPseudonymsRequest(final String requestBody);
+	void acceptPatientsPseudonymsRequest(final InputStream requestBody) throws IOException;
 
 	/**
 	 * EST interface for incoming id's of patients to be returned. Has to be
 	 * available at '/patients/request'. Id's are either pseudonyms or tokens used
-	 * for the pseudonymization.
+	 * for the pseudonymization. Completes asynchronously if pseudonyms are
+	 * awaited.
 	 *
 	 * @param ids Ids of the patients.
-	 * @return List of found patients.
+	 * @return Future of the response with the list of found patients. The
+	 *         response may carry the status of the tokens in a header.
 	 */
-	List<Patient> requestPatientsRequest(List<String> ids);
+	CompletableFuture<?> requestPatientsRequest(List<String> ids);
 
 }
@@ -0,0 +1,614 @@
+package de.mainzelhandler.backend.core.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+
+/**
+ * Streaming reader extracting single fields of a JSON document. Reads the UTF-8
+ * encoded document once and only decodes the requested fields, so the
+ * Mainzelliste responses don't have to be converted into a String and a
+ * JSONObject to read a token or session id. Stops reading as soon as all
+ * requested fields are found.
+ *
+ * A field is addressed with a path of member names separated by dots, e.g.
+ * "sessionId" or "ids.idString". A path segment pointing to an array continues
+ * with the first element of the array. Strings are returned decoded, numbers
+ * and literals are returned as written in the document.
+ */
+public class JsonFieldReader {
+
+	/**
+	 * Size of the read buffer for streams.
+	 */
+	private static final int BUFFER_SIZE = 512;
+
+	/**
+	 * Stream the document is read from, null if the document is a byte array.
+	 */
+	private final InputStream in;
+
+	/**
+	 * Buffer containing the document or the current part of the stream.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Position of the next byte in the buffer.
+	 */
+	private int position;
+
+	/**
+	 * Number of valid bytes in the buffer.
+	 */
+	private int limit;
+
+	/**
+	 * Number of bytes read before the current buffer. Used for error messages.
+	 */
+	private long offset;
+
+	/**
+	 * The requested paths split into their member names.
+	 */
+	private final String[][] paths;
+
+	/**
+	 * The values of the requested paths, null if not found yet.
+	 */
+	private final String[] values;
+
+	/**
+	 * Number of requested paths not found yet.
+	 */
+	private int remaining;
+
+	/**
+	 * Reusable buffer for the decoded member names and values.
+	 */
+	private final StringBuilder text;
+
+	/**
+	 * Whether values are read to their end after all fields are found. Used to
+	 * read the fields of several array elements.
+	 */
+	private boolean whole;
+
+	/**
+	 * Constructs a new JsonFieldReader.
+	 *
+	 * @param in     Stream the document is read from, null if the document is the
+	 *               given buffer.
+	 * @param buffer The document or a buffer for the stream.
+	 * @param limit  Number of valid bytes in the buffer.
+	 * @param paths  The requested paths.
+	 */
+	private JsonFieldReader(final InputStream in, final byte[] buffer, final int limit, final String[] paths) {
+		this.in = in;
+		this.buffer = buffer;
+		this.limit = limit;
+		this.paths = new String[paths.length][];
+		this.values = new String[paths.length];
+		this.remaining = paths.length;
+		this.text = new StringBuilder(32);
+
+		for (int i = 0; i < paths.length; i++)
+			this.paths[i] = paths[i].split("\\.");
+	}
+
+	/**
+	 * Reads the value of a single field.
+	 *
+	 * @param json UTF-8 encoded JSON document.
+	 * @param path Path of the field.
+	 * @return The value or null if the document does not contain the field.
+	 * @throws JSONException If the document is not valid JSON.
+	 */
+	public static String readField(final byte[] json, final String path) {
+		return readFields(json, path)[0];
+	}
+
+	/**
+	 * Reads the values of the given fields.
+	 *
+	 * @param json  UTF-8 encoded JSON document.
+	 * @param paths Paths of the fields.
+	 * @return The values in the order of the paths. A value is null if the
+	 *         document does not contain the field.
+	 * @throws JSONException If the document is not valid JSON.
+	 */
+	public static String[] readFields(final byte[] json, final String... paths) {
+		try {
+			return new JsonFieldReader(null, json, json.length, paths).read();
+		} catch (final IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	/**
+	 * Reads the values of the given fields from a stream. The stream is read up to
+	 * the last requested field and not closed.
+	 *
+	 * @param json  Stream of the UTF-8 encoded JSON document.
+	 * @param paths Paths of the fields.
+	 * @return The values in the order of the paths. A value is null if the
+	 *         document does not contain the field.
+	 * @throws IOException   If the stream could not be read.
+	 * @throws JSONException If the document is not valid JSON.
+	 */
+	public static String[] readFields(final InputStream json, final String... paths) throws IOException {
+		return new JsonFieldReader(json, new byte[BUFFER_SIZE], 0, paths).read();
+	}
+
+	/**
+	 * Reads the values of the given fields of every element of an array. A
+	 * document consisting of a single object is read as an array with one
+	 * element. The stream is read up to the end of the document and not closed.
+	 *
+	 * @param json  Stream of the UTF-8 encoded JSON document.
+	 * @param paths Paths of the fields relative to an element.
+	 * @return The values of each element in the order of the paths. A value is
+	 *         null if the element does not contain the field.
+	 * @throws IOException   If the stream could not be read.
+	 * @throws JSONException If the document is not valid JSON.
+	 */
+	public static List<String[]> readElements(final InputStream json, final String... paths) throws IOException {
+		return new JsonFieldReader(json, new byte[BUFFER_SIZE], 0, paths).readElements();
+	}
+
+	/**
+	 * Reads the document until all fields are found.
+	 *
+	 * @return The values in the order of the paths.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private String[] read() throws IOException {
+		final boolean[] candidates = new boolean[paths.length];
+
+		for (int i = 0; i < candidates.length; i++)
+			candidates[i] = true;
+
+		readValue(candidates, 0);
+
+		return values;
+	}
+
+	/**
+	 * Reads the fields of every element of the top-level array or of the
+	 * top-level object.
+	 *
+	 * @return The values of each element in the order of the paths.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private List<String[]> readElements() throws IOException {
+		final List<String[]> elements = new ArrayList<String[]>();
+		final boolean[] candidates = new boolean[paths.length];
+		Arrays.fill(candidates, true);
+		whole = true;
+
+		final boolean array = peekNonWhitespace() == '[';
+
+		if (array) {
+			position++;
+
+			if (peekNonWhitespace() == ']') {
+				position++;
+				return elements;
+			}
+		}
+
+		while (true) {
+			Arrays.fill(values, null);
+			remaining = paths.length;
+			readValue(candidates, 0);
+			elements.add(values.clone());
+
+			if (!array)
+				return elements;
+
+			if (peekNonWhitespace() == ']') {
+				position++;
+				return elements;
+			}
+
+			expectNonWhitespace(',');
+		}
+	}
+
+	/**
+	 * Reads a value. Stores it if it completes a requested path, descends into it
+	 * if it continues a requested path and skips it otherwise.
+	 *
+	 * @param candidates Paths whose first depth segments lead to this value, null
+	 *                   if no path does.
+	 * @param depth      Number of path segments leading to this value.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void readValue(final boolean[] candidates, final int depth) throws IOException {
+		final int next = peekNonWhitespace();
+
+		if (next == '{') {
+			readObject(candidates, depth);
+		} else if (next == '[') {
+			readArray(candidates, depth);
+		} else {
+			final int completed = completedPath(candidates, depth);
+
+			if (next == '"') {
+				if (completed >= 0) {
+					readString();
+					store(completed, text.toString());
+				} else {
+					skipString();
+				}
+			} else {
+				text.setLength(0);
+
+				while (position < limit || fill()) {
+					final byte current = buffer[position];
+
+					if (current == ',' || current == '}' || current == ']' || isWhitespace(current))
+						break;
+
+					text.append((char) current);
+					position++;
+				}
+
+				if (text.length() == 0)
+					throw error("Expected a value");
+
+				if (completed >= 0)
+					store(completed, text.toString());
+			}
+		}
+	}
+
+	/**
+	 * Reads an object and its members.
+	 *
+	 * @param candidates Paths leading to this object, null if no path does.
+	 * @param depth      Number of path segments leading to this object.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void readObject(final boolean[] candidates, final int depth) throws IOException {
+		expect('{');
+
+		if (peekNonWhitespace() == '}') {
+			position++;
+			return;
+		}
+
+		while (remaining > 0 || whole) {
+			if (peekNonWhitespace() != '"')
+				throw error("Expected a member name");
+
+			readString();
+			final boolean[] memberCandidates = matchMember(candidates, depth);
+
+			expectNonWhitespace(':');
+			readValue(memberCandidates, depth + 1);
+
+			if (remaining == 0 && !whole)
+				return;
+
+			if (peekNonWhitespace() == '}') {
+				position++;
+				return;
+			}
+
+			expectNonWhitespace(',');
+		}
+	}
+
+	/**
+	 * Reads an array. Only the first element can continue a path, the other
+	 * elements get skipped.
+	 *
+	 * @param candidates Paths leading to this array, null if no path does.
+	 * @param depth      Number of path segments leading to this array.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void readArray(final boolean[] candidates, final int depth) throws IOException {
+		expect('[');
+
+		if (peekNonWhitespace() == ']') {
+			position++;
+			return;
+		}
+
+		boolean first = true;
+
+		while (remaining > 0 || whole) {
+			readValue(first ? candidates : null, depth);
+			first = false;
+
+			if (remaining == 0 && !whole)
+				return;
+
+			if (peekNonWhitespace() == ']') {
+				position++;
+				return;
+			}
+
+			expectNonWhitespace(',');
+		}
+	}
+
+	/**
+	 * Determines the paths continuing with the member name in {@link #text}.
+	 *
+	 * @param candidates Paths leading to the object, null if no path does.
+	 * @param depth      Number of path segments leading to the object.
+	 * @return Paths leading to the member, null if no path does.
+	 */
+	private boolean[] matchMember(final boolean[] candidates, final int depth) {
+		if (candidates == null)
+			return null;
+
+		boolean[] matches = null;
+
+		for (int i = 0; i < paths.length; i++) {
+			if (candidates[i] && values[i] == null && paths[i].length > depth
+					&& paths[i][depth].contentEquals(text)) {
+				if (matches == null)
+					matches = new boolean[paths.length];
+
+				matches[i] = true;
+			}
+		}
+
+		return matches;
+	}
+
+	/**
+	 * Determines the path completed by a value.
+	 *
+	 * @param candidates Paths leading to the value, null if no path does.
+	 * @param depth      Number of path segments leading to the value.
+	 * @return Index of the completed path or -1.
+	 */
+	private int completedPath(final boolean[] candidates, final int depth) {
+		if (candidates == null)
+			return -1;
+
+		for (int i = 0; i < paths.length; i++) {
+			if (candidates[i] && values[i] == null && paths[i].length == depth)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Stores the value of a path.
+	 *
+	 * @param path  Index of the path.
+	 * @param value The value.
+	 */
+	private void store(final int path, final String value) {
+		values[path] = value;
+		remaining--;
+	}
+
+	/**
+	 * Reads and decodes a string into {@link #text}.
+	 *
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void readString() throws IOException {
+		expect('"');
+		text.setLength(0);
+
+		while (true) {
+			final int current = nextByte();
+
+			if (current == '"')
+				return;
+
+			if (current == '\\') {
+				readEscape();
+			} else if (current < 0x80) {
+				text.append((char) current);
+			} else {
+				readMultiByte(current);
+			}
+		}
+	}
+
+	/**
+	 * Skips a string without decoding it.
+	 *
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void skipString() throws IOException {
+		expect('"');
+
+		while (true) {
+			final int current = nextByte();
+
+			if (current == '"')
+				return;
+
+			if (current == '\\')
+				nextByte();
+		}
+	}
+
+	/**
+	 * Decodes an escape sequence into {@link #text}.
+	 *
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void readEscape() throws IOException {
+		final int escaped = nextByte();
+
+		switch (escaped) {
+		case '"':
+		case '\\':
+		case '/':
+			text.append((char) escaped);
+			break;
+		case 'b':
+			text.append('\b');
+			break;
+		case 'f':
+			text.append('\f');
+			break;
+		case 'n':
+			text.append('\n');
+			break;
+		case 'r':
+			text.append('\r');
+			break;
+		case 't':
+			text.append('\t');
+			break;
+		case 'u':
+			int codeUnit = 0;
+
+			for (int i = 0; i < 4; i++) {
+				final int digit = Character.digit(nextByte(), 16);
+
+				if (digit < 0)
+					throw error("Invalid unicode escape");
+
+				codeUnit = (codeUnit << 4) | digit;
+			}
+
+			text.append((char) codeUnit);
+			break;
+		default:
+			throw error("Invalid escape sequence");
+		}
+	}
+
+	/**
+	 * Decodes a multi-byte UTF-8 sequence into {@link #text}.
+	 *
+	 * @param lead The first byte of the sequence.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void readMultiByte(final int lead) throws IOException {
+		final int length;
+		int codePoint;
+
+		if ((lead & 0xE0) == 0xC0) {
+			length = 1;
+			codePoint = lead & 0x1F;
+		} else if ((lead & 0xF0) == 0xE0) {
+			length = 2;
+			codePoint = lead & 0x0F;
+		} else if ((lead & 0xF8) == 0xF0) {
+			length = 3;
+			codePoint = lead & 0x07;
+		} else {
+			throw error("Invalid UTF-8 sequence");
+		}
+
+		for (int i = 0; i < length; i++) {
+			final int continuation = nextByte();
+
+			if ((continuation & 0xC0) != 0x80)
+				throw error("Invalid UTF-8 sequence");
+
+			codePoint = (codePoint << 6) | (continuation & 0x3F);
+		}
+
+		text.appendCodePoint(codePoint);
+	}
+
+	/**
+	 * Reads the next byte.
+	 *
+	 * @return The byte as unsigned value.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private int nextByte() throws IOException {
+		if (position >= limit && !fill())
+			throw error("Unexpected end of document");
+
+		return buffer[position++] & 0xFF;
+	}
+
+	/**
+	 * Skips whitespace and returns the next byte without consuming it.
+	 *
+	 * @return The next byte.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private int peekNonWhitespace() throws IOException {
+		while (true) {
+			if (position >= limit && !fill())
+				throw error("Unexpected end of document");
+
+			final byte current = buffer[position];
+
+			if (!isWhitespace(current))
+				return current;
+
+			position++;
+		}
+	}
+
+	/**
+	 * Consumes the expected byte.
+	 *
+	 * @param expected The expected byte.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void expect(final char expected) throws IOException {
+		if (nextByte() != expected)
+			throw error("Expected '" + expected + "'");
+	}
+
+	/**
+	 * Skips whitespace and consumes the expected byte.
+	 *
+	 * @param expected The expected byte.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private void expectNonWhitespace(final char expected) throws IOException {
+		peekNonWhitespace();
+		expect(expected);
+	}
+
+	/**
+	 * Reads the next part of the stream into the buffer.
+	 *
+	 * @return false if the end of the document is reached.
+	 * @throws IOException If the stream could not be read.
+	 */
+	private boolean fill() throws IOException {
+		if (in == null)
+			return false;
+
+		offset += limit;
+		position = 0;
+		limit = Math.max(0, in.read(buffer));
+
+		return limit > 0;
+	}
+
+	/**
+	 * @param current A byte.
+	 * @return Whether the byte is JSON whitespace.
+	 */
+	private static boolean isWhitespace(final byte current) {
+		return current == ' ' || current == '\n' || current == '\r' || current == '\t';
+	}
+
+	/**
+	 * Creates an exception for a syntax error at the current position.
+	 *
+	 * @param message Description of the error.
+	 * @return The exception.
+	 */
+	private JSONException error(final String message) {
+		return new JSONException(message + " at offset " + (offset + position));
+	}
+
+}
@@ -0,0 +1,76 @@
+package de.mainzelhandler.backend.core.json;
+
+/**
+ * Utility functions to write JSON documents without building JSONObject trees.
+ */
+public final class JsonWriter {
+
+	/**
+	 * Hex digits used for unicode escapes.
+	 */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private JsonWriter() {
+	}
+
+	/**
+	 * Appends the given value as quoted and escaped JSON string.
+	 *
+	 * @param builder Builder to append to.
+	 * @param value   The value.
+	 * @return The builder.
+	 */
+	public static StringBuilder appendString(final StringBuilder builder, final String value) {
+		builder.append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			final char current = value.charAt(i);
+
+			switch (current) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (current < 0x20) {
+					builder.append("\\u00").append(HEX_DIGITS[current >> 4]).append(HEX_DIGITS[current & 0xF]);
+				} else {
+					builder.append(current);
+				}
+			}
+		}
+
+		return builder.append('"');
+	}
+
+	/**
+	 * Determines whether the value can be written as JSON string by copying its
+	 * characters as single bytes.
+	 *
+	 * @param value The value.
+	 * @return true if the value only contains printable ASCII characters that
+	 *         don't need an escape.
+	 */
+	public static boolean isPlainAscii(final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char current = value.charAt(i);
+
+			if (current < 0x20 || current >= 0x7F || current == '"' || current == '\\')
+				return false;
+		}
+
+		return true;
+	}
+
+}
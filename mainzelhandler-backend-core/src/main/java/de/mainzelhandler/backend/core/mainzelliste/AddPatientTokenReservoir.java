@@ -0,0 +1,263 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Reservoir of pre-created addPatient tokens. Serves token requests from
+ * memory and determines how many tokens have to be created in the background.
+ * The fill level adapts to the recent demand between the low and the high
+ * watermark. Tokens whose session gets deleted soon are discarded.
+ */
+public class AddPatientTokenReservoir implements MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AddPatientTokenReservoir.class);
+
+	/**
+	 * Weight of the latest refill interval in the moving average of the demand.
+	 */
+	private static final double DEMAND_WEIGHT = 0.2;
+
+	/**
+	 * Number of refill intervals the reservoir should be able to serve with the
+	 * average demand.
+	 */
+	private static final int DEMAND_INTERVALS = 5;
+
+	/**
+	 * Minimum fill level of the reservoir.
+	 */
+	private final int lowWatermark;
+
+	/**
+	 * Maximum fill level of the reservoir.
+	 */
+	private final int highWatermark;
+
+	/**
+	 * Minimum time in milliseconds a token has to stay valid to be served.
+	 */
+	private final long minRemaining;
+
+	/**
+	 * The reserved tokens, oldest first.
+	 */
+	private final Queue<ReservedToken> tokens;
+
+	/**
+	 * Number of reserved tokens.
+	 */
+	private final AtomicInteger size;
+
+	/**
+	 * Number of tokens requested since the last refill.
+	 */
+	private final AtomicInteger demand;
+
+	/**
+	 * Moving average of the tokens requested per refill interval.
+	 */
+	private volatile double averageDemand;
+
+	/**
+	 * Number of tokens served from the reservoir.
+	 */
+	private final AtomicLong hits;
+
+	/**
+	 * Number of requested tokens the reservoir could not serve.
+	 */
+	private final AtomicLong misses;
+
+	/**
+	 * Number of tokens discarded because their session gets deleted soon.
+	 */
+	private final AtomicLong discarded;
+
+	/**
+	 * Constructs a new AddPatientTokenReservoir.
+	 *
+	 * @param lowWatermark  Minimum fill level of the reservoir.
+	 * @param highWatermark Maximum fill level of the reservoir.
+	 * @param minRemaining  Minimum time in milliseconds a token has to stay valid
+	 *                      to be served.
+	 */
+	public AddPatientTokenReservoir(final int lowWatermark, final int highWatermark, final long minRemaining) {
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.minRemaining = minRemaining;
+		this.tokens = new ConcurrentLinkedQueue<ReservedToken>();
+		this.size = new AtomicInteger();
+		this.demand = new AtomicInteger();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.discarded = new AtomicLong();
+	}
+
+	/**
+	 * Takes up to the given number of tokens from the reservoir.
+	 *
+	 * @param amount Number of requested tokens.
+	 * @return URLs of the served tokens. Contains less than amount URLs if the
+	 *         reservoir does not hold enough valid tokens.
+	 */
+	public List<String> take(final int amount) {
+		demand.addAndGet(amount);
+
+		final List<String> urls = new ArrayList<String>(Math.min(amount, size.get()));
+		final long threshold = System.currentTimeMillis() + minRemaining;
+		ReservedToken token;
+
+		while (urls.size() < amount && (token = tokens.poll()) != null) {
+			size.decrementAndGet();
+
+			if (token.session.getExpirationTime() > threshold) {
+				urls.add(token.url);
+			} else {
+				discarded.incrementAndGet();
+			}
+		}
+
+		hits.addAndGet(urls.size());
+		misses.addAndGet(amount - urls.size());
+
+		return urls;
+	}
+
+	/**
+	 * Adds a token to the reservoir.
+	 *
+	 * @param url     URL of the token.
+	 * @param session Session that created the token.
+	 */
+	public void add(final String url, final MainzellisteSession session) {
+		tokens.add(new ReservedToken(url, session));
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Updates the average demand, discards the tokens whose session gets deleted
+	 * soon and determines the number of tokens to create. Has to be called once
+	 * per refill interval.
+	 *
+	 * @return Number of tokens to create.
+	 */
+	public int computeRefillAmount() {
+		averageDemand = DEMAND_WEIGHT * demand.getAndSet(0) + (1 - DEMAND_WEIGHT) * averageDemand;
+
+		final long threshold = System.currentTimeMillis() + minRemaining;
+
+		for (final ReservedToken token : tokens) {
+			if (token.session.getExpirationTime() <= threshold && tokens.remove(token)) {
+				size.decrementAndGet();
+				discarded.incrementAndGet();
+			}
+		}
+
+		final int targetLevel = getTargetLevel();
+		final int refillAmount = Math.max(0, targetLevel - size.get());
+
+		if (refillAmount > 0)
+			LOGGER.debug("Refilling reservoir with " + refillAmount + " tokens up to " + targetLevel);
+
+		return refillAmount;
+	}
+
+	/**
+	 * @return Fill level the reservoir is refilled to. Lies between the low and
+	 *         the high watermark depending on the recent demand.
+	 */
+	public int getTargetLevel() {
+		final int demandLevel = (int) Math.ceil(averageDemand * DEMAND_INTERVALS);
+		return Math.max(lowWatermark, Math.min(highWatermark, demandLevel));
+	}
+
+	/**
+	 * @return Number of reserved tokens.
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	/**
+	 * @return Number of tokens served from the reservoir.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return Number of requested tokens the reservoir could not serve.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Registers a gauge for the fill level and counters for the hits, misses and
+	 * discarded tokens.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("mainzelhandler.reservoir.size", size, AtomicInteger::get)
+				.description("Pre-created addPatient tokens in the reservoir")
+				.register(registry);
+		Gauge.builder("mainzelhandler.reservoir.target", this, AddPatientTokenReservoir::getTargetLevel)
+				.description("Fill level the reservoir is refilled to")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.reservoir.requests", hits, AtomicLong::get)
+				.tag("result", "hit")
+				.description("Requested addPatient tokens served from the reservoir")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.reservoir.requests", misses, AtomicLong::get)
+				.tag("result", "miss")
+				.description("Requested addPatient tokens the reservoir could not serve")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.reservoir.discarded", discarded, AtomicLong::get)
+				.description("Tokens discarded because their session gets deleted soon")
+				.register(registry);
+	}
+
+	/**
+	 * A reserved token and the session that created it.
+	 */
+	private static class ReservedToken {
+
+		/**
+		 * URL of the token.
+		 */
+		private final String url;
+
+		/**
+		 * Session that created the token.
+		 */
+		private final MainzellisteSession session;
+
+		/**
+		 * Constructs a new ReservedToken.
+		 *
+		 * @param url     URL of the token.
+		 * @param session Session that created the token.
+		 */
+		private ReservedToken(final String url, final MainzellisteSession session) {
+			this.url = url;
+			this.session = session;
+		}
+
+	}
+
+}
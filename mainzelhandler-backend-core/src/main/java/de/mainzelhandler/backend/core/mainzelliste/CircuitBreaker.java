@@ -0,0 +1,216 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteUnavailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Circuit breaker of the requests to the Mainzelliste. After a number of
+ * consecutive failures the breaker opens and requests fail fast without
+ * reaching the Mainzelliste. After the open duration the breaker is half-open
+ * and lets a single probe through, a successful probe closes the breaker, a
+ * failed probe opens it again. Failures are connection errors and responses
+ * with a 5xx status, rejections of the Mainzelliste do not count. The state is
+ * kept in atomics, so closed breakers add no locking to the requests.
+ */
+public class CircuitBreaker implements MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	/**
+	 * Time in milliseconds a request rejected during a probe is asked to wait.
+	 */
+	private static final long PROBE_RETRY_AFTER = 1000;
+
+	/**
+	 * State of a closed breaker.
+	 */
+	public static final int CLOSED = 0;
+
+	/**
+	 * State of an open breaker.
+	 */
+	public static final int OPEN = 1;
+
+	/**
+	 * State of a half-open breaker letting a probe through.
+	 */
+	public static final int HALF_OPEN = 2;
+
+	/**
+	 * Number of consecutive failures opening the breaker.
+	 */
+	private final int failureThreshold;
+
+	/**
+	 * Time in milliseconds the breaker stays open.
+	 */
+	private final long openDuration;
+
+	/**
+	 * Consecutive failures of the closed breaker.
+	 */
+	private final AtomicInteger failures = new AtomicInteger();
+
+	/**
+	 * Time in milliseconds until which the breaker is open, 0 if it is closed.
+	 */
+	private volatile long openUntil;
+
+	/**
+	 * Time in milliseconds at which the probe of the half-open breaker was sent,
+	 * 0 if no probe is in flight. A probe without result for the open duration
+	 * gets replaced.
+	 */
+	private final AtomicLong probeStart = new AtomicLong();
+
+	/**
+	 * Number of requests rejected by the open breaker.
+	 */
+	private final AtomicLong rejections = new AtomicLong();
+
+	/**
+	 * Constructs a new CircuitBreaker.
+	 *
+	 * @param failureThreshold Number of consecutive failures opening the
+	 *                         breaker.
+	 * @param openDuration     Time in milliseconds the breaker stays open.
+	 */
+	public CircuitBreaker(final int failureThreshold, final long openDuration) {
+		if (failureThreshold < 1)
+			throw new IllegalArgumentException("Failure threshold must be positive, got " + failureThreshold);
+
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Checks whether a request may be sent.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return true if the request is the probe of the half-open breaker and has
+	 *         to be reported as such.
+	 * @throws MainzellisteUnavailableException If the breaker is open or a probe
+	 *                                          is already in flight.
+	 */
+	public boolean acquire(final long now) {
+		final long until = openUntil;
+
+		if (until == 0)
+			return false;
+
+		final long start = probeStart.get();
+
+		if (now >= until && (start == 0 || now - start >= openDuration) && probeStart.compareAndSet(start, now)) {
+			LOGGER.info("Probing the Mainzelliste");
+			return true;
+		}
+
+		rejections.incrementAndGet();
+		throw new MainzellisteUnavailableException("Mainzelliste unavailable, circuit breaker is open",
+				Math.max(until - now, PROBE_RETRY_AFTER));
+	}
+
+	/**
+	 * Gives back the permission of a request that was not sent, so another
+	 * request can probe the half-open breaker at once.
+	 *
+	 * @param probe Whether the request was the probe.
+	 */
+	public void cancel(final boolean probe) {
+		if (probe)
+			probeStart.set(0);
+	}
+
+	/**
+	 * Reports a successful request. Closes the breaker if it was the probe.
+	 *
+	 * @param probe Whether the request was the probe.
+	 */
+	public void onSuccess(final boolean probe) {
+		failures.set(0);
+
+		if (probe) {
+			openUntil = 0;
+			probeStart.set(0);
+			LOGGER.info("Mainzelliste available again, circuit breaker closed");
+		}
+	}
+
+	/**
+	 * Reports a failed request. Opens the breaker if it was the probe or the
+	 * failure threshold is reached.
+	 *
+	 * @param probe Whether the request was the probe.
+	 * @param now   The current time in milliseconds.
+	 */
+	public void onFailure(final boolean probe, final long now) {
+		if (probe) {
+			openUntil = now + openDuration;
+			probeStart.set(0);
+			LOGGER.warn("Probe of the Mainzelliste failed, circuit breaker opened for " + openDuration + " ms");
+		} else if (failures.incrementAndGet() >= failureThreshold && openUntil == 0) {
+			synchronized (this) {
+				if (openUntil == 0) {
+					openUntil = now + openDuration;
+					LOGGER.warn(failureThreshold + " consecutive failures of the Mainzelliste, circuit breaker opened"
+							+ " for " + openDuration + " ms");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param now The current time in milliseconds.
+	 * @return Time in milliseconds until the breaker lets requests through
+	 *         again, 0 if it is closed.
+	 */
+	public long retryAfter(final long now) {
+		final long until = openUntil;
+		return until == 0 ? 0 : Math.max(until - now, PROBE_RETRY_AFTER);
+	}
+
+	/**
+	 * @return {@link #CLOSED}, {@link #OPEN} or {@link #HALF_OPEN}.
+	 */
+	public int getState() {
+		final long until = openUntil;
+
+		if (until == 0)
+			return CLOSED;
+
+		return System.currentTimeMillis() < until ? OPEN : HALF_OPEN;
+	}
+
+	/**
+	 * @return Number of requests rejected by the open breaker.
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/**
+	 * Registers a gauge for the state and a counter for the rejected requests.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("mainzelhandler.mainzelliste.circuit.state", this, CircuitBreaker::getState)
+				.description("State of the circuit breaker, 0 closed, 1 open, 2 half-open")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.mainzelliste.circuit.rejections", this,
+				CircuitBreaker::getRejections)
+				.description("Requests to the Mainzelliste rejected by the open circuit breaker")
+				.register(registry);
+	}
+
+}
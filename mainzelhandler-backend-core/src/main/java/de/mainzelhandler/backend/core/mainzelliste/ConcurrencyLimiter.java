@@ -0,0 +1,458 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.DeadlineExceededException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteUnavailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Adaptive limit of the requests in flight to the Mainzelliste. The limit grows
+ * additively while the round trip times stay close to the minimum observed
+ * round trip time and the limit is used, and shrinks multiplicatively if they
+ * grow beyond it or requests fail, at most once per round trip. The minimum
+ * round trip time is taken over a sliding window, so it follows a Mainzelliste
+ * that got permanently slower. Requests above the limit wait in a queue until a
+ * permit is free or the queue timeout or their {@link Deadline} passes,
+ * requests finding the queue full are rejected immediately. Waiting requests
+ * do not block a thread. Interactive requests overtake waiting bulk requests,
+ * see {@link PrioritizedQueue}.
+ */
+public class ConcurrencyLimiter implements MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+	/**
+	 * Ratio of the round trip time to the minimum round trip time above which
+	 * the Mainzelliste counts as overloaded.
+	 */
+	private static final double TOLERANCE = 2.0;
+
+	/**
+	 * Factor the limit gets multiplied with if the Mainzelliste is overloaded.
+	 */
+	private static final double BACKOFF = 0.9;
+
+	/**
+	 * Length of the window of the minimum round trip time in nanoseconds.
+	 */
+	private static final long RTT_WINDOW = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * Time in milliseconds a rejected request is asked to wait.
+	 */
+	private static final long RETRY_AFTER = 1000;
+
+	/**
+	 * Lower bound of the limit.
+	 */
+	private final int minLimit;
+
+	/**
+	 * Upper bound of the limit.
+	 */
+	private final int maxLimit;
+
+	/**
+	 * Maximum number of waiting requests.
+	 */
+	private final int queueSize;
+
+	/**
+	 * Maximum time in milliseconds a request waits for a permit.
+	 */
+	private final long queueTimeout;
+
+	/**
+	 * Current limit, guarded by this.
+	 */
+	private double limit;
+
+	/**
+	 * Number of requests in flight, guarded by this.
+	 */
+	private int inFlight;
+
+	/**
+	 * Minimum round trip time of the last window in nanoseconds, 0 before the
+	 * first sample, guarded by this.
+	 */
+	private long minRtt;
+
+	/**
+	 * Minimum round trip time of the current window in nanoseconds, guarded by
+	 * this.
+	 */
+	private long windowMinRtt;
+
+	/**
+	 * Start of the current window in nanoseconds, guarded by this.
+	 */
+	private long windowStart = System.nanoTime();
+
+	/**
+	 * Time of the last decrease of the limit in nanoseconds, guarded by this.
+	 */
+	private long lastDecrease = System.nanoTime();
+
+	/**
+	 * Requests waiting for a permit, guarded by this. Requests that time out or
+	 * stop waiting are removed.
+	 */
+	private final PrioritizedQueue<CompletableFuture<Long>> queue;
+
+	/**
+	 * Number of requests rejected because the queue was full or their deadline
+	 * passed.
+	 */
+	private final AtomicLong rejections = new AtomicLong();
+
+	/**
+	 * Constructs a new ConcurrencyLimiter.
+	 *
+	 * @param initialLimit Limit before the first round trip times are observed.
+	 * @param minLimit     Lower bound of the limit.
+	 * @param maxLimit     Upper bound of the limit.
+	 * @param queueSize    Maximum number of waiting requests.
+	 * @param queueTimeout Maximum time in milliseconds a request waits for a
+	 *                     permit.
+	 */
+	public ConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit, final int queueSize,
+			final long queueTimeout) {
+		this(initialLimit, minLimit, maxLimit, queueSize, queueTimeout, 10);
+	}
+
+	/**
+	 * Constructs a new ConcurrencyLimiter with the given starvation protection
+	 * of the waiting bulk requests.
+	 *
+	 * @param initialLimit     Limit before the first round trip times are
+	 *                         observed.
+	 * @param minLimit         Lower bound of the limit.
+	 * @param maxLimit         Upper bound of the limit.
+	 * @param queueSize        Maximum number of waiting requests.
+	 * @param queueTimeout     Maximum time in milliseconds a request waits for a
+	 *                         permit.
+	 * @param interactiveBurst Number of interactive requests granted a permit in
+	 *                         a row while bulk requests are waiting, after which
+	 *                         a bulk request is granted one.
+	 */
+	public ConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit, final int queueSize,
+			final long queueTimeout, final int interactiveBurst) {
+		if (minLimit < 1 || maxLimit < minLimit)
+			throw new IllegalArgumentException("Invalid limits " + minLimit + " to " + maxLimit);
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.queueSize = queueSize;
+		this.queueTimeout = queueTimeout;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.queue = new PrioritizedQueue<CompletableFuture<Long>>(interactiveBurst);
+	}
+
+	/**
+	 * Requests a permit to send a request with the {@link Priority} of the
+	 * current thread. Every completed permit has to be returned with
+	 * {@link #release(long, boolean)}.
+	 *
+	 * @return Future of the start time of the request in nanoseconds, completed
+	 *         when the request may be sent. Completes exceptionally with a
+	 *         {@link MainzellisteUnavailableException} if the queue is full or
+	 *         the queue timeout passed, with a
+	 *         {@link DeadlineExceededException} if the {@link Deadline} of the
+	 *         current thread passed first.
+	 */
+	public CompletableFuture<Long> acquire() {
+		final long wait = queueWait();
+		final CompletableFuture<Long> permit = enqueue(wait);
+		return permit.handle((start, exception) -> exception == null
+				? CompletableFuture.completedFuture(start)
+				: CompletableFuture.<Long>failedFuture(reject(permit, exception, wait < queueTimeout)))
+				.thenCompose(Function.identity());
+	}
+
+	/**
+	 * Requests a permit and blocks until it is granted. An interrupted thread
+	 * stops waiting and gives up its place in the queue.
+	 *
+	 * @return The start time of the request in nanoseconds.
+	 * @throws MainzellisteUnavailableException If the queue is full or the
+	 *                                          queue timeout passed.
+	 * @throws DeadlineExceededException        If the {@link Deadline} of the
+	 *                                          current thread passed first.
+	 * @throws MainzellisteConnectionException  If the thread was interrupted
+	 *                                          while waiting.
+	 */
+	public long acquireBlocking() {
+		final long wait = queueWait();
+		final CompletableFuture<Long> permit = enqueue(wait);
+
+		try {
+			return permit.get();
+		} catch (final InterruptedException exception) {
+			if (permit.cancel(false))
+				dequeue(permit);
+			else if (!permit.isCompletedExceptionally())
+				cancel();
+
+			Thread.currentThread().interrupt();
+			throw new MainzellisteConnectionException("Interrupted while waiting for a request to the Mainzelliste",
+					exception);
+		} catch (final ExecutionException exception) {
+			final Throwable cause = reject(permit, exception.getCause(), wait < queueTimeout);
+
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+
+			throw new MainzellisteConnectionException(cause);
+		}
+	}
+
+	/**
+	 * @return Maximum time in milliseconds the request of the current thread
+	 *         waits for a permit, the queue timeout bounded by the
+	 *         {@link Deadline}.
+	 */
+	private long queueWait() {
+		return Math.min(queueTimeout, Deadline.remaining(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Grants a permit if one is free and nobody is waiting, otherwise adds the
+	 * request to the queue.
+	 *
+	 * @param wait Maximum time in milliseconds the request waits for a permit.
+	 * @return Future of the start time of the request in nanoseconds. Completes
+	 *         exceptionally with a {@link MainzellisteUnavailableException} if
+	 *         the queue is full or with a TimeoutException if the wait passed.
+	 */
+	private CompletableFuture<Long> enqueue(final long wait) {
+		final CompletableFuture<Long> permit;
+
+		synchronized (this) {
+			if (inFlight < (int) limit && queue.isEmpty()) {
+				inFlight++;
+				return CompletableFuture.completedFuture(System.nanoTime());
+			}
+
+			if (queue.size() >= queueSize) {
+				rejections.incrementAndGet();
+				return CompletableFuture.failedFuture(new MainzellisteUnavailableException(
+						"Too many requests to the Mainzelliste waiting", RETRY_AFTER));
+			}
+
+			permit = new CompletableFuture<Long>();
+			queue.add(Priority.get(), permit);
+		}
+
+		return permit.orTimeout(wait, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Removes a timed out request from the queue and counts it as rejection.
+	 *
+	 * @param permit     The permit of the request.
+	 * @param exception  The exception the permit completed with.
+	 * @param byDeadline Whether the wait was bounded by the {@link Deadline}
+	 *                   instead of the queue timeout.
+	 * @return A {@link DeadlineExceededException} or a
+	 *         {@link MainzellisteUnavailableException} if the request timed
+	 *         out, otherwise the given exception.
+	 */
+	private Throwable reject(final CompletableFuture<Long> permit, final Throwable exception,
+			final boolean byDeadline) {
+		if (!(exception instanceof TimeoutException))
+			return exception;
+
+		dequeue(permit);
+		rejections.incrementAndGet();
+
+		if (byDeadline)
+			return new DeadlineExceededException("Deadline of the request passed waiting for the Mainzelliste");
+
+		return new MainzellisteUnavailableException("Timed out waiting for a request to the Mainzelliste",
+				RETRY_AFTER);
+	}
+
+	/**
+	 * Removes a request that stopped waiting from the queue, so it does not
+	 * take the place of another request.
+	 *
+	 * @param permit The permit of the request.
+	 */
+	private synchronized void dequeue(final CompletableFuture<Long> permit) {
+		queue.remove(permit);
+	}
+
+	/**
+	 * Returns a permit and adapts the limit to the round trip time of the
+	 * request. Grants the freed permits to the waiting requests.
+	 *
+	 * @param start   Start time of the request in nanoseconds, as returned by
+	 *                {@link #acquire()}.
+	 * @param dropped Whether the request failed because of the Mainzelliste or
+	 *                the connection, the limit shrinks then.
+	 */
+	public void release(final long start, final boolean dropped) {
+		final long now = System.nanoTime();
+		final long rtt = now - start;
+		final List<CompletableFuture<Long>> granted = new ArrayList<CompletableFuture<Long>>();
+
+		synchronized (this) {
+			inFlight--;
+			adapt(now, rtt, dropped);
+			grant(granted);
+		}
+
+		complete(granted);
+	}
+
+	/**
+	 * Returns a permit of a request that was not sent, without adapting the
+	 * limit.
+	 */
+	public void cancel() {
+		final List<CompletableFuture<Long>> granted = new ArrayList<CompletableFuture<Long>>();
+
+		synchronized (this) {
+			inFlight--;
+			grant(granted);
+		}
+
+		complete(granted);
+	}
+
+	/**
+	 * Adapts the limit to a round trip time.
+	 *
+	 * @param now     The current time in nanoseconds.
+	 * @param rtt     The round trip time in nanoseconds.
+	 * @param dropped Whether the request failed.
+	 */
+	private void adapt(final long now, final long rtt, final boolean dropped) {
+		if (!dropped) {
+			if (windowMinRtt == 0 || rtt < windowMinRtt)
+				windowMinRtt = rtt;
+
+			if (minRtt == 0 || rtt < minRtt)
+				minRtt = rtt;
+
+			if (now - windowStart >= RTT_WINDOW) {
+				minRtt = windowMinRtt;
+				windowMinRtt = 0;
+				windowStart = now;
+			}
+		}
+
+		if (dropped || rtt > minRtt * TOLERANCE) {
+			if (now - lastDecrease >= rtt) {
+				final int previous = (int) limit;
+				limit = Math.max(minLimit, limit * BACKOFF);
+				lastDecrease = now;
+
+				if ((int) limit != previous)
+					LOGGER.debug("Decreased limit of the Mainzelliste requests to " + (int) limit);
+			}
+		} else if (inFlight + 1 >= limit / 2) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	/**
+	 * Moves waiting requests into flight while permits are free. Has to be called
+	 * while holding the lock.
+	 *
+	 * @param granted Filled with the futures to complete after releasing the
+	 *                lock.
+	 */
+	private void grant(final List<CompletableFuture<Long>> granted) {
+		while (inFlight < (int) limit && !queue.isEmpty()) {
+			final CompletableFuture<Long> permit = queue.poll();
+
+			if (!permit.isDone()) {
+				inFlight++;
+				granted.add(permit);
+			}
+		}
+	}
+
+	/**
+	 * Completes granted permits outside of the lock. A permit whose request
+	 * timed out in the meantime is returned.
+	 *
+	 * @param granted The granted permits.
+	 */
+	private void complete(final List<CompletableFuture<Long>> granted) {
+		for (final CompletableFuture<Long> permit : granted) {
+			if (!permit.complete(System.nanoTime()))
+				cancel();
+		}
+	}
+
+	/**
+	 * @return Current limit of the requests in flight.
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return Number of requests in flight.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return Number of requests waiting for a permit.
+	 */
+	public synchronized int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * @return Number of requests rejected because the queue was full or their
+	 *         deadline passed.
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/**
+	 * Registers gauges for the limit, the requests in flight and the waiting
+	 * requests and a counter for the rejected requests.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("mainzelhandler.mainzelliste.limiter.limit", this, ConcurrencyLimiter::getLimit)
+				.description("Current limit of the requests in flight to the Mainzelliste")
+				.register(registry);
+		Gauge.builder("mainzelhandler.mainzelliste.limiter.in-flight", this, ConcurrencyLimiter::getInFlight)
+				.description("Requests in flight to the Mainzelliste")
+				.register(registry);
+		Gauge.builder("mainzelhandler.mainzelliste.limiter.queued", this, ConcurrencyLimiter::getQueued)
+				.description("Requests waiting for a permit to the Mainzelliste")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.mainzelliste.limiter.rejections", this,
+				ConcurrencyLimiter::getRejections)
+				.description("Requests to the Mainzelliste rejected by the concurrency limiter")
+				.register(registry);
+	}
+
+}
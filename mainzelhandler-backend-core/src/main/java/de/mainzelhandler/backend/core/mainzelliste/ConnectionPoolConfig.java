@@ -0,0 +1,155 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+/**
+ * POJO class for the configuration of the HTTP connection pool used by a
+ * {@link MainzellisteConnection}.
+ */
+public class ConnectionPoolConfig {
+
+	/**
+	 * Maximum number of connections in the pool.
+	 */
+	private int maxTotal = 20;
+
+	/**
+	 * Maximum number of connections per route. All requests to the Mainzelliste
+	 * share the same route.
+	 */
+	private int maxPerRoute = 20;
+
+	/**
+	 * Time in milliseconds after which idle connections get evicted from the pool.
+	 */
+	private long idleTimeout = 30000;
+
+	/**
+	 * Time in milliseconds a connection is kept alive if the Mainzelliste does not
+	 * send a Keep-Alive header.
+	 */
+	private long keepAlive = 30000;
+
+	/**
+	 * Time in milliseconds to establish a connection or to lease one from the
+	 * pool.
+	 */
+	private long connectTimeout = 5000;
+
+	/**
+	 * Constructs a new ConnectionPoolConfig with the default values.
+	 */
+	public ConnectionPoolConfig() {
+	}
+
+	/**
+	 * Constructs a new ConnectionPoolConfig.
+	 *
+	 * @param maxTotal    Maximum number of connections in the pool.
+	 * @param maxPerRoute Maximum number of connections per route.
+	 * @param idleTimeout Time in milliseconds after which idle connections get
+	 *                    evicted from the pool.
+	 * @param keepAlive   Time in milliseconds a connection is kept alive if the
+	 *                    Mainzelliste does not send a Keep-Alive header.
+	 */
+	public ConnectionPoolConfig(final int maxTotal, final int maxPerRoute, final long idleTimeout,
+			final long keepAlive) {
+		this.maxTotal = maxTotal;
+		this.maxPerRoute = maxPerRoute;
+		this.idleTimeout = idleTimeout;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Constructs a new ConnectionPoolConfig with a connect timeout.
+	 *
+	 * @param maxTotal       Maximum number of connections in the pool.
+	 * @param maxPerRoute    Maximum number of connections per route.
+	 * @param idleTimeout    Time in milliseconds after which idle connections get
+	 *                       evicted from the pool.
+	 * @param keepAlive      Time in milliseconds a connection is kept alive if the
+	 *                       Mainzelliste does not send a Keep-Alive header.
+	 * @param connectTimeout Time in milliseconds to establish a connection or to
+	 *                       lease one from the pool.
+	 */
+	public ConnectionPoolConfig(final int maxTotal, final int maxPerRoute, final long idleTimeout,
+			final long keepAlive, final long connectTimeout) {
+		this(maxTotal, maxPerRoute, idleTimeout, keepAlive);
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return Maximum number of connections in the pool.
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/**
+	 * @param maxTotal Maximum number of connections in the pool.
+	 */
+	public void setMaxTotal(final int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * @return Maximum number of connections per route.
+	 */
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	/**
+	 * @param maxPerRoute Maximum number of connections per route.
+	 */
+	public void setMaxPerRoute(final int maxPerRoute) {
+		this.maxPerRoute = maxPerRoute;
+	}
+
+	/**
+	 * @return Time in milliseconds after which idle connections get evicted from
+	 *         the pool.
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @param idleTimeout Time in milliseconds after which idle connections get
+	 *                    evicted from the pool.
+	 */
+	public void setIdleTimeout(final long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return Time in milliseconds a connection is kept alive if the Mainzelliste
+	 *         does not send a Keep-Alive header.
+	 */
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * @param keepAlive Time in milliseconds a connection is kept alive if the
+	 *                  Mainzelliste does not send a Keep-Alive header.
+	 */
+	public void setKeepAlive(final long keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * @return Time in milliseconds to establish a connection or to lease one from
+	 *         the pool.
+	 */
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @param connectTimeout Time in milliseconds to establish a connection or to
+	 *                       lease one from the pool.
+	 */
+	public void setConnectTimeout(final long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+}
@@ -0,0 +1,196 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import de.mainzelhandler.backend.core.exceptions.DeadlineExceededException;
+
+/**
+ * Deadline of the client request handled by the current thread. The deadline
+ * bounds the timeouts of all outbound requests, requests that can no longer
+ * finish in time are not sent. Work handed to other threads has to take the
+ * deadline along with one of the propagate methods.
+ */
+public final class Deadline {
+
+	/**
+	 * Header of the client requests containing the time in milliseconds the
+	 * client waits for the response. The deadline is computed when the request
+	 * arrives, so the clocks of client and server do not need to agree.
+	 */
+	public static final String HEADER = "X-Mainzelhandler-Timeout";
+
+	/**
+	 * Value of a missing deadline.
+	 */
+	public static final long NONE = Long.MAX_VALUE;
+
+	/**
+	 * Deadline of the current thread.
+	 */
+	private static final ThreadLocal<Long> CURRENT = new ThreadLocal<Long>();
+
+	/**
+	 * Not instantiable.
+	 */
+	private Deadline() {
+	}
+
+	/**
+	 * @return Deadline of the current thread as epoch time in milliseconds,
+	 *         {@link #NONE} if the thread has no deadline.
+	 */
+	public static long get() {
+		final Long deadline = CURRENT.get();
+		return deadline != null ? deadline : NONE;
+	}
+
+	/**
+	 * @param deadline Deadline of the current thread as epoch time in
+	 *                 milliseconds, {@link #NONE} to remove it.
+	 */
+	public static void set(final long deadline) {
+		if (deadline == NONE)
+			CURRENT.remove();
+		else
+			CURRENT.set(deadline);
+	}
+
+	/**
+	 * Removes the deadline of the current thread.
+	 */
+	public static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Parses the value of the {@link #HEADER} into a deadline.
+	 *
+	 * @param header The value, null if the header is missing.
+	 * @param now    Arrival time of the request in milliseconds.
+	 * @return The deadline as epoch time in milliseconds, {@link #NONE} if the
+	 *         header is missing, negative or invalid.
+	 */
+	public static long parse(final String header, final long now) {
+		if (header == null)
+			return NONE;
+
+		final long timeout;
+
+		try {
+			timeout = Long.parseLong(header.trim());
+		} catch (final NumberFormatException exception) {
+			return NONE;
+		}
+
+		if (timeout < 0 || timeout >= NONE - now)
+			return NONE;
+
+		return now + timeout;
+	}
+
+	/**
+	 * @param now The current time in milliseconds.
+	 * @return Time in milliseconds until the deadline of the current thread,
+	 *         {@link #NONE} if the thread has no deadline.
+	 */
+	public static long remaining(final long now) {
+		final long deadline = get();
+		return deadline != NONE ? deadline - now : NONE;
+	}
+
+	/**
+	 * Bounds the timeout of an outbound request by the deadline of the current
+	 * thread.
+	 *
+	 * @param timeout Timeout of the request in milliseconds, 0 if unbounded.
+	 * @return The bounded timeout in milliseconds, 0 if unbounded.
+	 * @throws DeadlineExceededException If the deadline passed.
+	 */
+	public static long timeout(final long timeout) {
+		return timeout(timeout, get());
+	}
+
+	/**
+	 * Bounds the timeout of an outbound request by the given deadline.
+	 *
+	 * @param timeout  Timeout of the request in milliseconds, 0 if unbounded.
+	 * @param deadline The deadline, {@link #NONE} if the request has none.
+	 * @return The bounded timeout in milliseconds, 0 if unbounded.
+	 * @throws DeadlineExceededException If the deadline passed.
+	 */
+	public static long timeout(final long timeout, final long deadline) {
+		if (deadline == NONE)
+			return timeout;
+
+		final long remaining = deadline - System.currentTimeMillis();
+
+		if (remaining <= 0)
+			throw new DeadlineExceededException("Deadline of the request passed " + -remaining + " ms ago");
+
+		return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+	}
+
+	/**
+	 * Runs the task with the given deadline and restores the deadline of the
+	 * thread afterwards.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param deadline The deadline.
+	 * @param task     The task.
+	 * @return Result of the task.
+	 */
+	public static <T> T call(final long deadline, final Supplier<T> task) {
+		final long previous = get();
+		set(deadline);
+
+		try {
+			return task.get();
+		} finally {
+			set(previous);
+		}
+	}
+
+	/**
+	 * Takes the deadline of the current thread along to the thread running the
+	 * task.
+	 *
+	 * @param task The task.
+	 * @return The task running with the deadline of the current thread.
+	 */
+	public static Runnable propagate(final Runnable task) {
+		final long deadline = get();
+		return () -> call(deadline, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Takes the deadline of the current thread along to the thread running the
+	 * supplier.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param supplier The supplier.
+	 * @return The supplier running with the deadline of the current thread.
+	 */
+	public static <T> Supplier<T> propagate(final Supplier<T> supplier) {
+		final long deadline = get();
+		return () -> call(deadline, supplier);
+	}
+
+	/**
+	 * Takes the deadline of the current thread along to the thread running the
+	 * function.
+	 *
+	 * @param <T>      Type of the argument.
+	 * @param <R>      Type of the result.
+	 * @param function The function.
+	 * @return The function running with the deadline of the current thread.
+	 */
+	public static <T, R> Function<T, R> propagate(final Function<T, R> function) {
+		final long deadline = get();
+		return argument -> call(deadline, () -> function.apply(argument));
+	}
+
+}
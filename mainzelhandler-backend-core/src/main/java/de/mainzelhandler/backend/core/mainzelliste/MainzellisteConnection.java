@@ -1,26 +1,45 @@
 package de.mainzelhandler.backend.core.mainzelliste;
 
-import java.io.InputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.mainzelhandler.backend.core.exceptions.DeadlineExceededException;
 import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteUnavailableException;
+import de.mainzelhandler.backend.core.json.JsonFieldReader;
+import de.mainzelhandler.backend.core.json.JsonWriter;
+import de.mainzelhandler.backend.core.transport.ApacheHttpClientTransport;
+import de.mainzelhandler.backend.core.transport.MainzellisteTransport;
+import de.mainzelhandler.backend.core.transport.TransportRequest;
+import de.mainzelhandler.backend.core.transport.TransportResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 /**
  * Represents a connection to the Mainzelliste. Stores all necessary
  * informations to communicate with the Mainzelliste. Provides Methods for
  * session management of sessions on the Mainzelliste.
+ *
+ * Sends all requests with a {@link MainzellisteTransport} shared by all
+ * sessions of the connection. The transport has to be released with
+ * {@link #close()}. All requests pass a {@link ConcurrencyLimiter} and a
+ * {@link CircuitBreaker}, the idempotent session requests get retried
+ * according to a {@link RetryPolicy}. The session and token requests have
+ * their own timeouts, both bounded by the {@link Deadline} of the client
+ * request.
  */
-public class MainzellisteConnection {
+public class MainzellisteConnection implements Closeable, MeterBinder {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(MainzellisteConnection.class);
 
@@ -50,7 +69,51 @@ public class MainzellisteConnection {
 	private boolean useCallback;
 
 	/**
-	 * Constructs a new MainzellisteConnection.
+	 * HTTP transport shared by all requests to the Mainzelliste.
+	 */
+	private final MainzellisteTransport transport;
+
+	/**
+	 * Meters of the requests to the Mainzelliste.
+	 */
+	private final MainzellisteMetrics metrics;
+
+	/**
+	 * Time in milliseconds to wait for the response to a session request, 0 if
+	 * unbounded.
+	 */
+	private long sessionTimeout = 10000;
+
+	/**
+	 * Time in milliseconds to wait for the response to a token request, 0 if
+	 * unbounded.
+	 */
+	private long tokenTimeout = 10000;
+
+	/**
+	 * Adaptive limit of the requests in flight, null if disabled.
+	 */
+	private ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(8, 1, 64, 10000, 5000);
+
+	/**
+	 * Circuit breaker of all requests, null if disabled.
+	 */
+	private CircuitBreaker circuitBreaker = new CircuitBreaker(5, 10000);
+
+	/**
+	 * Retries of the idempotent requests.
+	 */
+	private RetryPolicy retryPolicy = new RetryPolicy(3, 100, 2000);
+
+	/**
+	 * Encoded body of the addPatient token requests, null until its first use or
+	 * after a change of the callback settings.
+	 */
+	private volatile byte[] addPatientBody;
+
+	/**
+	 * Constructs a new MainzellisteConnection with the default
+	 * {@link ConnectionPoolConfig}.
 	 *
 	 * @param callbackUrl            URL to accept the callback request of the
 	 *                               Mainzelliste.
@@ -62,11 +125,53 @@ public class MainzellisteConnection {
 	 */
 	public MainzellisteConnection(final String callbackUrl, final boolean useCallback, final String mainzellisteApiKey,
 			final String mainzellisteApiVersion, final String mainzellisteUrl) {
+		this(callbackUrl, useCallback, mainzellisteApiKey, mainzellisteApiVersion, mainzellisteUrl,
+				new ConnectionPoolConfig());
+	}
+
+	/**
+	 * Constructs a new MainzellisteConnection using Apache HttpClient.
+	 *
+	 * @param callbackUrl            URL to accept the callback request of the
+	 *                               Mainzelliste.
+	 * @param useCallback            Whether the callback function of the
+	 *                               Mainzelliste should be activated.
+	 * @param mainzellisteApiKey     API key of the Mainzelliste.
+	 * @param mainzellisteApiVersion API version of the Mainzelliste to use.
+	 * @param mainzellisteUrl        URL of the Mainzelliste.
+	 * @param connectionPoolConfig   Configuration of the HTTP connection pool.
+	 */
+	public MainzellisteConnection(final String callbackUrl, final boolean useCallback, final String mainzellisteApiKey,
+			final String mainzellisteApiVersion, final String mainzellisteUrl,
+			final ConnectionPoolConfig connectionPoolConfig) {
+		this(callbackUrl, useCallback, mainzellisteApiKey, mainzellisteApiVersion, mainzellisteUrl,
+				new ApacheHttpClientTransport(connectionPoolConfig));
+	}
+
+	/**
+	 * Constructs a new MainzellisteConnection.
+	 *
+	 * @param callbackUrl            URL to accept the callback request of the
+	 *                               Mainzelliste.
+	 * @param useCallback            Whether the callback function of the
+	 *                               Mainzelliste should be activated.
+	 * @param mainzellisteApiKey     API key of the Mainzelliste.
+	 * @param mainzellisteApiVersion API version of the Mainzelliste to use.
+	 * @param mainzellisteUrl        URL of the Mainzelliste.
+	 * @param transport              HTTP transport for the requests. Gets closed
+	 *                               with this connection.
+	 */
+	public MainzellisteConnection(final String callbackUrl, final boolean useCallback, final String mainzellisteApiKey,
+			final String mainzellisteApiVersion, final String mainzellisteUrl, final MainzellisteTransport transport) {
 		this.callbackUrl = callbackUrl;
 		this.apiKey = mainzellisteApiKey;
 		this.apiVersion = mainzellisteApiVersion;
 		this.url = mainzellisteUrl;
 		this.useCallback = useCallback;
+		this.transport = transport;
+		this.metrics = new MainzellisteMetrics();
+
+		LOGGER.debug("Using transport " + transport.getClass().getSimpleName());
 	}
 
 	/**
@@ -82,6 +187,7 @@ public class MainzellisteConnection {
 	 */
 	public void setCallbackUrl(String callbackUrl) {
 		this.callbackUrl = callbackUrl;
+		this.addPatientBody = null;
 	}
 
 	/**
@@ -140,107 +246,514 @@ public class MainzellisteConnection {
 	 */
 	public void setUseCallback(boolean useCallback) {
 		this.useCallback = useCallback;
+		this.addPatientBody = null;
 	}
 
 	/**
-	 * Creates a new session on the Mainzelliste and returns a corresponding
-	 * MaintellisteSession.
+	 * @return Encoded body of the addPatient token requests. Contains the callback
+	 *         URL if the callback is activated. Not copied, must not be modified.
+	 */
+	byte[] getAddPatientBody() {
+		byte[] body = addPatientBody;
+
+		if (body == null) {
+			final StringBuilder builder = new StringBuilder("{\"type\":\"addPatient\",\"data\":{");
+
+			if (useCallback)
+				JsonWriter.appendString(builder.append("\"callback\":"), callbackUrl);
+
+			body = builder.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+			addPatientBody = body;
+		}
+
+		return body;
+	}
+
+	/**
+	 * @return HTTP transport shared by all requests to the Mainzelliste.
+	 */
+	public MainzellisteTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return Meters of the requests to the Mainzelliste.
+	 */
+	public MainzellisteMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return Time in milliseconds to wait for the response to a session
+	 *         request, 0 if unbounded.
+	 */
+	public long getSessionTimeout() {
+		return sessionTimeout;
+	}
+
+	/**
+	 * @param sessionTimeout Time in milliseconds to wait for the response to a
+	 *                       session request, 0 if unbounded.
+	 */
+	public void setSessionTimeout(final long sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+
+	/**
+	 * @return Time in milliseconds to wait for the response to a token request, 0
+	 *         if unbounded.
+	 */
+	public long getTokenTimeout() {
+		return tokenTimeout;
+	}
+
+	/**
+	 * @param tokenTimeout Time in milliseconds to wait for the response to a
+	 *                     token request, 0 if unbounded.
+	 */
+	public void setTokenTimeout(final long tokenTimeout) {
+		this.tokenTimeout = tokenTimeout;
+	}
+
+	/**
+	 * @return Adaptive limit of the requests in flight, null if disabled.
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 * @param concurrencyLimiter Adaptive limit of the requests in flight, null to
+	 *                           disable it.
+	 */
+	public void setConcurrencyLimiter(final ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * @return Circuit breaker of all requests, null if disabled.
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * @param circuitBreaker Circuit breaker of all requests, null to disable it.
+	 */
+	public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * @return Retries of the idempotent requests.
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @param retryPolicy Retries of the idempotent requests.
+	 */
+	public void setRetryPolicy(final RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @return Time in milliseconds after which clients should repeat a failed
+	 *         request, 0 if the circuit breaker is closed or disabled.
+	 */
+	public long getRetryAfter() {
+		final CircuitBreaker breaker = circuitBreaker;
+		return breaker != null ? breaker.retryAfter(System.currentTimeMillis()) : 0;
+	}
+
+	/**
+	 * Sends the request with the transport and blocks until the response is
+	 * received. Checks the circuit breaker first, so an open breaker fails fast,
+	 * and then waits for a permit of the concurrency limiter. The timeout of the
+	 * request is bounded by the {@link Deadline} of the current thread.
 	 *
-	 * @param httpClient A HTTP-Client for the connection.
-	 * @return New MaintellisteSession instance representing the new session.
+	 * @param request The request.
+	 * @return The response.
+	 * @throws MainzellisteConnectionException  If the Mainzelliste could not be
+	 *                                          reached.
+	 * @throws MainzellisteUnavailableException If the circuit breaker is open or
+	 *                                          the concurrency limiter rejected
+	 *                                          the request.
+	 * @throws DeadlineExceededException        If the deadline passed before the
+	 *                                          request was sent.
 	 */
-	public MainzellisteSession createMainzellisteSession(final HttpClient httpClient) {
-		LOGGER.debug("Creating new session");
+	public TransportResponse execute(final TransportRequest request) {
+		final long deadline = Deadline.get();
+		final long timeout = Deadline.timeout(request.getTimeout(), deadline);
+		final CircuitBreaker breaker = circuitBreaker;
+		final boolean probe = breaker != null && breaker.acquire(System.currentTimeMillis());
+		final ConcurrencyLimiter limiter = concurrencyLimiter;
+		final long start;
 
-		final String connectionUrl = url + "/sessions";
+		try {
+			start = limiter != null ? limiter.acquireBlocking() : 0;
+		} catch (final MainzellisteConnectionException exception) {
+			if (breaker != null)
+				breaker.cancel(probe);
 
-		final HttpPost request = new HttpPost(connectionUrl);
-		request.addHeader("mainzellisteApiKey", apiKey);
-		request.addHeader("mainzellisteApiVersion", apiVersion);
+			throw exception;
+		}
 
-		final JSONObject jsonResponse;
+		try {
+			request.setTimeout(Deadline.timeout(timeout, deadline));
+		} catch (final MainzellisteConnectionException exception) {
+			cancel(breaker, probe, limiter);
+			throw exception;
+		}
+
+		final TransportResponse response;
 
 		try {
-			final HttpResponse httpResponse = httpClient.execute(request);
-			final InputStream connectionResponse = httpResponse.getEntity().getContent();
-			final String response = IOUtils.toString(connectionResponse, StandardCharsets.UTF_8);
-			jsonResponse = new JSONObject(response);
-		} catch (Exception exception) {
+			response = transport.execute(request);
+		} catch (final IOException exception) {
+			record(breaker, probe, limiter, start, null);
 			LOGGER.error("Error while connecting to Mainzelliste: " + exception.getLocalizedMessage(), exception);
 			throw new MainzellisteConnectionException(exception.getLocalizedMessage(), exception);
+		} catch (final RuntimeException exception) {
+			record(breaker, probe, limiter, start, null);
+			throw exception;
 		}
 
-		final String sessionId = jsonResponse.getString("sessionId");
-		LOGGER.debug("Created Session with sessionId " + sessionId);
+		record(breaker, probe, limiter, start, response);
+		return response;
+	}
 
-		return new MainzellisteSession(this, sessionId);
+	/**
+	 * Sends the request with the transport without blocking the calling thread.
+	 * Checks the circuit breaker first, so an open breaker fails fast. A request
+	 * waiting for a permit of the concurrency limiter does not block a thread.
+	 * The timeout of the request is bounded by the {@link Deadline} of the
+	 * calling thread.
+	 *
+	 * @param request The request.
+	 * @return Future of the response. Completes exceptionally with a
+	 *         {@link MainzellisteConnectionException} if the Mainzelliste could
+	 *         not be reached, a {@link MainzellisteUnavailableException} if the
+	 *         circuit breaker is open or the concurrency limiter rejected the
+	 *         request or a {@link DeadlineExceededException} if the deadline
+	 *         passed before the request was sent.
+	 */
+	public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		final long deadline = Deadline.get();
+		final CircuitBreaker breaker = circuitBreaker;
+		final boolean probe;
+
+		try {
+			Deadline.timeout(request.getTimeout(), deadline);
+			probe = breaker != null && breaker.acquire(System.currentTimeMillis());
+		} catch (final MainzellisteConnectionException exception) {
+			return CompletableFuture.failedFuture(exception);
+		}
+
+		final ConcurrencyLimiter limiter = concurrencyLimiter;
+
+		if (limiter == null)
+			return executeAsync(request, deadline, breaker, probe, null, 0);
+
+		return limiter.acquire().whenComplete((start, exception) -> {
+			if (exception != null && breaker != null)
+				breaker.cancel(probe);
+		}).thenCompose(start -> executeAsync(request, deadline, breaker, probe, limiter, start));
+	}
+
+	/**
+	 * Sends the request with the transport after the circuit breaker let it
+	 * through and the permit of the concurrency limiter was granted.
+	 *
+	 * @param request  The request.
+	 * @param deadline Deadline of the request.
+	 * @param breaker  The circuit breaker, null if disabled.
+	 * @param probe    Whether the request is the probe of the circuit breaker.
+	 * @param limiter  The concurrency limiter, null if disabled.
+	 * @param start    Start time of the permit in nanoseconds.
+	 * @return Future of the response.
+	 */
+	private CompletableFuture<TransportResponse> executeAsync(final TransportRequest request, final long deadline,
+			final CircuitBreaker breaker, final boolean probe, final ConcurrencyLimiter limiter, final long start) {
+		try {
+			request.setTimeout(Deadline.timeout(request.getTimeout(), deadline));
+		} catch (final MainzellisteConnectionException exception) {
+			cancel(breaker, probe, limiter);
+			return CompletableFuture.failedFuture(exception);
+		}
+
+		CompletableFuture<TransportResponse> response;
+
+		try {
+			response = transport.executeAsync(request);
+		} catch (final RuntimeException exception) {
+			response = CompletableFuture.failedFuture(exception);
+		}
+
+		return response.handle((result, exception) -> {
+			record(breaker, probe, limiter, start, exception == null ? result : null);
+
+			if (exception == null)
+				return result;
+
+			final Throwable cause = exception instanceof CompletionException && exception.getCause() != null
+					? exception.getCause()
+					: exception;
+			LOGGER.error("Error while connecting to Mainzelliste: " + cause.getLocalizedMessage(), cause);
+			throw new MainzellisteConnectionException(cause.getLocalizedMessage(), cause);
+		});
+	}
+
+	/**
+	 * Sends an idempotent request and repeats it according to the retry policy
+	 * if the Mainzelliste could not be reached or answered with a 5xx status. An
+	 * open circuit breaker stops the retries, a retry is not attempted if its
+	 * delay exceeds the {@link Deadline}.
+	 *
+	 * @param request The request.
+	 * @return The response of the last attempt.
+	 * @throws MainzellisteConnectionException  If the Mainzelliste could not be
+	 *                                          reached by the last attempt.
+	 * @throws MainzellisteUnavailableException If the circuit breaker is open.
+	 */
+	private TransportResponse executeIdempotent(final TransportRequest request) {
+		final RetryPolicy policy = retryPolicy;
+
+		for (int attempt = 1;; attempt++) {
+			final long delay = policy.delay(attempt);
+
+			try {
+				final TransportResponse response = execute(request);
+
+				if (response.getStatusCode() < 500 || isLastAttempt(policy, attempt, delay))
+					return response;
+			} catch (final MainzellisteUnavailableException | DeadlineExceededException exception) {
+				throw exception;
+			} catch (final MainzellisteConnectionException exception) {
+				if (isLastAttempt(policy, attempt, delay))
+					throw exception;
+			}
+
+			LOGGER.debug("Retrying " + request.getMethod() + " " + request.getUrl() + " in " + delay + " ms");
+
+			try {
+				Thread.sleep(delay);
+			} catch (final InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new MainzellisteConnectionException(new InterruptedIOException(
+						"Interrupted while waiting for a retry"));
+			}
+		}
+	}
+
+	/**
+	 * @param policy  The retry policy.
+	 * @param attempt Number of the failed attempt, starting with 1.
+	 * @param delay   Delay before the next attempt in milliseconds.
+	 * @return true if no further attempt is made, because the maximum number of
+	 *         attempts is reached or the delay exceeds the deadline.
+	 */
+	private static boolean isLastAttempt(final RetryPolicy policy, final int attempt, final long delay) {
+		return attempt >= policy.getMaxAttempts() || delay >= Deadline.remaining(System.currentTimeMillis());
+	}
+
+	/**
+	 * Gives back the permit of the concurrency limiter and the permission of the
+	 * circuit breaker of a request that was not sent.
+	 *
+	 * @param breaker The circuit breaker, null if disabled.
+	 * @param probe   Whether the request was the probe of the breaker.
+	 * @param limiter The concurrency limiter, null if disabled.
+	 */
+	private static void cancel(final CircuitBreaker breaker, final boolean probe, final ConcurrencyLimiter limiter) {
+		if (limiter != null)
+			limiter.cancel();
+
+		if (breaker != null)
+			breaker.cancel(probe);
+	}
+
+	/**
+	 * Reports the result of a request to the circuit breaker and returns the
+	 * permit of the concurrency limiter. Connection errors and responses with a
+	 * 5xx status are failures.
+	 *
+	 * @param breaker  The circuit breaker, null if disabled.
+	 * @param probe    Whether the request was the probe of the breaker.
+	 * @param limiter  The concurrency limiter, null if disabled.
+	 * @param start    Start time of the permit in nanoseconds.
+	 * @param response The response, null if the request failed.
+	 */
+	private static void record(final CircuitBreaker breaker, final boolean probe, final ConcurrencyLimiter limiter,
+			final long start, final TransportResponse response) {
+		final boolean failed = response == null || response.getStatusCode() >= 500;
+
+		if (limiter != null)
+			limiter.release(start, failed);
+
+		if (breaker == null)
+			return;
+
+		if (failed)
+			breaker.onFailure(probe, System.currentTimeMillis());
+		else
+			breaker.onSuccess(probe);
+	}
+
+	/**
+	 * Registers the meters of the requests, of the concurrency limiter, of the
+	 * circuit breaker and of the transport if it provides any.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		metrics.bindTo(registry);
+
+		if (concurrencyLimiter != null)
+			concurrencyLimiter.bindTo(registry);
+
+		if (circuitBreaker != null)
+			circuitBreaker.bindTo(registry);
+
+		if (transport instanceof MeterBinder)
+			((MeterBinder) transport).bindTo(registry);
+	}
+
+	/**
+	 * Closes the transport and all its connections.
+	 */
+	@Override
+	public void close() throws IOException {
+		transport.close();
+	}
+
+	/**
+	 * Creates a new session on the Mainzelliste and returns a corresponding
+	 * MaintellisteSession.
+	 *
+	 * @return New MaintellisteSession instance representing the new session.
+	 */
+	public MainzellisteSession createMainzellisteSession() {
+		LOGGER.debug("Creating new session");
+
+		final Timer.Sample sample = metrics.start();
+		final MainzellisteSession session;
+
+		try {
+			final TransportResponse response = execute(createSessionRequest());
+
+			try {
+				session = readMainzellisteSession(response);
+			} catch (Exception exception) {
+				LOGGER.error("Error while connecting to Mainzelliste: " + exception.getLocalizedMessage(), exception);
+				throw new MainzellisteConnectionException(exception.getLocalizedMessage(), exception);
+			}
+		} catch (final RuntimeException exception) {
+			metrics.record(sample, MainzellisteMetrics.CREATE_SESSION, exception);
+			throw exception;
+		}
+
+		metrics.record(sample, MainzellisteMetrics.CREATE_SESSION, null);
+		return session;
 	}
 
 	/**
 	 * Requests the session object from the Mainzelliste of the given session.
+	 * Retried according to the retry policy.
 	 *
-	 * @param httpClient          A HTTP-Client for the connection.
 	 * @param mainzellisteSession Corresponding MainzellisteSession of the session
 	 *                            on the Mainzelliste to return.
-	 * @return JSON representation of the session object.
+	 * @return JSON representation of the session object, null if the session does
+	 *         not exist.
+	 * @throws MainzellisteRuntimeException If the Mainzelliste answered with
+	 *                                      another error, so the existence of
+	 *                                      the session is unknown.
 	 */
-	public JSONObject getMainzellisteSession(final HttpClient httpClient,
-			final MainzellisteSession mainzellisteSession) {
+	public JSONObject getMainzellisteSession(final MainzellisteSession mainzellisteSession) {
 		LOGGER.debug("Getting Mainzelliste session: " + mainzellisteSession.getSessionId());
 
-		final HttpGet request = new HttpGet(mainzellisteSession.getSessionUrl());
+		final TransportRequest request = new TransportRequest("GET", mainzellisteSession.getSessionUrl());
 		request.addHeader("accept", "application/json");
 		request.addHeader("mainzellisteApiVersion", apiVersion);
+		request.setTimeout(sessionTimeout);
 
-		final JSONObject jsonResponse;
+		final TransportResponse response = executeIdempotent(request);
 
-		try {
-			final HttpResponse httpResponse = httpClient.execute(request);
-			final int statusCode = httpResponse.getStatusLine().getStatusCode();
-
-			if (statusCode == 200) {
-				final InputStream responseContent = httpResponse.getEntity().getContent();
-				final String response = IOUtils.toString(responseContent, StandardCharsets.UTF_8);
-				jsonResponse = new JSONObject(response);
-			} else {
-				jsonResponse = null;
-			}
-		} catch (Exception exception) {
-			LOGGER.error("Error while connecting to Mainzelliste: " + exception.getLocalizedMessage(), exception);
-			throw new MainzellisteConnectionException(exception.getLocalizedMessage(), exception);
-		}
+		if (response.getStatusCode() == 200)
+			return new JSONObject(response.getBody());
 
-		return jsonResponse;
+		if (response.getStatusCode() == 404)
+			return null;
+
+		throw new MainzellisteRuntimeException("Error occured at Mainzelliste while getting session "
+				+ mainzellisteSession.getSessionId() + ": " + response.getStatusCode());
 	}
 
 	/**
 	 * Deletes the corresponding session on the Mainzelliste of the given
-	 * MainzellisteSession.
+	 * MainzellisteSession. Retried according to the retry policy, a session that
+	 * does not exist anymore counts as deleted.
 	 *
-	 * @param httpClient          A HTTP-Client for the connection.
 	 * @param mainzellisteSession Corresponding MainzellisteSession of the session
 	 *                            on the Mainzelliste to get deleted.
 	 */
-	public void deleteMainzellisteSession(final HttpClient httpClient, final MainzellisteSession mainzellisteSession) {
+	public void deleteMainzellisteSession(final MainzellisteSession mainzellisteSession) {
 		LOGGER.debug("Deleting Mainzelliste session: " + mainzellisteSession.getSessionId());
 
-		final HttpDelete request = new HttpDelete(mainzellisteSession.getSessionUrl());
+		final TransportRequest request = new TransportRequest("DELETE", mainzellisteSession.getSessionUrl());
 		request.addHeader("mainzellisteApiVersion", apiVersion);
+		request.setTimeout(sessionTimeout);
+
+		final Timer.Sample sample = metrics.start();
 
 		try {
-			final HttpResponse httpResponse = httpClient.execute(request);
-			final int statusCode = httpResponse.getStatusLine().getStatusCode();
+			final TransportResponse response = executeIdempotent(request);
 
-			if (statusCode != 204) {
+			if (response.getStatusCode() == 404) {
+				LOGGER.debug("Mainzelliste session " + mainzellisteSession.getSessionId() + " already deleted");
+			} else if (response.getStatusCode() != 204) {
 				LOGGER.error("Error while deleting MainzellisteSession with seesionId "
 						+ mainzellisteSession.getSessionId());
 				throw new MainzellisteConnectionException("Error while deleting MainzellisteSession with seesionId "
 						+ mainzellisteSession.getSessionId());
 			}
-		} catch (Exception exception) {
-			LOGGER.error("Error while connecting to Mainzelliste: " + exception.getLocalizedMessage(), exception);
-			throw new MainzellisteConnectionException(exception.getLocalizedMessage(), exception);
+		} catch (final RuntimeException exception) {
+			metrics.record(sample, MainzellisteMetrics.DELETE_SESSION, exception);
+			throw exception;
 		}
+
+		metrics.record(sample, MainzellisteMetrics.DELETE_SESSION, null);
+	}
+
+	/**
+	 * @return Request creating a new session on the Mainzelliste.
+	 */
+	private TransportRequest createSessionRequest() {
+		final TransportRequest request = new TransportRequest("POST", url + "/sessions");
+		request.addHeader("mainzellisteApiKey", apiKey);
+		request.addHeader("mainzellisteApiVersion", apiVersion);
+		request.setTimeout(sessionTimeout);
+
+		return request;
+	}
+
+	/**
+	 * Reads the session id of the response to a session creation request.
+	 *
+	 * @param response Response of the Mainzelliste.
+	 * @return New MaintellisteSession instance representing the new session.
+	 */
+	private MainzellisteSession readMainzellisteSession(final TransportResponse response) {
+		final String sessionId = JsonFieldReader.readField(response.getContent(), "sessionId");
+
+		if (sessionId == null)
+			throw new JSONException("Response contains no sessionId: " + response.getBody());
+
+		LOGGER.debug("Created Session with sessionId " + sessionId);
+
+		return new MainzellisteSession(this, sessionId);
 	}
 
 }
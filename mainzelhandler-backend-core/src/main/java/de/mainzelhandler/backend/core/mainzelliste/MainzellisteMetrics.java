@@ -0,0 +1,135 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.concurrent.CompletionException;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Meters of the requests to the Mainzelliste. The requests get timed and tagged
+ * with their operation and outcome. The meters are recorded in a composite
+ * registry, so they work without any bound registry. Every registry passed to
+ * {@link #bindTo(MeterRegistry)} receives all meters.
+ */
+public class MainzellisteMetrics implements MeterBinder {
+
+	/**
+	 * Operation creating a session.
+	 */
+	public static final String CREATE_SESSION = "createSession";
+
+	/**
+	 * Operation deleting a session.
+	 */
+	public static final String DELETE_SESSION = "deleteSession";
+
+	/**
+	 * Operation creating an addPatient token.
+	 */
+	public static final String CREATE_ADD_PATIENT_TOKEN = "createAddPatientToken";
+
+	/**
+	 * Operation creating a readPatients token.
+	 */
+	public static final String CREATE_READ_PATIENTS_TOKEN = "createReadPatientsToken";
+
+	/**
+	 * Outcome of a successful request.
+	 */
+	public static final String SUCCESS = "success";
+
+	/**
+	 * Outcome of a request the Mainzelliste rejected.
+	 */
+	public static final String REJECTED = "rejected";
+
+	/**
+	 * Outcome of a request that failed without an answer of the Mainzelliste.
+	 */
+	public static final String ERROR = "error";
+
+	/**
+	 * Registry the meters are recorded in.
+	 */
+	private final CompositeMeterRegistry registry;
+
+	/**
+	 * Constructs a new MainzellisteMetrics without any bound registry.
+	 */
+	public MainzellisteMetrics() {
+		this.registry = new CompositeMeterRegistry();
+	}
+
+	/**
+	 * Starts the timing of a request.
+	 *
+	 * @return Sample to pass to {@link #record(Timer.Sample, String, Throwable)}.
+	 */
+	public Timer.Sample start() {
+		return Timer.start(registry);
+	}
+
+	/**
+	 * Stops the timing of a request and records it with its operation and
+	 * outcome.
+	 *
+	 * @param sample    Sample started with {@link #start()}.
+	 * @param operation Operation of the request.
+	 * @param exception Exception of the request, null if it succeeded.
+	 */
+	public void record(final Timer.Sample sample, final String operation, final Throwable exception) {
+		sample.stop(registry.timer("mainzelhandler.mainzelliste.requests", "operation", operation, "outcome",
+				outcome(exception)));
+	}
+
+	/**
+	 * Records the result of the search for invalid pseudonyms of a readPatients
+	 * request.
+	 *
+	 * @param retries           Number of token requests in addition to the first
+	 *                          request per token.
+	 * @param invalidPseudonyms Number of invalid pseudonyms found.
+	 */
+	public void recordReadPatientsSearch(final int retries, final int invalidPseudonyms) {
+		Counter.builder("mainzelhandler.mainzelliste.read-patients.retries")
+				.description("readPatients token requests repeated because of invalid pseudonyms")
+				.register(registry)
+				.increment(retries);
+		Counter.builder("mainzelhandler.mainzelliste.read-patients.invalid")
+				.description("Invalid pseudonyms found in readPatients requests")
+				.register(registry)
+				.increment(invalidPseudonyms);
+	}
+
+	/**
+	 * Adds the registry to the registries receiving the meters.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		this.registry.add(registry);
+	}
+
+	/**
+	 * Determines the outcome tag of a request.
+	 *
+	 * @param exception Exception of the request, null if it succeeded.
+	 * @return The outcome.
+	 */
+	private static String outcome(final Throwable exception) {
+		if (exception == null)
+			return SUCCESS;
+
+		final Throwable cause = exception instanceof CompletionException && exception.getCause() != null
+				? exception.getCause()
+				: exception;
+
+		return cause instanceof MainzellisteRuntimeException ? REJECTED : ERROR;
+	}
+
+}
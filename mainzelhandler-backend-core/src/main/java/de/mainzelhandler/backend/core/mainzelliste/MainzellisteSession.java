@@ -1,26 +1,31 @@
 package de.mainzelhandler.backend.core.mainzelliste;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
 import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import de.mainzelhandler.backend.core.exceptions.SessionNotFoundException;
+import de.mainzelhandler.backend.core.json.JsonFieldReader;
 import de.mainzelhandler.backend.core.model.DepseudonymizationUrlResponse;
 import de.mainzelhandler.backend.core.model.PseudonymizationUrlResponse;
+import de.mainzelhandler.backend.core.transport.TransportRequest;
+import de.mainzelhandler.backend.core.transport.TransportResponse;
+import io.micrometer.core.instrument.Timer;
 
 /**
  * Represents a session on the Mainzelliste. Provides Methods to request
@@ -30,6 +35,12 @@ public class MainzellisteSession {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(MainzellisteSession.class);
 
+	/**
+	 * Number of concurrent addPatient token requests of a batch if the
+	 * connection has no concurrency limiter.
+	 */
+	private static final int DEFAULT_TOKEN_WINDOW = 8;
+
 	/**
 	 * Connection to the Mainzelliste providing the informations for the requests.
 	 */
@@ -40,10 +51,26 @@ public class MainzellisteSession {
 	 */
 	private String sessionId;
 
+	/**
+	 * Time stamp of the creation of this instance in milliseconds.
+	 */
+	private final long creationTime;
+
+	/**
+	 * Number of tokens created with this session.
+	 */
+	private final AtomicInteger tokenCount;
+
+	/**
+	 * Time in milliseconds at which the session gets deleted on the Mainzelliste.
+	 * Long.MAX_VALUE as long as the deletion is not scheduled.
+	 */
+	private volatile long expirationTime;
+
 	/**
 	 * Constructs a new MainzellisteSession. Does not create the session on the
-	 * Mainzelliste. Use
-	 * {@link MainzellisteConnection#createMainzellisteSession(HttpClient)} instead.
+	 * Mainzelliste. Use {@link MainzellisteConnection#createMainzellisteSession()}
+	 * instead.
 	 *
 	 * @param mainzellisteConnection Connection to the Mainzelliste.
 	 * @param sessionId              Id of the session on the Mainzelliste.
@@ -51,6 +78,9 @@ public class MainzellisteSession {
 	public MainzellisteSession(final MainzellisteConnection mainzellisteConnection, final String sessionId) {
 		this.mainzellisteConnection = mainzellisteConnection;
 		this.sessionId = sessionId;
+		this.creationTime = System.currentTimeMillis();
+		this.tokenCount = new AtomicInteger();
+		this.expirationTime = Long.MAX_VALUE;
 	}
 
 	/**
@@ -68,179 +98,372 @@ public class MainzellisteSession {
 	}
 
 	/**
-	 * Request addPatient tokens from the Mainzelliste. Returns the requested number
-	 * of URLs.
+	 * @return Time stamp of the creation of this instance in milliseconds.
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * @return Number of tokens created with this session.
+	 */
+	public int getTokenCount() {
+		return tokenCount.get();
+	}
+
+	/**
+	 * @return Time in milliseconds at which the session and its tokens get deleted
+	 *         on the Mainzelliste. Long.MAX_VALUE as long as the deletion is not
+	 *         scheduled.
+	 */
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
+	/**
+	 * @param expirationTime Time in milliseconds at which the session and its
+	 *                       tokens get deleted on the Mainzelliste.
+	 */
+	public void setExpirationTime(final long expirationTime) {
+		this.expirationTime = expirationTime;
+	}
+
+	/**
+	 * Request addPatient tokens from the Mainzelliste. Returns the created URLs,
+	 * the tokens that could not be created are reported in the response. The
+	 * requests are sent concurrently, see
+	 * {@link #createAddPatientTokensAsync(int)}.
 	 *
 	 * @param amount Amount of requested addPatient token.
 	 * @return PseudonymizationUrlResponse containing the array of URLs for
-	 *         pseudonymizations and the value of useCallback.
+	 *         pseudonymizations, the value of useCallback and the failures.
 	 */
-	public PseudonymizationUrlResponse createAddPatientTokens(final HttpClient httpClient, final int amount) {
-		LOGGER.info("Requesting " + amount + " 'addPatient' tokens");
+	public PseudonymizationUrlResponse createAddPatientTokens(final int amount) {
+		try {
+			return createAddPatientTokensAsync(amount).join();
+		} catch (final CompletionException exception) {
+			if (exception.getCause() instanceof RuntimeException)
+				throw (RuntimeException) exception.getCause();
 
-		final String[] urlTokens = new String[amount];
-		for (int i = 0; i < amount; i++) {
-			urlTokens[i] = mainzellisteConnection.getUrl() + "/patients?tokenId=" + createAddPatientToken(httpClient);
+			throw exception;
 		}
+	}
 
-		LOGGER.info("Tokens created: " + urlTokens.length);
-		return new PseudonymizationUrlResponse(mainzellisteConnection.isUseCallback(), urlTokens);
+	/**
+	 * Requests a single addPatient token from the Mainzelliste.
+	 *
+	 * @return URL for the pseudonymization containing the token.
+	 */
+	public String createAddPatientUrl() {
+		return mainzellisteConnection.getUrl() + "/patients?tokenId="
+				+ getToken(MainzellisteMetrics.CREATE_ADD_PATIENT_TOKEN, mainzellisteConnection.getAddPatientBody());
 	}
 
 	/**
-	 * Creates an URL for the depsudonymization of the given pseudonyms. The URL can
-	 * be used to depseudonymize all given pseudonyms that are valid. Returns the
-	 * URL and a list containing all invalid pseudonyms that can't get
-	 * depseudonymized with the returned URL.
+	 * Requests a single addPatient token from the Mainzelliste without blocking
+	 * the calling thread.
 	 *
-	 * @param pseudonyms Pseudonyms to depseudonymize.
-	 * @return DepseudonymizationResponse containing the URL and the invalid
-	 *         pseudonyms.
+	 * @return Future of the URL for the pseudonymization containing the token.
 	 */
-	public DepseudonymizationUrlResponse createReadPatientsToken(final HttpClient httpClient,
-			final List<String> pseudonyms, final List<String> resultFields) {
-		return createReadPatientsToken(httpClient, pseudonyms, new JSONArray(resultFields));
+	public CompletableFuture<String> createAddPatientUrlAsync() {
+		return getTokenAsync(MainzellisteMetrics.CREATE_ADD_PATIENT_TOKEN, mainzellisteConnection.getAddPatientBody())
+				.thenApply(token -> mainzellisteConnection.getUrl() + "/patients?tokenId=" + token);
 	}
 
 	/**
-	 * Creates an URL for the depsudonymization of the given pseudonyms. The URL can
-	 * be used to depseudonymize all given pseudonyms that are valid. Returns the
-	 * URL and a list containing all invalid pseudonyms that can't get
-	 * depseudonymized with the returned URL.
+	 * Request addPatient tokens from the Mainzelliste without blocking the calling
+	 * thread. The requests are sent concurrently with the transport of the
+	 * {@link MainzellisteConnection}, at most as many at a time as the
+	 * concurrency limiter of the connection admits. Tokens that could not be
+	 * created are reported in the response, a connection error stops the
+	 * remaining requests.
 	 *
-	 * @param pseudonyms Pseudonyms to depseudonymize.
-	 * @return DepseudonymizationResponse containing the URL and the invalid
-	 *         pseudonyms.
+	 * @param amount Amount of requested addPatient token.
+	 * @return Future of the PseudonymizationUrlResponse containing the array of
+	 *         URLs for pseudonymizations, the value of useCallback and the
+	 *         failures. Completes exceptionally with the first error if no token
+	 *         could be created.
 	 */
-	public DepseudonymizationUrlResponse createReadPatientsToken(final HttpClient httpClient,
-			final List<String> pseudonyms, final JSONArray resultFields) {
-		LOGGER.info("Requesting 'readPatients' token for " + pseudonyms.size() + " pseudonyms");
+	public CompletableFuture<PseudonymizationUrlResponse> createAddPatientTokensAsync(final int amount) {
+		LOGGER.info("Requesting " + amount + " 'addPatient' tokens");
 
-		final JSONObject body = new JSONObject();
+		final byte[] body = mainzellisteConnection.getAddPatientBody();
+		final Supplier<CompletableFuture<String>> tokenRequest = Deadline
+				.propagate(() -> getTokenAsync(MainzellisteMetrics.CREATE_ADD_PATIENT_TOKEN, body));
+		final String[] urlTokens = new String[amount];
+		final Throwable[] errors = new Throwable[amount];
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(tokenWindow(), amount)];
 
-		body.put("type", "readPatients");
+		for (int i = 0; i < lanes.length; i++)
+			lanes[i] = requestAddPatientTokens(tokenRequest, urlTokens, errors, nextIndex);
 
-		final JSONObject data = new JSONObject();
-		body.put("data", data);
+		return CompletableFuture.allOf(lanes).thenApply(completed -> addPatientResponse(urlTokens, errors));
+	}
 
-		data.put("resultFields", resultFields);
-		data.put("resultIds", new JSONArray("[pid]"));
+	/**
+	 * Collects the created tokens of a batch and the errors of the others.
+	 *
+	 * @param urlTokens The URLs of the batch, null if the token could not be
+	 *                  created.
+	 * @param errors    The errors of the tokens that could not be created, null
+	 *                  for the tokens not requested after a connection error.
+	 * @return PseudonymizationUrlResponse containing the created URLs in the
+	 *         order of the requests and the failures.
+	 * @throws RuntimeException The first error if no token could be created.
+	 */
+	private PseudonymizationUrlResponse addPatientResponse(final String[] urlTokens, final Throwable[] errors) {
+		final List<String> createdUrls = new ArrayList<String>(urlTokens.length);
+		final Set<String> distinctErrors = new LinkedHashSet<String>();
+		Throwable firstError = null;
+
+		for (int i = 0; i < urlTokens.length; i++) {
+			if (urlTokens[i] != null) {
+				createdUrls.add(urlTokens[i]);
+			} else if (errors[i] != null) {
+				distinctErrors.add(errors[i].getMessage());
+
+				if (firstError == null)
+					firstError = errors[i];
+			} else {
+				distinctErrors.add("Aborted after a connection error");
+			}
+		}
 
-		String token = null;
-		boolean finished = false;
-		final List<String> invalidPseudonyms = new ArrayList<String>();
+		final int failedCount = urlTokens.length - createdUrls.size();
 
-		while (!finished) {
-			finished = true;
+		if (firstError != null && createdUrls.isEmpty())
+			throw firstError instanceof RuntimeException ? (RuntimeException) firstError
+					: new CompletionException(firstError);
 
-			final JSONArray searchIds = new JSONArray();
+		if (failedCount > 0)
+			LOGGER.warn("Could not create " + failedCount + " of " + urlTokens.length + " tokens: " + distinctErrors);
 
-			for (final String pseudonym : pseudonyms) {
-				if (!invalidPseudonyms.contains(pseudonym)) {
-					final JSONObject searchId = new JSONObject();
-					searchId.put("idType", "pid");
-					searchId.put("idString", pseudonym);
-					searchIds.put(searchId);
-				}
-			}
+		LOGGER.info("Tokens created: " + createdUrls.size());
+		return new PseudonymizationUrlResponse(mainzellisteConnection.isUseCallback(),
+				createdUrls.toArray(new String[0]), failedCount, new ArrayList<String>(distinctErrors));
+	}
 
-			data.put("searchIds", searchIds);
+	/**
+	 * Requests the next token of a batch and continues with the following one
+	 * after its completion, so every lane of a batch has one request in flight.
+	 * A failed request is recorded, a connection error stops the remaining
+	 * requests of all lanes.
+	 *
+	 * @param tokenRequest Request of a single token.
+	 * @param urlTokens    The URLs of the batch, filled by the lanes.
+	 * @param errors       The errors of the failed requests, filled by the
+	 *                     lanes.
+	 * @param nextIndex    Index of the next token of the batch.
+	 * @return Future completing after the lane requested its last token.
+	 */
+	private CompletableFuture<Void> requestAddPatientTokens(final Supplier<CompletableFuture<String>> tokenRequest,
+			final String[] urlTokens, final Throwable[] errors, final AtomicInteger nextIndex) {
+		final int index = nextIndex.getAndIncrement();
 
-			try {
-				token = getToken(httpClient, body);
-			} catch (final MainzellisteRuntimeException exception) {
-				final String message = exception.getMessage();
+		if (index >= urlTokens.length)
+			return CompletableFuture.completedFuture(null);
 
-				if (message.contains("Error occured at Mainzelliste: No patient found with provided pid")) {
-					final String invalidPseudonym = message.split("'")[1];
-					invalidPseudonyms.add(invalidPseudonym);
+		return tokenRequest.get().handle((token, exception) -> {
+			if (exception == null) {
+				urlTokens[index] = mainzellisteConnection.getUrl() + "/patients?tokenId=" + token;
+			} else {
+				errors[index] = exception instanceof CompletionException && exception.getCause() != null
+						? exception.getCause()
+						: exception;
 
-					if (pseudonyms.size() != invalidPseudonyms.size())
-						finished = false;
-				} else {
-					throw exception;
-				}
+				if (errors[index] instanceof MainzellisteConnectionException)
+					nextIndex.set(urlTokens.length);
 			}
-		}
 
-		LOGGER.info("Tokens created for " + (pseudonyms.size() - invalidPseudonyms.size()) + " pseudonyms");
-		final String urlToken = (token != null) ? mainzellisteConnection.getUrl() + "/patients?tokenId=" + token : "";
+			return null;
+		}).thenCompose(ignored -> requestAddPatientTokens(tokenRequest, urlTokens, errors, nextIndex));
+	}
 
-		return new DepseudonymizationUrlResponse(urlToken, invalidPseudonyms);
+	/**
+	 * @return Number of concurrent addPatient token requests of a batch, the
+	 *         current limit of the concurrency limiter of the connection.
+	 */
+	private int tokenWindow() {
+		final ConcurrencyLimiter limiter = mainzellisteConnection.getConcurrencyLimiter();
+		return limiter != null ? limiter.getLimit() : DEFAULT_TOKEN_WINDOW;
 	}
 
 	/**
-	 * Gets a query token which allows to add a new patient from the Mainzelliste
-	 * with given sessionURL.
+	 * Creates the URL for the depsudonymization of the given pseudonyms. The URL
+	 * can be used to depseudonymize all given pseudonyms that are valid. Returns
+	 * the URL and a list containing all invalid pseudonyms that can't get
+	 * depseudonymized with the returned URL.
 	 *
-	 * @param sessionUrl A session URL with a valid session token from the
-	 *                   Mainzelliste.
-	 * @param httpClient A HTTP-Client for the connection.
-	 * @return The query token from the Mainzelliste.
+	 * @param pseudonyms   Pseudonyms to depseudonymize.
+	 * @param resultFields Names of PII fields to get returned by the
+	 *                     depseudonymization.
+	 * @return DepseudonymizationResponse containing the URLs and the invalid
+	 *         pseudonyms.
 	 */
-	private String createAddPatientToken(final HttpClient httpClient) {
-		final JSONObject body = new JSONObject();
-		final JSONObject data = new JSONObject();
+	public DepseudonymizationUrlResponse createReadPatientsToken(final List<String> pseudonyms,
+			final List<String> resultFields) {
+		return createReadPatientsToken(pseudonyms, resultFields, Runnable::run);
+	}
 
-		if (mainzellisteConnection.isUseCallback())
-			data.put("callback", mainzellisteConnection.getCallbackUrl());
+	/**
+	 * Creates the URL for the depsudonymization of the given pseudonyms. Invalid
+	 * pseudonyms are searched with a {@link PseudonymBisection} whose probes run
+	 * on the given executor, the URL covers all valid pseudonyms.
+	 *
+	 * @param pseudonyms   Pseudonyms to depseudonymize.
+	 * @param resultFields Names of PII fields to get returned by the
+	 *                     depseudonymization.
+	 * @param executor     Executor running the concurrent token requests. Must not
+	 *                     be the executor of the calling thread.
+	 * @return DepseudonymizationResponse containing the URLs and the invalid
+	 *         pseudonyms.
+	 */
+	public DepseudonymizationUrlResponse createReadPatientsToken(final List<String> pseudonyms,
+			final List<String> resultFields, final Executor executor) {
+		LOGGER.info("Requesting 'readPatients' token for " + pseudonyms.size() + " pseudonyms");
 
-		body.put("data", data);
-		body.put("type", "addPatient");
+		final List<String> searchPseudonyms = PseudonymBisection.distinct(pseudonyms);
+		final ReadPatientsTemplate template = new ReadPatientsTemplate(resultFields);
+		final Set<String> invalidPseudonyms = new HashSet<String>();
 
-		final String token = getToken(httpClient, body);
+		final PseudonymBisection bisection = new PseudonymBisection(Deadline.propagate(
+				searchIds -> getToken(MainzellisteMetrics.CREATE_READ_PATIENTS_TOKEN, template.createBody(searchIds))),
+				executor);
+		final List<String> tokens = bisection.createTokens(Collections.singletonList(searchPseudonyms),
+				invalidPseudonyms);
 
-		return token;
+		final List<String> invalidPseudonymList = PseudonymBisection.invalidInOrder(searchPseudonyms,
+				invalidPseudonyms);
+		mainzellisteConnection.getMetrics().recordReadPatientsSearch(bisection.getRetryCount(),
+				invalidPseudonyms.size());
+
+		LOGGER.info("Tokens created for " + (searchPseudonyms.size() - invalidPseudonyms.size()) + " pseudonyms");
+		return new DepseudonymizationUrlResponse(toUrls(tokens), invalidPseudonymList);
+	}
+
+	/**
+	 * Creates the depseudonymization URLs of readPatients tokens.
+	 *
+	 * @param tokens The tokens.
+	 * @return The URLs in the order of the tokens.
+	 */
+	private List<String> toUrls(final List<String> tokens) {
+		final List<String> urls = new ArrayList<String>(tokens.size());
+
+		for (final String token : tokens)
+			urls.add(mainzellisteConnection.getUrl() + "/patients?tokenId=" + token);
+
+		return urls;
+	}
+
+	/**
+	 * Requests a single readPatients token for the given pseudonyms. Does not
+	 * search invalid pseudonyms.
+	 *
+	 * @param pseudonyms Pseudonyms to depseudonymize. All pseudonyms have to be
+	 *                   valid.
+	 * @param template   Template of the request body containing the names of
+	 *                   the PII fields to get returned by the depseudonymization.
+	 * @return URL for the depseudonymization containing the token.
+	 * @throws MainzellisteRuntimeException If a pseudonym is invalid.
+	 */
+	public String createReadPatientsUrl(final List<String> pseudonyms, final ReadPatientsTemplate template) {
+		return mainzellisteConnection.getUrl() + "/patients?tokenId="
+				+ getToken(MainzellisteMetrics.CREATE_READ_PATIENTS_TOKEN, template.createBody(pseudonyms));
 	}
 
 	/**
 	 * Generates a token at the Mainzelliste with the given request body
 	 *
-	 * @param sessionUrl URL to a session at the Mainzelliste.
-	 * @param httpClient A HTTP-Client for the connection.
-	 * @param body       Body of the request containing the data for the token.
+	 * @param operation Operation the request gets recorded with.
+	 * @param body      Body of the request containing the data for the token.
 	 * @return The token.
 	 */
-	private String getToken(final HttpClient httpClient, final JSONObject body) {
-		final String connectionUrl = getSessionUrl() + "/tokens";
+	private String getToken(final String operation, final byte[] body) {
+		final MainzellisteMetrics metrics = mainzellisteConnection.getMetrics();
+		final Timer.Sample sample = metrics.start();
+		final String token;
+
+		try {
+			token = readToken(mainzellisteConnection.execute(createTokenRequest(body)));
+		} catch (final RuntimeException exception) {
+			metrics.record(sample, operation, exception);
+			throw exception;
+		}
+
+		metrics.record(sample, operation, null);
+		return token;
+	}
+
+	/**
+	 * Generates a token at the Mainzelliste with the given request body without
+	 * blocking the calling thread.
+	 *
+	 * @param operation Operation the request gets recorded with.
+	 * @param body      Body of the request containing the data for the token.
+	 * @return Future of the token.
+	 */
+	private CompletableFuture<String> getTokenAsync(final String operation, final byte[] body) {
+		final MainzellisteMetrics metrics = mainzellisteConnection.getMetrics();
+		final Timer.Sample sample = metrics.start();
+
+		return mainzellisteConnection.executeAsync(createTokenRequest(body)).thenApply(this::readToken)
+				.whenComplete((token, exception) -> metrics.record(sample, operation, exception));
+	}
 
-		final HttpPost request = new HttpPost(connectionUrl);
+	/**
+	 * Creates a token request with the given body.
+	 *
+	 * @param body Body of the request containing the data for the token.
+	 * @return The request.
+	 */
+	private TransportRequest createTokenRequest(final byte[] body) {
+		final TransportRequest request = new TransportRequest("POST", getSessionUrl() + "/tokens");
 		request.addHeader("content-type", "application/json");
 		request.addHeader("mainzellisteApiKey", mainzellisteConnection.getApiKey());
 		request.addHeader("mainzellisteApiVersion", mainzellisteConnection.getApiVersion());
+		request.setTimeout(mainzellisteConnection.getTokenTimeout());
 
-		LOGGER.debug("Token request: " + body.toString());
-		request.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Token request: " + new String(body, StandardCharsets.UTF_8));
 
-		final JSONObject jsonResponse;
+		request.setBody(body);
 
-		try {
-			final HttpResponse httpResponse = httpClient.execute(request);
-			final int statusCode = httpResponse.getStatusLine().getStatusCode();
+		return request;
+	}
 
-			final InputStream connectionResponse = httpResponse.getEntity().getContent();
-			final String response = IOUtils.toString(connectionResponse, StandardCharsets.UTF_8);
+	/**
+	 * Reads the token of the response to a token request.
+	 *
+	 * @param response Response of the Mainzelliste.
+	 * @return The token.
+	 * @throws SessionNotFoundException     If the session does not exist on the
+	 *                                      Mainzelliste anymore.
+	 * @throws MainzellisteRuntimeException If the Mainzelliste rejected the
+	 *                                      request, also if it rejected the
+	 *                                      credentials.
+	 */
+	private String readToken(final TransportResponse response) {
+		if (response.getStatusCode() == 404) {
+			LOGGER.warn("Session " + sessionId + " does not exist on the Mainzelliste: " + response.getBody());
+			throw new SessionNotFoundException("Session " + sessionId + " does not exist on the Mainzelliste: "
+					+ response.getBody());
+		}
 
-			if (statusCode == 201) {
-				LOGGER.debug("Recieved token: " + response);
-				jsonResponse = new JSONObject(response);
-			} else {
-				LOGGER.error("Error occured at Mainzelliste: " + response);
-				throw new MainzellisteRuntimeException("Error occured at Mainzelliste: " + response);
-			}
-		} catch (IOException exception) {
-			LOGGER.error("Error while connecting to Mainzelliste: " + exception.getLocalizedMessage(), exception);
-			throw new MainzellisteConnectionException(exception.getLocalizedMessage(), exception);
+		if (response.getStatusCode() != 201) {
+			final String body = response.getBody();
+			LOGGER.error("Error occured at Mainzelliste: " + body);
+			throw new MainzellisteRuntimeException("Error occured at Mainzelliste: " + body);
 		}
 
-		final String tokenId;
+		final String idField = "1.0".equals(mainzellisteConnection.getApiVersion()) ? "tokenId" : "id";
+		final String tokenId = JsonFieldReader.readField(response.getContent(), idField);
 
-		if (mainzellisteConnection.getApiVersion() == "1.0") {
-			tokenId = jsonResponse.getString("tokenId");
-		} else {
-			tokenId = jsonResponse.getString("id");
-		}
+		if (tokenId == null)
+			throw new JSONException("Response contains no " + idField + ": " + response.getBody());
 
+		tokenCount.incrementAndGet();
 		LOGGER.debug("Token created: " + tokenId);
 
 		return tokenId;
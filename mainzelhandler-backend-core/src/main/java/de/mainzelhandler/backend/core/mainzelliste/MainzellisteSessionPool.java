@@ -0,0 +1,342 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Pool of sessions on the Mainzelliste. Leases live sessions to avoid the
+ * creation of a new session for every token request. Sessions get retired
+ * after their ttl or after a maximum number of tokens and get replaced by
+ * {@link #refreshSessions()} before they expire. Retired sessions get deleted
+ * on the Mainzelliste after a delay, so the tokens they handed out stay valid.
+ */
+public class MainzellisteSessionPool implements Closeable, MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MainzellisteSessionPool.class);
+
+	/**
+	 * Connection to the Mainzelliste used to create and delete the sessions.
+	 */
+	private final MainzellisteConnection mainzellisteConnection;
+
+	/**
+	 * Configuration of the pool.
+	 */
+	private final SessionPoolConfig config;
+
+	/**
+	 * Slots containing the live sessions. A slot is null until its first lease.
+	 */
+	private final AtomicReferenceArray<MainzellisteSession> sessions;
+
+	/**
+	 * Locks of the slots. Used to replace a session only once if several threads
+	 * find it expired.
+	 */
+	private final Object[] slotLocks;
+
+	/**
+	 * Counter used to distribute the leases round-robin over the slots.
+	 */
+	private final AtomicInteger nextSlot;
+
+	/**
+	 * Retired sessions waiting for their deletion, ordered by retirement.
+	 */
+	private final Queue<RetiredSession> retiredSessions;
+
+	/**
+	 * Number of sessions created by the pool.
+	 */
+	private final AtomicLong createdSessions;
+
+	/**
+	 * Constructs a new MainzellisteSessionPool. Sessions get created lazily on
+	 * the first lease.
+	 *
+	 * @param mainzellisteConnection Connection to the Mainzelliste.
+	 * @param config                 Configuration of the pool.
+	 */
+	public MainzellisteSessionPool(final MainzellisteConnection mainzellisteConnection,
+			final SessionPoolConfig config) {
+		this.mainzellisteConnection = mainzellisteConnection;
+		this.config = config;
+		this.sessions = new AtomicReferenceArray<MainzellisteSession>(config.getSize());
+		this.slotLocks = new Object[config.getSize()];
+		this.nextSlot = new AtomicInteger();
+		this.retiredSessions = new ConcurrentLinkedQueue<RetiredSession>();
+		this.createdSessions = new AtomicLong();
+
+		for (int i = 0; i < slotLocks.length; i++)
+			slotLocks[i] = new Object();
+	}
+
+	/**
+	 * @return Connection to the Mainzelliste used by this pool.
+	 */
+	public MainzellisteConnection getMainzellisteConnection() {
+		return mainzellisteConnection;
+	}
+
+	/**
+	 * @return Configuration of the pool.
+	 */
+	public SessionPoolConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Leases a live session. The sessions are distributed round-robin. An expired
+	 * or exhausted session gets replaced before it is returned. The session does
+	 * not have to be given back.
+	 *
+	 * @return A live session on the Mainzelliste.
+	 */
+	public MainzellisteSession leaseSession() {
+		final int slot = Math.floorMod(nextSlot.getAndIncrement(), sessions.length());
+		final MainzellisteSession session = sessions.get(slot);
+
+		if (session != null && isUsable(session, System.currentTimeMillis()))
+			return session;
+
+		return replaceSession(slot, session);
+	}
+
+	/**
+	 * Removes the given session from the pool. Used if a token request found
+	 * that the session does not exist on the Mainzelliste anymore, so it is not
+	 * leased until the next refresh. Reserved tokens of the session are dropped,
+	 * because it counts as expired. The session is retired, so it still gets
+	 * deleted after the retire delay if it does exist.
+	 *
+	 * @param session The invalid session.
+	 */
+	public void invalidateSession(final MainzellisteSession session) {
+		final long now = System.currentTimeMillis();
+
+		for (int slot = 0; slot < sessions.length(); slot++) {
+			if (sessions.compareAndSet(slot, session, null)) {
+				LOGGER.debug("Invalidated session " + session.getSessionId());
+				retire(session, now);
+			}
+		}
+
+		session.setExpirationTime(now);
+	}
+
+	/**
+	 * Replaces all sessions that reach the end of their ttl or their maximum
+	 * number of tokens, removes sessions that don't exist on the Mainzelliste
+	 * anymore and deletes the retired sessions whose delay passed. A session
+	 * whose existence could not be checked because of an error stays in the
+	 * pool.
+	 */
+	public void refreshSessions() {
+		final long now = System.currentTimeMillis();
+
+		for (int slot = 0; slot < sessions.length(); slot++) {
+			final MainzellisteSession session = sessions.get(slot);
+
+			if (session == null)
+				continue;
+
+			try {
+				if (needsRefresh(session, now)) {
+					replaceSession(slot, session);
+				} else if (mainzellisteConnection.getMainzellisteSession(session) == null) {
+					LOGGER.info("Session " + session.getSessionId() + " does not exist on the Mainzelliste anymore");
+
+					if (sessions.compareAndSet(slot, session, null))
+						retire(session, now);
+				}
+			} catch (final RuntimeException exception) {
+				LOGGER.warn("Could not refresh session " + session.getSessionId() + ": " + exception.getMessage());
+			}
+		}
+
+		deleteRetiredSessions(now);
+	}
+
+	/**
+	 * Deletes all live and retired sessions on the Mainzelliste.
+	 */
+	@Override
+	public void close() {
+		for (int slot = 0; slot < sessions.length(); slot++) {
+			final MainzellisteSession session = sessions.getAndSet(slot, null);
+
+			if (session != null) {
+				session.setExpirationTime(0);
+				retiredSessions.add(new RetiredSession(session, 0));
+			}
+		}
+
+		deleteRetiredSessions(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Registers gauges for the live and retired sessions and a counter for the
+	 * created sessions.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("mainzelhandler.mainzelliste.sessions", this, MainzellisteSessionPool::getLiveSessionCount)
+				.tag("state", "live")
+				.description("Sessions leased by the session pool")
+				.register(registry);
+		Gauge.builder("mainzelhandler.mainzelliste.sessions", retiredSessions, Queue::size)
+				.tag("state", "retired")
+				.description("Retired sessions waiting for their deletion")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.mainzelliste.sessions.created", createdSessions, AtomicLong::get)
+				.description("Sessions created by the session pool")
+				.register(registry);
+	}
+
+	/**
+	 * @return Number of live sessions in the pool.
+	 */
+	public int getLiveSessionCount() {
+		int count = 0;
+
+		for (int slot = 0; slot < sessions.length(); slot++) {
+			if (sessions.get(slot) != null)
+				count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Replaces the session in the given slot with a new session. Does nothing if
+	 * another thread already replaced the expected session with a usable one.
+	 *
+	 * @param slot     Slot of the session.
+	 * @param expected The session to be replaced.
+	 * @return The session in the slot after the replacement.
+	 */
+	private MainzellisteSession replaceSession(final int slot, final MainzellisteSession expected) {
+		synchronized (slotLocks[slot]) {
+			final MainzellisteSession current = sessions.get(slot);
+
+			if (current != null && current != expected && isUsable(current, System.currentTimeMillis()))
+				return current;
+
+			final MainzellisteSession session = mainzellisteConnection.createMainzellisteSession();
+			createdSessions.incrementAndGet();
+			sessions.set(slot, session);
+
+			if (current != null) {
+				LOGGER.debug("Retiring session " + current.getSessionId() + " after " + current.getTokenCount()
+						+ " tokens");
+				final long deletionTime = System.currentTimeMillis() + config.getRetireDelay();
+				current.setExpirationTime(deletionTime);
+				retiredSessions.add(new RetiredSession(current, deletionTime));
+			}
+
+			return session;
+		}
+	}
+
+	/**
+	 * Retires a session that does not exist on the Mainzelliste anymore. It
+	 * counts as expired at once, but is deleted after the retire delay like
+	 * every retired session, in case it was missing only for a moment.
+	 *
+	 * @param session The session.
+	 * @param now     Current time in milliseconds.
+	 */
+	private void retire(final MainzellisteSession session, final long now) {
+		session.setExpirationTime(now);
+		retiredSessions.add(new RetiredSession(session, now + config.getRetireDelay()));
+	}
+
+	/**
+	 * Deletes the retired sessions whose delay passed.
+	 *
+	 * @param now Current time in milliseconds.
+	 */
+	private void deleteRetiredSessions(final long now) {
+		RetiredSession retiredSession;
+
+		while ((retiredSession = retiredSessions.peek()) != null && retiredSession.deletionTime <= now) {
+			if (!retiredSessions.remove(retiredSession))
+				continue;
+
+			try {
+				mainzellisteConnection.deleteMainzellisteSession(retiredSession.session);
+			} catch (final RuntimeException exception) {
+				LOGGER.warn("Could not delete session " + retiredSession.session.getSessionId() + ": "
+						+ exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Determines whether the session can still be leased.
+	 *
+	 * @param session The session.
+	 * @param now     Current time in milliseconds.
+	 * @return true if the session is within its ttl and its maximum number of
+	 *         tokens.
+	 */
+	private boolean isUsable(final MainzellisteSession session, final long now) {
+		return now - session.getCreationTime() < config.getTtl() && session.getTokenCount() < config.getMaxTokens();
+	}
+
+	/**
+	 * Determines whether the session should be replaced in the background.
+	 *
+	 * @param session The session.
+	 * @param now     Current time in milliseconds.
+	 * @return true if the session reaches the end of its ttl or its maximum number
+	 *         of tokens.
+	 */
+	private boolean needsRefresh(final MainzellisteSession session, final long now) {
+		return now - session.getCreationTime() >= config.getTtl() - config.getRefreshAhead()
+				|| session.getTokenCount() >= config.getMaxTokens();
+	}
+
+	/**
+	 * A retired session and the time of its deletion.
+	 */
+	private static class RetiredSession {
+
+		/**
+		 * The retired session.
+		 */
+		private final MainzellisteSession session;
+
+		/**
+		 * Time in milliseconds at which the session gets deleted.
+		 */
+		private final long deletionTime;
+
+		/**
+		 * Constructs a new RetiredSession.
+		 *
+		 * @param session      The retired session.
+		 * @param deletionTime Time in milliseconds at which the session gets deleted.
+		 */
+		private RetiredSession(final MainzellisteSession session, final long deletionTime) {
+			this.session = session;
+			this.deletionTime = deletionTime;
+		}
+
+	}
+
+}
@@ -0,0 +1,146 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.ArrayDeque;
+
+/**
+ * Queue with a lane per {@link Priority}. Interactive elements are polled
+ * before bulk elements, in the order they were added within their lane. To
+ * keep bulk work from starving, a bulk element is polled after a burst of
+ * interactive elements polled while bulk elements were waiting. Not thread
+ * safe, the owner has to guard it.
+ *
+ * @param <T> Type of the elements.
+ */
+public class PrioritizedQueue<T> {
+
+	/**
+	 * Waiting interactive elements.
+	 */
+	private final ArrayDeque<T> interactive = new ArrayDeque<T>();
+
+	/**
+	 * Waiting bulk elements.
+	 */
+	private final ArrayDeque<T> bulk = new ArrayDeque<T>();
+
+	/**
+	 * Number of interactive elements polled in a row while bulk elements were
+	 * waiting, after which a bulk element is polled.
+	 */
+	private final int interactiveBurst;
+
+	/**
+	 * Number of interactive elements polled in a row while bulk elements were
+	 * waiting.
+	 */
+	private int streak;
+
+	/**
+	 * Number of bulk elements polled ahead of waiting interactive elements.
+	 */
+	private long promotions;
+
+	/**
+	 * Constructs a new PrioritizedQueue.
+	 *
+	 * @param interactiveBurst Number of interactive elements polled in a row
+	 *                         while bulk elements are waiting, after which a
+	 *                         bulk element is polled.
+	 */
+	public PrioritizedQueue(final int interactiveBurst) {
+		if (interactiveBurst < 1)
+			throw new IllegalArgumentException("Interactive burst must be positive, got " + interactiveBurst);
+
+		this.interactiveBurst = interactiveBurst;
+	}
+
+	/**
+	 * Adds an element to the end of the lane of its priority.
+	 *
+	 * @param priority Priority of the element.
+	 * @param element  The element.
+	 */
+	public void add(final Priority priority, final T element) {
+		if (priority == Priority.BULK)
+			bulk.add(element);
+		else
+			interactive.add(element);
+	}
+
+	/**
+	 * Removes the next element. Takes the first interactive element unless a
+	 * burst of interactive elements was polled while bulk elements were waiting.
+	 *
+	 * @return The element, null if the queue is empty.
+	 */
+	public T poll() {
+		if (bulk.isEmpty()) {
+			streak = 0;
+			return interactive.poll();
+		}
+
+		if (interactive.isEmpty()) {
+			streak = 0;
+			return bulk.poll();
+		}
+
+		if (streak >= interactiveBurst) {
+			streak = 0;
+			promotions++;
+			return bulk.poll();
+		}
+
+		streak++;
+		return interactive.poll();
+	}
+
+	/**
+	 * Removes an element that stopped waiting. The lanes are searched from
+	 * their heads, where the elements waiting longest are.
+	 *
+	 * @param element The element.
+	 * @return true if the element was waiting.
+	 */
+	public boolean remove(final T element) {
+		return interactive.remove(element) || bulk.remove(element);
+	}
+
+	/**
+	 * @return true if no element is waiting.
+	 */
+	public boolean isEmpty() {
+		return interactive.isEmpty() && bulk.isEmpty();
+	}
+
+	/**
+	 * @return Number of waiting elements.
+	 */
+	public int size() {
+		return interactive.size() + bulk.size();
+	}
+
+	/**
+	 * @param priority The priority.
+	 * @return Number of waiting elements of the priority.
+	 */
+	public int size(final Priority priority) {
+		return priority == Priority.BULK ? bulk.size() : interactive.size();
+	}
+
+	/**
+	 * @return Number of bulk elements polled ahead of waiting interactive
+	 *         elements to keep bulk work from starving.
+	 */
+	public long getPromotions() {
+		return promotions;
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	public void clear() {
+		interactive.clear();
+		bulk.clear();
+	}
+
+}
@@ -0,0 +1,130 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Priority class of the client request handled by the current thread.
+ * Interactive work is scheduled before queued bulk work, see
+ * {@link PrioritizedQueue}. Work handed to other threads has to take the
+ * priority along with one of the propagate methods, the
+ * {@link PriorityScheduler} does so for its tasks.
+ */
+public enum Priority {
+
+	/**
+	 * Requests of a user waiting for the answer, e.g. a single patient.
+	 */
+	INTERACTIVE,
+
+	/**
+	 * Large batches, e.g. of nightly imports.
+	 */
+	BULK;
+
+	/**
+	 * Header of the client requests containing the priority, interactive or
+	 * bulk.
+	 */
+	public static final String HEADER = "X-Mainzelhandler-Priority";
+
+	/**
+	 * Priority of the current thread.
+	 */
+	private static final ThreadLocal<Priority> CURRENT = new ThreadLocal<Priority>();
+
+	/**
+	 * @return Priority of the current thread, {@link #INTERACTIVE} if the thread
+	 *         has no priority.
+	 */
+	public static Priority get() {
+		final Priority priority = CURRENT.get();
+		return priority != null ? priority : INTERACTIVE;
+	}
+
+	/**
+	 * @param priority Priority of the current thread, null to remove it.
+	 */
+	public static void set(final Priority priority) {
+		if (priority == null)
+			CURRENT.remove();
+		else
+			CURRENT.set(priority);
+	}
+
+	/**
+	 * Removes the priority of the current thread.
+	 */
+	public static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Parses the value of the {@link #HEADER} or of a request field.
+	 *
+	 * @param value The value, null if it is missing.
+	 * @return The priority, null if the value is missing or invalid.
+	 */
+	public static Priority parse(final String value) {
+		if (value == null)
+			return null;
+
+		try {
+			return valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (final IllegalArgumentException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the task with the given priority and restores the priority of the
+	 * thread afterwards.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param priority The priority, null to keep the priority of the thread.
+	 * @param task     The task.
+	 * @return Result of the task.
+	 */
+	public static <T> T call(final Priority priority, final Supplier<T> task) {
+		if (priority == null)
+			return task.get();
+
+		final Priority previous = CURRENT.get();
+		CURRENT.set(priority);
+
+		try {
+			return task.get();
+		} finally {
+			set(previous);
+		}
+	}
+
+	/**
+	 * Takes the priority of the current thread along to the thread running the
+	 * task.
+	 *
+	 * @param task The task.
+	 * @return The task running with the priority of the current thread.
+	 */
+	public static Runnable propagate(final Runnable task) {
+		final Priority priority = get();
+		return () -> call(priority, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Takes the priority of the current thread along to the thread running the
+	 * supplier.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param supplier The supplier.
+	 * @return The supplier running with the priority of the current thread.
+	 */
+	public static <T> Supplier<T> propagate(final Supplier<T> supplier) {
+		final Priority priority = get();
+		return () -> call(priority, supplier);
+	}
+
+}
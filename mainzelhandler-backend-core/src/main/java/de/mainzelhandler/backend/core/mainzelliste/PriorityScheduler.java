@@ -0,0 +1,235 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Fixed pool of threads running the tasks in the order of a
+ * {@link PrioritizedQueue}. A task gets the {@link Priority} of the thread
+ * submitting it and runs with it, so its own requests and tasks keep the
+ * priority. Queued bulk tasks are overtaken by interactive tasks, a running
+ * task is not interrupted.
+ */
+public class PriorityScheduler extends AbstractExecutorService implements MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PriorityScheduler.class);
+
+	/**
+	 * Waiting tasks, guarded by itself.
+	 */
+	private final PrioritizedQueue<Runnable> queue;
+
+	/**
+	 * Threads running the tasks.
+	 */
+	private final List<Thread> threads;
+
+	/**
+	 * Whether the scheduler was shut down, guarded by {@link #queue}.
+	 */
+	private boolean shutdown;
+
+	/**
+	 * Constructs a new PriorityScheduler and starts its threads.
+	 *
+	 * @param threadCount      Number of threads.
+	 * @param interactiveBurst Number of interactive tasks started in a row while
+	 *                         bulk tasks are waiting, after which a bulk task is
+	 *                         started.
+	 * @param threadFactory    Factory of the threads.
+	 */
+	public PriorityScheduler(final int threadCount, final int interactiveBurst, final ThreadFactory threadFactory) {
+		this.queue = new PrioritizedQueue<Runnable>(interactiveBurst);
+		this.threads = new ArrayList<Thread>(threadCount);
+
+		for (int i = 0; i < threadCount; i++) {
+			final Thread thread = threadFactory.newThread(this::work);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues a task with the priority of the current thread.
+	 *
+	 * @param task The task.
+	 * @throws RejectedExecutionException If the scheduler was shut down.
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		final Priority priority = Priority.get();
+		final Runnable prioritizedTask = () -> Priority.call(priority, () -> {
+			task.run();
+			return null;
+		});
+
+		synchronized (queue) {
+			if (shutdown)
+				throw new RejectedExecutionException("Scheduler was shut down");
+
+			queue.add(priority, prioritizedTask);
+			queue.notify();
+		}
+	}
+
+	/**
+	 * Runs the queued tasks until the scheduler is shut down and the queue is
+	 * empty.
+	 */
+	private void work() {
+		while (true) {
+			final Runnable task;
+
+			synchronized (queue) {
+				while (queue.isEmpty() && !shutdown) {
+					try {
+						queue.wait();
+					} catch (final InterruptedException exception) {
+						return;
+					}
+				}
+
+				task = queue.poll();
+			}
+
+			if (task == null)
+				return;
+
+			try {
+				task.run();
+			} catch (final RuntimeException exception) {
+				LOGGER.warn("Scheduled task failed: " + exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting tasks. The queued tasks still run.
+	 */
+	@Override
+	public void shutdown() {
+		synchronized (queue) {
+			shutdown = true;
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Stops accepting tasks, removes the queued tasks and interrupts the running
+	 * tasks.
+	 *
+	 * @return The removed tasks.
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		final List<Runnable> removed = new ArrayList<Runnable>();
+
+		synchronized (queue) {
+			shutdown = true;
+			Runnable task;
+
+			while ((task = queue.poll()) != null)
+				removed.add(task);
+
+			queue.notifyAll();
+		}
+
+		threads.forEach(Thread::interrupt);
+		return removed;
+	}
+
+	/**
+	 * @return true if the scheduler was shut down.
+	 */
+	@Override
+	public boolean isShutdown() {
+		synchronized (queue) {
+			return shutdown;
+		}
+	}
+
+	/**
+	 * @return true if the scheduler was shut down and all threads ended.
+	 */
+	@Override
+	public boolean isTerminated() {
+		return isShutdown() && threads.stream().noneMatch(Thread::isAlive);
+	}
+
+	/**
+	 * Waits for the threads to end after a shutdown.
+	 *
+	 * @param timeout Maximum time to wait.
+	 * @param unit    Unit of the timeout.
+	 * @return true if all threads ended.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long end = System.nanoTime() + unit.toNanos(timeout);
+
+		for (final Thread thread : threads) {
+			final long remaining = end - System.nanoTime();
+
+			if (remaining > 0)
+				TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+		}
+
+		return isTerminated();
+	}
+
+	/**
+	 * @param priority The priority.
+	 * @return Number of waiting tasks of the priority.
+	 */
+	public int getQueued(final Priority priority) {
+		synchronized (queue) {
+			return queue.size(priority);
+		}
+	}
+
+	/**
+	 * @return Number of bulk tasks started ahead of waiting interactive tasks to
+	 *         keep bulk work from starving.
+	 */
+	public long getPromotions() {
+		synchronized (queue) {
+			return queue.getPromotions();
+		}
+	}
+
+	/**
+	 * Registers gauges for the waiting tasks per priority and a counter for the
+	 * bulk tasks started ahead of interactive tasks.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		for (final Priority priority : Priority.values()) {
+			Gauge.builder("mainzelhandler.tokens.scheduler.queued", this, scheduler -> scheduler.getQueued(priority))
+					.description("Token requests waiting for a worker thread")
+					.tag("priority", priority.name().toLowerCase(Locale.ROOT))
+					.register(registry);
+		}
+
+		FunctionCounter.builder("mainzelhandler.tokens.scheduler.promotions", this,
+				PriorityScheduler::getPromotions)
+				.description("Bulk token requests started ahead of interactive ones to keep them from starving")
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,443 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+
+/**
+ * Search for the invalid pseudonyms of readPatients token requests. The
+ * Mainzelliste rejects a readPatients token containing an unknown pid and
+ * reports only the first of them per request. Instead of resubmitting the whole
+ * list for every invalid pid, a failed list gets split into two halves without
+ * the reported pid and the halves get probed concurrently round by round. Only
+ * the halves that fail again get split further. Every invalid pid causes at
+ * most two probes per level, so k invalid pids of n take O(k log n) requests
+ * in log(n) rounds. The search does not depend on the order in which the
+ * Mainzelliste checks the pids. The tokens of the probes only serve the
+ * search, a group with invalid pseudonyms gets one final token for all of its
+ * valid pseudonyms, so every group ends up with a single token.
+ */
+public class PseudonymBisection {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PseudonymBisection.class);
+
+	/**
+	 * Message of the Mainzelliste for an unknown pid.
+	 */
+	private static final String INVALID_PID_MESSAGE = "No patient found with provided pid";
+
+	/**
+	 * Function requesting a readPatients token for a list of pseudonyms. The
+	 * future completes with the token or with a MainzellisteRuntimeException.
+	 */
+	private final AsyncTokenRequest tokenRequest;
+
+	/**
+	 * Number of token requests after the first round of all searches.
+	 */
+	private final AtomicInteger retryCount;
+
+	/**
+	 * Constructs a new PseudonymBisection with a blocking token request.
+	 *
+	 * @param tokenRequest Function requesting a readPatients token for a list of
+	 *                     pseudonyms.
+	 * @param executor     Executor running the probes of a round. The calling
+	 *                     thread waits for the probes, so it must not be a thread
+	 *                     of this executor.
+	 */
+	public PseudonymBisection(final Function<List<String>, String> tokenRequest, final Executor executor) {
+		this.tokenRequest = pseudonyms -> CompletableFuture.supplyAsync(() -> tokenRequest.apply(pseudonyms), executor);
+		this.retryCount = new AtomicInteger();
+	}
+
+	/**
+	 * Constructs a new PseudonymBisection with a non-blocking token request.
+	 *
+	 * @param tokenRequest Function requesting a readPatients token for a list of
+	 *                     pseudonyms.
+	 */
+	public PseudonymBisection(final AsyncTokenRequest tokenRequest) {
+		this.tokenRequest = tokenRequest;
+		this.retryCount = new AtomicInteger();
+	}
+
+	/**
+	 * @return Number of token requests repeated because of invalid pseudonyms.
+	 *         Counts every request after the first round of all searches of this
+	 *         instance.
+	 */
+	public int getRetryCount() {
+		return retryCount.get();
+	}
+
+	/**
+	 * Creates readPatients tokens for the valid pseudonyms of each group. Blocks
+	 * until all tokens are created.
+	 *
+	 * @param groups            Groups of pseudonyms.
+	 * @param invalidPseudonyms Set the invalid pseudonyms get added to.
+	 * @return The tokens in the order of the groups. A group gets one token for
+	 *         all of its valid pseudonyms, a group without valid pseudonyms none.
+	 */
+	public List<String> createTokens(final List<List<String>> groups, final Set<String> invalidPseudonyms) {
+		return join(createTokensAsync(groups, invalidPseudonyms));
+	}
+
+	/**
+	 * Creates readPatients tokens for the valid pseudonyms of each group without
+	 * blocking the calling thread. The next round starts when the last probe of
+	 * the previous round completes.
+	 *
+	 * @param groups            Groups of pseudonyms.
+	 * @param invalidPseudonyms Set the invalid pseudonyms get added to. Must not be
+	 *                          read before the returned future completes.
+	 * @return Future of the tokens in the order of the groups. A group gets one
+	 *         token for all of its valid pseudonyms, a group without valid
+	 *         pseudonyms none.
+	 */
+	public CompletableFuture<List<String>> createTokensAsync(final List<List<String>> groups,
+			final Set<String> invalidPseudonyms) {
+		final List<Probe> roots = new ArrayList<Probe>(groups.size());
+
+		for (final List<String> group : groups) {
+			if (!group.isEmpty())
+				roots.add(new Probe(group));
+		}
+
+		return runRound(invalidPseudonyms, roots, 1).thenCompose(completed -> merge(invalidPseudonyms, roots));
+	}
+
+	/**
+	 * Collects the token of every group after its search. A group whose valid
+	 * pseudonyms are spread over the tokens of several probes gets a final probe
+	 * for all of them, which is searched again if a pseudonym turned invalid in
+	 * the meantime.
+	 *
+	 * @param invalidPseudonyms Set the invalid pseudonyms get added to.
+	 * @param roots             The searched probes of the groups.
+	 * @return Future of the tokens in the order of the groups.
+	 */
+	private CompletableFuture<List<String>> merge(final Set<String> invalidPseudonyms, final List<Probe> roots) {
+		final List<Probe> merged = new ArrayList<Probe>(roots.size());
+		final List<Probe> finals = new ArrayList<Probe>();
+
+		for (final Probe root : roots) {
+			final List<String> tokens = new ArrayList<String>();
+			root.collectTokens(tokens);
+
+			if (tokens.size() > 1) {
+				final Probe probe = new Probe(withoutInvalid(root.pseudonyms, invalidPseudonyms));
+				merged.add(probe);
+				finals.add(probe);
+			} else {
+				merged.add(root);
+			}
+		}
+
+		if (finals.isEmpty()) {
+			final List<String> tokens = new ArrayList<String>(merged.size());
+
+			for (final Probe root : merged)
+				root.collectTokens(tokens);
+
+			return CompletableFuture.completedFuture(tokens);
+		}
+
+		return runRound(invalidPseudonyms, finals, 2).thenCompose(completed -> merge(invalidPseudonyms, merged));
+	}
+
+	/**
+	 * Extracts the invalid pid of an error message of the Mainzelliste.
+	 *
+	 * @param message The error message.
+	 * @return The invalid pid or null if the message does not report an invalid
+	 *         pid.
+	 */
+	public static String parseInvalidPseudonym(final String message) {
+		if (message == null || !message.contains(INVALID_PID_MESSAGE))
+			return null;
+
+		final int start = message.indexOf('\'', message.indexOf(INVALID_PID_MESSAGE));
+		final int end = message.lastIndexOf('\'');
+
+		if (start < 0 || end <= start)
+			return null;
+
+		return message.substring(start + 1, end);
+	}
+
+	/**
+	 * Runs the probes of a round and starts the next round after their
+	 * completion.
+	 *
+	 * @param invalidPseudonyms Set the invalid pseudonyms get added to.
+	 * @param probes            The probes of the round.
+	 * @param round             Number of the round.
+	 * @return Future completing after the last round.
+	 */
+	private CompletableFuture<Void> runRound(final Set<String> invalidPseudonyms, final List<Probe> probes,
+			final int round) {
+		if (probes.isEmpty()) {
+			LOGGER.debug("Found " + invalidPseudonyms.size() + " invalid pseudonyms in " + (round - 1) + " rounds");
+			return CompletableFuture.completedFuture(null);
+		}
+
+		if (round > 1)
+			retryCount.addAndGet(probes.size());
+
+		final CompletableFuture<?>[] results = new CompletableFuture<?>[probes.size()];
+
+		for (int i = 0; i < probes.size(); i++)
+			results[i] = probe(probes.get(i));
+
+		return CompletableFuture.allOf(results)
+				.thenCompose(completed -> runRound(invalidPseudonyms, nextProbes(invalidPseudonyms, probes),
+						round + 1));
+	}
+
+	/**
+	 * Evaluates the completed probes of a round and splits the failed ones into
+	 * the probes of the next round. The reported invalid pids are left out of
+	 * the halves.
+	 *
+	 * @param invalidPseudonyms Set the invalid pseudonyms get added to.
+	 * @param probes            The completed probes.
+	 * @return The probes of the next round.
+	 */
+	private static List<Probe> nextProbes(final Set<String> invalidPseudonyms, final List<Probe> probes) {
+		for (final Probe probe : probes) {
+			if (probe.invalidPseudonym != null)
+				invalidPseudonyms.add(probe.invalidPseudonym);
+		}
+
+		final List<Probe> nextProbes = new ArrayList<Probe>();
+
+		for (final Probe probe : probes) {
+			if (probe.invalidPseudonym == null)
+				continue;
+
+			final List<String> remaining = withoutInvalid(probe.pseudonyms, invalidPseudonyms);
+
+			if (remaining.size() == 1) {
+				probe.halves.add(new Probe(remaining));
+			} else if (remaining.size() > 1) {
+				final int middle = remaining.size() / 2;
+				probe.halves.add(new Probe(remaining.subList(0, middle)));
+				probe.halves.add(new Probe(remaining.subList(middle, remaining.size())));
+			}
+
+			nextProbes.addAll(probe.halves);
+		}
+
+		return nextProbes;
+	}
+
+	/**
+	 * Requests a token for the pseudonyms of the given probe and stores the token
+	 * or the reported invalid pid in the probe.
+	 *
+	 * @param probe The probe.
+	 * @return Future completing after the result is stored. Completes
+	 *         exceptionally if the request failed for another reason than an
+	 *         invalid pid.
+	 */
+	private CompletableFuture<Void> probe(final Probe probe) {
+		return tokenRequest.request(probe.pseudonyms).handle((token, exception) -> {
+			if (exception == null) {
+				probe.token = token;
+				return null;
+			}
+
+			final Throwable cause = exception instanceof CompletionException && exception.getCause() != null
+					? exception.getCause()
+					: exception;
+
+			if (cause instanceof MainzellisteRuntimeException) {
+				final String invalidPseudonym = parseInvalidPseudonym(cause.getMessage());
+
+				if (invalidPseudonym != null && probe.pseudonyms.contains(invalidPseudonym)) {
+					probe.invalidPseudonym = invalidPseudonym;
+					return null;
+				}
+			}
+
+			throw new CompletionException(cause);
+		});
+	}
+
+	/**
+	 * Waits for the completion of the search and rethrows its exception.
+	 *
+	 * @param result The completion of the search.
+	 * @return The tokens.
+	 */
+	private static List<String> join(final CompletableFuture<List<String>> result) {
+		try {
+			return result.join();
+		} catch (final CompletionException exception) {
+			if (exception.getCause() instanceof RuntimeException)
+				throw (RuntimeException) exception.getCause();
+
+			throw exception;
+		}
+	}
+
+	/**
+	 * Removes the invalid pseudonyms from a list.
+	 *
+	 * @param pseudonyms        The pseudonyms.
+	 * @param invalidPseudonyms The invalid pseudonyms.
+	 * @return New list without the invalid pseudonyms.
+	 */
+	private static List<String> withoutInvalid(final List<String> pseudonyms, final Set<String> invalidPseudonyms) {
+		final List<String> remaining = new ArrayList<String>(pseudonyms.size());
+
+		for (final String pseudonym : pseudonyms) {
+			if (!invalidPseudonyms.contains(pseudonym))
+				remaining.add(pseudonym);
+		}
+
+		return remaining;
+	}
+
+	/**
+	 * Removes duplicates from a list of pseudonyms.
+	 *
+	 * @param pseudonyms The pseudonyms.
+	 * @return New list containing every pseudonym once in the original order.
+	 */
+	public static List<String> distinct(final List<String> pseudonyms) {
+		final Set<String> seen = new HashSet<String>();
+		final List<String> distinct = new ArrayList<String>(pseudonyms.size());
+
+		for (final String pseudonym : pseudonyms) {
+			if (seen.add(pseudonym))
+				distinct.add(pseudonym);
+		}
+
+		return Collections.unmodifiableList(distinct);
+	}
+
+	/**
+	 * Splits a list of pseudonyms into chunks.
+	 *
+	 * @param pseudonyms The pseudonyms.
+	 * @param chunkSize  Maximum number of pseudonyms per chunk. A value less than
+	 *                   one keeps all pseudonyms in one chunk.
+	 * @return The chunks in the order of the pseudonyms.
+	 */
+	public static List<List<String>> chunk(final List<String> pseudonyms, final int chunkSize) {
+		if (chunkSize < 1 || pseudonyms.size() <= chunkSize)
+			return Collections.singletonList(pseudonyms);
+
+		final List<List<String>> chunks = new ArrayList<List<String>>();
+
+		for (int start = 0; start < pseudonyms.size(); start += chunkSize)
+			chunks.add(pseudonyms.subList(start, Math.min(start + chunkSize, pseudonyms.size())));
+
+		return chunks;
+	}
+
+	/**
+	 * Selects the invalid pseudonyms of a list.
+	 *
+	 * @param pseudonyms        The pseudonyms.
+	 * @param invalidPseudonyms The invalid pseudonyms.
+	 * @return New list containing the invalid pseudonyms in the order of the list.
+	 */
+	public static List<String> invalidInOrder(final List<String> pseudonyms, final Set<String> invalidPseudonyms) {
+		final List<String> invalid = new ArrayList<String>(invalidPseudonyms.size());
+
+		for (final String pseudonym : pseudonyms) {
+			if (invalidPseudonyms.contains(pseudonym))
+				invalid.add(pseudonym);
+		}
+
+		return invalid;
+	}
+
+	/**
+	 * Non-blocking request of a readPatients token.
+	 */
+	@FunctionalInterface
+	public interface AsyncTokenRequest {
+
+		/**
+		 * Requests a readPatients token for the given pseudonyms.
+		 *
+		 * @param pseudonyms The pseudonyms.
+		 * @return Future of the token. Completes exceptionally with a
+		 *         MainzellisteRuntimeException if a pseudonym is invalid.
+		 */
+		CompletableFuture<String> request(List<String> pseudonyms);
+
+	}
+
+	/**
+	 * A token request of a round. A failed probe is split into halves probed in
+	 * the next round.
+	 */
+	private static class Probe {
+
+		/**
+		 * Pseudonyms of the probe.
+		 */
+		private final List<String> pseudonyms;
+
+		/**
+		 * Probes of the valid rest of a failed probe in the order of the
+		 * pseudonyms.
+		 */
+		private final List<Probe> halves;
+
+		/**
+		 * The created token, null if the probe failed.
+		 */
+		private String token;
+
+		/**
+		 * The invalid pid reported by the Mainzelliste, null if the probe
+		 * succeeded.
+		 */
+		private String invalidPseudonym;
+
+		/**
+		 * Constructs a new Probe.
+		 *
+		 * @param pseudonyms Pseudonyms of the probe.
+		 */
+		private Probe(final List<String> pseudonyms) {
+			this.pseudonyms = pseudonyms;
+			this.halves = new ArrayList<Probe>(2);
+		}
+
+		/**
+		 * Adds the tokens of the probe and its halves in the order of the
+		 * pseudonyms.
+		 *
+		 * @param tokens List the tokens get added to.
+		 */
+		private void collectTokens(final List<String> tokens) {
+			if (token != null)
+				tokens.add(token);
+
+			for (final Probe half : halves)
+				half.collectTokens(tokens);
+		}
+
+	}
+
+}
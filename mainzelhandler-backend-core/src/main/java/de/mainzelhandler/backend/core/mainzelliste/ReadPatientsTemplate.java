@@ -0,0 +1,121 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import de.mainzelhandler.backend.core.json.JsonWriter;
+
+/**
+ * Precomputed body of readPatients token requests with fixed result fields. The
+ * constant parts of the body are encoded once, a request only copies them
+ * together with the pseudonyms into a single byte array.
+ */
+public final class ReadPatientsTemplate {
+
+	/**
+	 * Start of a searchId.
+	 */
+	private static final byte[] SEARCH_ID_START = "{\"idType\":\"pid\",\"idString\":\""
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * End of a searchId.
+	 */
+	private static final byte[] SEARCH_ID_END = "\"}".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * End of the body.
+	 */
+	private static final byte[] BODY_END = "]}}".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Start of the body up to the searchIds.
+	 */
+	private final byte[] bodyStart;
+
+	/**
+	 * Constructs a new ReadPatientsTemplate.
+	 *
+	 * @param resultFields Names of PII fields to get returned by the
+	 *                     depseudonymization.
+	 */
+	public ReadPatientsTemplate(final List<String> resultFields) {
+		final StringBuilder start = new StringBuilder("{\"type\":\"readPatients\",\"data\":{\"resultFields\":[");
+
+		for (int i = 0; i < resultFields.size(); i++) {
+			if (i > 0)
+				start.append(',');
+
+			JsonWriter.appendString(start, resultFields.get(i));
+		}
+
+		this.bodyStart = start.append("],\"resultIds\":[\"pid\"],\"searchIds\":[").toString()
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates the body of a readPatients token request.
+	 *
+	 * @param pseudonyms Pseudonyms to depseudonymize.
+	 * @return UTF-8 encoded body.
+	 */
+	public byte[] createBody(final List<String> pseudonyms) {
+		int length = bodyStart.length + BODY_END.length + Math.max(0, pseudonyms.size() - 1)
+				+ pseudonyms.size() * (SEARCH_ID_START.length + SEARCH_ID_END.length);
+		byte[][] escaped = null;
+
+		for (int i = 0; i < pseudonyms.size(); i++) {
+			final String pseudonym = pseudonyms.get(i);
+
+			if (JsonWriter.isPlainAscii(pseudonym)) {
+				length += pseudonym.length();
+			} else {
+				if (escaped == null)
+					escaped = new byte[pseudonyms.size()][];
+
+				final StringBuilder builder = JsonWriter.appendString(new StringBuilder(), pseudonym);
+				escaped[i] = builder.substring(1, builder.length() - 1).getBytes(StandardCharsets.UTF_8);
+				length += escaped[i].length;
+			}
+		}
+
+		final byte[] body = new byte[length];
+		int position = copy(bodyStart, body, 0);
+
+		for (int i = 0; i < pseudonyms.size(); i++) {
+			if (i > 0)
+				body[position++] = ',';
+
+			position = copy(SEARCH_ID_START, body, position);
+
+			if (escaped != null && escaped[i] != null) {
+				position = copy(escaped[i], body, position);
+			} else {
+				final String pseudonym = pseudonyms.get(i);
+
+				for (int j = 0; j < pseudonym.length(); j++)
+					body[position++] = (byte) pseudonym.charAt(j);
+			}
+
+			position = copy(SEARCH_ID_END, body, position);
+		}
+
+		copy(BODY_END, body, position);
+
+		return body;
+	}
+
+	/**
+	 * Copies the source into the target.
+	 *
+	 * @param source   The source.
+	 * @param target   The target.
+	 * @param position Position in the target.
+	 * @return Position after the copied bytes.
+	 */
+	private static int copy(final byte[] source, final byte[] target, final int position) {
+		System.arraycopy(source, 0, target, position, source.length);
+		return position + source.length;
+	}
+
+}
@@ -0,0 +1,86 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Retries of the idempotent requests to the Mainzelliste. The delay before a
+ * retry grows exponentially and is drawn uniformly between zero and the
+ * exponential bound, so clients failing at the same time do not retry at the
+ * same time.
+ */
+public class RetryPolicy {
+
+	/**
+	 * Maximum number of attempts including the first request.
+	 */
+	private final int maxAttempts;
+
+	/**
+	 * Bound of the delay before the first retry in milliseconds.
+	 */
+	private final long baseDelay;
+
+	/**
+	 * Maximum bound of the delay in milliseconds.
+	 */
+	private final long maxDelay;
+
+	/**
+	 * Draws a number between zero inclusive and the given bound exclusive.
+	 */
+	private final LongUnaryOperator random;
+
+	/**
+	 * Constructs a new RetryPolicy.
+	 *
+	 * @param maxAttempts Maximum number of attempts including the first request,
+	 *                    1 disables the retries.
+	 * @param baseDelay   Bound of the delay before the first retry in
+	 *                    milliseconds, doubled with every retry.
+	 * @param maxDelay    Maximum bound of the delay in milliseconds.
+	 */
+	public RetryPolicy(final int maxAttempts, final long baseDelay, final long maxDelay) {
+		this(maxAttempts, baseDelay, maxDelay, bound -> ThreadLocalRandom.current().nextLong(bound));
+	}
+
+	/**
+	 * Constructs a new RetryPolicy drawing the delays from the given source.
+	 *
+	 * @param maxAttempts Maximum number of attempts including the first request,
+	 *                    1 disables the retries.
+	 * @param baseDelay   Bound of the delay before the first retry in
+	 *                    milliseconds, doubled with every retry.
+	 * @param maxDelay    Maximum bound of the delay in milliseconds.
+	 * @param random      Draws a number between zero inclusive and the given
+	 *                    bound exclusive.
+	 */
+	RetryPolicy(final int maxAttempts, final long baseDelay, final long maxDelay, final LongUnaryOperator random) {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("Maximum attempts must be positive, got " + maxAttempts);
+
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.random = random;
+	}
+
+	/**
+	 * @return Maximum number of attempts including the first request.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Draws the delay before a retry.
+	 *
+	 * @param attempt Number of the failed attempt, starting with 1.
+	 * @return The delay in milliseconds.
+	 */
+	public long delay(final int attempt) {
+		final long bound = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+		return bound > 0 ? random.applyAsLong(bound + 1) : 0;
+	}
+
+}
@@ -0,0 +1,137 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+/**
+ * POJO class for the configuration of a {@link MainzellisteSessionPool}.
+ */
+public class SessionPoolConfig {
+
+	/**
+	 * Number of sessions kept alive by the pool.
+	 */
+	private int size = 2;
+
+	/**
+	 * Time in milliseconds a session gets leased before it is retired. Should be
+	 * lower than the session timeout of the Mainzelliste.
+	 */
+	private long ttl = 300000;
+
+	/**
+	 * Number of tokens after which a session is retired.
+	 */
+	private int maxTokens = 10000;
+
+	/**
+	 * Time in milliseconds before the end of the ttl at which a session gets
+	 * replaced in the background.
+	 */
+	private long refreshAhead = 60000;
+
+	/**
+	 * Time in milliseconds a retired session is kept on the Mainzelliste before it
+	 * gets deleted. Tokens handed out by the session stay valid until then.
+	 */
+	private long retireDelay = 600000;
+
+	/**
+	 * Constructs a new SessionPoolConfig with the default values.
+	 */
+	public SessionPoolConfig() {
+	}
+
+	/**
+	 * Constructs a new SessionPoolConfig.
+	 *
+	 * @param size         Number of sessions kept alive by the pool.
+	 * @param ttl          Time in milliseconds a session gets leased before it is
+	 *                     retired.
+	 * @param maxTokens    Number of tokens after which a session is retired.
+	 * @param refreshAhead Time in milliseconds before the end of the ttl at which a
+	 *                     session gets replaced in the background.
+	 * @param retireDelay  Time in milliseconds a retired session is kept on the
+	 *                     Mainzelliste before it gets deleted.
+	 */
+	public SessionPoolConfig(final int size, final long ttl, final int maxTokens, final long refreshAhead,
+			final long retireDelay) {
+		this.size = size;
+		this.ttl = ttl;
+		this.maxTokens = maxTokens;
+		this.refreshAhead = refreshAhead;
+		this.retireDelay = retireDelay;
+	}
+
+	/**
+	 * @return Number of sessions kept alive by the pool.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @param size Number of sessions kept alive by the pool.
+	 */
+	public void setSize(final int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @return Time in milliseconds a session gets leased before it is retired.
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @param ttl Time in milliseconds a session gets leased before it is retired.
+	 */
+	public void setTtl(final long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * @return Number of tokens after which a session is retired.
+	 */
+	public int getMaxTokens() {
+		return maxTokens;
+	}
+
+	/**
+	 * @param maxTokens Number of tokens after which a session is retired.
+	 */
+	public void setMaxTokens(final int maxTokens) {
+		this.maxTokens = maxTokens;
+	}
+
+	/**
+	 * @return Time in milliseconds before the end of the ttl at which a session
+	 *         gets replaced in the background.
+	 */
+	public long getRefreshAhead() {
+		return refreshAhead;
+	}
+
+	/**
+	 * @param refreshAhead Time in milliseconds before the end of the ttl at which a
+	 *                     session gets replaced in the background.
+	 */
+	public void setRefreshAhead(final long refreshAhead) {
+		this.refreshAhead = refreshAhead;
+	}
+
+	/**
+	 * @return Time in milliseconds a retired session is kept on the Mainzelliste
+	 *         before it gets deleted.
+	 */
+	public long getRetireDelay() {
+		return retireDelay;
+	}
+
+	/**
+	 * @param retireDelay Time in milliseconds a retired session is kept on the
+	 *                    Mainzelliste before it gets deleted.
+	 */
+	public void setRetireDelay(final long retireDelay) {
+		this.retireDelay = retireDelay;
+	}
+
+}
@@ -0,0 +1,319 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Hedges slow token requests. If a request has not answered within the
+ * configured percentile of the recent latencies, a second request is sent and
+ * the first successful answer wins. The token of the losing request is handed
+ * to a consumer, e.g. to recycle it into a reservoir. A budget caps the hedges
+ * to a fraction of the requests, so a slow Mainzelliste does not get twice the
+ * load. Requests are not hedged before enough latencies are known.
+ */
+public class TokenHedger implements Closeable, MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TokenHedger.class);
+
+	/**
+	 * Number of latencies the hedge delay is derived from.
+	 */
+	private static final int WINDOW = 256;
+
+	/**
+	 * Number of latencies after which the hedge delay is derived again.
+	 */
+	private static final int UPDATE_INTERVAL = 64;
+
+	/**
+	 * Budget units of a single hedge.
+	 */
+	private static final long HEDGE_COST = 1000;
+
+	/**
+	 * Maximum number of hedges saved up in the budget.
+	 */
+	private static final long MAX_BURST = 10;
+
+	/**
+	 * Percentile of the latencies after which a request is hedged.
+	 */
+	private final double percentile;
+
+	/**
+	 * Minimum hedge delay in milliseconds.
+	 */
+	private final long minDelay;
+
+	/**
+	 * Budget units earned by every request, {@link #HEDGE_COST} times the
+	 * fraction of requests that may be hedged.
+	 */
+	private final long budgetPerRequest;
+
+	/**
+	 * Recent latencies in milliseconds as ring buffer, guarded by itself.
+	 */
+	private final long[] latencies = new long[WINDOW];
+
+	/**
+	 * Number of recorded latencies, guarded by {@link #latencies}.
+	 */
+	private long latencyCount;
+
+	/**
+	 * Current hedge delay in milliseconds, Long.MAX_VALUE until enough latencies
+	 * are known.
+	 */
+	private volatile long delay = Long.MAX_VALUE;
+
+	/**
+	 * Available budget units.
+	 */
+	private final AtomicLong budget = new AtomicLong();
+
+	/**
+	 * Number of sent hedges.
+	 */
+	private final AtomicLong hedges = new AtomicLong();
+
+	/**
+	 * Number of hedges that answered first.
+	 */
+	private final AtomicLong wins = new AtomicLong();
+
+	/**
+	 * Number of tokens of losing requests.
+	 */
+	private final AtomicLong losers = new AtomicLong();
+
+	/**
+	 * Timer sending the hedges.
+	 */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Constructs a new TokenHedger.
+	 *
+	 * @param percentile Percentile of the latencies after which a request is
+	 *                   hedged, between 0 and 1.
+	 * @param minDelay   Minimum hedge delay in milliseconds.
+	 * @param budget     Fraction of the requests that may be hedged.
+	 */
+	public TokenHedger(final double percentile, final long minDelay, final double budget) {
+		if (percentile <= 0 || percentile >= 1)
+			throw new IllegalArgumentException("Percentile must be between 0 and 1, got " + percentile);
+
+		this.percentile = percentile;
+		this.minDelay = minDelay;
+		this.budgetPerRequest = Math.round(budget * HEDGE_COST);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "mainzelhandler-hedge-1");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Sends a request and hedges it if it is slow and the budget allows it.
+	 *
+	 * @param <T>     Type of the token.
+	 * @param primary Sends the request.
+	 * @param hedge   Sends the hedge, called on the timer thread of the hedger.
+	 * @param loser   Receives the token of the losing request if both succeed.
+	 * @return Future of the first token. Completes exceptionally if all sent
+	 *         requests failed, with the exception of the last one.
+	 */
+	public <T> CompletableFuture<T> hedge(final Supplier<CompletableFuture<T>> primary,
+			final Supplier<CompletableFuture<T>> hedge, final Consumer<T> loser) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final AtomicInteger pending = new AtomicInteger(1);
+
+		earn();
+		send(primary, result, pending, loser, false);
+
+		final long hedgeDelay = delay;
+
+		if (hedgeDelay != Long.MAX_VALUE) {
+			scheduler.schedule(() -> {
+				if (result.isDone() || !spend())
+					return;
+
+				hedges.incrementAndGet();
+				LOGGER.debug("Hedging token request after " + hedgeDelay + " ms");
+				pending.incrementAndGet();
+				send(hedge, result, pending, loser, true);
+			}, hedgeDelay, TimeUnit.MILLISECONDS);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sends a single request and completes the result with its token if it is the
+	 * first.
+	 *
+	 * @param <T>     Type of the token.
+	 * @param request Sends the request.
+	 * @param result  Future of the first token.
+	 * @param pending Number of requests without answer.
+	 * @param loser   Receives the token if it is not the first.
+	 * @param isHedge Whether the request is the hedge.
+	 */
+	private <T> void send(final Supplier<CompletableFuture<T>> request, final CompletableFuture<T> result,
+			final AtomicInteger pending, final Consumer<T> loser, final boolean isHedge) {
+		final long start = System.currentTimeMillis();
+		CompletableFuture<T> response;
+
+		try {
+			response = request.get();
+		} catch (final RuntimeException exception) {
+			response = CompletableFuture.failedFuture(exception);
+		}
+
+		response.whenComplete((token, exception) -> {
+			final boolean last = pending.decrementAndGet() == 0;
+
+			if (exception != null) {
+				if (last)
+					result.completeExceptionally(exception);
+
+				return;
+			}
+
+			record(System.currentTimeMillis() - start);
+
+			if (result.complete(token)) {
+				if (isHedge)
+					wins.incrementAndGet();
+			} else {
+				losers.incrementAndGet();
+				loser.accept(token);
+			}
+		});
+	}
+
+	/**
+	 * Records the latency of a successful request and derives the hedge delay
+	 * every {@link #UPDATE_INTERVAL} latencies.
+	 *
+	 * @param latency The latency in milliseconds.
+	 */
+	private void record(final long latency) {
+		final long[] window;
+
+		synchronized (latencies) {
+			latencies[(int) (latencyCount++ % WINDOW)] = latency;
+
+			if (latencyCount < WINDOW / 4 || latencyCount % UPDATE_INTERVAL != 0)
+				return;
+
+			window = Arrays.copyOf(latencies, (int) Math.min(latencyCount, WINDOW));
+		}
+
+		Arrays.sort(window);
+		delay = Math.max(minDelay, window[(int) Math.min(window.length - 1, window.length * percentile)]);
+	}
+
+	/**
+	 * Adds the budget of a request.
+	 */
+	private void earn() {
+		budget.getAndUpdate(units -> Math.min(MAX_BURST * HEDGE_COST, units + budgetPerRequest));
+	}
+
+	/**
+	 * Takes the budget of a hedge.
+	 *
+	 * @return true if the budget allowed the hedge.
+	 */
+	private boolean spend() {
+		long units;
+
+		do {
+			units = budget.get();
+
+			if (units < HEDGE_COST)
+				return false;
+		} while (!budget.compareAndSet(units, units - HEDGE_COST));
+
+		return true;
+	}
+
+	/**
+	 * @return Current hedge delay in milliseconds, -1 until enough latencies are
+	 *         known.
+	 */
+	public long getDelay() {
+		final long hedgeDelay = delay;
+		return hedgeDelay != Long.MAX_VALUE ? hedgeDelay : -1;
+	}
+
+	/**
+	 * @return Number of sent hedges.
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return Number of hedges that answered first.
+	 */
+	public long getWins() {
+		return wins.get();
+	}
+
+	/**
+	 * @return Number of tokens of losing requests.
+	 */
+	public long getLosers() {
+		return losers.get();
+	}
+
+	/**
+	 * Registers a gauge for the hedge delay and counters for the hedges, their
+	 * wins and the tokens of losing requests.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("mainzelhandler.tokens.hedge.delay", this, TokenHedger::getDelay)
+				.description("Time in milliseconds after which token requests get hedged, -1 while unknown")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.tokens.hedge.requests", hedges, AtomicLong::get)
+				.description("Hedged token requests")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.tokens.hedge.wins", wins, AtomicLong::get)
+				.description("Hedged token requests answered first by the hedge")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.tokens.hedge.losers", losers, AtomicLong::get)
+				.description("Tokens of losing requests, recycled into the reservoir if enabled")
+				.register(registry);
+	}
+
+	/**
+	 * Stops the timer. Pending hedges are not sent.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+}
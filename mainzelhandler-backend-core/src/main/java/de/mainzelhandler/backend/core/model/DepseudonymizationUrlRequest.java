@@ -17,6 +17,12 @@ public class DepseudonymizationUrlRequest {
 	 */
 	private List<String> resultFields;
 
+	/**
+	 * Priority of the request, interactive or bulk. Overrides the priority
+	 * header, null to keep it.
+	 */
+	private String priority;
+
 	/**
 	 * Constructs a new DepseudonymizationUrlRequest.
 	 */
@@ -64,4 +70,20 @@ public class DepseudonymizationUrlRequest {
 		this.resultFields = resultFields;
 	}
 
+	/**
+	 * @return Priority of the request, interactive or bulk. Null if the priority
+	 *         header applies.
+	 */
+	public String getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority Priority of the request, interactive or bulk. Null if the
+	 *                 priority header applies.
+	 */
+	public void setPriority(final String priority) {
+		this.priority = priority;
+	}
+
 }
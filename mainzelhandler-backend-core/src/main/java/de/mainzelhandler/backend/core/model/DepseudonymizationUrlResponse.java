@@ -1,19 +1,27 @@
 package de.mainzelhandler.backend.core.model;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Container class for the response of a depseudonymization URL request.
- * Contains the depseudonymization URL and a list of the invalid pseudonyms from
- * the corresponding request.
+ * Contains the depseudonymization URLs and a list of the invalid pseudonyms
+ * from the corresponding request. Large requests are split into chunks, each
+ * chunk has its own URL.
  */
 public class DepseudonymizationUrlResponse {
 
 	/**
-	 * URL for the depseudonymization.
+	 * URL for the depseudonymization. The URL of the first chunk if the request
+	 * was split.
 	 */
 	private String url;
 
+	/**
+	 * URLs for the depseudonymization, one per chunk.
+	 */
+	private List<String> urls;
+
 	/**
 	 * List of invalid pseudonyms.
 	 */
@@ -26,12 +34,28 @@ public class DepseudonymizationUrlResponse {
 	 * @param invlaidPseudonyms  List of invalid pseudonyms.
 	 */
 	public DepseudonymizationUrlResponse(final String psedonymizationUrl, final List<String> invlaidPseudonyms) {
-		this.url = psedonymizationUrl;
+		this(psedonymizationUrl.isEmpty() ? Collections.<String>emptyList()
+				: Collections.singletonList(psedonymizationUrl), invlaidPseudonyms);
+	}
+
+	/**
+	 * Constructs a new DepseudonymizationUrlResponse for a request split into
+	 * chunks.
+	 *
+	 * @param depseudonymizationUrls URLs for the depseudonymization, one per
+	 *                               chunk.
+	 * @param invlaidPseudonyms      List of invalid pseudonyms.
+	 */
+	public DepseudonymizationUrlResponse(final List<String> depseudonymizationUrls,
+			final List<String> invlaidPseudonyms) {
+		this.url = depseudonymizationUrls.isEmpty() ? "" : depseudonymizationUrls.get(0);
+		this.urls = depseudonymizationUrls;
 		this.invalidPseudonyms = invlaidPseudonyms;
 	}
 
 	/**
-	 * @return URL for the depseudonymization.
+	 * @return URL for the depseudonymization. The URL of the first chunk if the
+	 *         request was split.
 	 */
 	public String getUrl() {
 		return url;
@@ -44,6 +68,20 @@ public class DepseudonymizationUrlResponse {
 		this.url = pseudonymizationUrl;
 	}
 
+	/**
+	 * @return URLs for the depseudonymization, one per chunk.
+	 */
+	public List<String> getUrls() {
+		return urls;
+	}
+
+	/**
+	 * @param urls URLs for the depseudonymization, one per chunk.
+	 */
+	public void setUrls(final List<String> urls) {
+		this.urls = urls;
+	}
+
 	/**
 	 * @return List of invalid pseudonyms.
 	 */
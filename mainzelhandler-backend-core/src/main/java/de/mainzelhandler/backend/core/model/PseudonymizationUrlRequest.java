@@ -10,6 +10,12 @@ public class PseudonymizationUrlRequest {
 	 */
 	private Integer count;
 
+	/**
+	 * Priority of the request, interactive or bulk. Overrides the priority
+	 * header, null to keep it.
+	 */
+	private String priority;
+
 	/**
 	 * Constructs a new PseudonymizationUrlRequest.
 	 */
@@ -39,4 +45,20 @@ public class PseudonymizationUrlRequest {
 		this.count = count;
 	}
 
+	/**
+	 * @return Priority of the request, interactive or bulk. Null if the priority
+	 *         header applies.
+	 */
+	public String getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority Priority of the request, interactive or bulk. Null if the
+	 *                 priority header applies.
+	 */
+	public void setPriority(final String priority) {
+		this.priority = priority;
+	}
+
 }
@@ -1,5 +1,8 @@
 package de.mainzelhandler.backend.core.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * POJO class for the response of a pseudonymization URL request.
  */
@@ -16,6 +19,16 @@ public class PseudonymizationUrlResponse {
 	 */
 	private String[] urlTokens;
 
+	/**
+	 * Number of requested tokens that could not be created.
+	 */
+	private int failedCount;
+
+	/**
+	 * Distinct error messages of the tokens that could not be created.
+	 */
+	private List<String> errors;
+
 	/**
 	 * Constructs a new PseudonymizationUrlResponse.
 	 *
@@ -25,8 +38,26 @@ public class PseudonymizationUrlResponse {
 	 *                    different token.
 	 */
 	public PseudonymizationUrlResponse(final boolean useCallback, final String[] urlTokens) {
+		this(useCallback, urlTokens, 0, new ArrayList<String>());
+	}
+
+	/**
+	 * Constructs a new PseudonymizationUrlResponse for a partially failed request.
+	 *
+	 * @param useCallback Indicates whether the depseudonymization of the returned
+	 *                    tokens triggers the callback request.
+	 * @param urlTokens   Array containing the created URLs in the order of the
+	 *                    request. Each URL contains a different token.
+	 * @param failedCount Number of requested tokens that could not be created.
+	 * @param errors      Distinct error messages of the tokens that could not be
+	 *                    created.
+	 */
+	public PseudonymizationUrlResponse(final boolean useCallback, final String[] urlTokens, final int failedCount,
+			final List<String> errors) {
 		this.useCallback = useCallback;
 		this.urlTokens = urlTokens;
+		this.failedCount = failedCount;
+		this.errors = errors;
 	}
 
 	/**
@@ -61,4 +92,33 @@ public class PseudonymizationUrlResponse {
 		this.urlTokens = urlTokens;
 	}
 
+	/**
+	 * @return Number of requested tokens that could not be created.
+	 */
+	public int getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @param failedCount Number of requested tokens that could not be created.
+	 */
+	public void setFailedCount(final int failedCount) {
+		this.failedCount = failedCount;
+	}
+
+	/**
+	 * @return Distinct error messages of the tokens that could not be created.
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @param errors Distinct error messages of the tokens that could not be
+	 *               created.
+	 */
+	public void setErrors(final List<String> errors) {
+		this.errors = errors;
+	}
+
 }
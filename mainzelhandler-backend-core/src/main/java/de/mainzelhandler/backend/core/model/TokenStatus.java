@@ -0,0 +1,47 @@
+package de.mainzelhandler.backend.core.model;
+
+/**
+ * Status of a token of a patient request after the wait for its pseudonym.
+ */
+public enum TokenStatus {
+
+	/**
+	 * The pseudonym of the token was stored and got exchanged.
+	 */
+	STORED("stored"),
+
+	/**
+	 * The token was issued by this instance, but its callback request did not
+	 * arrive yet. The request can be repeated later.
+	 */
+	PENDING("pending"),
+
+	/**
+	 * The token is unknown, was already used or its callback request did not
+	 * arrive within the pseudonym timeout.
+	 */
+	EXPIRED("expired");
+
+	/**
+	 * Name of the status in the response.
+	 */
+	private final String name;
+
+	/**
+	 * Constructs a new TokenStatus.
+	 *
+	 * @param name Name of the status in the response.
+	 */
+	TokenStatus(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return Name of the status in the response.
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,304 @@
+package de.mainzelhandler.backend.core.services;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.model.TokenStatus;
+
+/**
+ * Lets patient requests wait for the callback requests of their tokens. A
+ * patient request sent before the callback request of the Mainzelliste
+ * arrived parks on a future per token instead of dropping the patient. The
+ * futures get completed by the callback requests or by the timeout, no thread
+ * is blocked while waiting. The request continues on the executor of the
+ * awaiter, so neither the callback request nor the timer runs the
+ * application. Only tokens issued by this instance are awaited, a token is
+ * registered when its URL is handed out. The awaiter does not know the tokens
+ * of other instances and would report them as expired at once, so it cannot be
+ * used with a store shared with other instances or with peers.
+ */
+public class PseudonymAwaiter implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PseudonymAwaiter.class);
+
+	/**
+	 * Header of the patient responses containing the status of the tokens
+	 * without a stored pseudonym in the format {@code token=status, token=status}.
+	 * At most {@value #MAX_REPORTED_TOKENS} tokens are listed, followed by
+	 * {@code ...=n} if n further tokens were left out.
+	 */
+	public static final String STATUS_HEADER = "X-Mainzelhandler-Token-Status";
+
+	/**
+	 * Maximum number of tokens in the {@link #STATUS_HEADER}, keeps the header
+	 * below 4 KB.
+	 */
+	public static final int MAX_REPORTED_TOKENS = 64;
+
+	/**
+	 * Maximum time in milliseconds a patient request waits.
+	 */
+	private final long timeout;
+
+	/**
+	 * Time in milliseconds after which the callback request of an issued token is
+	 * no longer expected.
+	 */
+	private final long tokenTimeout;
+
+	/**
+	 * Maximum number of issued tokens kept.
+	 */
+	private final int capacity;
+
+	/**
+	 * Issued tokens without callback request with the time they were issued.
+	 */
+	private final ConcurrentHashMap<String, Long> issued = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Futures of the awaited tokens, completed by their callback request.
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<Void>> waiters =
+			new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+	/**
+	 * Executor continuing the patient requests after their wait.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Constructs a new PseudonymAwaiter.
+	 *
+	 * @param timeout      Maximum time in milliseconds a patient request waits.
+	 * @param tokenTimeout Time in milliseconds after which the callback request
+	 *                     of an issued token is no longer expected.
+	 * @param capacity     Maximum number of issued tokens kept. Further tokens are
+	 *                     not awaited.
+	 * @param threads      Number of threads continuing the patient requests after
+	 *                     their wait.
+	 */
+	public PseudonymAwaiter(final long timeout, final long tokenTimeout, final int capacity, final int threads) {
+		if (timeout <= 0)
+			throw new IllegalArgumentException("Await timeout must be positive, got " + timeout);
+
+		this.timeout = timeout;
+		this.tokenTimeout = tokenTimeout;
+		this.capacity = capacity;
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ThreadFactory threadFactory = runnable -> {
+			final Thread thread = new Thread(runnable, "mainzelhandler-await-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.executor = Executors.newFixedThreadPool(threads, threadFactory);
+	}
+
+	/**
+	 * Extracts the token from the URL of an addPatient token.
+	 *
+	 * @param urlToken The URL containing the parameter {@code tokenId}.
+	 * @return The token or null if the URL contains no token.
+	 */
+	public static String tokenId(final String urlToken) {
+		final int start = urlToken.indexOf("tokenId=");
+
+		if (start < 0)
+			return null;
+
+		final int end = urlToken.indexOf('&', start);
+		return urlToken.substring(start + 8, end < 0 ? urlToken.length() : end);
+	}
+
+	/**
+	 * Builds the {@link #STATUS_HEADER} of a patient response.
+	 *
+	 * @param statuses The status of each token of the request.
+	 * @return The tokens that are pending or expired, null if all tokens are
+	 *         stored.
+	 */
+	public static String statusHeader(final Map<String, TokenStatus> statuses) {
+		final StringBuilder header = new StringBuilder();
+		int reported = 0;
+		int omitted = 0;
+
+		for (final Entry<String, TokenStatus> status : statuses.entrySet()) {
+			if (status.getValue() == TokenStatus.STORED)
+				continue;
+
+			if (reported == MAX_REPORTED_TOKENS) {
+				omitted++;
+				continue;
+			}
+
+			if (header.length() > 0)
+				header.append(", ");
+
+			header.append(status.getKey()).append('=').append(status.getValue());
+			reported++;
+		}
+
+		if (omitted > 0)
+			header.append(", ...=").append(omitted);
+
+		return header.length() > 0 ? header.toString() : null;
+	}
+
+	/**
+	 * @return Maximum time in milliseconds a patient request waits.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return Executor continuing the patient requests after their wait.
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Registers issued tokens, whose callback requests are expected.
+	 *
+	 * @param tokens The tokens.
+	 * @param now    The current time in milliseconds.
+	 */
+	public void expect(final Collection<String> tokens, final long now) {
+		for (final String token : tokens) {
+			if (issued.size() >= capacity) {
+				LOGGER.debug("Too many issued tokens, not awaiting the remaining tokens");
+				return;
+			}
+
+			issued.put(token, now);
+		}
+	}
+
+	/**
+	 * Marks the tokens as arrived and completes their futures.
+	 *
+	 * @param tokens Tokens of the callback requests.
+	 */
+	public void arrived(final Collection<String> tokens) {
+		for (final String token : tokens) {
+			issued.remove(token);
+
+			final CompletableFuture<Void> waiter = waiters.remove(token);
+
+			if (waiter != null)
+				waiter.complete(null);
+		}
+	}
+
+	/**
+	 * Determines the status of a token without stored pseudonym.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return {@link TokenStatus#PENDING} if the token was issued and its
+	 *         callback request is still expected, {@link TokenStatus#EXPIRED}
+	 *         otherwise.
+	 */
+	public TokenStatus status(final String token, final long now) {
+		final Long issuedAt = issued.get(token);
+		return issuedAt != null && now - issuedAt < tokenTimeout ? TokenStatus.PENDING : TokenStatus.EXPIRED;
+	}
+
+	/**
+	 * Returns the future of a token, completed by its callback request. Has to be
+	 * registered before the store is checked again, so a callback request in
+	 * between is not missed.
+	 *
+	 * @param token The token.
+	 * @return The future, shared by all requests waiting for the token.
+	 */
+	public CompletableFuture<Void> register(final String token) {
+		return waiters.computeIfAbsent(token, key -> new CompletableFuture<Void>());
+	}
+
+	/**
+	 * Waits for the futures of the given tokens without blocking. The futures get
+	 * unregistered afterwards.
+	 *
+	 * @param futures The tokens with their registered futures.
+	 * @return Future completed when all tokens arrived or the timeout passed.
+	 */
+	public CompletableFuture<Void> await(final Map<String, CompletableFuture<Void>> futures) {
+		return await(futures, timeout);
+	}
+
+	/**
+	 * Waits for the futures of the given tokens without blocking, at most for the
+	 * given time. The futures get unregistered afterwards.
+	 *
+	 * @param futures     The tokens with their registered futures.
+	 * @param waitTimeout Maximum time in milliseconds to wait.
+	 * @return Future completed when all tokens arrived or the timeout passed.
+	 */
+	public CompletableFuture<Void> await(final Map<String, CompletableFuture<Void>> futures,
+			final long waitTimeout) {
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+				.completeOnTimeout(null, waitTimeout, TimeUnit.MILLISECONDS)
+				.whenComplete((result, exception) -> release(futures));
+	}
+
+	/**
+	 * Unregisters the futures of the given tokens.
+	 *
+	 * @param futures The tokens with their registered futures.
+	 */
+	public void release(final Map<String, CompletableFuture<Void>> futures) {
+		for (final Entry<String, CompletableFuture<Void>> future : futures.entrySet())
+			waiters.remove(future.getKey(), future.getValue());
+	}
+
+	/**
+	 * Removes the issued tokens whose callback request is no longer expected.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Number of removed tokens.
+	 */
+	public int removeExpired(final long now) {
+		int count = 0;
+
+		for (final Iterator<Long> iterator = issued.values().iterator(); iterator.hasNext();) {
+			if (now - iterator.next() >= tokenTimeout) {
+				iterator.remove();
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return Number of tokens patient requests are waiting for.
+	 */
+	public int waiting() {
+		return waiters.size();
+	}
+
+	/**
+	 * Stops the executor. Waiting patient requests are not continued.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+}
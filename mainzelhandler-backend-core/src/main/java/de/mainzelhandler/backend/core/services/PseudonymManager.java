@@ -1,45 +1,154 @@
 package de.mainzelhandler.backend.core.services;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
-import org.json.JSONObject;
+import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.mainzelhandler.backend.core.cluster.PeerNodes;
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+import de.mainzelhandler.backend.core.json.JsonFieldReader;
+import de.mainzelhandler.backend.core.mainzelliste.Deadline;
 import de.mainzelhandler.backend.core.model.Patient;
+import de.mainzelhandler.backend.core.model.TokenStatus;
+import de.mainzelhandler.backend.core.store.HeapPseudonymStore;
+import de.mainzelhandler.backend.core.store.PseudonymStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 /**
- * Service for temporarily storing token and pseudonyms.
+ * Service for temporarily storing token and pseudonyms. Safe for concurrent
+ * use by the callback requests, the patient requests and the cleaning. The
+ * pairs are kept in a {@link PseudonymStore}. Expired pseudonyms are ignored by
+ * all reads and get removed by {@link #cleanPseudonyms()}.
  */
-public class PseudonymManager {
+public class PseudonymManager implements Closeable, MeterBinder {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PseudonymManager.class);
 
 	/**
-	 * Timeout of pseudonyms in seconds.
+	 * Store of the token-pseudonym pairs.
 	 */
-	private long pseudonymTimeout;
+	private final PseudonymStore store;
 
 	/**
-	 * Map containing the tokens as keys and the pseudonyms as values.
+	 * Other instances of the application, null if the instance runs alone.
 	 */
-	private Map<String, String> pseudonyms;
+	private PeerNodes peerNodes;
 
 	/**
-	 * Map containing the tokens as keys and the creation time as values. Used to
-	 * determine the timeout.
+	 * Lets patient requests wait for missing pseudonyms, null if they are not
+	 * awaited.
 	 */
-	private Map<String, Long> creationTimes;
+	private PseudonymAwaiter awaiter;
 
+	/**
+	 * Number of pseudonyms put back because their patients were not processed.
+	 */
+	private final AtomicLong rollbacks = new AtomicLong();
+
+	/**
+	 * Pseudonyms reserved by the peers by the id of the reservation.
+	 */
+	private final Map<String, Reservation> reservations = new ConcurrentHashMap<String, Reservation>();
+
+	/**
+	 * Constructs a new PseudonymManager keeping the pairs on the heap.
+	 * {@link #cleanPseudonyms()} has to be called every
+	 * {@link #expiryTick(long)} milliseconds.
+	 *
+	 * @param pseudonymTimeout Timeout of pseudonyms in milliseconds.
+	 */
 	public PseudonymManager(final long pseudonymTimeout) {
-		this.pseudonymTimeout = pseudonymTimeout;
-		this.pseudonyms = new HashMap<String, String>();
-		this.creationTimes = new HashMap<String, Long>();
+		this(new HeapPseudonymStore(pseudonymTimeout));
+	}
+
+	/**
+	 * Constructs a new PseudonymManager.
+	 *
+	 * @param store Store of the token-pseudonym pairs.
+	 */
+	public PseudonymManager(final PseudonymStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * @param peerNodes Other instances of the application. Tokens of a patient
+	 *                  request not found in the local store get taken from them.
+	 */
+	public void setPeerNodes(final PeerNodes peerNodes) {
+		checkAwaiter(awaiter, peerNodes);
+		this.peerNodes = peerNodes;
+	}
+
+	/**
+	 * @param awaiter Lets the asynchronous patient requests wait for pseudonyms
+	 *                whose callback request did not arrive yet.
+	 * @throws IllegalStateException If the store is shared or peers are
+	 *                               configured.
+	 */
+	public void setAwaiter(final PseudonymAwaiter awaiter) {
+		checkAwaiter(awaiter, peerNodes);
+		this.awaiter = awaiter;
+	}
+
+	/**
+	 * Refuses to await pseudonyms if other instances issue tokens. The awaiter
+	 * only knows the tokens issued by this instance and would report the tokens
+	 * of the others as expired at once.
+	 *
+	 * @param awaiter   The awaiter or null.
+	 * @param peerNodes The peers or null.
+	 * @throws IllegalStateException If pseudonyms are awaited with a shared
+	 *                               store or with peers.
+	 */
+	private void checkAwaiter(final PseudonymAwaiter awaiter, final PeerNodes peerNodes) {
+		if (awaiter != null && (store.isShared() || peerNodes != null && !peerNodes.getPeers().isEmpty()))
+			throw new IllegalStateException("Pseudonyms can only be awaited by a single instance with its own "
+					+ "store, not with a shared store or peers");
+	}
+
+	/**
+	 * @return Awaiter of the missing pseudonyms, null if they are not awaited.
+	 */
+	public PseudonymAwaiter getAwaiter() {
+		return awaiter;
+	}
+
+	/**
+	 * Determines the interval in which the expired pseudonyms have to be cleaned.
+	 *
+	 * @param pseudonymTimeout Timeout of pseudonyms in milliseconds.
+	 * @return Interval in milliseconds.
+	 */
+	public static long expiryTick(final long pseudonymTimeout) {
+		return HeapPseudonymStore.expiryTick(pseudonymTimeout);
+	}
+
+	/**
+	 * @return Store of the token-pseudonym pairs.
+	 */
+	public PseudonymStore getStore() {
+		return store;
 	}
 
 	/**
@@ -52,32 +161,135 @@ public class PseudonymManager {
 	 *         mapping for token.
 	 */
 	public String putPseudonym(final String requestBody) {
-		final JSONObject jsonData = new JSONObject(requestBody);
+		try {
+			return putPseudonym(new ByteArrayInputStream(requestBody.getBytes(StandardCharsets.UTF_8)));
+		} catch (final IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	/**
+	 * Stores a token-pseudonym pair. Reads the body of the callback request from
+	 * the Mainzelliste directly from the stream without parsing the whole
+	 * document. Can process the request body up to Mainzelliste api version 3.0
+	 *
+	 * @param requestBody Stream of the request body from the callback request
+	 * @return The previous pseudonym associated with token, or null if there was no
+	 *         mapping for token.
+	 * @throws IOException If the stream could not be read.
+	 */
+	public String putPseudonym(final InputStream requestBody) throws IOException {
+		final String[] fields = JsonFieldReader.readFields(requestBody, "tokenId", "id", "ids.idString");
 
-		final String token = jsonData.getString("tokenId");
-		final String pseudonym;
+		final String token = fields[0];
+		final String pseudonym = fields[1] != null ? fields[1] : fields[2];
+
+		if (token == null || pseudonym == null)
+			throw new JSONException("Callback request contains no tokenId or pseudonym");
 
-		if (jsonData.has("id")) {
-			pseudonym = jsonData.getString("id");
-		} else {
-			pseudonym = jsonData.getJSONArray("ids").getJSONObject(0).getString("idString");
-		}
 		return putPseudonym(token, pseudonym);
 	}
 
 	/**
-	 * Stores a token-pseudonym pair. Saves the time stamp in
-	 * {@link #creationTimes}.
+	 * Stores a token-pseudonym pair together with the current time stamp.
 	 *
 	 * @param token     The token.
 	 * @param pseudonym The pseudonym.
 	 * @return The previous pseudonym associated with token, or null if there was no
 	 *         mapping for token.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pseudonyms.
 	 */
 	public String putPseudonym(final String token, final String pseudonym) {
 		LOGGER.debug("Putting: " + token + ", " + pseudonym);
-		creationTimes.put(token, System.currentTimeMillis());
-		return pseudonyms.put(token, pseudonym);
+
+		final String previous;
+
+		try {
+			previous = store.put(token, pseudonym, System.currentTimeMillis());
+		} catch (final PseudonymStoreFullException exception) {
+			LOGGER.warn("Rejected pseudonym for token " + token + ": " + exception.getMessage());
+			throw exception;
+		}
+
+		if (awaiter != null)
+			awaiter.arrived(List.of(token));
+
+		return previous;
+	}
+
+	/**
+	 * Stores the token-pseudonym pairs of one or several callback requests.
+	 * Reads the body directly from the stream, the body is either a single
+	 * callback body or an array of them, e.g. collected by a relay. The pairs
+	 * of an array are stored together with {@link #putAll(Map)}. A body with
+	 * an element without tokenId or pseudonym is rejected as a whole.
+	 *
+	 * @param requestBody Stream of the request body.
+	 * @return Number of stored pairs.
+	 * @throws IOException If the stream could not be read.
+	 */
+	public int putPseudonyms(final InputStream requestBody) throws IOException {
+		final List<String[]> callbacks = JsonFieldReader.readElements(requestBody, "tokenId", "id", "ids.idString");
+		final Map<String, String> pairs = new LinkedHashMap<String, String>();
+
+		for (final String[] fields : callbacks) {
+			final String token = fields[0];
+			final String pseudonym = fields[1] != null ? fields[1] : fields[2];
+
+			if (token == null || pseudonym == null)
+				throw new JSONException("Callback request contains no tokenId or pseudonym");
+
+			pairs.put(token, pseudonym);
+		}
+
+		putAll(pairs);
+		return pairs.size();
+	}
+
+	/**
+	 * Stores several token-pseudonym pairs with one request to the store. All
+	 * pairs get the current time stamp.
+	 *
+	 * @param pairs The tokens with their pseudonyms.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pseudonyms.
+	 */
+	public void putAll(final Map<String, String> pairs) {
+		LOGGER.debug("Putting " + pairs.size() + " pseudonyms");
+
+		try {
+			store.putAll(pairs, System.currentTimeMillis());
+		} catch (final PseudonymStoreFullException exception) {
+			LOGGER.warn("Rejected " + pairs.size() + " pseudonyms: " + exception.getMessage());
+			throw exception;
+		}
+
+		if (awaiter != null)
+			awaiter.arrived(pairs.keySet());
+	}
+
+	/**
+	 * Registers the tokens of handed out addPatient URLs, so patient requests
+	 * wait for their callback requests. Does nothing if pseudonyms are not
+	 * awaited.
+	 *
+	 * @param urlTokens URLs of the addPatient tokens.
+	 */
+	public void expectTokens(final String[] urlTokens) {
+		if (awaiter == null)
+			return;
+
+		final List<String> tokens = new ArrayList<String>(urlTokens.length);
+
+		for (final String urlToken : urlTokens) {
+			final String token = urlToken != null ? PseudonymAwaiter.tokenId(urlToken) : null;
+
+			if (token != null)
+				tokens.add(token);
+		}
+
+		awaiter.expect(tokens, System.currentTimeMillis());
 	}
 
 	/**
@@ -87,56 +299,398 @@ public class PseudonymManager {
 	 * @return true if this map contains a mapping for the specified token.
 	 */
 	public boolean containsToken(final String token) {
-		return pseudonyms.containsKey(token);
+		return getPseudonym(token) != null;
 	}
 
 	/**
 	 * Returns the pseudonym associated with the token or null if the token is not
-	 * present.
+	 * present or expired.
 	 *
 	 * @param token The token.
 	 * @return The associated pseudonym or null.
 	 */
 	public String getPseudonym(final String token) {
-		return pseudonyms.get(token);
+		return store.get(token, System.currentTimeMillis());
 	}
 
 	/**
 	 * Removes the specified token if present.
 	 *
 	 * @param token The token to be removed.
-	 * @return The associated pseudonym.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
 	 */
 	public String removeToken(final String token) {
-		creationTimes.remove(token);
-		final String pseudonym = pseudonyms.remove(token);
+		final String pseudonym = store.remove(token, System.currentTimeMillis());
 		LOGGER.debug("Removing: " + token + ", " + pseudonym);
 		return pseudonym;
 	}
 
 	/**
-	 * Cleans the timeouted pseudonyms.
+	 * Removes the specified tokens with one request to the store.
+	 *
+	 * @param tokens The tokens to be removed.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	public Map<String, String> removeTokens(final Collection<String> tokens) {
+		return removeTokens(tokens, null);
+	}
+
+	/**
+	 * Removes the specified tokens with one request to the store and reports the
+	 * creation times of the removed pairs.
+	 *
+	 * @param tokens     The tokens to be removed.
+	 * @param createdAts Receives the removed tokens with their creation times,
+	 *                   may be null.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	private Map<String, String> removeTokens(final Collection<String> tokens, final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = store.removeAll(tokens, System.currentTimeMillis(), createdAts);
+		LOGGER.debug("Removing " + tokens.size() + " tokens, found " + pseudonyms.size() + " pseudonyms");
+		return pseudonyms;
+	}
+
+	/**
+	 * Removes the specified tokens for a peer that takes them and keeps the
+	 * removed pseudonyms reserved until the peer confirms or cancels the take.
+	 * A reservation neither confirmed nor cancelled is cancelled by
+	 * {@link #cleanPseudonyms()} after the given timeout.
+	 *
+	 * @param reservation Id of the reservation chosen by the peer.
+	 * @param tokens      The tokens to be removed.
+	 * @param timeout     Time in milliseconds until the reservation is
+	 *                    cancelled.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	public Map<String, String> reserveTokens(final String reservation, final Collection<String> tokens,
+			final long timeout) {
+		final Map<String, Long> createdAts = new HashMap<String, Long>();
+		final Map<String, String> pseudonyms = removeTokens(tokens, createdAts);
+
+		if (!pseudonyms.isEmpty()) {
+			final Reservation previous = reservations.put(reservation,
+					new Reservation(pseudonyms, createdAts, System.currentTimeMillis() + timeout));
+
+			if (previous != null)
+				rollbackTokens(previous.pseudonyms, previous.createdAts);
+		}
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Confirms a reservation after the peer received its pseudonyms.
+	 *
+	 * @param reservation Id of the reservation.
+	 * @return false if the reservation is unknown or was already cancelled.
+	 */
+	public boolean confirmReservation(final String reservation) {
+		return reservations.remove(reservation) != null;
+	}
+
+	/**
+	 * Cancels a reservation whose take failed and puts its pseudonyms back with
+	 * their original creation time. Does nothing if the reservation is unknown.
+	 *
+	 * @param reservation Id of the reservation.
+	 */
+	public void cancelReservation(final String reservation) {
+		final Reservation cancelled = reservations.remove(reservation);
+
+		if (cancelled != null)
+			rollbackTokens(cancelled.pseudonyms, cancelled.createdAts);
+	}
+
+	/**
+	 * Removes the specified tokens from the local store and takes the tokens not
+	 * found locally from the peers. Covers patient requests that got routed to
+	 * another node than the callback requests. The creation times of the
+	 * pseudonyms taken from the peers are not known.
+	 *
+	 * @param tokens     The tokens to be removed.
+	 * @param createdAts Receives the tokens removed from the local store with
+	 *                   their creation times.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired on any node are missing.
+	 */
+	private Map<String, String> takeTokens(final Collection<String> tokens, final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = removeTokens(tokens, createdAts);
+
+		if (peerNodes != null && pseudonyms.size() < tokens.size()) {
+			final List<String> missing = new ArrayList<String>();
+
+			for (final String token : tokens)
+				if (!pseudonyms.containsKey(token))
+					missing.add(token);
+
+			pseudonyms.putAll(peerNodes.takePseudonyms(missing));
+		}
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Puts reserved pseudonyms back into the store after their processing
+	 * failed. The pseudonyms keep their original creation time, so a retry does
+	 * not extend their timeout. Pseudonyms taken from the peers get the current
+	 * time. Pseudonyms rejected by the full store are lost.
+	 *
+	 * @param pairs      The tokens with their reserved pseudonyms.
+	 * @param createdAts The tokens with the creation times of their pseudonyms.
+	 */
+	private void rollbackTokens(final Map<String, String> pairs, final Map<String, Long> createdAts) {
+		if (pairs.isEmpty())
+			return;
+
+		try {
+			store.putAll(pairs, createdAts, System.currentTimeMillis());
+
+			if (awaiter != null)
+				awaiter.arrived(pairs.keySet());
+
+			rollbacks.addAndGet(pairs.size());
+			LOGGER.debug("Put back " + pairs.size() + " pseudonyms of unprocessed patients");
+		} catch (final PseudonymStoreFullException exception) {
+			LOGGER.warn("Could not put back " + pairs.size() + " pseudonyms of unprocessed patients");
+		}
+	}
+
+	/**
+	 * Takes the specified tokens like {@link #takeTokens(Collection, Map)}, but
+	 * waits for the pending tokens until their callback requests arrive or the
+	 * timeout of the awaiter or the {@link Deadline} of the request passes. The
+	 * futures of the pending tokens are registered before the local store is
+	 * checked again, so a callback request arriving in between is not missed.
+	 * Completes immediately if nothing is awaited.
+	 *
+	 * @param tokens     The tokens to be removed.
+	 * @param statuses   Filled with the status of each token before the
+	 *                   returned future completes, stays empty if pseudonyms
+	 *                   are not awaited.
+	 * @param createdAts Receives the tokens removed from the local store with
+	 *                   their creation times before the returned future
+	 *                   completes.
+	 * @return Future of the removed tokens with their pseudonyms. Completed by a
+	 *         thread of the awaiter if the request had to wait.
+	 */
+	private CompletableFuture<Map<String, String>> awaitTokens(final List<String> tokens,
+			final Map<String, TokenStatus> statuses, final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = takeTokens(tokens, createdAts);
+
+		if (awaiter == null)
+			return CompletableFuture.completedFuture(pseudonyms);
+
+		final long now = System.currentTimeMillis();
+		final long waitTimeout = Math.min(awaiter.getTimeout(), Deadline.remaining(now));
+		final List<String> missing = new ArrayList<String>();
+
+		for (final String token : tokens)
+			if (waitTimeout > 0 && !pseudonyms.containsKey(token)
+					&& awaiter.status(token, now) == TokenStatus.PENDING)
+				missing.add(token);
+
+		final Map<String, CompletableFuture<Void>> pending = registerPending(missing, pseudonyms, createdAts);
+
+		if (pending.isEmpty()) {
+			reportStatuses(tokens, pseudonyms, statuses);
+			return CompletableFuture.completedFuture(pseudonyms);
+		}
+
+		LOGGER.debug("Awaiting " + pending.size() + " pseudonyms");
+		return awaitPending(tokens, pseudonyms, createdAts, pending, statuses, now + waitTimeout);
+	}
+
+	/**
+	 * Registers the futures of the missing tokens and checks the store again
+	 * afterwards.
+	 *
+	 * @param missing    Tokens whose callback requests are awaited.
+	 * @param pseudonyms Receives the tokens found by the check with their
+	 *                   pseudonyms.
+	 * @param createdAts Receives the tokens found by the check with their
+	 *                   creation times.
+	 * @return The tokens still missing with their registered futures.
+	 */
+	private Map<String, CompletableFuture<Void>> registerPending(final Collection<String> missing,
+			final Map<String, String> pseudonyms, final Map<String, Long> createdAts) {
+		final Map<String, CompletableFuture<Void>> pending = new HashMap<String, CompletableFuture<Void>>();
+
+		for (final String token : missing)
+			pending.put(token, awaiter.register(token));
+
+		if (!pending.isEmpty()) {
+			final Map<String, String> arrived = removeTokens(pending.keySet(), createdAts);
+			pseudonyms.putAll(arrived);
+
+			for (final String token : arrived.keySet())
+				awaiter.release(Map.of(token, pending.remove(token)));
+		}
+
+		return pending;
+	}
+
+	/**
+	 * Waits for the registered futures of the pending tokens. After the wait the
+	 * tokens still missing are taken like in {@link #takeTokens(Collection, Map)}.
+	 *
+	 * @param tokens     The tokens of the request.
+	 * @param pseudonyms The tokens found so far with their pseudonyms.
+	 * @param createdAts The tokens found so far with their creation times.
+	 * @param pending    The missing tokens with their registered futures.
+	 * @param statuses   Filled with the status of each token before the
+	 *                   returned future completes.
+	 * @param end        Time in milliseconds at which the wait ends.
+	 * @return Future of the removed tokens with their pseudonyms. Completed by a
+	 *         thread of the awaiter.
+	 */
+	private CompletableFuture<Map<String, String>> awaitPending(final List<String> tokens,
+			final Map<String, String> pseudonyms, final Map<String, Long> createdAts,
+			final Map<String, CompletableFuture<Void>> pending, final Map<String, TokenStatus> statuses,
+			final long end) {
+		final long remaining = Math.max(0, end - System.currentTimeMillis());
+
+		return awaiter.await(pending, remaining)
+				.thenComposeAsync(Deadline.propagate(ignored -> {
+					pseudonyms.putAll(takeTokens(pending.keySet(), createdAts));
+					reportStatuses(tokens, pseudonyms, statuses);
+					return CompletableFuture.completedFuture(pseudonyms);
+				}), awaiter.getExecutor());
+	}
+
+	/**
+	 * Determines the status of each token after its pseudonym was taken.
+	 *
+	 * @param tokens     The tokens of the request.
+	 * @param pseudonyms The taken tokens with their pseudonyms.
+	 * @param statuses   Filled with the status of each token.
+	 */
+	private void reportStatuses(final List<String> tokens, final Map<String, String> pseudonyms,
+			final Map<String, TokenStatus> statuses) {
+		final long now = System.currentTimeMillis();
+
+		for (final String token : tokens)
+			statuses.put(token, pseudonyms.containsKey(token) ? TokenStatus.STORED : awaiter.status(token, now));
+	}
+
+	/**
+	 * Cancels the timeouted reservations of the peers and cleans the timeouted
+	 * pseudonyms and the issued tokens whose callback request is no longer
+	 * expected.
 	 */
 	public void cleanPseudonyms() {
-		LOGGER.debug("Started cleaning pseudonyms");
+		final long now = System.currentTimeMillis();
+
+		for (final Entry<String, Reservation> reservation : reservations.entrySet()) {
+			if (reservation.getValue().expiration <= now
+					&& reservations.remove(reservation.getKey(), reservation.getValue())) {
+				LOGGER.warn("Cancelling unconfirmed reservation " + reservation.getKey() + " of "
+						+ reservation.getValue().pseudonyms.size() + " pseudonyms");
+				rollbackTokens(reservation.getValue().pseudonyms, reservation.getValue().createdAts);
+			}
+		}
+
+		final int count = store.removeExpired(now);
+
+		if (count > 0)
+			LOGGER.debug("Cleaned " + count + " expired pseudonyms");
 
-		final long timeoutThreshold = System.currentTimeMillis() - pseudonymTimeout;
+		if (awaiter != null) {
+			final int expired = awaiter.removeExpired(now);
 
-		for (final Map.Entry<String, Long> entry : creationTimes.entrySet()) {
-			if (entry.getValue() > timeoutThreshold)
-				removeToken(entry.getKey());
+			if (expired > 0)
+				LOGGER.debug("Cleaned " + expired + " tokens without callback request");
 		}
+	}
+
+	/**
+	 * Compacts the journal of the store into a snapshot. Does nothing if the
+	 * store has no journal.
+	 */
+	public void compactStore() {
+		store.compact(System.currentTimeMillis());
+	}
 
-		LOGGER.debug("Finished cleaning pseudonyms");
+	/**
+	 * @return Number of stored pseudonyms including the expired pseudonyms not
+	 *         cleaned yet.
+	 */
+	public int size() {
+		return store.size();
+	}
+
+	/**
+	 * @return Ratio of the stored pseudonyms to the capacity of the store.
+	 */
+	public double saturation() {
+		return (double) store.size() / store.getCapacity();
+	}
+
+	/**
+	 * Registers gauges for the number of stored pseudonyms and the saturation of
+	 * the store and counters for the pseudonyms removed because of their timeout,
+	 * rejected or evicted because the store was full and put back because their
+	 * patients were not processed.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("mainzelhandler.pseudonyms.size", this, PseudonymManager::size)
+				.description("Token-pseudonym pairs waiting for their patient data")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.pseudonyms.expirations", store, PseudonymStore::getExpirations)
+				.description("Pseudonyms removed because of their timeout")
+				.register(registry);
+		Gauge.builder("mainzelhandler.pseudonyms.capacity", store, PseudonymStore::getCapacity)
+				.description("Maximum number of token-pseudonym pairs")
+				.register(registry);
+		Gauge.builder("mainzelhandler.pseudonyms.saturation", this, PseudonymManager::saturation)
+				.description("Ratio of the stored token-pseudonym pairs to the capacity")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.pseudonyms.rejections", store, PseudonymStore::getRejections)
+				.description("Pseudonyms rejected because the store was full")
+				.register(registry);
+		FunctionCounter.builder("mainzelhandler.pseudonyms.evictions", store, PseudonymStore::getEvictions)
+				.description("Pseudonyms evicted to make room for new pseudonyms")
+				.register(registry);
+
+		FunctionCounter.builder("mainzelhandler.pseudonyms.rollbacks", rollbacks, AtomicLong::get)
+				.description("Pseudonyms put back because their patients were not processed")
+				.register(registry);
+
+		if (awaiter != null)
+			Gauge.builder("mainzelhandler.pseudonyms.awaited", awaiter, PseudonymAwaiter::waiting)
+					.description("Tokens patient requests are waiting for")
+					.register(registry);
+	}
+
+	/**
+	 * Cancels the open reservations of the peers and closes the store and the
+	 * awaiter. The pseudonyms of an external store are kept.
+	 */
+	@Override
+	public void close() {
+		for (final String reservation : reservations.keySet())
+			cancelReservation(reservation);
+
+		if (awaiter != null)
+			awaiter.close();
+
+		store.close();
 	}
 
 	/**
 	 * Utility function to exchange the tokens with the pseudonyms and back. If
 	 * useCallback is true, it exchanges the tokens of the given patients with the
 	 * corresponding stored pseudonyms, calls the given function and exchanges the
-	 * pseudonyms in the returned Map back with the token. If useCallback is false,
-	 * it passes the arguments to the function and returns the result without any
-	 * exchanges.
+	 * pseudonyms in the returned Map back with the token. The pseudonyms of
+	 * patients not processed successfully stay stored for a retry. If useCallback
+	 * is false, it passes the arguments to the function and returns the result
+	 * without any exchanges.
 	 *
 	 * @param patients        Patients to be processed by the application.
 	 * @param processFunction Function to be called for the processing.
@@ -145,38 +699,110 @@ public class PseudonymManager {
 	 */
 	public Map<String, Boolean> processPatients(final List<Patient> patients,
 			final Function<List<Patient>, Map<String, Boolean>> processFunction, final boolean useCallback) {
-		final Map<String, Boolean> result;
+		if (!useCallback)
+			return processFunction.apply(patients);
 
-		if (useCallback) {
+		final Map<String, Long> createdAts = new HashMap<String, Long>();
+		return exchangePatients(patients, takeTokens(tokensOf(patients), createdAts), createdAts, processFunction);
+	}
+
+	/**
+	 * Asynchronous variant of
+	 * {@link #processPatients(List, Function, boolean)}. If pseudonyms are
+	 * awaited, patients whose callback request did not arrive yet are held back
+	 * until it arrives or the timeout of the awaiter passes. No thread is blocked
+	 * while waiting, the processFunction is called by a thread of the awaiter
+	 * then.
+	 *
+	 * @param patients        Patients to be processed by the application.
+	 * @param processFunction Function to be called for the processing.
+	 * @param useCallback     Whether the callback function is active.
+	 * @param statuses        Filled with the status of each token before the
+	 *                        processFunction is called. Stays empty if
+	 *                        useCallback is false or pseudonyms are not
+	 *                        awaited.
+	 * @return Future of the result of the processFunction.
+	 */
+	public CompletableFuture<Map<String, Boolean>> processPatientsAsync(final List<Patient> patients,
+			final Function<List<Patient>, Map<String, Boolean>> processFunction, final boolean useCallback,
+			final Map<String, TokenStatus> statuses) {
+		if (!useCallback)
+			return CompletableFuture.completedFuture(processFunction.apply(patients));
+
+		final Map<String, Long> createdAts = new HashMap<String, Long>();
+		return awaitTokens(tokensOf(patients), statuses, createdAts)
+				.thenApply(removed -> exchangePatients(patients, removed, createdAts, processFunction));
+	}
 
-			final Map<String, String> pseudonyms = new HashMap<String, String>();
+	/**
+	 * @param patients The patients.
+	 * @return The tokens of the patients.
+	 */
+	private static List<String> tokensOf(final List<Patient> patients) {
+		final List<String> tokens = new ArrayList<String>();
 
-			final List<Patient> pseudonymizedPatients = new ArrayList<Patient>();
+		for (final Patient patient : patients)
+			tokens.add(patient.getPseudonym());
 
-			for (final Patient patient : patients) {
-				final String token = patient.getPseudonym();
+		return tokens;
+	}
 
-				if (containsToken(token)) {
-					final String pseudonym = removeToken(token);
-					pseudonyms.put(pseudonym, token);
-					patient.setPseudonym(pseudonym);
-					pseudonymizedPatients.add(patient);
-				} else {
-					LOGGER.debug("No corresponding pseudonym found for token: " + token);
-				}
+	/**
+	 * Exchanges the tokens of the given patients with the removed pseudonyms,
+	 * calls the given function and exchanges the pseudonyms in the returned Map
+	 * back with the tokens. Patients without pseudonym are not processed. The
+	 * removed pseudonyms are only reserved for the processing, the pseudonyms of
+	 * patients not reported as processed get put back, so the client can repeat
+	 * them with the same token. All pseudonyms are put back if the function
+	 * throws.
+	 *
+	 * @param patients        Patients to be processed by the application.
+	 * @param removed         The removed tokens with their pseudonyms.
+	 * @param createdAts      The removed tokens with their creation times.
+	 * @param processFunction Function to be called for the processing.
+	 * @return The result of the processFunction.
+	 */
+	private Map<String, Boolean> exchangePatients(final List<Patient> patients, final Map<String, String> removed,
+			final Map<String, Long> createdAts, final Function<List<Patient>, Map<String, Boolean>> processFunction) {
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+
+		final List<Patient> pseudonymizedPatients = new ArrayList<Patient>();
+
+		for (final Patient patient : patients) {
+			final String token = patient.getPseudonym();
+			final String pseudonym = removed.get(token);
+
+			if (pseudonym != null) {
+				pseudonyms.put(pseudonym, token);
+				patient.setPseudonym(pseudonym);
+				pseudonymizedPatients.add(patient);
+			} else {
+				LOGGER.debug("No corresponding pseudonym found for token: " + token);
 			}
+		}
 
-			final Map<String, Boolean> resultIntermediate = processFunction.apply(pseudonymizedPatients);
-			result = new HashMap<String, Boolean>();
+		final Map<String, Boolean> resultIntermediate;
 
-			for (final Entry<String, Boolean> entry : resultIntermediate.entrySet()) {
-				result.put(pseudonyms.get(entry.getKey()), entry.getValue());
-			}
+		try {
+			resultIntermediate = processFunction.apply(pseudonymizedPatients);
+		} catch (final RuntimeException exception) {
+			rollbackTokens(removed, createdAts);
+			throw exception;
+		}
+
+		final Map<String, Boolean> result = new HashMap<String, Boolean>();
+		final Map<String, String> failed = new HashMap<String, String>();
+
+		for (final Entry<String, Boolean> entry : resultIntermediate.entrySet()) {
+			result.put(pseudonyms.get(entry.getKey()), entry.getValue());
+		}
 
-		} else {
-			result = processFunction.apply(patients);
+		for (final Entry<String, String> entry : pseudonyms.entrySet()) {
+			if (!Boolean.TRUE.equals(resultIntermediate.get(entry.getKey())))
+				failed.put(entry.getValue(), entry.getKey());
 		}
 
+		rollbackTokens(failed, createdAts);
 		return result;
 	}
 
@@ -194,32 +820,116 @@ public class PseudonymManager {
 	 */
 	public List<Patient> processRequest(final List<String> ids,
 			final Function<List<String>, List<Patient>> processFunction, final boolean useCallback) {
-		final List<Patient> patients;
+		if (!useCallback) // ids are pseudonyms
+			return processFunction.apply(ids);
 
-		if (useCallback) {
-			// ids are token
-			final Map<String, String> pseudonymsAndTokens = new HashMap<String, String>();
+		// ids are token
+		final Map<String, Long> createdAts = new HashMap<String, Long>();
+		return exchangeRequest(ids, takeTokens(ids, createdAts), createdAts, processFunction);
+	}
 
-			for (final String token : ids) {
-				if (containsToken(token)) {
-					pseudonymsAndTokens.put(removeToken(token), token);
-				} else {
-					LOGGER.debug("No corresponding pseudonym found for token: " + token);
-				}
-			}
+	/**
+	 * Asynchronous variant of {@link #processRequest(List, Function, boolean)}.
+	 * If pseudonyms are awaited, tokens whose callback request did not arrive yet
+	 * are held back until it arrives or the timeout of the awaiter passes.
+	 *
+	 * @param ids             Id's of the patients to be returned.
+	 * @param processFunction Function to return the requested patients.
+	 * @param useCallback     Whether the callback function is active.
+	 * @param statuses        Filled with the status of each token before the
+	 *                        processFunction is called. Stays empty if
+	 *                        useCallback is false or pseudonyms are not
+	 *                        awaited.
+	 * @return Future of the returned Patients of the processFunction.
+	 */
+	public CompletableFuture<List<Patient>> processRequestAsync(final List<String> ids,
+			final Function<List<String>, List<Patient>> processFunction, final boolean useCallback,
+			final Map<String, TokenStatus> statuses) {
+		if (!useCallback)
+			return CompletableFuture.completedFuture(processFunction.apply(ids));
+
+		final Map<String, Long> createdAts = new HashMap<String, Long>();
+		return awaitTokens(ids, statuses, createdAts)
+				.thenApply(removed -> exchangeRequest(ids, removed, createdAts, processFunction));
+	}
 
-			patients = processFunction.apply(new ArrayList<String>(pseudonymsAndTokens.keySet()));
+	/**
+	 * Exchanges the tokens with the removed pseudonyms, calls the given function
+	 * and exchanges the pseudonyms of the returned patients back with the tokens.
+	 * The pseudonyms are put back if the function throws.
+	 *
+	 * @param ids             Tokens of the patients to be returned.
+	 * @param removed         The removed tokens with their pseudonyms.
+	 * @param createdAts      The removed tokens with their creation times.
+	 * @param processFunction Function to return the requested patients.
+	 * @return Returned Patients of the processFunction.
+	 */
+	private List<Patient> exchangeRequest(final List<String> ids, final Map<String, String> removed,
+			final Map<String, Long> createdAts, final Function<List<String>, List<Patient>> processFunction) {
+		final Map<String, String> pseudonymsAndTokens = new HashMap<String, String>();
 
-			for (final Patient patient : patients) {
-				patient.setPseudonym(pseudonymsAndTokens.get(patient.getPseudonym()));
+		for (final String token : ids) {
+			final String pseudonym = removed.get(token);
+
+			if (pseudonym != null) {
+				pseudonymsAndTokens.put(pseudonym, token);
+			} else {
+				LOGGER.debug("No corresponding pseudonym found for token: " + token);
 			}
+		}
 
-		} else {
-			// ids are pseudonyms
-			patients = processFunction.apply(ids);
+		final List<Patient> patients;
+
+		try {
+			patients = processFunction.apply(new ArrayList<String>(pseudonymsAndTokens.keySet()));
+		} catch (final RuntimeException exception) {
+			rollbackTokens(removed, createdAts);
+			throw exception;
+		}
+
+		for (final Patient patient : patients) {
+			patient.setPseudonym(pseudonymsAndTokens.get(patient.getPseudonym()));
 		}
 
 		return patients;
 	}
 
+	/**
+	 * Pseudonyms reserved by a peer and the time of their return.
+	 */
+	private static class Reservation {
+
+		/**
+		 * The reserved tokens with their pseudonyms.
+		 */
+		private final Map<String, String> pseudonyms;
+
+		/**
+		 * The reserved tokens with the creation times of their pseudonyms.
+		 */
+		private final Map<String, Long> createdAts;
+
+		/**
+		 * Time in milliseconds at which the reservation gets cancelled.
+		 */
+		private final long expiration;
+
+		/**
+		 * Constructs a new Reservation.
+		 *
+		 * @param pseudonyms The reserved tokens with their pseudonyms.
+		 * @param createdAts The reserved tokens with the creation times of their
+		 *                   pseudonyms.
+		 * @param expiration Time in milliseconds at which the reservation gets
+		 *                   cancelled.
+		 */
+		private Reservation(final Map<String, String> pseudonyms, final Map<String, Long> createdAts,
+				final long expiration) {
+			this.pseudonyms = pseudonyms;
+			this.createdAts = createdAts;
+			this.expiration = expiration;
+		}
+
+	}
+
 }
@@ -0,0 +1,559 @@
+package de.mainzelhandler.backend.core.services;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import de.mainzelhandler.backend.core.exceptions.SessionNotFoundException;
+import de.mainzelhandler.backend.core.mainzelliste.AddPatientTokenReservoir;
+import de.mainzelhandler.backend.core.mainzelliste.Deadline;
+import de.mainzelhandler.backend.core.mainzelliste.MainzellisteSession;
+import de.mainzelhandler.backend.core.mainzelliste.MainzellisteSessionPool;
+import de.mainzelhandler.backend.core.mainzelliste.Priority;
+import de.mainzelhandler.backend.core.mainzelliste.PriorityScheduler;
+import de.mainzelhandler.backend.core.mainzelliste.PseudonymBisection;
+import de.mainzelhandler.backend.core.mainzelliste.ReadPatientsTemplate;
+import de.mainzelhandler.backend.core.mainzelliste.TokenHedger;
+import de.mainzelhandler.backend.core.model.DepseudonymizationUrlResponse;
+import de.mainzelhandler.backend.core.model.PseudonymizationUrlResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Service for requesting tokens from the Mainzelliste. Uses the sessions of a
+ * {@link MainzellisteSessionPool} and creates the tokens of a request
+ * concurrently with a bounded number of requests in flight. The token requests
+ * of interactive client requests are started before the queued ones of bulk
+ * requests, see {@link Priority}.
+ */
+public class TokenManager implements Closeable, MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TokenManager.class);
+
+	/**
+	 * Pool providing the sessions for the token requests.
+	 */
+	private final MainzellisteSessionPool sessionPool;
+
+	/**
+	 * Whether the tokens of a single request get spread over several pooled
+	 * sessions or created with one leased session.
+	 */
+	private final boolean spreadSessions;
+
+	/**
+	 * Reservoir of pre-created addPatient tokens, null if disabled.
+	 */
+	private final AddPatientTokenReservoir reservoir;
+
+	/**
+	 * Maximum number of pseudonyms per readPatients token. Larger requests get
+	 * split into chunks with their own token. A value less than one disables the
+	 * split.
+	 */
+	private final int readPatientsChunkSize;
+
+	/**
+	 * Scheduler running the token requests, interactive before bulk.
+	 */
+	private final PriorityScheduler executor;
+
+	/**
+	 * Hedger of the slow addPatient token requests, null if disabled.
+	 */
+	private TokenHedger hedger;
+
+	/**
+	 * Constructs a new TokenManager.
+	 *
+	 * @param sessionPool    Pool providing the sessions for the token requests.
+	 * @param maxInFlight    Maximum number of token requests in flight.
+	 * @param spreadSessions Whether the tokens of a single request get spread over
+	 *                       several pooled sessions.
+	 */
+	public TokenManager(final MainzellisteSessionPool sessionPool, final int maxInFlight,
+			final boolean spreadSessions) {
+		this(sessionPool, maxInFlight, spreadSessions, null);
+	}
+
+	/**
+	 * Constructs a new TokenManager serving addPatient tokens from a reservoir.
+	 * {@link #refillReservoir()} has to be called periodically.
+	 *
+	 * @param sessionPool    Pool providing the sessions for the token requests.
+	 * @param maxInFlight    Maximum number of token requests in flight.
+	 * @param spreadSessions Whether the tokens of a single request get spread over
+	 *                       several pooled sessions.
+	 * @param reservoir      Reservoir of pre-created addPatient tokens, null to
+	 *                       disable the reservoir.
+	 */
+	public TokenManager(final MainzellisteSessionPool sessionPool, final int maxInFlight,
+			final boolean spreadSessions, final AddPatientTokenReservoir reservoir) {
+		this(sessionPool, maxInFlight, spreadSessions, reservoir, 0);
+	}
+
+	/**
+	 * Constructs a new TokenManager splitting large readPatients requests into
+	 * chunks.
+	 *
+	 * @param sessionPool           Pool providing the sessions for the token
+	 *                              requests.
+	 * @param maxInFlight           Maximum number of token requests in flight.
+	 * @param spreadSessions        Whether the tokens of a single request get
+	 *                              spread over several pooled sessions.
+	 * @param reservoir             Reservoir of pre-created addPatient tokens,
+	 *                              null to disable the reservoir.
+	 * @param readPatientsChunkSize Maximum number of pseudonyms per readPatients
+	 *                              token. A value less than one disables the
+	 *                              split.
+	 */
+	public TokenManager(final MainzellisteSessionPool sessionPool, final int maxInFlight,
+			final boolean spreadSessions, final AddPatientTokenReservoir reservoir,
+			final int readPatientsChunkSize) {
+		this(sessionPool, maxInFlight, spreadSessions, reservoir, readPatientsChunkSize, 10);
+	}
+
+	/**
+	 * Constructs a new TokenManager with the given starvation protection of the
+	 * bulk token requests.
+	 *
+	 * @param sessionPool           Pool providing the sessions for the token
+	 *                              requests.
+	 * @param maxInFlight           Maximum number of token requests in flight.
+	 * @param spreadSessions        Whether the tokens of a single request get
+	 *                              spread over several pooled sessions.
+	 * @param reservoir             Reservoir of pre-created addPatient tokens,
+	 *                              null to disable the reservoir.
+	 * @param readPatientsChunkSize Maximum number of pseudonyms per readPatients
+	 *                              token. A value less than one disables the
+	 *                              split.
+	 * @param interactiveBurst      Number of interactive token requests started
+	 *                              in a row while bulk token requests are
+	 *                              waiting, after which a bulk one is started.
+	 */
+	public TokenManager(final MainzellisteSessionPool sessionPool, final int maxInFlight,
+			final boolean spreadSessions, final AddPatientTokenReservoir reservoir,
+			final int readPatientsChunkSize, final int interactiveBurst) {
+		this.sessionPool = sessionPool;
+		this.spreadSessions = spreadSessions;
+		this.reservoir = reservoir;
+		this.readPatientsChunkSize = readPatientsChunkSize;
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ThreadFactory threadFactory = runnable -> {
+			final Thread thread = new Thread(runnable, "mainzelhandler-token-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.executor = new PriorityScheduler(maxInFlight, interactiveBurst, threadFactory);
+	}
+
+	/**
+	 * @return Pool providing the sessions for the token requests.
+	 */
+	public MainzellisteSessionPool getSessionPool() {
+		return sessionPool;
+	}
+
+	/**
+	 * @return Reservoir of pre-created addPatient tokens, null if disabled.
+	 */
+	public AddPatientTokenReservoir getReservoir() {
+		return reservoir;
+	}
+
+	/**
+	 * @return Maximum number of pseudonyms per readPatients token.
+	 */
+	public int getReadPatientsChunkSize() {
+		return readPatientsChunkSize;
+	}
+
+	/**
+	 * @return Hedger of the slow addPatient token requests, null if disabled.
+	 */
+	public TokenHedger getHedger() {
+		return hedger;
+	}
+
+	/**
+	 * @param hedger Hedger of the slow addPatient token requests, null to disable
+	 *               hedging. Hedges are sent with another pooled session.
+	 */
+	public void setHedger(final TokenHedger hedger) {
+		this.hedger = hedger;
+	}
+
+	/**
+	 * Request addPatient tokens from the Mainzelliste. Serves interactive
+	 * requests from the reservoir if possible, bulk requests always create their
+	 * tokens so a large batch does not drain the reservoir. The remaining tokens
+	 * get created concurrently. The returned URLs keep the order of the requests.
+	 * Tokens that could not be created are reported in the response. The tokens
+	 * are requested with the {@link Priority} of the calling thread. A connection
+	 * error stops the remaining requests of the batch. Slow requests get hedged
+	 * if a hedger is set, the tokens of the losing requests are recycled into the
+	 * reservoir.
+	 *
+	 * @param amount Amount of requested addPatient token.
+	 * @return PseudonymizationUrlResponse containing the array of URLs for
+	 *         pseudonymizations, the value of useCallback and the failures.
+	 * @throws MainzellisteConnectionException If no token could be created due to
+	 *                                         a connection error.
+	 * @throws MainzellisteRuntimeException    If no token could be created due to
+	 *                                         an error at the Mainzelliste.
+	 */
+	public PseudonymizationUrlResponse createAddPatientTokens(final int amount) {
+		LOGGER.info("Requesting " + amount + " 'addPatient' tokens");
+
+		final List<String> reservedUrls = reservoir != null && Priority.get() == Priority.INTERACTIVE
+				? reservoir.take(amount)
+				: new ArrayList<String>();
+		final TokenBatch batch = mintAddPatientTokens(amount - reservedUrls.size(), hedger);
+
+		final List<String> createdUrls = new ArrayList<String>(amount);
+		final Set<String> distinctErrors = new LinkedHashSet<String>();
+		createdUrls.addAll(reservedUrls);
+
+		for (int i = 0; i < batch.urlTokens.length; i++) {
+			if (batch.urlTokens[i] != null) {
+				createdUrls.add(batch.urlTokens[i]);
+			} else if (batch.errors[i] != null) {
+				distinctErrors.add(batch.errors[i]);
+			} else {
+				distinctErrors.add("Aborted after a connection error");
+			}
+		}
+
+		final int failedCount = amount - createdUrls.size();
+
+		if (amount > 0 && createdUrls.isEmpty())
+			throw batch.firstException.get();
+
+		if (failedCount > 0)
+			LOGGER.warn("Could not create " + failedCount + " of " + amount + " tokens: " + distinctErrors);
+
+		LOGGER.info("Tokens created: " + createdUrls.size() + ", served from reservoir: " + reservedUrls.size());
+		return new PseudonymizationUrlResponse(sessionPool.getMainzellisteConnection().isUseCallback(),
+				createdUrls.toArray(new String[0]), failedCount, new ArrayList<String>(distinctErrors));
+	}
+
+	/**
+	 * Refills the reservoir of addPatient tokens up to its target level with bulk
+	 * priority. Does nothing if the reservoir is disabled.
+	 */
+	public void refillReservoir() {
+		if (reservoir == null)
+			return;
+
+		final int amount = reservoir.computeRefillAmount();
+
+		if (amount == 0)
+			return;
+
+		try {
+			final TokenBatch batch = Priority.call(Priority.BULK, () -> mintAddPatientTokens(amount, null));
+
+			for (int i = 0; i < amount; i++) {
+				if (batch.urlTokens[i] != null)
+					reservoir.add(batch.urlTokens[i], batch.sessions[i]);
+			}
+		} catch (final RuntimeException exception) {
+			LOGGER.warn("Could not refill reservoir: " + exception.getMessage());
+		}
+	}
+
+	/**
+	 * Registers the meters of the scheduler and of the reservoir and the hedger
+	 * if enabled.
+	 *
+	 * @param registry Registry to bind the meters to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		executor.bindTo(registry);
+
+		if (reservoir != null)
+			reservoir.bindTo(registry);
+
+		if (hedger != null)
+			hedger.bindTo(registry);
+	}
+
+	/**
+	 * Creates URLs for the depsudonymization of the given pseudonyms. The
+	 * pseudonyms are split into chunks of the configured size. The tokens of the
+	 * chunks are requested concurrently, each request with a pooled session.
+	 * Invalid pseudonyms are searched with concurrent token requests as well,
+	 * every chunk is answered with one URL for all of its valid pseudonyms.
+	 *
+	 * @param pseudonyms   Pseudonyms to depseudonymize.
+	 * @param resultFields Names of PII fields to get returned by the
+	 *                     depseudonymization.
+	 * @return DepseudonymizationResponse containing the URLs of the chunks and
+	 *         the invalid pseudonyms.
+	 */
+	public DepseudonymizationUrlResponse createReadPatientsToken(final List<String> pseudonyms,
+			final List<String> resultFields) {
+		final List<String> searchPseudonyms = PseudonymBisection.distinct(pseudonyms);
+		final List<List<String>> chunks = PseudonymBisection.chunk(searchPseudonyms, readPatientsChunkSize);
+		LOGGER.info("Requesting 'readPatients' tokens for " + searchPseudonyms.size() + " pseudonyms in "
+				+ chunks.size() + " chunks");
+
+		final ReadPatientsTemplate template = new ReadPatientsTemplate(resultFields);
+		final Set<String> invalidPseudonyms = new HashSet<String>();
+		final PseudonymBisection bisection = new PseudonymBisection(Deadline.propagate(
+				searchIds -> withSession(sessionPool.leaseSession(),
+						session -> session.createReadPatientsUrl(searchIds, template))), executor);
+		final List<String> urls = bisection.createTokens(chunks, invalidPseudonyms);
+		sessionPool.getMainzellisteConnection().getMetrics().recordReadPatientsSearch(bisection.getRetryCount(),
+				invalidPseudonyms.size());
+
+		LOGGER.info("Tokens created for " + (searchPseudonyms.size() - invalidPseudonyms.size()) + " pseudonyms");
+		return new DepseudonymizationUrlResponse(urls,
+				PseudonymBisection.invalidInOrder(searchPseudonyms, invalidPseudonyms));
+	}
+
+	/**
+	 * Stops the worker threads and the hedger.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+
+		if (hedger != null)
+			hedger.close();
+	}
+
+	/**
+	 * Creates the given number of addPatient tokens concurrently. Every token is
+	 * a task of its own, so the tasks of interactive requests get scheduled
+	 * between the tasks of a running bulk batch. A connection error or the
+	 * passed deadline stops the remaining requests of the batch. Invalid token
+	 * responses are logged once for the whole batch.
+	 *
+	 * @param amount      Number of tokens to create.
+	 * @param tokenHedger Hedger of the slow requests, null to send every request
+	 *                    once.
+	 * @return The created tokens and the errors in the order of the requests.
+	 */
+	private TokenBatch mintAddPatientTokens(final int amount, final TokenHedger tokenHedger) {
+		final TokenBatch batch = new TokenBatch(amount);
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final AtomicBoolean aborted = new AtomicBoolean();
+		final AtomicInteger invalidCount = new AtomicInteger();
+		final AtomicReference<RuntimeException> firstInvalid = new AtomicReference<RuntimeException>();
+		final MainzellisteSession batchSession = spreadSessions || amount == 0 ? null : sessionPool.leaseSession();
+
+		final Runnable task = () -> {
+			final int index = nextIndex.getAndIncrement();
+
+			if (aborted.get())
+				return;
+
+			try {
+				final MainzellisteSession session = batchSession != null ? batchSession : sessionPool.leaseSession();
+				final LeasedToken token = withSession(session, tokenHedger != null
+						? leased -> createHedgedUrl(tokenHedger, leased)
+						: leased -> new LeasedToken(leased, leased.createAddPatientUrl()));
+				batch.sessions[index] = token.session;
+				batch.urlTokens[index] = token.url;
+			} catch (final MainzellisteConnectionException exception) {
+				batch.errors[index] = exception.getMessage();
+				batch.firstException.compareAndSet(null, exception);
+				aborted.set(true);
+			} catch (final MainzellisteRuntimeException exception) {
+				batch.errors[index] = exception.getMessage();
+				batch.firstException.compareAndSet(null, exception);
+			} catch (final RuntimeException exception) {
+				invalidCount.incrementAndGet();
+				firstInvalid.compareAndSet(null, exception);
+				batch.errors[index] = "Invalid token response: " + exception.getMessage();
+				batch.firstException.compareAndSet(null, new MainzellisteRuntimeException(batch.errors[index],
+						exception));
+			}
+		};
+
+		final Runnable deadlineTask = Deadline.propagate(task);
+		final List<Future<?>> futures = new ArrayList<Future<?>>(amount);
+
+		for (int i = 0; i < amount; i++)
+			futures.add(executor.submit(deadlineTask));
+
+		awaitAll(futures);
+
+		if (invalidCount.get() > 0)
+			LOGGER.warn("Invalid token responses of the Mainzelliste: " + invalidCount.get() + " of " + amount,
+					firstInvalid.get());
+
+		return batch;
+	}
+
+	/**
+	 * Creates a single addPatient token and hedges the request with another
+	 * pooled session if it is slow. The token of the losing request is recycled
+	 * into the reservoir or discarded if the reservoir is disabled.
+	 *
+	 * @param tokenHedger The hedger.
+	 * @param session     Session of the first request.
+	 * @return The first token with the session that created it.
+	 */
+	private LeasedToken createHedgedUrl(final TokenHedger tokenHedger, final MainzellisteSession session) {
+		try {
+			return tokenHedger.hedge(() -> createLeasedToken(session),
+					Priority.propagate(Deadline.propagate(() -> createLeasedToken(sessionPool.leaseSession()))),
+					this::recycle).join();
+		} catch (final CompletionException exception) {
+			if (exception.getCause() instanceof RuntimeException)
+				throw (RuntimeException) exception.getCause();
+
+			throw exception;
+		}
+	}
+
+	/**
+	 * Sends a token request with the given session. If the session does not
+	 * exist on the Mainzelliste anymore, it is removed from the pool and the
+	 * request is repeated once with another leased session.
+	 *
+	 * @param <T>     Type of the result.
+	 * @param session The session.
+	 * @param request Sends the token request with a session.
+	 * @return Result of the request.
+	 */
+	private <T> T withSession(final MainzellisteSession session, final Function<MainzellisteSession, T> request) {
+		try {
+			return request.apply(session);
+		} catch (final SessionNotFoundException exception) {
+			sessionPool.invalidateSession(session);
+			return request.apply(sessionPool.leaseSession());
+		}
+	}
+
+	/**
+	 * Requests a single addPatient token without blocking the calling thread.
+	 *
+	 * @param session The session creating the token.
+	 * @return Future of the token with the session.
+	 */
+	private static CompletableFuture<LeasedToken> createLeasedToken(final MainzellisteSession session) {
+		return session.createAddPatientUrlAsync().thenApply(url -> new LeasedToken(session, url));
+	}
+
+	/**
+	 * Recycles the token of a losing hedged request into the reservoir. Discards
+	 * it if the reservoir is disabled, the token expires with its session.
+	 *
+	 * @param token The token.
+	 */
+	private void recycle(final LeasedToken token) {
+		if (reservoir != null)
+			reservoir.add(token.url, token.session);
+		else
+			LOGGER.debug("Discarded token of a losing hedged request");
+	}
+
+	/**
+	 * Waits for the completion of all given futures.
+	 *
+	 * @param futures The futures.
+	 */
+	private void awaitAll(final List<Future<?>> futures) {
+		try {
+			for (final Future<?> future : futures)
+				future.get();
+		} catch (final InterruptedException exception) {
+			futures.forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new MainzellisteConnectionException("Interrupted while requesting tokens", exception);
+		} catch (final ExecutionException exception) {
+			throw new MainzellisteConnectionException(exception.getCause());
+		}
+	}
+
+	/**
+	 * An addPatient token and the session that created it.
+	 */
+	private static class LeasedToken {
+
+		/**
+		 * Session that created the token.
+		 */
+		private final MainzellisteSession session;
+
+		/**
+		 * URL of the token.
+		 */
+		private final String url;
+
+		/**
+		 * Constructs a new LeasedToken.
+		 *
+		 * @param session Session that created the token.
+		 * @param url     URL of the token.
+		 */
+		private LeasedToken(final MainzellisteSession session, final String url) {
+			this.session = session;
+			this.url = url;
+		}
+
+	}
+
+	/**
+	 * Result of a concurrently created batch of addPatient tokens. The arrays are
+	 * in the order of the requests.
+	 */
+	private static class TokenBatch {
+
+		/**
+		 * URLs of the created tokens, null if the token could not be created.
+		 */
+		private final String[] urlTokens;
+
+		/**
+		 * Sessions that created the tokens.
+		 */
+		private final MainzellisteSession[] sessions;
+
+		/**
+		 * Error messages of the tokens that could not be created.
+		 */
+		private final String[] errors;
+
+		/**
+		 * First exception of the batch.
+		 */
+		private final AtomicReference<RuntimeException> firstException;
+
+		/**
+		 * Constructs a new TokenBatch.
+		 *
+		 * @param amount Number of requested tokens.
+		 */
+		private TokenBatch(final int amount) {
+			this.urlTokens = new String[amount];
+			this.sessions = new MainzellisteSession[amount];
+			this.errors = new String[amount];
+			this.firstException = new AtomicReference<RuntimeException>();
+		}
+
+	}
+
+}
@@ -0,0 +1,252 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Timing wheel for elements with a bounded time to live. The elements are
+ * sorted into slots by their expiration time, each slot covering one tick. An
+ * advance only visits the slots whose tick has passed since the previous
+ * advance, so its cost depends on the number of elements expiring in between
+ * instead of the number of elements in the wheel. Elements can be added and
+ * removed concurrently to an advance. Removed elements are not retained until
+ * their tick has passed. Elements added after the tick of their expiration has
+ * passed, e.g. put back with their original expiration, are kept apart and
+ * expire with the next advance.
+ *
+ * @param <E> Type of the elements.
+ */
+public class ExpiryWheel<E> {
+
+	/**
+	 * Duration of a tick in milliseconds.
+	 */
+	private final long tick;
+
+	/**
+	 * Function returning the expiration time of an element in milliseconds.
+	 */
+	private final ToLongFunction<E> expirationTime;
+
+	/**
+	 * The slots. Slot i holds the elements expiring in the ticks t with t modulo
+	 * the number of slots equal to i.
+	 */
+	private final List<Set<E>> slots;
+
+	/**
+	 * Elements added after their tick was passed by an advance.
+	 */
+	private final Set<E> overdue;
+
+	/**
+	 * Next tick to expire, Long.MIN_VALUE before the first advance. Only
+	 * changed by {@link #advance(long, Consumer)}.
+	 */
+	private volatile long nextTick;
+
+	/**
+	 * Constructs a new ExpiryWheel.
+	 *
+	 * @param timeToLive     Maximum time in milliseconds between the addition and
+	 *                       the expiration of an element.
+	 * @param tick           Duration of a tick in milliseconds.
+	 * @param expirationTime Function returning the expiration time of an element
+	 *                       in milliseconds.
+	 */
+	public ExpiryWheel(final long timeToLive, final long tick, final ToLongFunction<E> expirationTime) {
+		if (tick < 1)
+			throw new IllegalArgumentException("Tick must be positive: " + tick);
+
+		this.tick = tick;
+		this.expirationTime = expirationTime;
+
+		final int slotCount = (int) (timeToLive / tick) + 2;
+		this.slots = new ArrayList<Set<E>>(slotCount);
+
+		for (int i = 0; i < slotCount; i++)
+			slots.add(ConcurrentHashMap.newKeySet());
+
+		this.overdue = ConcurrentHashMap.newKeySet();
+		this.nextTick = Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return Duration of a tick in milliseconds.
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Adds an element to the slot of its expiration time.
+	 *
+	 * @param element The element.
+	 */
+	public void add(final E element) {
+		slotOfTick(expirationTime.applyAsLong(element) / tick).add(element);
+	}
+
+	/**
+	 * Adds several elements. Consecutive elements expiring in the same tick are
+	 * registered with one slot lookup.
+	 *
+	 * @param elements The elements.
+	 */
+	public void addAll(final Collection<E> elements) {
+		Set<E> slot = null;
+		long slotTick = Long.MIN_VALUE;
+
+		for (final E element : elements) {
+			final long elementTick = expirationTime.applyAsLong(element) / tick;
+
+			if (slot == null || elementTick != slotTick) {
+				slot = slotOfTick(elementTick);
+				slotTick = elementTick;
+			}
+
+			slot.add(element);
+		}
+	}
+
+	/**
+	 * Removes an element from the slot of its expiration time.
+	 *
+	 * @param element The element.
+	 */
+	public void remove(final E element) {
+		if (!slots.get(slotOf(expirationTime.applyAsLong(element) / tick)).remove(element) && !overdue.isEmpty())
+			overdue.remove(element);
+	}
+
+	/**
+	 * Returns an element of the earliest occupied tick without removing it.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return An element expiring next or null if the wheel is empty.
+	 */
+	public E peekFirst(final long now) {
+		final Iterator<E> late = overdue.iterator();
+
+		if (late.hasNext())
+			return late.next();
+
+		final long firstTick = now / tick - 1;
+
+		for (int i = 0; i < slots.size(); i++) {
+			final Iterator<E> slot = slots.get(slotOf(firstTick + i)).iterator();
+
+			if (slot.hasNext())
+				return slot.next();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes and returns an element of the earliest occupied tick. All elements
+	 * of the wheel expire within one rotation, so the slots are searched once
+	 * starting one tick before the current tick. The overdue elements come
+	 * first.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return The removed element or null if the wheel is empty.
+	 */
+	public E pollFirst(final long now) {
+		for (final E element : overdue) {
+			if (overdue.remove(element))
+				return element;
+		}
+
+		final long firstTick = now / tick - 1;
+
+		for (int i = 0; i < slots.size(); i++) {
+			final Set<E> slot = slots.get(slotOf(firstTick + i));
+
+			for (final E element : slot) {
+				if (slot.remove(element))
+					return element;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes the elements of all ticks that have passed up to the given time and
+	 * passes the expired elements to the consumer together with the overdue
+	 * elements. Elements of a later rotation of the wheel stay in their slot.
+	 *
+	 * @param now     The current time in milliseconds.
+	 * @param expired Consumer of the expired elements.
+	 * @return Number of expired elements.
+	 */
+	public synchronized int advance(final long now, final Consumer<E> expired) {
+		final long currentTick = now / tick;
+		int count = 0;
+
+		if (nextTick == Long.MIN_VALUE || currentTick - nextTick > slots.size())
+			nextTick = currentTick - slots.size();
+
+		for (long slotTick = nextTick; slotTick < currentTick; slotTick++) {
+			count += expire(slots.get(slotOf(slotTick)), now, expired);
+			nextTick = slotTick + 1;
+		}
+
+		return count + expire(overdue, now, expired);
+	}
+
+	/**
+	 * Removes the elements of a set that expired up to the given time.
+	 *
+	 * @param elements The elements.
+	 * @param now      The current time in milliseconds.
+	 * @param expired  Consumer of the expired elements.
+	 * @return Number of expired elements.
+	 */
+	private int expire(final Set<E> elements, final long now, final Consumer<E> expired) {
+		final Iterator<E> iterator = elements.iterator();
+		int count = 0;
+
+		while (iterator.hasNext()) {
+			final E element = iterator.next();
+
+			if (expirationTime.applyAsLong(element) <= now) {
+				iterator.remove();
+				expired.accept(element);
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Determines the set receiving an element of a tick. A tick already passed
+	 * by an advance would not be visited again before the next rotation, its
+	 * elements are kept in the overdue set instead.
+	 *
+	 * @param tickNumber The tick of the expiration of the element.
+	 * @return The set.
+	 */
+	private Set<E> slotOfTick(final long tickNumber) {
+		return tickNumber < nextTick ? overdue : slots.get(slotOf(tickNumber));
+	}
+
+	/**
+	 * Determines the index of the slot of a tick.
+	 *
+	 * @param tickNumber The tick.
+	 * @return Index of the slot.
+	 */
+	private int slotOf(final long tickNumber) {
+		return (int) Math.floorMod(tickNumber, (long) slots.size());
+	}
+
+}
@@ -0,0 +1,449 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+/**
+ * Store keeping the token-pseudonym pairs as objects in a ConcurrentHashMap.
+ * Reads do not lock, writes only lock the bin of the token. The expired pairs
+ * are found with an {@link ExpiryWheel}, which also yields the oldest pair
+ * for an eviction. The capacity is checked before the insertion, so concurrent
+ * puts can exceed it by the number of writing threads.
+ */
+public class HeapPseudonymStore implements PseudonymStore {
+
+	/**
+	 * Number of ticks of the expiry wheel per pseudonym timeout.
+	 */
+	private static final int EXPIRY_TICKS = 64;
+
+	/**
+	 * Timeout of the pairs in milliseconds.
+	 */
+	private final long pseudonymTimeout;
+
+	/**
+	 * Maximum number of pairs.
+	 */
+	private final int capacity;
+
+	/**
+	 * Behaviour of the full store.
+	 */
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Map containing the tokens as keys and the pseudonyms with their creation
+	 * time as values.
+	 */
+	private final ConcurrentMap<String, PseudonymEntry> entries;
+
+	/**
+	 * Expiry index of the entries.
+	 */
+	private final ExpiryWheel<PseudonymEntry> expiryWheel;
+
+	/**
+	 * Number of pairs removed because of their timeout.
+	 */
+	private final AtomicLong expirations;
+
+	/**
+	 * Number of pairs rejected because the store was full.
+	 */
+	private final AtomicLong rejections;
+
+	/**
+	 * Number of pairs evicted to make room for new pairs.
+	 */
+	private final AtomicLong evictions;
+
+	/**
+	 * Receives the evicted and expired tokens, null if none is registered.
+	 */
+	private volatile Consumer<String> removalListener;
+
+	/**
+	 * Constructs a new HeapPseudonymStore without a capacity.
+	 *
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 */
+	public HeapPseudonymStore(final long pseudonymTimeout) {
+		this(pseudonymTimeout, Integer.MAX_VALUE, OverflowPolicy.REJECT);
+	}
+
+	/**
+	 * Constructs a new HeapPseudonymStore.
+	 *
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @param capacity         Maximum number of pairs.
+	 * @param overflowPolicy   Behaviour of the full store.
+	 */
+	public HeapPseudonymStore(final long pseudonymTimeout, final int capacity, final OverflowPolicy overflowPolicy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+		this.pseudonymTimeout = pseudonymTimeout;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.entries = new ConcurrentHashMap<String, PseudonymEntry>();
+		this.expiryWheel = new ExpiryWheel<PseudonymEntry>(pseudonymTimeout, expiryTick(pseudonymTimeout),
+				entry -> entry.createdAt + pseudonymTimeout);
+		this.expirations = new AtomicLong();
+		this.rejections = new AtomicLong();
+		this.evictions = new AtomicLong();
+	}
+
+	/**
+	 * Determines the interval in which the expired pairs should be removed.
+	 *
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @return Interval in milliseconds.
+	 */
+	public static long expiryTick(final long pseudonymTimeout) {
+		return Math.max(1, pseudonymTimeout / EXPIRY_TICKS);
+	}
+
+	/**
+	 * Stores a token-pseudonym pair and indexes it in the expiry wheel.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param now       The current time in milliseconds, used as creation time.
+	 * @return The previous pseudonym associated with token, or null if there was
+	 *         no unexpired mapping for token.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public String put(final String token, final String pseudonym, final long now) {
+		if (entries.size() >= capacity && !entries.containsKey(token))
+			makeRoom(1, now);
+
+		final PseudonymEntry entry = new PseudonymEntry(token, pseudonym, now);
+		final PseudonymEntry previous = entries.put(token, entry);
+		expiryWheel.add(entry);
+
+		if (previous == null)
+			return null;
+
+		expiryWheel.remove(previous);
+		return !isExpired(previous, now) ? previous.pseudonym : null;
+	}
+
+	/**
+	 * Stores several token-pseudonym pairs. The capacity is checked once for the
+	 * whole batch, a full store rejecting new pairs rejects all of them. The
+	 * pairs are registered in the expiry wheel together.
+	 *
+	 * @param pairs The tokens with their pseudonyms.
+	 * @param now   The current time in milliseconds, used as creation time.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public void putAll(final Map<String, String> pairs, final long now) {
+		if (entries.size() + pairs.size() > capacity)
+			makeRoom(pairs.size(), now);
+
+		final List<PseudonymEntry> added = new ArrayList<PseudonymEntry>(pairs.size());
+
+		for (final Entry<String, String> pair : pairs.entrySet()) {
+			final PseudonymEntry entry = new PseudonymEntry(pair.getKey(), pair.getValue(), now);
+			final PseudonymEntry previous = entries.put(pair.getKey(), entry);
+			added.add(entry);
+
+			if (previous != null)
+				expiryWheel.remove(previous);
+		}
+
+		expiryWheel.addAll(added);
+	}
+
+	/**
+	 * Returns the pseudonym associated with the token.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String get(final String token, final long now) {
+		final PseudonymEntry entry = entries.get(token);
+		return entry != null && !isExpired(entry, now) ? entry.pseudonym : null;
+	}
+
+	/**
+	 * Removes the token if present. Counts an expired token as expiration.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String remove(final String token, final long now) {
+		return remove(token, now, null);
+	}
+
+	/**
+	 * Removes the token if present and reports its creation time. Counts an
+	 * expired token as expiration.
+	 *
+	 * @param token     The token.
+	 * @param now       The current time in milliseconds.
+	 * @param createdAt Receives the creation time of the removed pair in its
+	 *                  first element, may be null.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	String remove(final String token, final long now, final long[] createdAt) {
+		final PseudonymEntry entry = entries.remove(token);
+
+		if (entry == null)
+			return null;
+
+		expiryWheel.remove(entry);
+
+		if (isExpired(entry, now)) {
+			expirations.incrementAndGet();
+			return null;
+		}
+
+		if (createdAt != null)
+			createdAt[0] = entry.createdAt;
+
+		return entry.pseudonym;
+	}
+
+	/**
+	 * Removes several tokens and reports the creation times of the removed
+	 * pairs. Counts expired tokens as expirations.
+	 *
+	 * @param tokens     The tokens.
+	 * @param now        The current time in milliseconds.
+	 * @param createdAts Receives the removed tokens with their creation times in
+	 *                   milliseconds, may be null.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	@Override
+	public Map<String, String> removeAll(final Collection<String> tokens, final long now,
+			final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+		final long[] createdAt = new long[1];
+
+		for (final String token : tokens) {
+			final String pseudonym = remove(token, now, createdAt);
+
+			if (pseudonym == null)
+				continue;
+
+			pseudonyms.put(token, pseudonym);
+
+			if (createdAts != null)
+				createdAts.put(token, createdAt[0]);
+		}
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Removes the expired pairs. Only visits the pairs that expired since the
+	 * previous call.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Number of removed pairs.
+	 */
+	@Override
+	public int removeExpired(final long now) {
+		final int[] count = new int[1];
+
+		expiryWheel.advance(now, entry -> {
+			if (entries.remove(entry.token, entry)) {
+				count[0]++;
+				reportRemoval(entry.token);
+			}
+		});
+
+		expirations.addAndGet(count[0]);
+		return count[0];
+	}
+
+	/**
+	 * @return Number of stored pairs including the expired pairs not removed yet.
+	 */
+	@Override
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Number of pairs removed because of their timeout.
+	 */
+	@Override
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * @return Maximum number of pairs.
+	 */
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return Number of pairs rejected because the store was full.
+	 */
+	@Override
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/**
+	 * @return Number of pairs evicted to make room for new pairs.
+	 */
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @param listener Receives the evicted and expired tokens.
+	 */
+	@Override
+	public void setRemovalListener(final Consumer<String> listener) {
+		this.removalListener = listener;
+	}
+
+	/**
+	 * Frees places for new pairs. Removes the expired pairs and applies the
+	 * overflow policy if the store is still too full.
+	 *
+	 * @param count Number of new pairs.
+	 * @param now   The current time in milliseconds.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	private void makeRoom(final int count, final long now) {
+		removeExpired(now);
+
+		while (entries.size() + count > capacity) {
+			if (overflowPolicy == OverflowPolicy.REJECT) {
+				rejections.incrementAndGet();
+				throw new PseudonymStoreFullException("Pseudonym store is full, capacity " + capacity,
+						retryAfter(now));
+			}
+
+			if (!evictOldest(now))
+				return;
+		}
+	}
+
+	/**
+	 * Evicts the pair that expires first.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return true if a pair got evicted, false if the store is empty.
+	 */
+	boolean evictOldest(final long now) {
+		final PseudonymEntry oldest = expiryWheel.pollFirst(now);
+
+		if (oldest == null)
+			return false;
+
+		if (entries.remove(oldest.token, oldest)) {
+			evictions.incrementAndGet();
+			reportRemoval(oldest.token);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Passes a token the store removed on its own to the removal listener.
+	 *
+	 * @param token The evicted or expired token.
+	 */
+	private void reportRemoval(final String token) {
+		final Consumer<String> listener = removalListener;
+
+		if (listener != null)
+			listener.accept(token);
+	}
+
+	/**
+	 * Estimates the time until the oldest pair gets removed by the cleaning.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Time in milliseconds.
+	 */
+	private long retryAfter(final long now) {
+		final PseudonymEntry oldest = expiryWheel.peekFirst(now);
+
+		if (oldest == null)
+			return expiryWheel.getTick();
+
+		return Math.max(0, oldest.createdAt + pseudonymTimeout - now) + expiryWheel.getTick();
+	}
+
+	/**
+	 * Determines whether the entry is expired.
+	 *
+	 * @param entry The entry.
+	 * @param now   The current time in milliseconds.
+	 * @return true if the timeout of the entry has passed.
+	 */
+	private boolean isExpired(final PseudonymEntry entry, final long now) {
+		return entry.createdAt + pseudonymTimeout <= now;
+	}
+
+	/**
+	 * A stored pseudonym, its token and the time of its creation.
+	 */
+	private static class PseudonymEntry {
+
+		/**
+		 * The token.
+		 */
+		private final String token;
+
+		/**
+		 * The pseudonym.
+		 */
+		private final String pseudonym;
+
+		/**
+		 * Time stamp of the creation in milliseconds.
+		 */
+		private final long createdAt;
+
+		/**
+		 * Constructs a new PseudonymEntry.
+		 *
+		 * @param token     The token.
+		 * @param pseudonym The pseudonym.
+		 * @param createdAt Time stamp of the creation in milliseconds.
+		 */
+		private PseudonymEntry(final String token, final String pseudonym, final long createdAt) {
+			this.token = token;
+			this.pseudonym = pseudonym;
+			this.createdAt = createdAt;
+		}
+
+	}
+
+}
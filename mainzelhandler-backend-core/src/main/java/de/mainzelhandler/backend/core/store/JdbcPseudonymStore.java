@@ -0,0 +1,828 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreException;
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+/**
+ * Store keeping the token-pseudonym pairs in a database table shared by all
+ * instances of the application. The table gets created if it does not exist and
+ * has an index on the creation time, so the cleaning deletes the expired pairs
+ * with one indexed statement. A token is deleted on the condition of its
+ * creation time, so of concurrent removals on several instances only one
+ * receives the pseudonym. The batch operations use one statement per
+ * {@value #BATCH_SIZE} tokens.
+ *
+ * An insert colliding with the same token inserted concurrently by another
+ * instance repeats its transaction, which then finds the token and updates it.
+ * No database specific upsert statement is needed for that.
+ *
+ * The number of pairs is counted every {@value #COUNT_TICKS} cleanings and
+ * before the overflow policy is applied, in between it is only adjusted by the
+ * own writes. The writes of the other instances are only noticed by the next
+ * count, so the capacity is an approximate bound for all instances together:
+ * the table may exceed it by the pairs the other instances insert between two
+ * counts.
+ */
+public class JdbcPseudonymStore implements PseudonymStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JdbcPseudonymStore.class);
+
+	/**
+	 * Default name of the table.
+	 */
+	public static final String DEFAULT_TABLE = "mainzelhandler_pseudonyms";
+
+	/**
+	 * Maximum number of tokens per statement of a batch operation.
+	 */
+	private static final int BATCH_SIZE = 500;
+
+	/**
+	 * Number of cleanings between two counts of the pairs.
+	 */
+	private static final int COUNT_TICKS = 16;
+
+	/**
+	 * Maximum number of attempts of a write colliding with concurrent inserts.
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * Pattern of the valid table names. The name is part of the statements.
+	 */
+	private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+	/**
+	 * Database containing the table.
+	 */
+	private final DataSource dataSource;
+
+	/**
+	 * Name of the table.
+	 */
+	private final String table;
+
+	/**
+	 * Timeout of the pairs in milliseconds.
+	 */
+	private final long pseudonymTimeout;
+
+	/**
+	 * Maximum number of pairs.
+	 */
+	private final int capacity;
+
+	/**
+	 * Behaviour of the full store.
+	 */
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Number of pairs counted by the last cleaning and adjusted by the own
+	 * writes.
+	 */
+	private final AtomicInteger size;
+
+	/**
+	 * Number of cleanings since the last count of the pairs.
+	 */
+	private final AtomicInteger ticks;
+
+	/**
+	 * Number of pairs removed by this instance because of their timeout.
+	 */
+	private final AtomicLong expirations;
+
+	/**
+	 * Number of pairs rejected by this instance because the store was full.
+	 */
+	private final AtomicLong rejections;
+
+	/**
+	 * Number of pairs evicted by this instance to make room for new pairs.
+	 */
+	private final AtomicLong evictions;
+
+	/**
+	 * Constructs a new JdbcPseudonymStore. Creates the table if it does not
+	 * exist.
+	 *
+	 * @param dataSource       Database containing the table.
+	 * @param table            Name of the table.
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @param capacity         Maximum number of pairs.
+	 * @param overflowPolicy   Behaviour of the full store.
+	 * @throws PseudonymStoreException If the table could not be created.
+	 */
+	public JdbcPseudonymStore(final DataSource dataSource, final String table, final long pseudonymTimeout,
+			final int capacity, final OverflowPolicy overflowPolicy) {
+		if (!TABLE_NAME.matcher(table).matches())
+			throw new IllegalArgumentException("Invalid table name: " + table);
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+		this.dataSource = dataSource;
+		this.table = table;
+		this.pseudonymTimeout = pseudonymTimeout;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.size = new AtomicInteger();
+		this.ticks = new AtomicInteger();
+		this.expirations = new AtomicLong();
+		this.rejections = new AtomicLong();
+		this.evictions = new AtomicLong();
+
+		execute(connection -> {
+			createTable(connection);
+			size.set(count(connection));
+			return null;
+		});
+	}
+
+	/**
+	 * Stores a token-pseudonym pair.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param now       The current time in milliseconds, used as creation time.
+	 * @return The previous pseudonym associated with token, or null if there was
+	 *         no unexpired mapping for token.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public String put(final String token, final String pseudonym, final long now) {
+		if (size.get() >= capacity && get(token, now) == null)
+			makeRoom(1, now);
+
+		final boolean[] inserted = new boolean[1];
+
+		final String result = transactionWithRetry(connection -> {
+			boolean exists = false;
+			String previous = null;
+
+			try (PreparedStatement select = connection
+					.prepareStatement("SELECT pseudonym, created_at FROM " + table + " WHERE token = ?")) {
+				select.setString(1, token);
+
+				try (ResultSet row = select.executeQuery()) {
+					if (row.next()) {
+						exists = true;
+						previous = !isExpired(row.getLong(2), now) ? row.getString(1) : null;
+					}
+				}
+			}
+
+			if (exists) {
+				update(connection, Collections.singletonMap(token, pseudonym), now);
+			} else {
+				insert(connection, Collections.singletonMap(token, pseudonym), now);
+			}
+
+			inserted[0] = !exists;
+			return previous;
+		});
+
+		if (inserted[0])
+			size.incrementAndGet();
+
+		return result;
+	}
+
+	/**
+	 * Stores several token-pseudonym pairs in one transaction.
+	 *
+	 * @param pairs Tokens and their pseudonyms.
+	 * @param now   The current time in milliseconds, used as creation time.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public void putAll(final Map<String, String> pairs, final long now) {
+		if (pairs.isEmpty())
+			return;
+
+		if (size.get() + pairs.size() > capacity)
+			makeRoom(pairs.size(), now);
+
+		final List<String> tokens = new ArrayList<String>(pairs.keySet());
+
+		final int inserted = transactionWithRetry(connection -> {
+			int count = 0;
+
+			for (int from = 0; from < tokens.size(); from += BATCH_SIZE) {
+				final List<String> chunk = tokens.subList(from, Math.min(tokens.size(), from + BATCH_SIZE));
+				final Set<String> existing = new HashSet<String>();
+
+				try (PreparedStatement select = connection.prepareStatement(
+						"SELECT token FROM " + table + " WHERE token IN (" + placeholders(chunk.size()) + ")")) {
+					for (int i = 0; i < chunk.size(); i++)
+						select.setString(i + 1, chunk.get(i));
+
+					try (ResultSet rows = select.executeQuery()) {
+						while (rows.next())
+							existing.add(rows.getString(1));
+					}
+				}
+
+				final Map<String, String> updates = new HashMap<String, String>();
+				final Map<String, String> inserts = new HashMap<String, String>();
+
+				for (final String token : chunk)
+					(existing.contains(token) ? updates : inserts).put(token, pairs.get(token));
+
+				update(connection, updates, now);
+				insert(connection, inserts, now);
+				count += inserts.size();
+			}
+
+			return count;
+		});
+
+		size.addAndGet(inserted);
+	}
+
+	/**
+	 * Returns the pseudonym associated with the token.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String get(final String token, final long now) {
+		return execute(connection -> {
+			try (PreparedStatement select = connection.prepareStatement(
+					"SELECT pseudonym FROM " + table + " WHERE token = ? AND created_at > ?")) {
+				select.setString(1, token);
+				select.setLong(2, now - pseudonymTimeout);
+
+				try (ResultSet row = select.executeQuery()) {
+					return row.next() ? row.getString(1) : null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes the token if present. Counts an expired token as expiration.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present,
+	 *         expired or removed concurrently.
+	 */
+	@Override
+	public String remove(final String token, final long now) {
+		return removeAll(Collections.singletonList(token), now).get(token);
+	}
+
+	/**
+	 * Removes several tokens with one select and one batch of deletes per
+	 * {@value #BATCH_SIZE} tokens and reports the creation times of the removed
+	 * pairs. Counts expired tokens as expirations.
+	 *
+	 * @param tokens     The tokens.
+	 * @param now        The current time in milliseconds.
+	 * @param createdAts Receives the removed tokens with their creation times in
+	 *                   milliseconds, may be null.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present, expired or removed concurrently are missing.
+	 */
+	@Override
+	public Map<String, String> removeAll(final Collection<String> tokens, final long now,
+			final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+		final List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(tokens));
+
+		if (distinct.isEmpty())
+			return pseudonyms;
+
+		execute(connection -> {
+			for (int from = 0; from < distinct.size(); from += BATCH_SIZE)
+				removeChunk(connection, distinct.subList(from, Math.min(distinct.size(), from + BATCH_SIZE)), now,
+						pseudonyms, createdAts);
+
+			return null;
+		});
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Deletes the expired pairs with one statement. Counts the remaining pairs
+	 * every {@value #COUNT_TICKS} calls, so the instances do not scan the table
+	 * every tick.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Number of removed pairs.
+	 */
+	@Override
+	public int removeExpired(final long now) {
+		return removeExpired(now, ticks.incrementAndGet() % COUNT_TICKS == 0);
+	}
+
+	/**
+	 * Deletes the expired pairs with one statement.
+	 *
+	 * @param now   The current time in milliseconds.
+	 * @param count Whether the remaining pairs get counted afterwards.
+	 * @return Number of removed pairs.
+	 */
+	private int removeExpired(final long now, final boolean count) {
+		return execute(connection -> {
+			final int removed;
+
+			try (PreparedStatement delete = connection
+					.prepareStatement("DELETE FROM " + table + " WHERE created_at <= ?")) {
+				delete.setLong(1, now - pseudonymTimeout);
+				removed = delete.executeUpdate();
+			}
+
+			if (count) {
+				size.set(count(connection));
+			} else {
+				size.addAndGet(-removed);
+			}
+
+			expirations.addAndGet(removed);
+			return removed;
+		});
+	}
+
+	/**
+	 * @return Number of pairs counted by the last count and adjusted by the own
+	 *         writes and cleanings. Misses the pairs inserted by the other
+	 *         instances since the last count.
+	 */
+	@Override
+	public int size() {
+		return Math.max(0, size.get());
+	}
+
+	/**
+	 * @return true, the pairs are shared by all instances using the same
+	 *         table.
+	 */
+	@Override
+	public boolean isShared() {
+		return true;
+	}
+
+	/**
+	 * @return Number of pairs removed by this instance because of their timeout.
+	 */
+	@Override
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * @return Maximum number of pairs.
+	 */
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return Number of pairs rejected by this instance because the store was
+	 *         full.
+	 */
+	@Override
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/**
+	 * @return Number of pairs evicted by this instance to make room for new pairs.
+	 */
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Frees places for new pairs. Removes the expired pairs, counts the
+	 * remaining pairs and applies the overflow policy if the store is still
+	 * full.
+	 *
+	 * @param needed Number of new pairs.
+	 * @param now    The current time in milliseconds.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	private void makeRoom(final int needed, final long now) {
+		removeExpired(now, true);
+
+		final int excess = size.get() + needed - capacity;
+
+		if (excess <= 0)
+			return;
+
+		if (overflowPolicy == OverflowPolicy.REJECT) {
+			rejections.incrementAndGet();
+			throw new PseudonymStoreFullException("Pseudonym store is full, capacity " + capacity, retryAfter(now));
+		}
+
+		execute(connection -> {
+			final List<String> tokens = new ArrayList<String>();
+			final List<Long> createdAts = new ArrayList<Long>();
+
+			try (PreparedStatement select = connection
+					.prepareStatement("SELECT token, created_at FROM " + table + " ORDER BY created_at")) {
+				select.setMaxRows(excess);
+
+				try (ResultSet rows = select.executeQuery()) {
+					while (rows.next()) {
+						tokens.add(rows.getString(1));
+						createdAts.add(rows.getLong(2));
+					}
+				}
+			}
+
+			final boolean[] deleted = delete(connection, tokens, createdAts);
+
+			for (final boolean evicted : deleted) {
+				if (evicted)
+					evictions.incrementAndGet();
+			}
+
+			return null;
+		});
+	}
+
+	/**
+	 * Estimates the time until the oldest pair gets removed by the cleaning.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Time in milliseconds.
+	 */
+	private long retryAfter(final long now) {
+		final long tick = HeapPseudonymStore.expiryTick(pseudonymTimeout);
+
+		return execute(connection -> {
+			try (Statement statement = connection.createStatement();
+					ResultSet row = statement.executeQuery("SELECT MIN(created_at) FROM " + table)) {
+				if (!row.next())
+					return tick;
+
+				final long oldest = row.getLong(1);
+
+				if (row.wasNull())
+					return tick;
+
+				return Math.max(0, oldest + pseudonymTimeout - now) + tick;
+			}
+		});
+	}
+
+	/**
+	 * Removes a chunk of tokens.
+	 *
+	 * @param connection Connection to the database.
+	 * @param tokens     Up to {@value #BATCH_SIZE} distinct tokens.
+	 * @param now        The current time in milliseconds.
+	 * @param pseudonyms Map receiving the removed tokens with their pseudonyms.
+	 * @param removedAts Map receiving the removed tokens with their creation
+	 *                   times, may be null.
+	 * @throws SQLException If a statement failed.
+	 */
+	private void removeChunk(final Connection connection, final List<String> tokens, final long now,
+			final Map<String, String> pseudonyms, final Map<String, Long> removedAts) throws SQLException {
+		final List<String> found = new ArrayList<String>();
+		final List<String> foundPseudonyms = new ArrayList<String>();
+		final List<Long> createdAts = new ArrayList<Long>();
+
+		try (PreparedStatement select = connection.prepareStatement("SELECT token, pseudonym, created_at FROM "
+				+ table + " WHERE token IN (" + placeholders(tokens.size()) + ")")) {
+			for (int i = 0; i < tokens.size(); i++)
+				select.setString(i + 1, tokens.get(i));
+
+			try (ResultSet rows = select.executeQuery()) {
+				while (rows.next()) {
+					found.add(rows.getString(1));
+					foundPseudonyms.add(rows.getString(2));
+					createdAts.add(rows.getLong(3));
+				}
+			}
+		}
+
+		final boolean[] deleted = delete(connection, found, createdAts);
+
+		for (int i = 0; i < deleted.length; i++) {
+			if (!deleted[i])
+				continue;
+
+			if (isExpired(createdAts.get(i), now)) {
+				expirations.incrementAndGet();
+			} else {
+				pseudonyms.put(found.get(i), foundPseudonyms.get(i));
+
+				if (removedAts != null)
+					removedAts.put(found.get(i), createdAts.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Deletes tokens on the condition that their creation time did not change.
+	 *
+	 * @param connection Connection to the database.
+	 * @param tokens     The tokens.
+	 * @param createdAts The creation times read with the tokens.
+	 * @return Whether the token at the same index got deleted by this call.
+	 * @throws SQLException If a statement failed.
+	 */
+	private boolean[] delete(final Connection connection, final List<String> tokens, final List<Long> createdAts)
+			throws SQLException {
+		final boolean[] deleted = new boolean[tokens.size()];
+
+		if (tokens.isEmpty())
+			return deleted;
+
+		try (PreparedStatement delete = connection
+				.prepareStatement("DELETE FROM " + table + " WHERE token = ? AND created_at = ?")) {
+			for (int i = 0; i < tokens.size(); i++) {
+				delete.setString(1, tokens.get(i));
+				delete.setLong(2, createdAts.get(i));
+				delete.addBatch();
+			}
+
+			final int[] counts = delete.executeBatch();
+
+			for (int i = 0; i < counts.length; i++) {
+				deleted[i] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+
+				if (deleted[i])
+					size.decrementAndGet();
+			}
+		}
+
+		return deleted;
+	}
+
+	/**
+	 * Inserts new pairs with one batch. The caller adds them to the size after
+	 * the transaction committed.
+	 *
+	 * @param connection Connection to the database.
+	 * @param pairs      Tokens that are not present and their pseudonyms.
+	 * @param now        The current time in milliseconds, used as creation time.
+	 * @throws SQLException If a statement failed.
+	 */
+	private void insert(final Connection connection, final Map<String, String> pairs, final long now)
+			throws SQLException {
+		if (pairs.isEmpty())
+			return;
+
+		try (PreparedStatement insert = connection
+				.prepareStatement("INSERT INTO " + table + " (token, pseudonym, created_at) VALUES (?, ?, ?)")) {
+			for (final Map.Entry<String, String> pair : pairs.entrySet()) {
+				insert.setString(1, pair.getKey());
+				insert.setString(2, pair.getValue());
+				insert.setLong(3, now);
+				insert.addBatch();
+			}
+
+			insert.executeBatch();
+		}
+	}
+
+	/**
+	 * Replaces the pseudonyms and creation times of present tokens with one
+	 * batch.
+	 *
+	 * @param connection Connection to the database.
+	 * @param pairs      Present tokens and their new pseudonyms.
+	 * @param now        The current time in milliseconds, used as creation time.
+	 * @throws SQLException If a statement failed.
+	 */
+	private void update(final Connection connection, final Map<String, String> pairs, final long now)
+			throws SQLException {
+		if (pairs.isEmpty())
+			return;
+
+		try (PreparedStatement update = connection
+				.prepareStatement("UPDATE " + table + " SET pseudonym = ?, created_at = ? WHERE token = ?")) {
+			for (final Map.Entry<String, String> pair : pairs.entrySet()) {
+				update.setString(1, pair.getValue());
+				update.setLong(2, now);
+				update.setString(3, pair.getKey());
+				update.addBatch();
+			}
+
+			update.executeBatch();
+		}
+	}
+
+	/**
+	 * Creates the table and the index on the creation time if the table does not
+	 * exist.
+	 *
+	 * @param connection Connection to the database.
+	 * @throws SQLException If the table could not be created.
+	 */
+	private void createTable(final Connection connection) throws SQLException {
+		if (tableExists(connection))
+			return;
+
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("CREATE TABLE " + table + " (token VARCHAR(255) NOT NULL PRIMARY KEY, "
+					+ "pseudonym VARCHAR(255) NOT NULL, created_at BIGINT NOT NULL)");
+			statement.executeUpdate("CREATE INDEX " + table + "_created_at ON " + table + " (created_at)");
+			LOGGER.info("Created pseudonym table " + table);
+		} catch (final SQLException exception) {
+			// another instance may have created the table in the meantime
+			if (!tableExists(connection))
+				throw exception;
+		}
+	}
+
+	/**
+	 * Checks whether the table exists. Databases differ in the case of unquoted
+	 * names, so the name is searched as given, in upper and in lower case.
+	 *
+	 * @param connection Connection to the database.
+	 * @return true if the table exists.
+	 * @throws SQLException If the metadata could not be read.
+	 */
+	private boolean tableExists(final Connection connection) throws SQLException {
+		final DatabaseMetaData metaData = connection.getMetaData();
+
+		for (final String name : new String[] { table, table.toUpperCase(Locale.ROOT),
+				table.toLowerCase(Locale.ROOT) }) {
+			try (ResultSet tables = metaData.getTables(null, null, name, new String[] { "TABLE" })) {
+				if (tables.next())
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Counts the pairs of the table.
+	 *
+	 * @param connection Connection to the database.
+	 * @return Number of pairs.
+	 * @throws SQLException If the statement failed.
+	 */
+	private int count(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement();
+				ResultSet row = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			row.next();
+			return row.getInt(1);
+		}
+	}
+
+	/**
+	 * Determines whether a pair is expired.
+	 *
+	 * @param createdAt Creation time of the pair in milliseconds.
+	 * @param now       The current time in milliseconds.
+	 * @return true if the timeout of the pair has passed.
+	 */
+	private boolean isExpired(final long createdAt, final long now) {
+		return createdAt + pseudonymTimeout <= now;
+	}
+
+	/**
+	 * Runs a function with a connection in auto-commit mode.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param function The function.
+	 * @return The result of the function.
+	 * @throws PseudonymStoreException If the database request failed.
+	 */
+	private <T> T execute(final SqlFunction<T> function) {
+		try (Connection connection = dataSource.getConnection()) {
+			return function.apply(connection);
+		} catch (final SQLException exception) {
+			throw new PseudonymStoreException("Pseudonym store request failed: " + exception.getMessage(), exception);
+		}
+	}
+
+	/**
+	 * Runs a function with a connection in one transaction. Rolls the
+	 * transaction back if the function fails.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param function The function.
+	 * @return The result of the function.
+	 * @throws PseudonymStoreException If the database request failed.
+	 */
+	private <T> T transaction(final SqlFunction<T> function) {
+		return execute(connection -> {
+			final boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+
+			try {
+				final T result = function.apply(connection);
+				connection.commit();
+				return result;
+			} catch (final SQLException | RuntimeException exception) {
+				connection.rollback();
+				throw exception;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		});
+	}
+
+	/**
+	 * Runs a function with a connection in one transaction like
+	 * {@link #transaction(SqlFunction)} and repeats the transaction if it
+	 * collided with a token inserted concurrently by another instance. The
+	 * repeated transaction finds the token and updates it.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param function The function.
+	 * @return The result of the function.
+	 * @throws PseudonymStoreException If the database request failed.
+	 */
+	private <T> T transactionWithRetry(final SqlFunction<T> function) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				return transaction(function);
+			} catch (final PseudonymStoreException exception) {
+				if (attempt >= MAX_ATTEMPTS || !isDuplicateKey(exception.getCause()))
+					throw exception;
+
+				LOGGER.debug("Repeating write colliding with a concurrent insert: " + exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Determines whether a statement failed because of a violated constraint,
+	 * the duplicate primary key of a concurrent insert.
+	 *
+	 * @param cause Cause of the failure.
+	 * @return true if the SQL state is of the class integrity constraint
+	 *         violation.
+	 */
+	private static boolean isDuplicateKey(final Throwable cause) {
+		if (cause instanceof SQLIntegrityConstraintViolationException)
+			return true;
+
+		final String state = cause instanceof SQLException ? ((SQLException) cause).getSQLState() : null;
+		return state != null && state.startsWith("23");
+	}
+
+	/**
+	 * @param count Number of parameters.
+	 * @return Comma separated parameter markers.
+	 */
+	private static String placeholders(final int count) {
+		return String.join(", ", Collections.nCopies(count, "?"));
+	}
+
+	/**
+	 * Function using a connection to the database.
+	 *
+	 * @param <T> Type of the result.
+	 */
+	@FunctionalInterface
+	private interface SqlFunction<T> {
+
+		/**
+		 * Applies the function.
+		 *
+		 * @param connection Connection to the database.
+		 * @return The result.
+		 * @throws SQLException If a statement failed.
+		 */
+		T apply(Connection connection) throws SQLException;
+
+	}
+
+}
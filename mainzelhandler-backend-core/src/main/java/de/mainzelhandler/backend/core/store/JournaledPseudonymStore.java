@@ -0,0 +1,295 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreException;
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+/**
+ * Store writing the puts and removes of a local store to a
+ * {@link PseudonymJournal}, so the pairs survive a restart of the application
+ * and the patients in flight do not have to be pseudonymized again. The pairs
+ * of the journal are put back into the local store on construction, expired
+ * pairs are dropped. A put is written to the journal before it becomes
+ * visible, so a remove of the same token is always journaled after it, and
+ * journaled as removed again if the local store does not hold the pair after
+ * a failed put. Removes do not wait for the disk, a lost remove only restores
+ * a pair that expires later. The pairs the local store evicts or removes as
+ * expired are journaled as removed as well, so an evicted pair does not come
+ * back with the replay.
+ */
+public class JournaledPseudonymStore implements PseudonymStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JournaledPseudonymStore.class);
+
+	/**
+	 * The local store.
+	 */
+	private final PseudonymStore store;
+
+	/**
+	 * The journal.
+	 */
+	private final PseudonymJournal journal;
+
+	/**
+	 * Timeout of the pairs in milliseconds.
+	 */
+	private final long pseudonymTimeout;
+
+	/**
+	 * Constructs a new JournaledPseudonymStore and restores the pairs of the
+	 * journal into the local store.
+	 *
+	 * @param store            The local store, has to be empty.
+	 * @param directory        Directory of the journal.
+	 * @param segmentSize      Size of a journal segment in bytes.
+	 * @param sync             Whether a put waits until it is forced to the
+	 *                         disk.
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @throws PseudonymStoreException If the journal could not be opened.
+	 */
+	public JournaledPseudonymStore(final PseudonymStore store, final Path directory, final int segmentSize,
+			final boolean sync, final long pseudonymTimeout) {
+		this.store = store;
+		this.journal = new PseudonymJournal(directory, segmentSize, sync);
+		this.pseudonymTimeout = pseudonymTimeout;
+
+		store.setRemovalListener(token -> journal.appendRemove(token, System.currentTimeMillis()));
+
+		final long now = System.currentTimeMillis();
+		int restored = 0;
+
+		try {
+			for (final PseudonymJournal.Pair pair : journal.open(now, pseudonymTimeout)) {
+				try {
+					store.put(pair.getToken(), pair.getPseudonym(), pair.getCreatedAt());
+					restored++;
+				} catch (final PseudonymStoreFullException exception) {
+					journal.appendRemove(pair.getToken(), now);
+				}
+			}
+		} catch (final IOException exception) {
+			throw new PseudonymStoreException("Could not open the pseudonym journal in " + directory, exception);
+		}
+
+		LOGGER.info("Restored " + restored + " pseudonyms from the journal in " + directory);
+	}
+
+	/**
+	 * Journals the pair, stores it and waits until the journal is on the disk.
+	 * The pair is journaled as removed if the local store fails and does not
+	 * hold it.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param now       The current time in milliseconds, used as creation time.
+	 * @return The previous pseudonym associated with token, or null if there was
+	 *         no unexpired mapping for token.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public String put(final String token, final String pseudonym, final long now) {
+		final long position = journal.appendPut(token, pseudonym, now);
+		final String previous;
+
+		try {
+			previous = store.put(token, pseudonym, now);
+		} catch (final RuntimeException exception) {
+			rollback(Collections.singleton(token), now);
+			throw exception;
+		}
+
+		journal.awaitDurable(position);
+		return previous;
+	}
+
+	/**
+	 * Journals the pairs, stores them with one call to the local store and
+	 * waits once until the journal is on the disk. Pairs the local store did not
+	 * take because it is full or failed are journaled as removed.
+	 *
+	 * @param pairs The tokens with their pseudonyms.
+	 * @param now   The current time in milliseconds, used as creation time.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public void putAll(final Map<String, String> pairs, final long now) {
+		long position = 0;
+
+		for (final Entry<String, String> pair : pairs.entrySet())
+			position = journal.appendPut(pair.getKey(), pair.getValue(), now);
+
+		try {
+			store.putAll(pairs, now);
+		} catch (final RuntimeException exception) {
+			rollback(pairs.keySet(), now);
+			throw exception;
+		}
+
+		journal.awaitDurable(position);
+	}
+
+	/**
+	 * Journals the tokens of a failed put as removed that the local store does
+	 * not hold and waits until the journal is on the disk.
+	 *
+	 * @param tokens The tokens of the failed put.
+	 * @param now    The current time in milliseconds.
+	 */
+	private void rollback(final Collection<String> tokens, final long now) {
+		long position = -1;
+
+		for (final String token : tokens)
+			if (store.get(token, now) == null)
+				position = journal.appendRemove(token, now);
+
+		if (position >= 0)
+			journal.awaitDurable(position);
+	}
+
+	/**
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String get(final String token, final long now) {
+		return store.get(token, now);
+	}
+
+	/**
+	 * Removes the token and journals the removal if it was present.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String remove(final String token, final long now) {
+		final String pseudonym = store.remove(token, now);
+
+		if (pseudonym != null)
+			journal.appendRemove(token, now);
+
+		return pseudonym;
+	}
+
+	/**
+	 * Removes the tokens and journals the removals of the present tokens.
+	 *
+	 * @param tokens     The tokens.
+	 * @param now        The current time in milliseconds.
+	 * @param createdAts Receives the removed tokens with their creation times in
+	 *                   milliseconds, may be null.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	@Override
+	public Map<String, String> removeAll(final Collection<String> tokens, final long now,
+			final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = store.removeAll(tokens, now, createdAts);
+
+		for (final String token : pseudonyms.keySet())
+			journal.appendRemove(token, now);
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Removes the expired pairs from the local store. Their removals are
+	 * journaled by the removal listener.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Number of removed pairs.
+	 */
+	@Override
+	public int removeExpired(final long now) {
+		return store.removeExpired(now);
+	}
+
+	/**
+	 * Merges the sealed journal segments into a new snapshot.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @throws PseudonymStoreException If the journal could not be compacted.
+	 */
+	@Override
+	public void compact(final long now) {
+		try {
+			final int count = journal.compact(now, pseudonymTimeout);
+
+			if (count >= 0)
+				LOGGER.debug("Compacted the pseudonym journal into a snapshot of " + count + " pseudonyms");
+		} catch (final IOException exception) {
+			throw new PseudonymStoreException("Could not compact the pseudonym journal", exception);
+		}
+	}
+
+	/**
+	 * @return Number of stored pairs including the expired pairs not removed yet.
+	 */
+	@Override
+	public int size() {
+		return store.size();
+	}
+
+	/**
+	 * @return Number of pairs removed because of their timeout.
+	 */
+	@Override
+	public long getExpirations() {
+		return store.getExpirations();
+	}
+
+	/**
+	 * @return Maximum number of pairs.
+	 */
+	@Override
+	public int getCapacity() {
+		return store.getCapacity();
+	}
+
+	/**
+	 * @return Number of pairs rejected because the store was full.
+	 */
+	@Override
+	public long getRejections() {
+		return store.getRejections();
+	}
+
+	/**
+	 * @return Number of pairs evicted to make room for new pairs.
+	 */
+	@Override
+	public long getEvictions() {
+		return store.getEvictions();
+	}
+
+	/**
+	 * Closes the journal and the local store.
+	 */
+	@Override
+	public void close() {
+		try {
+			journal.close();
+		} catch (final IOException exception) {
+			LOGGER.warn("Could not close the pseudonym journal: " + exception.getMessage());
+		}
+
+		store.close();
+	}
+
+}
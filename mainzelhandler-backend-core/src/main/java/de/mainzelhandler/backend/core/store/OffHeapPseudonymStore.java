@@ -0,0 +1,1181 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+/**
+ * Store keeping the token-pseudonym pairs encoded in direct buffers outside of
+ * the heap. A token in the UUID format of the Mainzelliste is stored as a 16
+ * byte key, the pseudonym as up to {@value #MAX_PSEUDONYM_BYTES} UTF-8 bytes
+ * and the creation time inline in the same slot, so a pair creates no objects
+ * that outlive the request. Pairs that do not fit this format are kept in a
+ * {@link HeapPseudonymStore}.
+ *
+ * The pairs are spread over segments with their own lock. Each segment is an
+ * open addressing table with linear probing and links its slots in the order
+ * of their creation, so the expired pairs are always at the head of the list.
+ * A table full of deleted slots gets rebuilt into a spare buffer of the same
+ * size, so a segment allocates at most two buffers however many pairs come
+ * and go.
+ * The off-heap and the heap pairs share the capacity. A full segment evicts
+ * the head of its list, so an eviction does not wait for other segments. A
+ * segment that is full before the store rejecting new pairs keeps them on the
+ * heap.
+ */
+public class OffHeapPseudonymStore implements PseudonymStore {
+
+	/**
+	 * Maximum number of UTF-8 bytes of a pseudonym stored off-heap.
+	 */
+	public static final int MAX_PSEUDONYM_BYTES = 23;
+
+	/**
+	 * Number of segments. Has to be a power of two.
+	 */
+	private static final int SEGMENT_COUNT = 16;
+
+	/**
+	 * Offset of the upper 64 bits of the token in a slot.
+	 */
+	private static final int KEY_HIGH = 0;
+
+	/**
+	 * Offset of the lower 64 bits of the token in a slot.
+	 */
+	private static final int KEY_LOW = 8;
+
+	/**
+	 * Offset of the creation time in a slot. Also marks empty and deleted slots.
+	 */
+	private static final int CREATED_AT = 16;
+
+	/**
+	 * Offset of the index of the previously created slot.
+	 */
+	private static final int PREVIOUS = 24;
+
+	/**
+	 * Offset of the index of the next created slot.
+	 */
+	private static final int NEXT = 28;
+
+	/**
+	 * Offset of the length of the pseudonym in a slot.
+	 */
+	private static final int LENGTH = 32;
+
+	/**
+	 * Offset of the pseudonym in a slot.
+	 */
+	private static final int VALUE = 33;
+
+	/**
+	 * Size of a slot in bytes.
+	 */
+	private static final int SLOT_SIZE = VALUE + MAX_PSEUDONYM_BYTES;
+
+	/**
+	 * Creation time of an empty slot.
+	 */
+	private static final long EMPTY = 0;
+
+	/**
+	 * Creation time of a deleted slot that still continues a probe sequence.
+	 */
+	private static final long DELETED = -1;
+
+	/**
+	 * Index of no slot.
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * Timeout of the pairs in milliseconds.
+	 */
+	private final long pseudonymTimeout;
+
+	/**
+	 * Maximum number of pairs.
+	 */
+	private final int capacity;
+
+	/**
+	 * Behaviour of the full store.
+	 */
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * The segments.
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * Number of pairs stored off-heap.
+	 */
+	private final AtomicInteger count;
+
+	/**
+	 * Store of the pairs that do not fit the off-heap format.
+	 */
+	private final HeapPseudonymStore overflow;
+
+	/**
+	 * Number of off-heap pairs removed because of their timeout.
+	 */
+	private final AtomicLong expirations;
+
+	/**
+	 * Number of pairs rejected because the store was full, without the pairs
+	 * the heap store rejected on its own.
+	 */
+	private final AtomicLong rejections;
+
+	/**
+	 * Number of off-heap pairs evicted to make room for new pairs.
+	 */
+	private final AtomicLong evictions;
+
+	/**
+	 * Receives the evicted and expired tokens, null if none is registered.
+	 */
+	private volatile Consumer<String> removalListener;
+
+	/**
+	 * Constructs a new OffHeapPseudonymStore rejecting new pairs while it is
+	 * full.
+	 *
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @param capacity         Maximum number of pairs.
+	 */
+	public OffHeapPseudonymStore(final long pseudonymTimeout, final int capacity) {
+		this(pseudonymTimeout, capacity, OverflowPolicy.REJECT);
+	}
+
+	/**
+	 * Constructs a new OffHeapPseudonymStore.
+	 *
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @param capacity         Maximum number of pairs. Every segment holds up to
+	 *                         a quarter more than its equal share of it.
+	 * @param overflowPolicy   Behaviour of the full store.
+	 */
+	public OffHeapPseudonymStore(final long pseudonymTimeout, final int capacity,
+			final OverflowPolicy overflowPolicy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+		this.pseudonymTimeout = pseudonymTimeout;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.segments = new Segment[SEGMENT_COUNT];
+
+		final int share = (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+		final int segmentCapacity = Math.min(capacity, share + share / 4 + 16);
+
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment(segmentCapacity);
+
+		this.count = new AtomicInteger();
+		this.overflow = new HeapPseudonymStore(pseudonymTimeout, capacity, overflowPolicy);
+		this.expirations = new AtomicLong();
+		this.rejections = new AtomicLong();
+		this.evictions = new AtomicLong();
+	}
+
+	/**
+	 * @return Maximum number of pairs.
+	 */
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Stores a token-pseudonym pair.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param now       The current time in milliseconds, used as creation time.
+	 * @return The previous pseudonym associated with token, or null if there was
+	 *         no unexpired mapping for token.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public String put(final String token, final String pseudonym, final long now) {
+		if (!isCompactToken(token))
+			return putOverflow(token, pseudonym, now);
+
+		final long high = keyHigh(token);
+		final long low = keyLow(token);
+		final long hash = hash(high, low);
+		final Segment segment = segmentOf(hash);
+		final byte[] value = pseudonym.getBytes(StandardCharsets.UTF_8);
+
+		if (value.length > MAX_PSEUDONYM_BYTES) {
+			final String previous = segment.remove(hash, high, low, now, null);
+			final String previousOverflow = putOverflow(token, pseudonym, now);
+			return previous != null ? previous : previousOverflow;
+		}
+
+		try {
+			return removeOverflow(token, segment.put(hash, high, low, value, now, false), now);
+		} catch (final IllegalStateException exception) {
+			removeExpired(now);
+			return putFull(token, pseudonym, segment, hash, high, low, value, now);
+		}
+	}
+
+	/**
+	 * Stores several token-pseudonym pairs. The capacity is checked once for the
+	 * whole batch, a full store rejecting new pairs rejects all of them. The
+	 * pairs are grouped by their segment, each segment is locked once for its
+	 * pairs. Pairs that do not fit the off-heap format or do not fit into their
+	 * segment are stored one by one afterwards. If one of them is rejected after
+	 * all, the pairs stored before are removed again.
+	 *
+	 * @param pairs The tokens with their pseudonyms.
+	 * @param now   The current time in milliseconds, used as creation time.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public void putAll(final Map<String, String> pairs, final long now) {
+		if (size() + pairs.size() > capacity)
+			makeRoom(pairs.size(), now);
+
+		final List<String> stored = new ArrayList<String>(pairs.size());
+		final List<List<String>> groups = new ArrayList<List<String>>(SEGMENT_COUNT);
+		final List<String> remaining = new ArrayList<String>();
+
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			groups.add(null);
+
+		for (final Entry<String, String> pair : pairs.entrySet()) {
+			final String token = pair.getKey();
+
+			if (!isCompactToken(token) || pair.getValue().length() > MAX_PSEUDONYM_BYTES
+					|| pair.getValue().getBytes(StandardCharsets.UTF_8).length > MAX_PSEUDONYM_BYTES) {
+				remaining.add(token);
+				continue;
+			}
+
+			final int group = segmentIndex(hash(keyHigh(token), keyLow(token)));
+
+			if (groups.get(group) == null)
+				groups.set(group, new ArrayList<String>());
+
+			groups.get(group).add(token);
+		}
+
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			final List<String> group = groups.get(i);
+
+			if (group == null)
+				continue;
+
+			final Segment segment = segments[i];
+			final int start = stored.size();
+
+			synchronized (segment) {
+				for (final String token : group) {
+					final long high = keyHigh(token);
+					final long low = keyLow(token);
+
+					try {
+						segment.put(hash(high, low), high, low, pairs.get(token).getBytes(StandardCharsets.UTF_8), now,
+								false);
+						stored.add(token);
+					} catch (final IllegalStateException exception) {
+						remaining.add(token);
+					}
+				}
+			}
+
+			if (overflow.size() > 0)
+				for (final String token : stored.subList(start, stored.size()))
+					overflow.remove(token, now);
+		}
+
+		try {
+			for (final String token : remaining) {
+				put(token, pairs.get(token), now);
+				stored.add(token);
+			}
+		} catch (final PseudonymStoreFullException exception) {
+			for (final String token : stored)
+				remove(token, now);
+
+			throw exception;
+		}
+	}
+
+	/**
+	 * Returns the pseudonym associated with the token.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String get(final String token, final long now) {
+		if (!isCompactToken(token))
+			return overflow.get(token, now);
+
+		final long high = keyHigh(token);
+		final long low = keyLow(token);
+		final long hash = hash(high, low);
+		final String pseudonym = segmentOf(hash).get(hash, high, low, now);
+
+		if (pseudonym == null && overflow.size() > 0)
+			return overflow.get(token, now);
+
+		return pseudonym;
+	}
+
+	/**
+	 * Removes the token if present. Counts an expired token as expiration.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String remove(final String token, final long now) {
+		return remove(token, now, null);
+	}
+
+	/**
+	 * Removes the token if present and reports its creation time. Counts an
+	 * expired token as expiration.
+	 *
+	 * @param token     The token.
+	 * @param now       The current time in milliseconds.
+	 * @param createdAt Receives the creation time of the removed pair in its
+	 *                  first element, may be null.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	private String remove(final String token, final long now, final long[] createdAt) {
+		if (!isCompactToken(token))
+			return overflow.remove(token, now, createdAt);
+
+		final long high = keyHigh(token);
+		final long low = keyLow(token);
+		final long hash = hash(high, low);
+		final String pseudonym = segmentOf(hash).remove(hash, high, low, now, createdAt);
+
+		if (pseudonym == null && overflow.size() > 0)
+			return overflow.remove(token, now, createdAt);
+
+		return pseudonym;
+	}
+
+	/**
+	 * Removes several tokens and reports the creation times of the removed
+	 * pairs. Counts expired tokens as expirations.
+	 *
+	 * @param tokens     The tokens.
+	 * @param now        The current time in milliseconds.
+	 * @param createdAts Receives the removed tokens with their creation times in
+	 *                   milliseconds, may be null.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	@Override
+	public Map<String, String> removeAll(final Collection<String> tokens, final long now,
+			final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+		final long[] createdAt = new long[1];
+
+		for (final String token : tokens) {
+			final String pseudonym = remove(token, now, createdAt);
+
+			if (pseudonym == null)
+				continue;
+
+			pseudonyms.put(token, pseudonym);
+
+			if (createdAts != null)
+				createdAts.put(token, createdAt[0]);
+		}
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Removes the expired pairs. Only visits the expired pairs at the head of
+	 * the creation order of every segment.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Number of removed pairs.
+	 */
+	@Override
+	public int removeExpired(final long now) {
+		int removed = overflow.removeExpired(now);
+
+		for (final Segment segment : segments)
+			removed += segment.removeExpired(now);
+
+		return removed;
+	}
+
+	/**
+	 * @return Number of stored pairs including the expired pairs not removed yet.
+	 */
+	@Override
+	public int size() {
+		return count.get() + overflow.size();
+	}
+
+	/**
+	 * @return Number of pairs removed because of their timeout.
+	 */
+	@Override
+	public long getExpirations() {
+		return expirations.get() + overflow.getExpirations();
+	}
+
+	/**
+	 * @return Number of pairs rejected because the store was full.
+	 */
+	@Override
+	public long getRejections() {
+		return rejections.get() + overflow.getRejections();
+	}
+
+	/**
+	 * @return Number of pairs evicted to make room for new pairs.
+	 */
+	@Override
+	public long getEvictions() {
+		return evictions.get() + overflow.getEvictions();
+	}
+
+	/**
+	 * @param listener Receives the evicted and expired tokens of the off-heap
+	 *                 and the heap pairs.
+	 */
+	@Override
+	public void setRemovalListener(final Consumer<String> listener) {
+		this.removalListener = listener;
+		overflow.setRemovalListener(listener);
+	}
+
+	/**
+	 * @return Number of bytes allocated outside of the heap.
+	 */
+	public long getAllocatedBytes() {
+		long bytes = 0;
+
+		for (final Segment segment : segments)
+			bytes += segment.getAllocatedBytes();
+
+		return bytes;
+	}
+
+	/**
+	 * Stores a pair in a segment that is still full after removing the expired
+	 * pairs. Applies the overflow policy. A full segment of a store with room
+	 * left keeps the pair on the heap, an empty segment of a full store evicts
+	 * the oldest pair of all segments or of the heap.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param segment   Segment of the token.
+	 * @param hash      Hash of the token.
+	 * @param high      Upper 64 bits of the token.
+	 * @param low       Lower 64 bits of the token.
+	 * @param value     Encoded pseudonym.
+	 * @param now       The current time in milliseconds.
+	 * @return The previous unexpired pseudonym or null.
+	 * @throws PseudonymStoreFullException If the store rejects the pair.
+	 */
+	private String putFull(final String token, final String pseudonym, final Segment segment, final long hash,
+			final long high, final long low, final byte[] value, final long now) {
+		final boolean evict = overflowPolicy == OverflowPolicy.EVICT_OLDEST;
+
+		try {
+			return removeOverflow(token, segment.put(hash, high, low, value, now, evict), now);
+		} catch (final IllegalStateException exception) {
+			if (size() < capacity)
+				return putOverflow(token, pseudonym, now);
+
+			if (evict && (evictOldest() || overflow.evictOldest(now))) {
+				try {
+					return removeOverflow(token, segment.put(hash, high, low, value, now, true), now);
+				} catch (final IllegalStateException retryException) {
+					// concurrent puts took the evicted place
+				}
+			}
+
+			rejections.incrementAndGet();
+			throw new PseudonymStoreFullException(exception.getMessage(), retryAfter(now));
+		}
+	}
+
+	/**
+	 * Stores a pair on the heap. The heap pairs count against the capacity of
+	 * the whole store.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param now       The current time in milliseconds, used as creation time.
+	 * @return The previous unexpired pseudonym or null.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	private String putOverflow(final String token, final String pseudonym, final long now) {
+		if (size() >= capacity && overflow.get(token, now) == null)
+			makeRoom(1, now);
+
+		return overflow.put(token, pseudonym, now);
+	}
+
+	/**
+	 * Removes the heap pair of a token just stored off-heap.
+	 *
+	 * @param token    The token.
+	 * @param previous The previous off-heap pseudonym of the token or null.
+	 * @param now      The current time in milliseconds.
+	 * @return The previous unexpired pseudonym or null.
+	 */
+	private String removeOverflow(final String token, final String previous, final long now) {
+		if (previous == null && overflow.size() > 0)
+			return overflow.remove(token, now);
+
+		return previous;
+	}
+
+	/**
+	 * Frees places for new pairs. Removes the expired pairs and applies the
+	 * overflow policy if the store is still too full. Evicts the off-heap pairs
+	 * before the heap pairs.
+	 *
+	 * @param needed Number of new pairs.
+	 * @param now    The current time in milliseconds.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	private void makeRoom(final int needed, final long now) {
+		removeExpired(now);
+
+		while (size() + needed > capacity) {
+			if (overflowPolicy == OverflowPolicy.REJECT) {
+				rejections.incrementAndGet();
+				throw new PseudonymStoreFullException("Pseudonym store is full, capacity " + capacity,
+						retryAfter(now));
+			}
+
+			if (!evictOldest() && !overflow.evictOldest(now))
+				return;
+		}
+	}
+
+	/**
+	 * Evicts the oldest pair of all segments.
+	 *
+	 * @return true if a pair got evicted.
+	 */
+	private boolean evictOldest() {
+		Segment oldest = null;
+		long oldestCreatedAt = Long.MAX_VALUE;
+
+		for (final Segment segment : segments) {
+			final long createdAt = segment.headCreatedAt();
+
+			if (createdAt < oldestCreatedAt) {
+				oldest = segment;
+				oldestCreatedAt = createdAt;
+			}
+		}
+
+		return oldest != null && oldest.evictHead();
+	}
+
+	/**
+	 * Estimates the time until the oldest pair gets removed by the cleaning.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Time in milliseconds.
+	 */
+	private long retryAfter(final long now) {
+		final long tick = HeapPseudonymStore.expiryTick(pseudonymTimeout);
+		long oldestCreatedAt = Long.MAX_VALUE;
+
+		for (final Segment segment : segments)
+			oldestCreatedAt = Math.min(oldestCreatedAt, segment.headCreatedAt());
+
+		if (oldestCreatedAt == Long.MAX_VALUE)
+			return tick;
+
+		return Math.max(0, oldestCreatedAt + pseudonymTimeout - now) + tick;
+	}
+
+	/**
+	 * Determines the segment of a hash.
+	 *
+	 * @param hash The hash of a token.
+	 * @return The segment.
+	 */
+	private Segment segmentOf(final long hash) {
+		return segments[segmentIndex(hash)];
+	}
+
+	/**
+	 * Determines the index of the segment of a hash.
+	 *
+	 * @param hash The hash of a token.
+	 * @return Index of the segment.
+	 */
+	private static int segmentIndex(final long hash) {
+		return (int) (hash >>> 60) & (SEGMENT_COUNT - 1);
+	}
+
+	/**
+	 * Determines the index of the segment of a token.
+	 *
+	 * @param token A token in canonical UUID format.
+	 * @return Index of the segment.
+	 */
+	static int segmentIndex(final String token) {
+		return segmentIndex(hash(keyHigh(token), keyLow(token)));
+	}
+
+	/**
+	 * Checks whether the token is a UUID in canonical lower case format.
+	 *
+	 * @param token The token.
+	 * @return true if the token can be stored as 16 byte key.
+	 */
+	static boolean isCompactToken(final String token) {
+		if (token.length() != 36)
+			return false;
+
+		for (int i = 0; i < 36; i++) {
+			final char c = token.charAt(i);
+
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-')
+					return false;
+			} else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param token A token in canonical UUID format.
+	 * @return The upper 64 bits of the UUID.
+	 */
+	private static long keyHigh(final String token) {
+		return parseHex(token, 0, 8) << 32 | parseHex(token, 9, 13) << 16 | parseHex(token, 14, 18);
+	}
+
+	/**
+	 * @param token A token in canonical UUID format.
+	 * @return The lower 64 bits of the UUID.
+	 */
+	private static long keyLow(final String token) {
+		return parseHex(token, 19, 23) << 48 | parseHex(token, 24, 36);
+	}
+
+	/**
+	 * Parses the hexadecimal digits of a range of the token.
+	 *
+	 * @param token The token.
+	 * @param from  Index of the first digit.
+	 * @param to    Index after the last digit.
+	 * @return The value of the digits.
+	 */
+	private static long parseHex(final String token, final int from, final int to) {
+		long value = 0;
+
+		for (int i = from; i < to; i++)
+			value = value << 4 | Character.digit(token.charAt(i), 16);
+
+		return value;
+	}
+
+	/**
+	 * Mixes the bits of a key. The upper bits select the segment, the lower bits
+	 * the slot.
+	 *
+	 * @param high Upper 64 bits of the key.
+	 * @param low  Lower 64 bits of the key.
+	 * @return The hash.
+	 */
+	private static long hash(final long high, final long low) {
+		long hash = high * 0x9E3779B97F4A7C15L ^ low;
+		hash ^= hash >>> 32;
+		hash *= 0xD6E8FEB86659FD93L;
+		return hash ^ hash >>> 32;
+	}
+
+	/**
+	 * Open addressing table of a share of the pairs in a direct buffer. All
+	 * methods are synchronized on the segment.
+	 */
+	private class Segment {
+
+		/**
+		 * The slots.
+		 */
+		private ByteBuffer table;
+
+		/**
+		 * Buffer of the same size as the table the next rebuild copies the pairs
+		 * into, null before the first rebuild. The rebuild swaps it with the
+		 * table, so the churn of the pairs does not allocate direct memory.
+		 */
+		private ByteBuffer spare;
+
+		/**
+		 * Number of slots minus one. The number of slots is a power of two.
+		 */
+		private final int mask;
+
+		/**
+		 * Maximum number of pairs of the segment.
+		 */
+		private final int segmentCapacity;
+
+		/**
+		 * Number of used and deleted slots that triggers a rebuild of the table.
+		 */
+		private final int rebuildThreshold;
+
+		/**
+		 * Number of stored pairs.
+		 */
+		private int size;
+
+		/**
+		 * Number of deleted slots continuing a probe sequence.
+		 */
+		private int deleted;
+
+		/**
+		 * Index of the oldest slot, NONE if the segment is empty.
+		 */
+		private int head;
+
+		/**
+		 * Index of the newest slot, NONE if the segment is empty.
+		 */
+		private int tail;
+
+		/**
+		 * Constructs a new Segment with at least twice as many slots as pairs.
+		 *
+		 * @param segmentCapacity Maximum number of pairs of the segment.
+		 */
+		private Segment(final int segmentCapacity) {
+			final int slotCount = Integer.highestOneBit(Math.max(8, segmentCapacity) * 2 - 1) << 1;
+
+			if ((long) slotCount * SLOT_SIZE > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Capacity too large for an off-heap store: " + capacity);
+
+			this.table = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+			this.mask = slotCount - 1;
+			this.segmentCapacity = segmentCapacity;
+			this.rebuildThreshold = slotCount / 4 * 3;
+			this.head = NONE;
+			this.tail = NONE;
+		}
+
+		/**
+		 * Stores a pair and moves it to its place in the creation order.
+		 *
+		 * @param hash  Hash of the token.
+		 * @param high  Upper 64 bits of the token.
+		 * @param low   Lower 64 bits of the token.
+		 * @param value Encoded pseudonym.
+		 * @param now   The current time in milliseconds.
+		 * @param evict Whether a full segment evicts its oldest pair.
+		 * @return The previous unexpired pseudonym or null.
+		 * @throws IllegalStateException If the store or the segment is full and
+		 *                               the pair could not be stored.
+		 */
+		private synchronized String put(final long hash, final long high, final long low, final byte[] value,
+				final long now, final boolean evict) {
+			int index = find(hash, high, low);
+			String previous = null;
+
+			if (index != NONE) {
+				previous = readExpiring(index, now);
+				unlink(index);
+			} else {
+				if (size >= segmentCapacity || count.get() + overflow.size() >= capacity) {
+					if (!evict || head == NONE)
+						throw new IllegalStateException("Pseudonym store is full, capacity " + capacity);
+
+					evict(head);
+				}
+
+				if (size + deleted >= rebuildThreshold)
+					rebuild();
+
+				index = freeSlot(hash);
+				final int position = index * SLOT_SIZE;
+
+				if (table.getLong(position + CREATED_AT) == DELETED)
+					deleted--;
+
+				table.putLong(position + KEY_HIGH, high);
+				table.putLong(position + KEY_LOW, low);
+				size++;
+				count.incrementAndGet();
+			}
+
+			final int position = index * SLOT_SIZE;
+			table.putLong(position + CREATED_AT, now);
+			table.put(position + LENGTH, (byte) value.length);
+
+			for (int i = 0; i < value.length; i++)
+				table.put(position + VALUE + i, value[i]);
+
+			link(index);
+			return previous;
+		}
+
+		/**
+		 * Returns the pseudonym of a token.
+		 *
+		 * @param hash Hash of the token.
+		 * @param high Upper 64 bits of the token.
+		 * @param low  Lower 64 bits of the token.
+		 * @param now  The current time in milliseconds.
+		 * @return The pseudonym or null if the token is not present or expired.
+		 */
+		private synchronized String get(final long hash, final long high, final long low, final long now) {
+			final int index = find(hash, high, low);
+
+			if (index == NONE || isExpired(index, now))
+				return null;
+
+			return readValue(index);
+		}
+
+		/**
+		 * Removes a token.
+		 *
+		 * @param hash      Hash of the token.
+		 * @param high      Upper 64 bits of the token.
+		 * @param low       Lower 64 bits of the token.
+		 * @param now       The current time in milliseconds.
+		 * @param createdAt Receives the creation time of the removed pair in
+		 *                  its first element, may be null.
+		 * @return The pseudonym or null if the token is not present or expired.
+		 */
+		private synchronized String remove(final long hash, final long high, final long low, final long now,
+				final long[] createdAt) {
+			final int index = find(hash, high, low);
+
+			if (index == NONE)
+				return null;
+
+			final String pseudonym = readExpiring(index, now);
+
+			if (pseudonym != null && createdAt != null)
+				createdAt[0] = table.getLong(index * SLOT_SIZE + CREATED_AT);
+
+			delete(index);
+			return pseudonym;
+		}
+
+		/**
+		 * Removes the expired pairs from the head of the creation order.
+		 *
+		 * @param now The current time in milliseconds.
+		 * @return Number of removed pairs.
+		 */
+		private synchronized int removeExpired(final long now) {
+			int removed = 0;
+
+			while (head != NONE && isExpired(head, now)) {
+				final int index = head;
+				delete(index);
+				reportRemoval(index);
+				removed++;
+			}
+
+			expirations.addAndGet(removed);
+			return removed;
+		}
+
+		/**
+		 * @return Creation time of the oldest pair, Long.MAX_VALUE if the segment
+		 *         is empty.
+		 */
+		private synchronized long headCreatedAt() {
+			return head != NONE ? table.getLong(head * SLOT_SIZE + CREATED_AT) : Long.MAX_VALUE;
+		}
+
+		/**
+		 * Evicts the oldest pair.
+		 *
+		 * @return true if a pair got evicted.
+		 */
+		private synchronized boolean evictHead() {
+			if (head == NONE)
+				return false;
+
+			evict(head);
+			return true;
+		}
+
+		/**
+		 * Deletes a pair to make room for a new pair.
+		 *
+		 * @param index Index of the slot.
+		 */
+		private void evict(final int index) {
+			delete(index);
+			evictions.incrementAndGet();
+			reportRemoval(index);
+		}
+
+		/**
+		 * Passes the token of a slot the store removed on its own to the
+		 * removal listener. The key of a deleted slot stays readable until the
+		 * slot is reused.
+		 *
+		 * @param index Index of the deleted slot.
+		 */
+		private void reportRemoval(final int index) {
+			final Consumer<String> listener = removalListener;
+
+			if (listener != null)
+				listener.accept(new UUID(table.getLong(index * SLOT_SIZE + KEY_HIGH),
+						table.getLong(index * SLOT_SIZE + KEY_LOW)).toString());
+		}
+
+		/**
+		 * @return Number of bytes of the table and the spare buffer.
+		 */
+		private synchronized long getAllocatedBytes() {
+			return table.capacity() + (spare != null ? spare.capacity() : 0);
+		}
+
+		/**
+		 * Searches the slot of a token.
+		 *
+		 * @param hash Hash of the token.
+		 * @param high Upper 64 bits of the token.
+		 * @param low  Lower 64 bits of the token.
+		 * @return Index of the slot or NONE if the token is not present.
+		 */
+		private int find(final long hash, final long high, final long low) {
+			int index = (int) hash & mask;
+
+			while (true) {
+				final int position = index * SLOT_SIZE;
+				final long createdAt = table.getLong(position + CREATED_AT);
+
+				if (createdAt == EMPTY)
+					return NONE;
+
+				if (createdAt != DELETED && table.getLong(position + KEY_HIGH) == high
+						&& table.getLong(position + KEY_LOW) == low)
+					return index;
+
+				index = (index + 1) & mask;
+			}
+		}
+
+		/**
+		 * Searches the first empty or deleted slot of the probe sequence of a hash.
+		 *
+		 * @param hash Hash of a token that is not present.
+		 * @return Index of the slot.
+		 */
+		private int freeSlot(final long hash) {
+			int index = (int) hash & mask;
+
+			while (table.getLong(index * SLOT_SIZE + CREATED_AT) > EMPTY)
+				index = (index + 1) & mask;
+
+			return index;
+		}
+
+		/**
+		 * Removes a slot from the creation order and frees it. The slot becomes
+		 * empty if it does not continue a probe sequence.
+		 *
+		 * @param index Index of the slot.
+		 */
+		private void delete(final int index) {
+			unlink(index);
+			size--;
+			count.decrementAndGet();
+
+			if (table.getLong(((index + 1) & mask) * SLOT_SIZE + CREATED_AT) != EMPTY) {
+				table.putLong(index * SLOT_SIZE + CREATED_AT, DELETED);
+				deleted++;
+				return;
+			}
+
+			table.putLong(index * SLOT_SIZE + CREATED_AT, EMPTY);
+
+			for (int previous = (index - 1) & mask; table.getLong(previous * SLOT_SIZE + CREATED_AT) == DELETED;
+					previous = (previous - 1) & mask) {
+				table.putLong(previous * SLOT_SIZE + CREATED_AT, EMPTY);
+				deleted--;
+			}
+		}
+
+		/**
+		 * Copies all pairs in their creation order into the spare buffer without
+		 * deleted slots and swaps it with the table. Only the first rebuild
+		 * allocates the spare buffer.
+		 */
+		private void rebuild() {
+			final ByteBuffer oldTable = table;
+			final int oldHead = head;
+
+			if (spare == null) {
+				spare = ByteBuffer.allocateDirect(oldTable.capacity());
+			} else {
+				for (int index = 0; index <= mask; index++)
+					spare.putLong(index * SLOT_SIZE + CREATED_AT, EMPTY);
+			}
+
+			table = spare;
+			spare = oldTable;
+			head = NONE;
+			tail = NONE;
+			deleted = 0;
+
+			for (int oldIndex = oldHead; oldIndex != NONE; oldIndex = oldTable.getInt(oldIndex * SLOT_SIZE + NEXT)) {
+				final int oldPosition = oldIndex * SLOT_SIZE;
+				final long high = oldTable.getLong(oldPosition + KEY_HIGH);
+				final long low = oldTable.getLong(oldPosition + KEY_LOW);
+				final int index = freeSlot(hash(high, low));
+				final int position = index * SLOT_SIZE;
+
+				for (int i = 0; i < SLOT_SIZE; i++)
+					table.put(position + i, oldTable.get(oldPosition + i));
+
+				link(index);
+			}
+		}
+
+		/**
+		 * Inserts a slot into the creation order behind the last slot not created
+		 * later. Usually that is the tail, a pair put back with its original
+		 * creation time is moved towards the head.
+		 *
+		 * @param index Index of the slot.
+		 */
+		private void link(final int index) {
+			final int position = index * SLOT_SIZE;
+			final long createdAt = table.getLong(position + CREATED_AT);
+			int previous = tail;
+
+			while (previous != NONE && table.getLong(previous * SLOT_SIZE + CREATED_AT) > createdAt)
+				previous = table.getInt(previous * SLOT_SIZE + PREVIOUS);
+
+			final int next = previous != NONE ? table.getInt(previous * SLOT_SIZE + NEXT) : head;
+			table.putInt(position + PREVIOUS, previous);
+			table.putInt(position + NEXT, next);
+
+			if (previous != NONE) {
+				table.putInt(previous * SLOT_SIZE + NEXT, index);
+			} else {
+				head = index;
+			}
+
+			if (next != NONE) {
+				table.putInt(next * SLOT_SIZE + PREVIOUS, index);
+			} else {
+				tail = index;
+			}
+		}
+
+		/**
+		 * Removes a slot from the creation order.
+		 *
+		 * @param index Index of the slot.
+		 */
+		private void unlink(final int index) {
+			final int position = index * SLOT_SIZE;
+			final int previous = table.getInt(position + PREVIOUS);
+			final int next = table.getInt(position + NEXT);
+
+			if (previous != NONE) {
+				table.putInt(previous * SLOT_SIZE + NEXT, next);
+			} else {
+				head = next;
+			}
+
+			if (next != NONE) {
+				table.putInt(next * SLOT_SIZE + PREVIOUS, previous);
+			} else {
+				tail = previous;
+			}
+		}
+
+		/**
+		 * Determines whether the pair of a slot is expired.
+		 *
+		 * @param index Index of the slot.
+		 * @param now   The current time in milliseconds.
+		 * @return true if the timeout of the pair has passed.
+		 */
+		private boolean isExpired(final int index, final long now) {
+			return table.getLong(index * SLOT_SIZE + CREATED_AT) + pseudonymTimeout <= now;
+		}
+
+		/**
+		 * Reads the pseudonym of a slot that is about to be replaced or removed.
+		 * Counts an expired pair as expiration.
+		 *
+		 * @param index Index of the slot.
+		 * @param now   The current time in milliseconds.
+		 * @return The pseudonym or null if the pair is expired.
+		 */
+		private String readExpiring(final int index, final long now) {
+			if (isExpired(index, now)) {
+				expirations.incrementAndGet();
+				return null;
+			}
+
+			return readValue(index);
+		}
+
+		/**
+		 * Decodes the pseudonym of a slot.
+		 *
+		 * @param index Index of the slot.
+		 * @return The pseudonym.
+		 */
+		private String readValue(final int index) {
+			final int position = index * SLOT_SIZE;
+			final byte[] value = new byte[table.get(position + LENGTH)];
+
+			for (int i = 0; i < value.length; i++)
+				value[i] = table.get(position + VALUE + i);
+
+			return new String(value, StandardCharsets.UTF_8);
+		}
+
+	}
+
+}
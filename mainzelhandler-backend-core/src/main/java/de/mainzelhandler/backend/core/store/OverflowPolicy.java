@@ -0,0 +1,63 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.util.Locale;
+
+/**
+ * Behaviour of a pseudonym store that reached its capacity after removing the
+ * expired pairs.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Rejects the new pair with a
+	 * {@link de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException}.
+	 */
+	REJECT("reject"),
+
+	/**
+	 * Evicts the oldest pair to make room for the new pair. All pairs share the
+	 * same timeout, so the oldest pair is also the pair expiring next.
+	 */
+	EVICT_OLDEST("evict-oldest");
+
+	/**
+	 * Name of the policy in the configuration.
+	 */
+	private final String configName;
+
+	/**
+	 * Constructs a new OverflowPolicy.
+	 *
+	 * @param configName Name of the policy in the configuration.
+	 */
+	OverflowPolicy(final String configName) {
+		this.configName = configName;
+	}
+
+	/**
+	 * @return Name of the policy in the configuration.
+	 */
+	public String getConfigName() {
+		return configName;
+	}
+
+	/**
+	 * Returns the policy with the given name.
+	 *
+	 * @param configName Name of the policy, 'reject' or 'evict-oldest'.
+	 * @return The policy.
+	 * @throws IllegalArgumentException If the name is unknown.
+	 */
+	public static OverflowPolicy of(final String configName) {
+		final String name = configName.trim().toLowerCase(Locale.ROOT);
+
+		for (final OverflowPolicy policy : values()) {
+			if (policy.configName.equals(name))
+				return policy;
+		}
+
+		throw new IllegalArgumentException("Unknown overflow policy '" + configName + "', expected '"
+				+ REJECT.configName + "' or '" + EVICT_OLDEST.configName + "'");
+	}
+
+}
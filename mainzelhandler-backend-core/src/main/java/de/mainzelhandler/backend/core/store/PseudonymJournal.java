@@ -0,0 +1,655 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreException;
+
+/**
+ * Append-only journal of the puts and removes of a {@link
+ * JournaledPseudonymStore}. The records are written to memory-mapped segment
+ * files of a fixed size, so they survive a crash of the process as soon as
+ * they are appended. With sync enabled the writers additionally wait until the
+ * segment got forced to the disk. Concurrent writers share one force (group
+ * commit). Full segments get sealed and a new segment is started. Sealed
+ * segments get merged into a snapshot of the live pairs by
+ * {@link #compact(long, long)}.
+ * <p>
+ * A record consists of its length, the CRC32 of its content and the content.
+ * The length is written last, a torn record at the end of a segment reads as
+ * the end of the segment.
+ */
+class PseudonymJournal implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PseudonymJournal.class);
+
+	/**
+	 * Type of a put record.
+	 */
+	private static final byte PUT = 1;
+
+	/**
+	 * Type of a remove record.
+	 */
+	private static final byte REMOVE = 2;
+
+	/**
+	 * Length of the header of a record.
+	 */
+	private static final int HEADER = 8;
+
+	/**
+	 * First bytes of a snapshot file.
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x4d485331;
+
+	/**
+	 * Name of the snapshot file.
+	 */
+	private static final String SNAPSHOT = "snapshot.dat";
+
+	/**
+	 * Prefix of the names of the segment files.
+	 */
+	private static final String SEGMENT_PREFIX = "journal-";
+
+	/**
+	 * Suffix of the names of the segment files.
+	 */
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Directory of the journal.
+	 */
+	private final Path directory;
+
+	/**
+	 * Size of a segment file in bytes.
+	 */
+	private final int segmentSize;
+
+	/**
+	 * Whether appended records get forced to the disk.
+	 */
+	private final boolean sync;
+
+	/**
+	 * Guards the current segment and the number of written bytes.
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Allows one force at a time. Writers waiting for it get covered by it.
+	 */
+	private final Object syncLock = new Object();
+
+	/**
+	 * Allows one compaction at a time.
+	 */
+	private final Object compactLock = new Object();
+
+	/**
+	 * Checksum of the appended records, guarded by {@link #lock}.
+	 */
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Channel of the current segment.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Mapped current segment, null if the journal is closed.
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * Generation of the current segment.
+	 */
+	private long generation;
+
+	/**
+	 * Generation of the oldest segment not contained in the snapshot.
+	 */
+	private long firstGeneration;
+
+	/**
+	 * Number of bytes appended to all segments since the journal was opened.
+	 */
+	private long written;
+
+	/**
+	 * Number of bytes forced to the disk.
+	 */
+	private final AtomicLong durable = new AtomicLong();
+
+	/**
+	 * Constructs a new PseudonymJournal. The journal has to be opened with
+	 * {@link #open(long, long)}.
+	 *
+	 * @param directory   Directory of the journal, gets created if it does not
+	 *                    exist.
+	 * @param segmentSize Size of a segment file in bytes.
+	 * @param sync        Whether appended records get forced to the disk.
+	 */
+	PseudonymJournal(final Path directory, final int segmentSize, final boolean sync) {
+		if (segmentSize < 4096)
+			throw new IllegalArgumentException("Segment size must be at least 4096 bytes: " + segmentSize);
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.sync = sync;
+	}
+
+	/**
+	 * Replays the snapshot and the segments left by the previous run, writes
+	 * the live pairs into a new snapshot and starts a new segment.
+	 *
+	 * @param now              The current time in milliseconds.
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds. Expired
+	 *                         pairs are dropped.
+	 * @return The live pairs ordered by their creation time.
+	 * @throws IOException If the journal could not be read or written.
+	 */
+	List<Pair> open(final long now, final long pseudonymTimeout) throws IOException {
+		Files.createDirectories(directory);
+
+		final Map<String, Pair> pairs = new HashMap<String, Pair>();
+		final long covered = readSnapshot(pairs);
+		final TreeMap<Long, Path> segments = segments();
+
+		for (final Map.Entry<Long, Path> segment : segments.entrySet())
+			if (segment.getKey() > covered)
+				replay(segment.getValue(), pairs);
+
+		final long last = segments.isEmpty() ? covered : Math.max(covered, segments.lastKey());
+		dropExpired(pairs, now, pseudonymTimeout);
+		writeSnapshot(last, pairs);
+		deleteSegments(last);
+
+		synchronized (lock) {
+			generation = last + 1;
+			firstGeneration = generation;
+			openSegment();
+		}
+
+		final List<Pair> result = new ArrayList<Pair>(pairs.values());
+		result.sort(Comparator.comparingLong(Pair::getCreatedAt));
+		return result;
+	}
+
+	/**
+	 * Appends a put record.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param createdAt Creation time of the pair in milliseconds.
+	 * @return Position of the end of the record, to be passed to
+	 *         {@link #awaitDurable(long)}.
+	 */
+	long appendPut(final String token, final String pseudonym, final long createdAt) {
+		return append(PUT, token, pseudonym, createdAt);
+	}
+
+	/**
+	 * Appends a remove record.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return Position of the end of the record.
+	 */
+	long appendRemove(final String token, final long now) {
+		return append(REMOVE, token, null, now);
+	}
+
+	/**
+	 * Waits until the record ending at the given position is on the disk. The
+	 * first waiting writer forces all records appended so far, the others
+	 * return as soon as it is done. Returns immediately if sync is disabled.
+	 *
+	 * @param position Position of the end of the record.
+	 * @throws PseudonymStoreException If the journal is closed.
+	 */
+	void awaitDurable(final long position) {
+		if (!sync || durable.get() >= position)
+			return;
+
+		synchronized (syncLock) {
+			if (durable.get() >= position)
+				return;
+
+			final MappedByteBuffer target;
+			final long end;
+
+			synchronized (lock) {
+				if (buffer == null)
+					throw new PseudonymStoreException("Pseudonym journal is closed");
+
+				target = buffer;
+				end = written;
+			}
+
+			target.force();
+			durable.accumulateAndGet(end, Math::max);
+		}
+	}
+
+	/**
+	 * Seals the current segment and merges the sealed segments into a new
+	 * snapshot. Expired pairs are dropped. Writers are only blocked while the
+	 * segment gets sealed.
+	 *
+	 * @param now              The current time in milliseconds.
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @return Number of pairs in the new snapshot, -1 if nothing was written
+	 *         since the last compaction.
+	 * @throws IOException If the journal could not be read or written.
+	 */
+	int compact(final long now, final long pseudonymTimeout) throws IOException {
+		synchronized (compactLock) {
+			final long sealed;
+
+			synchronized (lock) {
+				if (buffer == null || (firstGeneration == generation && buffer.position() == 0))
+					return -1;
+
+				sealed = generation;
+				rotate();
+			}
+
+			final Map<String, Pair> pairs = new HashMap<String, Pair>();
+			final long covered = readSnapshot(pairs);
+
+			for (final Map.Entry<Long, Path> segment : segments().entrySet())
+				if (segment.getKey() > covered && segment.getKey() <= sealed)
+					replay(segment.getValue(), pairs);
+
+			dropExpired(pairs, now, pseudonymTimeout);
+			writeSnapshot(sealed, pairs);
+			deleteSegments(sealed);
+
+			synchronized (lock) {
+				firstGeneration = sealed + 1;
+			}
+
+			return pairs.size();
+		}
+	}
+
+	/**
+	 * Forces the current segment to the disk and closes it.
+	 *
+	 * @throws IOException If the segment could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			if (buffer == null)
+				return;
+
+			buffer.force();
+			durable.accumulateAndGet(written, Math::max);
+			buffer = null;
+			channel.close();
+		}
+	}
+
+	/**
+	 * Appends a record to the current segment. Starts a new segment if the
+	 * record does not fit.
+	 *
+	 * @param type      Type of the record.
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym, null for a remove record.
+	 * @param time      Creation time of the pair or time of the removal.
+	 * @return Position of the end of the record.
+	 */
+	private long append(final byte type, final String token, final String pseudonym, final long time) {
+		final byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+		final byte[] pseudonymBytes = pseudonym != null ? pseudonym.getBytes(StandardCharsets.UTF_8) : null;
+		final int length = 1 + 8 + 4 + tokenBytes.length + (pseudonymBytes != null ? 4 + pseudonymBytes.length : 0);
+
+		if (HEADER + length > segmentSize)
+			throw new PseudonymStoreException("Pair of token " + token + " exceeds the journal segment size");
+
+		synchronized (lock) {
+			if (buffer == null)
+				throw new PseudonymStoreException("Pseudonym journal is closed");
+
+			try {
+				if (buffer.remaining() < HEADER + length)
+					rotate();
+			} catch (final IOException exception) {
+				throw new PseudonymStoreException("Could not start a new journal segment", exception);
+			}
+
+			final int start = buffer.position();
+			buffer.position(start + HEADER);
+			buffer.put(type).putLong(time).putInt(tokenBytes.length).put(tokenBytes);
+
+			if (pseudonymBytes != null)
+				buffer.putInt(pseudonymBytes.length).put(pseudonymBytes);
+
+			crc.reset();
+			crc.update(buffer.duplicate().position(start + HEADER).limit(start + HEADER + length));
+			buffer.putInt(start + 4, (int) crc.getValue());
+			buffer.putInt(start, length);
+
+			written += HEADER + length;
+			return written;
+		}
+	}
+
+	/**
+	 * Forces and closes the current segment and starts the next one. The caller
+	 * has to hold {@link #lock}.
+	 *
+	 * @throws IOException If the new segment could not be created.
+	 */
+	private void rotate() throws IOException {
+		buffer.force();
+		durable.accumulateAndGet(written, Math::max);
+		channel.close();
+		generation++;
+		openSegment();
+	}
+
+	/**
+	 * Creates and maps the segment of the current generation. The caller has to
+	 * hold {@link #lock}.
+	 *
+	 * @throws IOException If the segment could not be created.
+	 */
+	private void openSegment() throws IOException {
+		channel = FileChannel.open(segment(generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			buffer = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+		} catch (final IOException exception) {
+			channel.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Applies the records of a segment to the pairs. Stops at the first torn or
+	 * corrupt record.
+	 *
+	 * @param path  The segment file.
+	 * @param pairs The pairs by their token.
+	 * @throws IOException If the segment could not be read.
+	 */
+	private static void replay(final Path path, final Map<String, Pair> pairs) throws IOException {
+		final ByteBuffer buffer;
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		final CRC32 checksum = new CRC32();
+		int records = 0;
+
+		while (buffer.remaining() >= HEADER) {
+			final int length = buffer.getInt();
+			final int expected = buffer.getInt();
+
+			if (length <= 0 || length > buffer.remaining())
+				break;
+
+			final ByteBuffer record = buffer.slice().limit(length);
+			checksum.reset();
+			checksum.update(record.duplicate());
+
+			if ((int) checksum.getValue() != expected) {
+				LOGGER.warn("Corrupt record in " + path.getFileName() + " after " + records + " records, ignoring the"
+						+ " rest of the segment");
+				break;
+			}
+
+			final byte type = record.get();
+			final long time = record.getLong();
+			final String token = readString(record);
+
+			if (type == PUT)
+				pairs.put(token, new Pair(token, readString(record), time));
+			else
+				pairs.remove(token);
+
+			buffer.position(buffer.position() + length);
+			records++;
+		}
+
+		LOGGER.debug("Replayed " + records + " records of " + path.getFileName());
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string.
+	 *
+	 * @param record The record.
+	 * @return The string.
+	 */
+	private static String readString(final ByteBuffer record) {
+		final byte[] bytes = new byte[record.getInt()];
+		record.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the snapshot if it exists.
+	 *
+	 * @param pairs Map to add the pairs of the snapshot to.
+	 * @return The last generation contained in the snapshot, 0 if there is no
+	 *         snapshot.
+	 * @throws IOException If the snapshot could not be read or is corrupt.
+	 */
+	private long readSnapshot(final Map<String, Pair> pairs) throws IOException {
+		final Path path = directory.resolve(SNAPSHOT);
+
+		if (!Files.exists(path))
+			return 0;
+
+		final CRC32 checksum = new CRC32();
+
+		try (final DataInputStream input = new DataInputStream(
+				new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path)), checksum))) {
+			if (input.readInt() != SNAPSHOT_MAGIC)
+				throw new IOException("Not a pseudonym snapshot: " + path);
+
+			final long covered = input.readLong();
+			final int count = input.readInt();
+
+			for (int i = 0; i < count; i++) {
+				final long createdAt = input.readLong();
+				final String token = input.readUTF();
+				pairs.put(token, new Pair(token, input.readUTF(), createdAt));
+			}
+
+			final int expected = (int) checksum.getValue();
+
+			if (input.readInt() != expected)
+				throw new IOException("Corrupt pseudonym snapshot: " + path);
+
+			return covered;
+		}
+	}
+
+	/**
+	 * Writes the pairs into a new snapshot, replacing the previous snapshot
+	 * atomically.
+	 *
+	 * @param covered Last generation contained in the snapshot.
+	 * @param pairs   The live pairs.
+	 * @throws IOException If the snapshot could not be written.
+	 */
+	private void writeSnapshot(final long covered, final Map<String, Pair> pairs) throws IOException {
+		final Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+		final CRC32 checksum = new CRC32();
+
+		try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final DataOutputStream output = new DataOutputStream(
+					new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), checksum));
+			output.writeInt(SNAPSHOT_MAGIC);
+			output.writeLong(covered);
+			output.writeInt(pairs.size());
+
+			for (final Pair pair : pairs.values()) {
+				output.writeLong(pair.getCreatedAt());
+				output.writeUTF(pair.getToken());
+				output.writeUTF(pair.getPseudonym());
+			}
+
+			output.writeInt((int) checksum.getValue());
+			output.flush();
+			channel.force(true);
+		}
+
+		Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Removes the expired pairs.
+	 *
+	 * @param pairs            The pairs.
+	 * @param now              The current time in milliseconds.
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 */
+	private static void dropExpired(final Map<String, Pair> pairs, final long now, final long pseudonymTimeout) {
+		final Iterator<Pair> iterator = pairs.values().iterator();
+
+		while (iterator.hasNext())
+			if (iterator.next().getCreatedAt() + pseudonymTimeout <= now)
+				iterator.remove();
+	}
+
+	/**
+	 * @return The segment files by their generation.
+	 * @throws IOException If the directory could not be read.
+	 */
+	private TreeMap<Long, Path> segments() throws IOException {
+		final TreeMap<Long, Path> segments = new TreeMap<Long, Path>();
+
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (final Path file : files) {
+				final String name = file.getFileName().toString();
+
+				try {
+					segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+							name.length() - SEGMENT_SUFFIX.length())), file);
+				} catch (final NumberFormatException exception) {
+					LOGGER.warn("Ignoring unknown file " + name + " in the pseudonym journal");
+				}
+			}
+		}
+
+		return segments;
+	}
+
+	/**
+	 * Deletes the segments contained in the snapshot.
+	 *
+	 * @param covered Last generation contained in the snapshot.
+	 * @throws IOException If the directory could not be read.
+	 */
+	private void deleteSegments(final long covered) throws IOException {
+		for (final Map.Entry<Long, Path> segment : segments().headMap(covered, true).entrySet())
+			Files.delete(segment.getValue());
+	}
+
+	/**
+	 * @param generation Generation of a segment.
+	 * @return Path of the segment file.
+	 */
+	private Path segment(final long generation) {
+		return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, generation, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Token-pseudonym pair restored from the journal.
+	 */
+	static class Pair {
+
+		/**
+		 * The token.
+		 */
+		private final String token;
+
+		/**
+		 * The pseudonym.
+		 */
+		private final String pseudonym;
+
+		/**
+		 * Creation time of the pair in milliseconds.
+		 */
+		private final long createdAt;
+
+		/**
+		 * Constructs a new Pair.
+		 *
+		 * @param token     The token.
+		 * @param pseudonym The pseudonym.
+		 * @param createdAt Creation time of the pair in milliseconds.
+		 */
+		Pair(final String token, final String pseudonym, final long createdAt) {
+			this.token = token;
+			this.pseudonym = pseudonym;
+			this.createdAt = createdAt;
+		}
+
+		/**
+		 * @return The token.
+		 */
+		String getToken() {
+			return token;
+		}
+
+		/**
+		 * @return The pseudonym.
+		 */
+		String getPseudonym() {
+			return pseudonym;
+		}
+
+		/**
+		 * @return Creation time of the pair in milliseconds.
+		 */
+		long getCreatedAt() {
+			return createdAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,302 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+/**
+ * Storage of the token-pseudonym pairs received by the callback requests of
+ * the Mainzelliste. Every pair expires after the timeout of the store.
+ * Expired pairs are ignored by all reads and get removed by
+ * {@link #removeExpired(long)}. The number of pairs is bounded by the
+ * capacity, a full store applies its {@link OverflowPolicy}. Implementations
+ * are thread safe. The {@value #JDBC} and {@value #REDIS} stores are shared by
+ * several instances of the application, so the callback request and the
+ * patient request do not have to reach the same instance.
+ */
+public interface PseudonymStore extends Closeable {
+
+	/**
+	 * Name of the store keeping the pairs as objects on the heap.
+	 */
+	String HEAP = "heap";
+
+	/**
+	 * Name of the store keeping the pairs encoded outside of the heap.
+	 */
+	String OFF_HEAP = "off-heap";
+
+	/**
+	 * Name of the store keeping the pairs in a database table.
+	 */
+	String JDBC = "jdbc";
+
+	/**
+	 * Name of the store keeping the pairs on a Redis server.
+	 */
+	String REDIS = "redis";
+
+	/**
+	 * Stores a token-pseudonym pair.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param now       The current time in milliseconds, used as creation time.
+	 * @return The previous pseudonym associated with token, or null if there was
+	 *         no unexpired mapping for token.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	String put(String token, String pseudonym, long now);
+
+	/**
+	 * Returns the pseudonym associated with the token.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	String get(String token, long now);
+
+	/**
+	 * Removes the token if present.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	String remove(String token, long now);
+
+	/**
+	 * Stores several token-pseudonym pairs.
+	 *
+	 * @param pairs Tokens and their pseudonyms.
+	 * @param now   The current time in milliseconds, used as creation time.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	default void putAll(final Map<String, String> pairs, final long now) {
+		for (final Entry<String, String> pair : pairs.entrySet())
+			put(pair.getKey(), pair.getValue(), now);
+	}
+
+	/**
+	 * Stores several token-pseudonym pairs with their original creation times,
+	 * e.g. pairs removed by {@link #removeAll(Collection, long, Map)} and put
+	 * back, so they expire as if they had never been removed. The pairs are
+	 * stored with one {@link #putAll(Map, long)} per creation time, the oldest
+	 * first.
+	 *
+	 * @param pairs      Tokens and their pseudonyms.
+	 * @param createdAts Creation times of the tokens in milliseconds. Pairs
+	 *                   without a creation time get the current time.
+	 * @param now        The current time in milliseconds.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	default void putAll(final Map<String, String> pairs, final Map<String, Long> createdAts, final long now) {
+		final SortedMap<Long, Map<String, String>> groups = new TreeMap<Long, Map<String, String>>();
+
+		for (final Entry<String, String> pair : pairs.entrySet())
+			groups.computeIfAbsent(createdAts.getOrDefault(pair.getKey(), now),
+					createdAt -> new HashMap<String, String>()).put(pair.getKey(), pair.getValue());
+
+		for (final Entry<Long, Map<String, String>> group : groups.entrySet())
+			putAll(group.getValue(), group.getKey());
+	}
+
+	/**
+	 * Removes several tokens.
+	 *
+	 * @param tokens The tokens.
+	 * @param now    The current time in milliseconds.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	default Map<String, String> removeAll(final Collection<String> tokens, final long now) {
+		return removeAll(tokens, now, null);
+	}
+
+	/**
+	 * Removes several tokens and reports the creation times of the removed
+	 * pairs.
+	 *
+	 * @param tokens     The tokens.
+	 * @param now        The current time in milliseconds.
+	 * @param createdAts Receives the removed tokens with their creation times in
+	 *                   milliseconds, may be null. Stays empty if the store does
+	 *                   not know the creation times.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	default Map<String, String> removeAll(final Collection<String> tokens, final long now,
+			final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+
+		for (final String token : tokens) {
+			final String pseudonym = remove(token, now);
+
+			if (pseudonym != null)
+				pseudonyms.put(token, pseudonym);
+		}
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Removes the expired pairs.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Number of removed pairs.
+	 */
+	int removeExpired(long now);
+
+	/**
+	 * @return Number of stored pairs including the expired pairs not removed yet.
+	 */
+	int size();
+
+	/**
+	 * @return Number of pairs removed because of their timeout.
+	 */
+	long getExpirations();
+
+	/**
+	 * @return Maximum number of pairs.
+	 */
+	int getCapacity();
+
+	/**
+	 * @return Number of pairs rejected because the store was full.
+	 */
+	long getRejections();
+
+	/**
+	 * @return Number of pairs evicted to make room for new pairs.
+	 */
+	long getEvictions();
+
+	/**
+	 * @return true if the pairs are shared by several instances of the
+	 *         application, so pairs may arrive without a put on this instance.
+	 */
+	default boolean isShared() {
+		return false;
+	}
+
+	/**
+	 * Registers a listener receiving the tokens the store removes on its own,
+	 * evicted by the {@link OverflowPolicy} or removed by
+	 * {@link #removeExpired(long)}. Removes of the caller are not reported.
+	 * Ignored by the shared stores.
+	 *
+	 * @param listener The listener, called by the removing thread, possibly
+	 *                 while it holds a lock of the store.
+	 */
+	default void setRemovalListener(final Consumer<String> listener) {
+	}
+
+	/**
+	 * Compacts the persistent state of the store. Does nothing for stores
+	 * without a journal.
+	 *
+	 * @param now The current time in milliseconds.
+	 */
+	default void compact(final long now) {
+	}
+
+	/**
+	 * Releases the resources of the store. The pairs of an external store are
+	 * kept.
+	 */
+	@Override
+	default void close() {
+	}
+
+	/**
+	 * Creates the store of the configuration.
+	 *
+	 * @param config     Configuration of the store.
+	 * @param dataSource Database of the {@value #JDBC} store, may be null for the
+	 *                   other stores.
+	 * @return The store, wrapped in a {@link JournaledPseudonymStore} if the
+	 *         configuration has a journal path.
+	 * @throws IllegalArgumentException If the name is unknown, the {@value #JDBC}
+	 *                                  store has no database or a shared store
+	 *                                  has a journal.
+	 */
+	static PseudonymStore create(final PseudonymStoreConfig config, final DataSource dataSource) {
+		final long timeout = config.getPseudonymTimeout();
+		final int capacity = config.getCapacity();
+		final OverflowPolicy overflowPolicy = config.getOverflowPolicy();
+
+		switch (config.getType().trim().toLowerCase(Locale.ROOT)) {
+		case HEAP:
+			return journaled(config, new HeapPseudonymStore(timeout, capacity, overflowPolicy));
+		case OFF_HEAP:
+			return journaled(config, new OffHeapPseudonymStore(timeout, capacity, overflowPolicy));
+		case JDBC:
+			requireNoJournal(config);
+
+			if (dataSource == null)
+				throw new IllegalArgumentException("The " + JDBC + " pseudonym store requires a DataSource");
+
+			return new JdbcPseudonymStore(dataSource, config.getJdbcTable(), timeout, capacity, overflowPolicy);
+		case REDIS:
+			requireNoJournal(config);
+			return new RedisPseudonymStore(config.getRedisUrl(), config.getRedisKeyPrefix(),
+					config.getRedisPoolSize(), config.getRedisTimeout(), timeout, capacity, overflowPolicy);
+		default:
+			throw new IllegalArgumentException("Unknown pseudonym store '" + config.getType() + "', expected '" + HEAP
+					+ "', '" + OFF_HEAP + "', '" + JDBC + "' or '" + REDIS + "'");
+		}
+	}
+
+	/**
+	 * Wraps a local store in a {@link JournaledPseudonymStore} if the
+	 * configuration has a journal path.
+	 *
+	 * @param config Configuration of the store.
+	 * @param store  The local store.
+	 * @return The store.
+	 */
+	private static PseudonymStore journaled(final PseudonymStoreConfig config, final PseudonymStore store) {
+		if (config.getJournalPath().isBlank())
+			return store;
+
+		try {
+			return new JournaledPseudonymStore(store, Path.of(config.getJournalPath()), config.getJournalSegmentSize(),
+					config.isJournalSync(), config.getPseudonymTimeout());
+		} catch (final RuntimeException exception) {
+			store.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Checks that a shared store has no journal, its pairs are already kept by
+	 * the database.
+	 *
+	 * @param config Configuration of the store.
+	 * @throws IllegalArgumentException If the configuration has a journal path.
+	 */
+	private static void requireNoJournal(final PseudonymStoreConfig config) {
+		if (!config.getJournalPath().isBlank())
+			throw new IllegalArgumentException("The " + config.getType()
+					+ " pseudonym store does not support a journal");
+	}
+
+}
@@ -0,0 +1,265 @@
+package de.mainzelhandler.backend.core.store;
+
+/**
+ * POJO class for the configuration of a {@link PseudonymStore}.
+ */
+public class PseudonymStoreConfig {
+
+	/**
+	 * Name of the store, {@value PseudonymStore#HEAP},
+	 * {@value PseudonymStore#OFF_HEAP}, {@value PseudonymStore#JDBC} or
+	 * {@value PseudonymStore#REDIS}.
+	 */
+	private String type = PseudonymStore.HEAP;
+
+	/**
+	 * Timeout of the pairs in milliseconds.
+	 */
+	private long pseudonymTimeout = 300000;
+
+	/**
+	 * Maximum number of pairs.
+	 */
+	private int capacity = 100000;
+
+	/**
+	 * Behaviour of the full store.
+	 */
+	private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+
+	/**
+	 * Name of the table of the jdbc store.
+	 */
+	private String jdbcTable = JdbcPseudonymStore.DEFAULT_TABLE;
+
+	/**
+	 * URL of the Redis server of the redis store. A single server reached
+	 * without TLS, neither a Redis Cluster nor a Sentinel.
+	 */
+	private String redisUrl = "redis://localhost:6379";
+
+	/**
+	 * Prefix of the keys of the redis store.
+	 */
+	private String redisKeyPrefix = RedisPseudonymStore.DEFAULT_KEY_PREFIX;
+
+	/**
+	 * Number of idle connections kept by the redis store.
+	 */
+	private int redisPoolSize = 8;
+
+	/**
+	 * Connect and read timeout in milliseconds of the redis store.
+	 */
+	private int redisTimeout = 2000;
+
+	/**
+	 * Directory of the journal of a local store, empty for no journal.
+	 */
+	private String journalPath = "";
+
+	/**
+	 * Size of a journal segment in bytes.
+	 */
+	private int journalSegmentSize = 64 * 1024 * 1024;
+
+	/**
+	 * Whether a put waits until the journal is forced to the disk.
+	 */
+	private boolean journalSync = true;
+
+	/**
+	 * Constructs a new PseudonymStoreConfig with the default values.
+	 */
+	public PseudonymStoreConfig() {
+	}
+
+	/**
+	 * Constructs a new PseudonymStoreConfig for a store without external
+	 * resources.
+	 *
+	 * @param type             Name of the store.
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @param capacity         Maximum number of pairs.
+	 * @param overflowPolicy   Behaviour of the full store.
+	 */
+	public PseudonymStoreConfig(final String type, final long pseudonymTimeout, final int capacity,
+			final OverflowPolicy overflowPolicy) {
+		this.type = type;
+		this.pseudonymTimeout = pseudonymTimeout;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * @return Name of the store.
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @param type Name of the store.
+	 */
+	public void setType(final String type) {
+		this.type = type;
+	}
+
+	/**
+	 * @return Timeout of the pairs in milliseconds.
+	 */
+	public long getPseudonymTimeout() {
+		return pseudonymTimeout;
+	}
+
+	/**
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 */
+	public void setPseudonymTimeout(final long pseudonymTimeout) {
+		this.pseudonymTimeout = pseudonymTimeout;
+	}
+
+	/**
+	 * @return Maximum number of pairs.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity Maximum number of pairs.
+	 */
+	public void setCapacity(final int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return Behaviour of the full store.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @param overflowPolicy Behaviour of the full store.
+	 */
+	public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * @return Name of the table of the jdbc store.
+	 */
+	public String getJdbcTable() {
+		return jdbcTable;
+	}
+
+	/**
+	 * @param jdbcTable Name of the table of the jdbc store.
+	 */
+	public void setJdbcTable(final String jdbcTable) {
+		this.jdbcTable = jdbcTable;
+	}
+
+	/**
+	 * @return URL of the Redis server of the redis store.
+	 */
+	public String getRedisUrl() {
+		return redisUrl;
+	}
+
+	/**
+	 * @param redisUrl URL of the Redis server of the redis store.
+	 */
+	public void setRedisUrl(final String redisUrl) {
+		this.redisUrl = redisUrl;
+	}
+
+	/**
+	 * @return Prefix of the keys of the redis store.
+	 */
+	public String getRedisKeyPrefix() {
+		return redisKeyPrefix;
+	}
+
+	/**
+	 * @param redisKeyPrefix Prefix of the keys of the redis store.
+	 */
+	public void setRedisKeyPrefix(final String redisKeyPrefix) {
+		this.redisKeyPrefix = redisKeyPrefix;
+	}
+
+	/**
+	 * @return Number of idle connections kept by the redis store.
+	 */
+	public int getRedisPoolSize() {
+		return redisPoolSize;
+	}
+
+	/**
+	 * @param redisPoolSize Number of idle connections kept by the redis store.
+	 */
+	public void setRedisPoolSize(final int redisPoolSize) {
+		this.redisPoolSize = redisPoolSize;
+	}
+
+	/**
+	 * @return Connect and read timeout in milliseconds of the redis store.
+	 */
+	public int getRedisTimeout() {
+		return redisTimeout;
+	}
+
+	/**
+	 * @param redisTimeout Connect and read timeout in milliseconds of the redis
+	 *                     store.
+	 */
+	public void setRedisTimeout(final int redisTimeout) {
+		this.redisTimeout = redisTimeout;
+	}
+
+	/**
+	 * @return Directory of the journal of a local store, empty for no journal.
+	 */
+	public String getJournalPath() {
+		return journalPath;
+	}
+
+	/**
+	 * @param journalPath Directory of the journal of a local store, empty for no
+	 *                    journal.
+	 */
+	public void setJournalPath(final String journalPath) {
+		this.journalPath = journalPath;
+	}
+
+	/**
+	 * @return Size of a journal segment in bytes.
+	 */
+	public int getJournalSegmentSize() {
+		return journalSegmentSize;
+	}
+
+	/**
+	 * @param journalSegmentSize Size of a journal segment in bytes.
+	 */
+	public void setJournalSegmentSize(final int journalSegmentSize) {
+		this.journalSegmentSize = journalSegmentSize;
+	}
+
+	/**
+	 * @return Whether a put waits until the journal is forced to the disk.
+	 */
+	public boolean isJournalSync() {
+		return journalSync;
+	}
+
+	/**
+	 * @param journalSync Whether a put waits until the journal is forced to the
+	 *                    disk.
+	 */
+	public void setJournalSync(final boolean journalSync) {
+		this.journalSync = journalSync;
+	}
+
+}
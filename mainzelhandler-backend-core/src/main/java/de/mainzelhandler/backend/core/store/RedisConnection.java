@@ -0,0 +1,278 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreException;
+
+/**
+ * Connection to a Redis server speaking the RESP2 protocol. Only supports the
+ * commands and replies used by the {@link RedisPseudonymStore}. Not thread
+ * safe, a connection is used by one request at a time.
+ *
+ * The connection is a plain TCP socket to a single server. It does not speak
+ * TLS, follow the redirections of a Redis Cluster or ask a Sentinel for the
+ * current primary, a server requiring one of them needs a TLS proxy or a
+ * fixed primary in front of it.
+ */
+class RedisConnection implements Closeable {
+
+	/**
+	 * The socket.
+	 */
+	private final Socket socket;
+
+	/**
+	 * Buffered input of the socket.
+	 */
+	private final InputStream input;
+
+	/**
+	 * Buffered output of the socket.
+	 */
+	private final OutputStream output;
+
+	/**
+	 * Opens a new RedisConnection.
+	 *
+	 * @param host    Host of the Redis server.
+	 * @param port    Port of the Redis server.
+	 * @param timeout Connect and read timeout in milliseconds.
+	 * @throws IOException If the connection could not be opened.
+	 */
+	RedisConnection(final String host, final int port, final int timeout) throws IOException {
+		this.socket = new Socket();
+
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeout);
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.output = new BufferedOutputStream(socket.getOutputStream());
+		} catch (final IOException exception) {
+			socket.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Sends a command and reads its reply.
+	 *
+	 * @param command Name and arguments of the command.
+	 * @return The reply. A String, Long, List or null.
+	 * @throws IOException             If the connection failed.
+	 * @throws PseudonymStoreException If the server answered with an error.
+	 */
+	Object execute(final String... command) throws IOException {
+		write(command);
+		output.flush();
+		return checked(read());
+	}
+
+	/**
+	 * Sends the commands in one MULTI/EXEC transaction, so they are executed
+	 * without commands of other connections in between.
+	 *
+	 * @param commands Names and arguments of the commands.
+	 * @return The replies of the commands.
+	 * @throws IOException             If the connection failed.
+	 * @throws PseudonymStoreException If the server answered with an error.
+	 */
+	List<Object> transaction(final List<String[]> commands) throws IOException {
+		write("MULTI");
+
+		for (final String[] command : commands)
+			write(command);
+
+		write("EXEC");
+		output.flush();
+
+		// all replies are read before checking them to keep the connection usable
+		Object error = checkError(read());
+
+		for (int i = 0; i < commands.size(); i++) {
+			final Object queued = read();
+			error = error != null ? error : checkError(queued);
+		}
+
+		final Object replies = read();
+		checked(error);
+
+		@SuppressWarnings("unchecked")
+		final List<Object> results = (List<Object>) checked(replies);
+
+		if (results == null)
+			throw new PseudonymStoreException("Redis transaction was aborted");
+
+		for (final Object result : results)
+			checked(result);
+
+		return results;
+	}
+
+	/**
+	 * Closes the socket.
+	 *
+	 * @throws IOException If the socket could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	/**
+	 * Writes a command as array of bulk strings.
+	 *
+	 * @param command Name and arguments of the command.
+	 * @throws IOException If the connection failed.
+	 */
+	private void write(final String... command) throws IOException {
+		writeLine('*', command.length);
+
+		for (final String argument : command) {
+			final byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+			writeLine('$', bytes.length);
+			output.write(bytes);
+			output.write('\r');
+			output.write('\n');
+		}
+	}
+
+	/**
+	 * Writes a type marker followed by a number and the line end.
+	 *
+	 * @param type   The type marker.
+	 * @param number The number.
+	 * @throws IOException If the connection failed.
+	 */
+	private void writeLine(final char type, final int number) throws IOException {
+		output.write(type);
+		output.write(Integer.toString(number).getBytes(StandardCharsets.US_ASCII));
+		output.write('\r');
+		output.write('\n');
+	}
+
+	/**
+	 * Reads a reply. Error replies are returned as {@link RedisError}.
+	 *
+	 * @return The reply.
+	 * @throws IOException If the connection failed or the reply is malformed.
+	 */
+	private Object read() throws IOException {
+		final int type = input.read();
+		final String line = readLine();
+
+		switch (type) {
+		case '+':
+			return line;
+		case '-':
+			return new RedisError(line);
+		case ':':
+			return Long.valueOf(line);
+		case '$': {
+			final int length = Integer.parseInt(line);
+
+			if (length < 0)
+				return null;
+
+			final byte[] bytes = input.readNBytes(length + 2);
+
+			if (bytes.length < length + 2)
+				throw new EOFException("Redis connection closed");
+
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+		case '*': {
+			final int length = Integer.parseInt(line);
+
+			if (length < 0)
+				return null;
+
+			final List<Object> elements = new ArrayList<Object>(length);
+
+			for (int i = 0; i < length; i++)
+				elements.add(read());
+
+			return elements;
+		}
+		case -1:
+			throw new EOFException("Redis connection closed");
+		default:
+			throw new IOException("Malformed Redis reply of type " + (char) type);
+		}
+	}
+
+	/**
+	 * Reads a line without its line end.
+	 *
+	 * @return The line.
+	 * @throws IOException If the connection failed.
+	 */
+	private String readLine() throws IOException {
+		final StringBuilder line = new StringBuilder();
+
+		for (int c = input.read(); c != '\r'; c = input.read()) {
+			if (c == -1)
+				throw new EOFException("Redis connection closed");
+
+			line.append((char) c);
+		}
+
+		if (input.read() != '\n')
+			throw new IOException("Malformed Redis reply");
+
+		return line.toString();
+	}
+
+	/**
+	 * @param reply A reply.
+	 * @return The reply if it is an error, otherwise null.
+	 */
+	private static Object checkError(final Object reply) {
+		return reply instanceof RedisError ? reply : null;
+	}
+
+	/**
+	 * @param reply A reply.
+	 * @return The reply.
+	 * @throws PseudonymStoreException If the reply is an error.
+	 */
+	private static Object checked(final Object reply) {
+		if (reply instanceof RedisError)
+			throw new PseudonymStoreException("Redis error: " + ((RedisError) reply).message);
+
+		return reply;
+	}
+
+	/**
+	 * Error reply of the server.
+	 */
+	private static class RedisError {
+
+		/**
+		 * The error message.
+		 */
+		private final String message;
+
+		/**
+		 * Constructs a new RedisError.
+		 *
+		 * @param message The error message.
+		 */
+		private RedisError(final String message) {
+			this.message = message;
+		}
+
+	}
+
+}
@@ -0,0 +1,670 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreException;
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+/**
+ * Store keeping the token-pseudonym pairs on a Redis server shared by all
+ * instances of the application. The pairs are kept in a hash mapping the
+ * tokens to their creation time and pseudonym. A sorted set orders the tokens
+ * by their creation time, so the cleaning only reads the expired tokens. Every
+ * write changes both keys in one MULTI/EXEC transaction, so a token read and
+ * deleted by one instance is not received by another.
+ *
+ * A pair that is put again while the cleaning removes it as expired may get
+ * removed as well. The number of pairs is counted by every cleaning and
+ * adjusted by the own writes in between, so the capacity is a soft bound for
+ * all instances.
+ *
+ * The store talks to one Redis server over plain TCP with the minimal client
+ * {@link RedisConnection}: {@code rediss} URLs with TLS, Redis Cluster and
+ * Sentinel are not supported.
+ */
+public class RedisPseudonymStore implements PseudonymStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RedisPseudonymStore.class);
+
+	/**
+	 * Default prefix of the keys.
+	 */
+	public static final String DEFAULT_KEY_PREFIX = "mainzelhandler:pseudonyms:";
+
+	/**
+	 * Maximum number of tokens per command of a batch operation.
+	 */
+	private static final int BATCH_SIZE = 500;
+
+	/**
+	 * Default port of a Redis server.
+	 */
+	private static final int DEFAULT_PORT = 6379;
+
+	/**
+	 * Host of the Redis server.
+	 */
+	private final String host;
+
+	/**
+	 * Port of the Redis server.
+	 */
+	private final int port;
+
+	/**
+	 * User of the Redis server, null for the default user.
+	 */
+	private final String user;
+
+	/**
+	 * Password of the Redis server, null if no authentication is needed.
+	 */
+	private final String password;
+
+	/**
+	 * Number of the Redis database.
+	 */
+	private final int database;
+
+	/**
+	 * Connect and read timeout in milliseconds.
+	 */
+	private final int timeout;
+
+	/**
+	 * Key of the hash mapping the tokens to their creation time and pseudonym.
+	 */
+	private final String pairsKey;
+
+	/**
+	 * Key of the sorted set of the tokens scored by their creation time.
+	 */
+	private final String createdKey;
+
+	/**
+	 * Timeout of the pairs in milliseconds.
+	 */
+	private final long pseudonymTimeout;
+
+	/**
+	 * Maximum number of pairs.
+	 */
+	private final int capacity;
+
+	/**
+	 * Behaviour of the full store.
+	 */
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Idle connections.
+	 */
+	private final BlockingQueue<RedisConnection> idleConnections;
+
+	/**
+	 * Number of pairs counted by the last cleaning and adjusted by the own
+	 * writes.
+	 */
+	private final AtomicInteger size;
+
+	/**
+	 * Number of pairs removed by this instance because of their timeout.
+	 */
+	private final AtomicLong expirations;
+
+	/**
+	 * Number of pairs rejected by this instance because the store was full.
+	 */
+	private final AtomicLong rejections;
+
+	/**
+	 * Number of pairs evicted by this instance to make room for new pairs.
+	 */
+	private final AtomicLong evictions;
+
+	/**
+	 * Constructs a new RedisPseudonymStore and counts the stored pairs.
+	 *
+	 * @param url              URL of the Redis server in the format
+	 *                         redis://[[user]:password@]host[:port][/database],
+	 *                         rediss URLs are not supported.
+	 * @param keyPrefix        Prefix of the keys.
+	 * @param poolSize         Number of idle connections kept open.
+	 * @param timeout          Connect and read timeout in milliseconds.
+	 * @param pseudonymTimeout Timeout of the pairs in milliseconds.
+	 * @param capacity         Maximum number of pairs.
+	 * @param overflowPolicy   Behaviour of the full store.
+	 * @throws PseudonymStoreException If the Redis server is not reachable.
+	 */
+	public RedisPseudonymStore(final String url, final String keyPrefix, final int poolSize, final int timeout,
+			final long pseudonymTimeout, final int capacity, final OverflowPolicy overflowPolicy) {
+		final URI uri = URI.create(url);
+
+		if ("rediss".equals(uri.getScheme()))
+			throw new IllegalArgumentException("Redis URL with TLS is not supported: " + url);
+
+		if (!"redis".equals(uri.getScheme()) || uri.getHost() == null)
+			throw new IllegalArgumentException("Invalid Redis URL: " + url);
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+		final String userInfo = uri.getUserInfo();
+		final int separator = userInfo != null ? userInfo.indexOf(':') : -1;
+		final String path = uri.getPath() != null ? uri.getPath().replace("/", "") : "";
+
+		this.host = uri.getHost();
+		this.port = uri.getPort() != -1 ? uri.getPort() : DEFAULT_PORT;
+		this.user = separator > 0 ? userInfo.substring(0, separator) : null;
+		this.password = separator >= 0 ? userInfo.substring(separator + 1) : userInfo;
+		this.database = path.isEmpty() ? 0 : Integer.parseInt(path);
+		this.timeout = timeout;
+		this.pairsKey = keyPrefix + "pairs";
+		this.createdKey = keyPrefix + "created";
+		this.pseudonymTimeout = pseudonymTimeout;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.idleConnections = new ArrayBlockingQueue<RedisConnection>(Math.max(1, poolSize));
+		this.size = new AtomicInteger(count());
+		this.expirations = new AtomicLong();
+		this.rejections = new AtomicLong();
+		this.evictions = new AtomicLong();
+	}
+
+	/**
+	 * Stores a token-pseudonym pair.
+	 *
+	 * @param token     The token.
+	 * @param pseudonym The pseudonym.
+	 * @param now       The current time in milliseconds, used as creation time.
+	 * @return The previous pseudonym associated with token, or null if there was
+	 *         no unexpired mapping for token.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public String put(final String token, final String pseudonym, final long now) {
+		if (size.get() >= capacity && get(token, now) == null)
+			makeRoom(1, now);
+
+		final List<Object> replies = transaction(Arrays.asList(new String[] { "HGET", pairsKey, token },
+				new String[] { "HSET", pairsKey, token, encode(pseudonym, now) },
+				new String[] { "ZADD", createdKey, Long.toString(now), token }));
+
+		size.addAndGet(((Long) replies.get(1)).intValue());
+		return decode(replies.get(0), now);
+	}
+
+	/**
+	 * Stores several token-pseudonym pairs with one transaction per
+	 * {@value #BATCH_SIZE} pairs.
+	 *
+	 * @param pairs Tokens and their pseudonyms.
+	 * @param now   The current time in milliseconds, used as creation time.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	@Override
+	public void putAll(final Map<String, String> pairs, final long now) {
+		if (pairs.isEmpty())
+			return;
+
+		if (size.get() + pairs.size() > capacity)
+			makeRoom(pairs.size(), now);
+
+		final String createdAt = Long.toString(now);
+		final List<String> hset = new ArrayList<String>();
+		final List<String> zadd = new ArrayList<String>();
+
+		for (final Entry<String, String> pair : pairs.entrySet()) {
+			hset.add(pair.getKey());
+			hset.add(encode(pair.getValue(), now));
+			zadd.add(createdAt);
+			zadd.add(pair.getKey());
+
+			if (hset.size() == 2 * BATCH_SIZE) {
+				putChunk(hset, zadd);
+				hset.clear();
+				zadd.clear();
+			}
+		}
+
+		if (!hset.isEmpty())
+			putChunk(hset, zadd);
+	}
+
+	/**
+	 * Returns the pseudonym associated with the token.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String get(final String token, final long now) {
+		return decode(execute("HGET", pairsKey, token), now);
+	}
+
+	/**
+	 * Removes the token if present. Counts an expired token as expiration.
+	 *
+	 * @param token The token.
+	 * @param now   The current time in milliseconds.
+	 * @return The associated pseudonym or null if the token is not present or
+	 *         expired.
+	 */
+	@Override
+	public String remove(final String token, final long now) {
+		return removeAll(Arrays.asList(token), now).get(token);
+	}
+
+	/**
+	 * Removes several tokens with one transaction per {@value #BATCH_SIZE}
+	 * tokens and reports the creation times of the removed pairs. Counts
+	 * expired tokens as expirations.
+	 *
+	 * @param tokens     The tokens.
+	 * @param now        The current time in milliseconds.
+	 * @param createdAts Receives the removed tokens with their creation times in
+	 *                   milliseconds, may be null.
+	 * @return The removed tokens with their pseudonyms. Tokens that are not
+	 *         present or expired are missing.
+	 */
+	@Override
+	public Map<String, String> removeAll(final Collection<String> tokens, final long now,
+			final Map<String, Long> createdAts) {
+		final Map<String, String> pseudonyms = new HashMap<String, String>();
+		final List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(tokens));
+
+		for (int from = 0; from < distinct.size(); from += BATCH_SIZE) {
+			final List<String> chunk = distinct.subList(from, Math.min(distinct.size(), from + BATCH_SIZE));
+			final List<Object> replies = transaction(Arrays.asList(command("HMGET", pairsKey, chunk),
+					command("HDEL", pairsKey, chunk), command("ZREM", createdKey, chunk)));
+			final List<?> values = (List<?>) replies.get(0);
+
+			size.addAndGet(-((Long) replies.get(1)).intValue());
+
+			for (int i = 0; i < chunk.size(); i++) {
+				if (values.get(i) == null)
+					continue;
+
+				final String pseudonym = decode(values.get(i), now);
+
+				if (pseudonym != null) {
+					pseudonyms.put(chunk.get(i), pseudonym);
+
+					if (createdAts != null)
+						createdAts.put(chunk.get(i), createdAtOf((String) values.get(i)));
+				} else {
+					expirations.incrementAndGet();
+				}
+			}
+		}
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Removes the expired tokens found in the sorted set by their creation time
+	 * and counts the remaining pairs.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Number of removed pairs.
+	 */
+	@Override
+	public int removeExpired(final long now) {
+		final String cutoff = Long.toString(now - pseudonymTimeout);
+		int removed = 0;
+		List<String> tokens;
+
+		do {
+			tokens = strings(execute("ZRANGEBYSCORE", createdKey, "-inf", cutoff, "LIMIT", "0",
+					Integer.toString(BATCH_SIZE)));
+
+			if (!tokens.isEmpty())
+				removed += delete(tokens);
+		} while (tokens.size() == BATCH_SIZE);
+
+		size.set(count());
+		expirations.addAndGet(removed);
+		return removed;
+	}
+
+	/**
+	 * @return Number of pairs counted by the last cleaning and adjusted by the
+	 *         own writes.
+	 */
+	@Override
+	public int size() {
+		return Math.max(0, size.get());
+	}
+
+	/**
+	 * @return true, the pairs are shared by all instances using the same
+	 *         Redis keys.
+	 */
+	@Override
+	public boolean isShared() {
+		return true;
+	}
+
+	/**
+	 * @return Number of pairs removed by this instance because of their timeout.
+	 */
+	@Override
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * @return Maximum number of pairs.
+	 */
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return Number of pairs rejected by this instance because the store was
+	 *         full.
+	 */
+	@Override
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/**
+	 * @return Number of pairs evicted by this instance to make room for new pairs.
+	 */
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Closes the idle connections. The pairs stay on the Redis server.
+	 */
+	@Override
+	public void close() {
+		RedisConnection connection;
+
+		while ((connection = idleConnections.poll()) != null)
+			closeQuietly(connection);
+	}
+
+	/**
+	 * Frees places for new pairs. Removes the expired pairs and applies the
+	 * overflow policy if the store is still full.
+	 *
+	 * @param needed Number of new pairs.
+	 * @param now    The current time in milliseconds.
+	 * @throws PseudonymStoreFullException If the store is full and rejects new
+	 *                                     pairs.
+	 */
+	private void makeRoom(final int needed, final long now) {
+		removeExpired(now);
+
+		final int excess = size.get() + needed - capacity;
+
+		if (excess <= 0)
+			return;
+
+		if (overflowPolicy == OverflowPolicy.REJECT) {
+			rejections.incrementAndGet();
+			throw new PseudonymStoreFullException("Pseudonym store is full, capacity " + capacity, retryAfter(now));
+		}
+
+		final List<String> oldest = strings(execute("ZRANGE", createdKey, "0", Integer.toString(excess - 1)));
+
+		if (!oldest.isEmpty())
+			evictions.addAndGet(delete(oldest));
+	}
+
+	/**
+	 * Estimates the time until the oldest pair gets removed by the cleaning.
+	 *
+	 * @param now The current time in milliseconds.
+	 * @return Time in milliseconds.
+	 */
+	private long retryAfter(final long now) {
+		final long tick = HeapPseudonymStore.expiryTick(pseudonymTimeout);
+		final List<String> oldest = strings(execute("ZRANGE", createdKey, "0", "0", "WITHSCORES"));
+
+		if (oldest.size() < 2)
+			return tick;
+
+		return Math.max(0, (long) Double.parseDouble(oldest.get(1)) + pseudonymTimeout - now) + tick;
+	}
+
+	/**
+	 * Stores a chunk of pairs in one transaction.
+	 *
+	 * @param hset Tokens alternating with their encoded pseudonyms.
+	 * @param zadd Creation times alternating with the tokens.
+	 */
+	private void putChunk(final List<String> hset, final List<String> zadd) {
+		final List<Object> replies = transaction(
+				Arrays.asList(command("HSET", pairsKey, hset), command("ZADD", createdKey, zadd)));
+
+		size.addAndGet(((Long) replies.get(0)).intValue());
+	}
+
+	/**
+	 * Deletes tokens from both keys in one transaction.
+	 *
+	 * @param tokens The tokens.
+	 * @return Number of deleted pairs.
+	 */
+	private int delete(final List<String> tokens) {
+		final List<Object> replies = transaction(
+				Arrays.asList(command("HDEL", pairsKey, tokens), command("ZREM", createdKey, tokens)));
+		final int deleted = ((Long) replies.get(0)).intValue();
+
+		size.addAndGet(-deleted);
+		return deleted;
+	}
+
+	/**
+	 * @return Number of pairs in the hash.
+	 */
+	private int count() {
+		return ((Long) execute("HLEN", pairsKey)).intValue();
+	}
+
+	/**
+	 * Encodes a pseudonym with its creation time.
+	 *
+	 * @param pseudonym The pseudonym.
+	 * @param createdAt Creation time in milliseconds.
+	 * @return The value of the hash.
+	 */
+	private static String encode(final String pseudonym, final long createdAt) {
+		return createdAt + ":" + pseudonym;
+	}
+
+	/**
+	 * Decodes a value of the hash.
+	 *
+	 * @param value The value or null.
+	 * @param now   The current time in milliseconds.
+	 * @return The pseudonym or null if the value is null or expired.
+	 */
+	private String decode(final Object value, final long now) {
+		if (value == null)
+			return null;
+
+		final String encoded = (String) value;
+
+		return createdAtOf(encoded) + pseudonymTimeout > now ? encoded.substring(encoded.indexOf(':') + 1) : null;
+	}
+
+	/**
+	 * Decodes the creation time of a value of the hash.
+	 *
+	 * @param encoded The value.
+	 * @return Creation time in milliseconds.
+	 */
+	private static long createdAtOf(final String encoded) {
+		return Long.parseLong(encoded.substring(0, encoded.indexOf(':')));
+	}
+
+	/**
+	 * Builds a command with a key and several arguments.
+	 *
+	 * @param name      Name of the command.
+	 * @param key       The key.
+	 * @param arguments The arguments.
+	 * @return The command.
+	 */
+	private static String[] command(final String name, final String key, final List<String> arguments) {
+		final String[] command = new String[arguments.size() + 2];
+		command[0] = name;
+		command[1] = key;
+
+		for (int i = 0; i < arguments.size(); i++)
+			command[i + 2] = arguments.get(i);
+
+		return command;
+	}
+
+	/**
+	 * @param reply An array reply.
+	 * @return The elements of the reply as strings.
+	 */
+	private static List<String> strings(final Object reply) {
+		final List<String> strings = new ArrayList<String>();
+
+		for (final Object element : (List<?>) reply)
+			strings.add((String) element);
+
+		return strings;
+	}
+
+	/**
+	 * Sends a command on a pooled connection.
+	 *
+	 * @param command Name and arguments of the command.
+	 * @return The reply.
+	 * @throws PseudonymStoreException If the request failed.
+	 */
+	private Object execute(final String... command) {
+		final RedisConnection connection = borrow();
+
+		try {
+			final Object reply = connection.execute(command);
+			release(connection);
+			return reply;
+		} catch (final IOException exception) {
+			closeQuietly(connection);
+			throw new PseudonymStoreException("Redis request failed: " + exception.getMessage(), exception);
+		} catch (final RuntimeException exception) {
+			release(connection);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Sends commands in one transaction on a pooled connection.
+	 *
+	 * @param commands Names and arguments of the commands.
+	 * @return The replies of the commands.
+	 * @throws PseudonymStoreException If the request failed.
+	 */
+	private List<Object> transaction(final List<String[]> commands) {
+		final RedisConnection connection = borrow();
+
+		try {
+			final List<Object> replies = connection.transaction(commands);
+			release(connection);
+			return replies;
+		} catch (final IOException exception) {
+			closeQuietly(connection);
+			throw new PseudonymStoreException("Redis request failed: " + exception.getMessage(), exception);
+		} catch (final RuntimeException exception) {
+			release(connection);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Takes an idle connection or opens a new one.
+	 *
+	 * @return The connection.
+	 * @throws PseudonymStoreException If no connection could be opened.
+	 */
+	private RedisConnection borrow() {
+		final RedisConnection idle = idleConnections.poll();
+
+		if (idle != null)
+			return idle;
+
+		RedisConnection connection = null;
+
+		try {
+			connection = new RedisConnection(host, port, timeout);
+
+			if (password != null) {
+				if (user != null) {
+					connection.execute("AUTH", user, password);
+				} else {
+					connection.execute("AUTH", password);
+				}
+			}
+
+			if (database != 0)
+				connection.execute("SELECT", Integer.toString(database));
+
+			LOGGER.debug("Opened Redis connection to " + host + ":" + port);
+			return connection;
+		} catch (final IOException | RuntimeException exception) {
+			if (connection != null)
+				closeQuietly(connection);
+
+			if (exception instanceof PseudonymStoreException)
+				throw (PseudonymStoreException) exception;
+
+			throw new PseudonymStoreException("Could not connect to Redis at " + host + ":" + port, exception);
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool. Closes it if the pool is full.
+	 *
+	 * @param connection The connection.
+	 */
+	private void release(final RedisConnection connection) {
+		if (!idleConnections.offer(connection))
+			closeQuietly(connection);
+	}
+
+	/**
+	 * Closes a connection and logs a failure.
+	 *
+	 * @param connection The connection.
+	 */
+	private static void closeQuietly(final RedisConnection connection) {
+		try {
+			connection.close();
+		} catch (final IOException exception) {
+			LOGGER.debug("Could not close Redis connection: " + exception.getMessage());
+		}
+	}
+
+}
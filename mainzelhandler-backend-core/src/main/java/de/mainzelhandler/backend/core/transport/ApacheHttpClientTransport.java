@@ -0,0 +1,285 @@
+package de.mainzelhandler.backend.core.transport;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.mainzelhandler.backend.core.mainzelliste.ConnectionPoolConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Transport based on Apache HttpClient 4. Owns a long-lived HTTP-Client with a
+ * pooling connection manager for the blocking requests and a non-blocking
+ * HTTP-Client for the asynchronous requests. The non-blocking HTTP-Client gets
+ * started on its first use. Uses HTTP/1.1. The connect timeout of the
+ * configuration bounds the connection setup and the wait for a pooled
+ * connection, the timeout of a request bounds the wait for each packet of the
+ * response.
+ */
+public class ApacheHttpClientTransport implements MainzellisteTransport, MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ApacheHttpClientTransport.class);
+
+	/**
+	 * Configuration of the HTTP connection pools.
+	 */
+	private final ConnectionPoolConfig connectionPoolConfig;
+
+	/**
+	 * Keep-alive strategy of the HTTP-Clients. Uses the Keep-Alive header of the
+	 * Mainzelliste or the configured default.
+	 */
+	private final ConnectionKeepAliveStrategy keepAliveStrategy;
+
+	/**
+	 * Connection manager pooling the connections of the blocking requests.
+	 */
+	private final PoolingHttpClientConnectionManager connectionManager;
+
+	/**
+	 * HTTP-Client shared by all blocking requests.
+	 */
+	private final CloseableHttpClient httpClient;
+
+	/**
+	 * Non-blocking HTTP-Client shared by all asynchronous requests, null until its
+	 * first use.
+	 */
+	private volatile CloseableHttpAsyncClient asyncHttpClient;
+
+	/**
+	 * Constructs a new ApacheHttpClientTransport.
+	 *
+	 * @param connectionPoolConfig Configuration of the HTTP connection pools.
+	 */
+	public ApacheHttpClientTransport(final ConnectionPoolConfig connectionPoolConfig) {
+		this.connectionPoolConfig = connectionPoolConfig;
+
+		this.connectionManager = new PoolingHttpClientConnectionManager();
+		this.connectionManager.setMaxTotal(connectionPoolConfig.getMaxTotal());
+		this.connectionManager.setDefaultMaxPerRoute(connectionPoolConfig.getMaxPerRoute());
+
+		final long keepAlive = connectionPoolConfig.getKeepAlive();
+		this.keepAliveStrategy = (response, context) -> {
+			final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? duration : keepAlive;
+		};
+
+		this.httpClient = HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.evictExpiredConnections()
+				.evictIdleConnections(connectionPoolConfig.getIdleTimeout(), TimeUnit.MILLISECONDS)
+				.build();
+
+		LOGGER.debug("Created connection pool with maxTotal " + connectionPoolConfig.getMaxTotal()
+				+ " and maxPerRoute " + connectionPoolConfig.getMaxPerRoute());
+	}
+
+	/**
+	 * @return Maximum number of pooled connections to the Mainzelliste, the
+	 *         smaller of the total and the per route maximum.
+	 */
+	@Override
+	public int getMaxConcurrency() {
+		return Math.min(connectionPoolConfig.getMaxTotal(), connectionPoolConfig.getMaxPerRoute());
+	}
+
+	/**
+	 * @return Statistics of the HTTP connection pool of the blocking requests.
+	 */
+	public PoolStats getConnectionPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Sends the request with the pooled HTTP-Client. The connection is released
+	 * after the body is read.
+	 *
+	 * @param request The request.
+	 * @return The response.
+	 * @throws IOException If the Mainzelliste could not be reached.
+	 */
+	@Override
+	public TransportResponse execute(final TransportRequest request) throws IOException {
+		try (CloseableHttpResponse response = httpClient.execute(toHttpRequest(request))) {
+			return toTransportResponse(response);
+		}
+	}
+
+	/**
+	 * Sends the request with the non-blocking HTTP-Client. The response body is
+	 * completely received when the callback is called, so it can be read without
+	 * blocking.
+	 *
+	 * @param request The request.
+	 * @return Future of the response.
+	 */
+	@Override
+	public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+		final FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+
+			@Override
+			public void completed(final HttpResponse response) {
+				try {
+					result.complete(toTransportResponse(response));
+				} catch (final IOException exception) {
+					result.completeExceptionally(exception);
+				}
+			}
+
+			@Override
+			public void failed(final Exception exception) {
+				result.completeExceptionally(exception);
+			}
+
+			@Override
+			public void cancelled() {
+				result.completeExceptionally(new IOException("Request cancelled"));
+			}
+
+		};
+
+		try {
+			getAsyncHttpClient().execute(toHttpRequest(request), callback);
+		} catch (final RuntimeException exception) {
+			callback.failed(exception);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Registers gauges for the usage of the HTTP connection pool of the blocking
+	 * requests.
+	 *
+	 * @param registry Registry to bind the gauges to.
+	 */
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("mainzelhandler.mainzelliste.connections", connectionManager,
+				manager -> manager.getTotalStats().getLeased())
+				.tag("state", "leased")
+				.description("Connections to the Mainzelliste currently in use")
+				.register(registry);
+		Gauge.builder("mainzelhandler.mainzelliste.connections", connectionManager,
+				manager -> manager.getTotalStats().getAvailable())
+				.tag("state", "available")
+				.description("Idle connections to the Mainzelliste kept alive in the pool")
+				.register(registry);
+		Gauge.builder("mainzelhandler.mainzelliste.connections", connectionManager,
+				manager -> manager.getTotalStats().getPending())
+				.tag("state", "pending")
+				.description("Requests waiting for a connection to the Mainzelliste")
+				.register(registry);
+		Gauge.builder("mainzelhandler.mainzelliste.connections.max", connectionManager,
+				manager -> manager.getTotalStats().getMax())
+				.description("Maximum number of connections to the Mainzelliste")
+				.register(registry);
+	}
+
+	/**
+	 * Closes the HTTP-Clients and all pooled connections.
+	 */
+	@Override
+	public void close() throws IOException {
+		LOGGER.debug("Closing connection pool");
+		httpClient.close();
+
+		synchronized (this) {
+			if (asyncHttpClient != null)
+				asyncHttpClient.close();
+		}
+	}
+
+	/**
+	 * @return The non-blocking HTTP-Client. Gets created and started on the first
+	 *         call.
+	 */
+	private CloseableHttpAsyncClient getAsyncHttpClient() {
+		CloseableHttpAsyncClient client = asyncHttpClient;
+
+		if (client == null) {
+			synchronized (this) {
+				client = asyncHttpClient;
+
+				if (client == null) {
+					client = HttpAsyncClients.custom()
+							.setMaxConnTotal(connectionPoolConfig.getMaxTotal())
+							.setMaxConnPerRoute(connectionPoolConfig.getMaxPerRoute())
+							.setKeepAliveStrategy(keepAliveStrategy)
+							.build();
+					client.start();
+					asyncHttpClient = client;
+					LOGGER.debug("Started asynchronous HTTP-Client");
+				}
+			}
+		}
+
+		return client;
+	}
+
+	/**
+	 * Converts the request to a request of HttpClient.
+	 *
+	 * @param request The request.
+	 * @return The request of HttpClient.
+	 */
+	private HttpUriRequest toHttpRequest(final TransportRequest request) {
+		final int connectTimeout = (int) connectionPoolConfig.getConnectTimeout();
+		final RequestBuilder builder = RequestBuilder.create(request.getMethod()).setUri(request.getUrl())
+				.setConfig(RequestConfig.custom()
+						.setConnectTimeout(connectTimeout)
+						.setConnectionRequestTimeout(connectTimeout)
+						.setSocketTimeout((int) Math.min(Integer.MAX_VALUE, request.getTimeout()))
+						.build());
+
+		for (final Map.Entry<String, String> header : request.getHeaders().entrySet())
+			builder.addHeader(header.getKey(), header.getValue());
+
+		if (request.getBody() != null)
+			builder.setEntity(new ByteArrayEntity(request.getBody(), ContentType.APPLICATION_JSON));
+
+		return builder.build();
+	}
+
+	/**
+	 * Reads the response of HttpClient.
+	 *
+	 * @param response The response of HttpClient.
+	 * @return The response.
+	 * @throws IOException If the body could not be read.
+	 */
+	private static TransportResponse toTransportResponse(final HttpResponse response) throws IOException {
+		final HttpEntity entity = response.getEntity();
+		final byte[] content = entity != null ? EntityUtils.toByteArray(entity) : null;
+
+		return new TransportResponse(response.getStatusLine().getStatusCode(), content);
+	}
+
+}
@@ -0,0 +1,138 @@
+package de.mainzelhandler.backend.core.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport based on the HTTP-Client of the JDK. Prefers HTTP/2, so concurrent
+ * requests get multiplexed over a single connection if the Mainzelliste or its
+ * proxy supports HTTP/2. Falls back to HTTP/1.1 otherwise. The connection pool
+ * is managed by the JDK, only the connect timeout of the {@link
+ * de.mainzelhandler.backend.core.mainzelliste.ConnectionPoolConfig} applies.
+ * The timeout of a request bounds the time until the response headers
+ * arrive.
+ */
+public class JdkHttpClientTransport implements MainzellisteTransport {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JdkHttpClientTransport.class);
+
+	/**
+	 * HTTP-Client shared by all requests.
+	 */
+	private final HttpClient httpClient;
+
+	/**
+	 * Constructs a new JdkHttpClientTransport preferring HTTP/2.
+	 */
+	public JdkHttpClientTransport() {
+		this(HttpClient.Version.HTTP_2);
+	}
+
+	/**
+	 * Constructs a new JdkHttpClientTransport.
+	 *
+	 * @param version Preferred HTTP version.
+	 */
+	public JdkHttpClientTransport(final HttpClient.Version version) {
+		this(version, 0);
+	}
+
+	/**
+	 * Constructs a new JdkHttpClientTransport with a connect timeout.
+	 *
+	 * @param version        Preferred HTTP version.
+	 * @param connectTimeout Time in milliseconds to establish a connection, 0 if
+	 *                       unbounded.
+	 */
+	public JdkHttpClientTransport(final HttpClient.Version version, final long connectTimeout) {
+		final HttpClient.Builder builder = HttpClient.newBuilder().version(version);
+
+		if (connectTimeout > 0)
+			builder.connectTimeout(Duration.ofMillis(connectTimeout));
+
+		this.httpClient = builder.build();
+		LOGGER.debug("Created JDK HTTP-Client with version " + version);
+	}
+
+	/**
+	 * Sends the request and blocks until the response is received.
+	 *
+	 * @param request The request.
+	 * @return The response.
+	 * @throws IOException If the Mainzelliste could not be reached or the thread
+	 *                     got interrupted.
+	 */
+	@Override
+	public TransportResponse execute(final TransportRequest request) throws IOException {
+		try {
+			return toTransportResponse(httpClient.send(toHttpRequest(request), BodyHandlers.ofByteArray()));
+		} catch (final InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the Mainzelliste");
+		}
+	}
+
+	/**
+	 * Sends the request without blocking the calling thread.
+	 *
+	 * @param request The request.
+	 * @return Future of the response.
+	 */
+	@Override
+	public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		return httpClient.sendAsync(toHttpRequest(request), BodyHandlers.ofByteArray())
+				.thenApply(JdkHttpClientTransport::toTransportResponse);
+	}
+
+	/**
+	 * Does nothing. The connections of the JDK HTTP-Client get closed when the
+	 * client is garbage collected.
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Converts the request to a request of the JDK HTTP-Client.
+	 *
+	 * @param request The request.
+	 * @return The request of the JDK HTTP-Client.
+	 */
+	private static HttpRequest toHttpRequest(final TransportRequest request) {
+		final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()))
+				.method(request.getMethod(), request.getBody() != null
+						? BodyPublishers.ofByteArray(request.getBody())
+						: BodyPublishers.noBody());
+
+		for (final Map.Entry<String, String> header : request.getHeaders().entrySet())
+			builder.header(header.getKey(), header.getValue());
+
+		if (request.getTimeout() > 0)
+			builder.timeout(Duration.ofMillis(request.getTimeout()));
+
+		return builder.build();
+	}
+
+	/**
+	 * Converts the response of the JDK HTTP-Client.
+	 *
+	 * @param response The response of the JDK HTTP-Client.
+	 * @return The response.
+	 */
+	private static TransportResponse toTransportResponse(final HttpResponse<byte[]> response) {
+		return new TransportResponse(response.statusCode(), response.body());
+	}
+
+}
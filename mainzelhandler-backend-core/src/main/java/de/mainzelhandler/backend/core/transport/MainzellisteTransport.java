@@ -0,0 +1,79 @@
+package de.mainzelhandler.backend.core.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+import de.mainzelhandler.backend.core.mainzelliste.ConnectionPoolConfig;
+
+/**
+ * HTTP transport used by a
+ * {@link de.mainzelhandler.backend.core.mainzelliste.MainzellisteConnection} to
+ * send requests to the Mainzelliste. Implementations are thread safe and shared
+ * by all requests of a connection.
+ */
+public interface MainzellisteTransport extends Closeable {
+
+	/**
+	 * Name of the transport based on Apache HttpClient 4.
+	 */
+	String APACHE = "apache";
+
+	/**
+	 * Name of the transport based on the HTTP-Client of the JDK.
+	 */
+	String JDK = "jdk";
+
+	/**
+	 * Sends the request and blocks until the response is received. Fails if the
+	 * response does not arrive within the timeout of the request.
+	 *
+	 * @param request The request.
+	 * @return The response.
+	 * @throws IOException If the Mainzelliste could not be reached.
+	 */
+	TransportResponse execute(TransportRequest request) throws IOException;
+
+	/**
+	 * Sends the request without blocking the calling thread.
+	 *
+	 * @param request The request.
+	 * @return Future of the response. Completes exceptionally if the Mainzelliste
+	 *         could not be reached.
+	 */
+	CompletableFuture<TransportResponse> executeAsync(TransportRequest request);
+
+	/**
+	 * @return Maximum number of requests the transport sends concurrently without
+	 *         waiting for a pooled connection, Integer.MAX_VALUE if it does not
+	 *         bound its connections.
+	 */
+	default int getMaxConcurrency() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Creates the transport with the given name.
+	 *
+	 * @param type                 Name of the transport, {@value #APACHE} or
+	 *                             {@value #JDK}.
+	 * @param connectionPoolConfig Configuration of the HTTP connection pool. The
+	 *                             JDK transport only uses its connect timeout.
+	 * @return The transport.
+	 * @throws IllegalArgumentException If the name is unknown.
+	 */
+	static MainzellisteTransport create(final String type, final ConnectionPoolConfig connectionPoolConfig) {
+		switch (type.trim().toLowerCase(Locale.ROOT)) {
+		case APACHE:
+			return new ApacheHttpClientTransport(connectionPoolConfig);
+		case JDK:
+			return new JdkHttpClientTransport(HttpClient.Version.HTTP_2, connectionPoolConfig.getConnectTimeout());
+		default:
+			throw new IllegalArgumentException("Unknown transport '" + type + "', expected '" + APACHE + "' or '"
+					+ JDK + "'");
+		}
+	}
+
+}
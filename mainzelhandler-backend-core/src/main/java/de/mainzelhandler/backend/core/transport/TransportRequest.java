@@ -0,0 +1,109 @@
+package de.mainzelhandler.backend.core.transport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Container class for a request to the Mainzelliste independent of the HTTP
+ * transport.
+ */
+public class TransportRequest {
+
+	/**
+	 * HTTP method of the request.
+	 */
+	private final String method;
+
+	/**
+	 * URL of the request.
+	 */
+	private final String url;
+
+	/**
+	 * Headers of the request.
+	 */
+	private final Map<String, String> headers;
+
+	/**
+	 * UTF-8 encoded JSON body of the request, null if the request has no body.
+	 */
+	private byte[] body;
+
+	/**
+	 * Time in milliseconds the transport waits for the response, 0 if unbounded.
+	 */
+	private long timeout;
+
+	/**
+	 * Constructs a new TransportRequest without headers and body.
+	 *
+	 * @param method HTTP method of the request.
+	 * @param url    URL of the request.
+	 */
+	public TransportRequest(final String method, final String url) {
+		this.method = method;
+		this.url = url;
+		this.headers = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * @return HTTP method of the request.
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return URL of the request.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return Headers of the request.
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @param name  Name of the header.
+	 * @param value Value of the header.
+	 */
+	public void addHeader(final String name, final String value) {
+		headers.put(name, value);
+	}
+
+	/**
+	 * @return UTF-8 encoded JSON body of the request, null if the request has no
+	 *         body.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @param body UTF-8 encoded JSON body of the request.
+	 */
+	public void setBody(final byte[] body) {
+		this.body = body;
+	}
+
+	/**
+	 * @return Time in milliseconds the transport waits for the response, 0 if
+	 *         unbounded.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout Time in milliseconds the transport waits for the response, 0
+	 *                if unbounded.
+	 */
+	public void setTimeout(final long timeout) {
+		this.timeout = timeout;
+	}
+
+}
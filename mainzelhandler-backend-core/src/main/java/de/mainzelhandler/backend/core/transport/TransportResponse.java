@@ -0,0 +1,59 @@
+package de.mainzelhandler.backend.core.transport;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Container class for a response of the Mainzelliste independent of the HTTP
+ * transport. The body is completely received.
+ */
+public class TransportResponse {
+
+	/**
+	 * Empty body.
+	 */
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * HTTP status code of the response.
+	 */
+	private final int statusCode;
+
+	/**
+	 * Body of the response, empty if the response has no body.
+	 */
+	private final byte[] content;
+
+	/**
+	 * Constructs a new TransportResponse.
+	 *
+	 * @param statusCode HTTP status code of the response.
+	 * @param content    Body of the response.
+	 */
+	public TransportResponse(final int statusCode, final byte[] content) {
+		this.statusCode = statusCode;
+		this.content = content != null ? content : EMPTY;
+	}
+
+	/**
+	 * @return HTTP status code of the response.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return Body of the response, empty if the response has no body. Not
+	 *         copied, must not be modified.
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * @return Body of the response decoded as UTF-8.
+	 */
+	public String getBody() {
+		return new String(content, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,140 @@
+package de.mainzelhandler.backend.core.cluster;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.mainzelliste.Deadline;
+import de.mainzelhandler.backend.core.transport.MainzellisteTransport;
+import de.mainzelhandler.backend.core.transport.TransportRequest;
+import de.mainzelhandler.backend.core.transport.TransportResponse;
+
+class PeerNodesTest {
+
+	/**
+	 * Records the requests and answers the takes with the responses or
+	 * exceptions given for the peers in order. Confirmations and cancellations
+	 * are answered with the given status.
+	 */
+	private static class PeerTransport implements MainzellisteTransport {
+
+		private final List<TransportRequest> requests = new ArrayList<TransportRequest>();
+
+		private final List<Object> answers;
+
+		private int finishStatus = 204;
+
+		private PeerTransport(final Object... answers) {
+			this.answers = new ArrayList<Object>(Arrays.asList(answers));
+		}
+
+		@Override
+		public synchronized TransportResponse execute(final TransportRequest request) throws IOException {
+			requests.add(request);
+
+			if (!request.getUrl().endsWith(PeerNodes.CALLBACK_PATH + "/b") && !request.getUrl().endsWith(
+					PeerNodes.TAKE_PATH))
+				return new TransportResponse(finishStatus, new byte[0]);
+
+			final Object answer = answers.remove(0);
+
+			if (answer instanceof IOException)
+				throw (IOException) answer;
+
+			return new TransportResponse(200, ((String) answer).getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+			try {
+				return CompletableFuture.completedFuture(execute(request));
+			} catch (final IOException exception) {
+				return CompletableFuture.failedFuture(exception);
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+
+		private synchronized List<String> finished() {
+			return requests.stream().filter(request -> !request.getUrl().endsWith(PeerNodes.TAKE_PATH)
+					&& !request.getUrl().contains(PeerNodes.CALLBACK_PATH))
+					.map(request -> request.getMethod() + " " + request.getUrl().substring(0, 8))
+					.collect(Collectors.toList());
+		}
+
+	}
+
+	private static PeerNodes nodes(final PeerTransport transport) {
+		final Map<String, String> peers = new LinkedHashMap<String, String>();
+		peers.put("b", "http://b");
+		peers.put("c", "http://c");
+		return new PeerNodes("a", peers, "secret", 3000, transport);
+	}
+
+	@Test
+	void boundsRequestsByTimeoutAndDeadlineTest() throws IOException {
+		final PeerTransport transport = new PeerTransport("", "{}", "{}", "{}", "{}");
+		final PeerNodes nodes = nodes(transport);
+
+		nodes.forwardCallback("b", new byte[0]);
+		Deadline.call(System.currentTimeMillis() + 1000, () -> nodes.takePseudonyms(Collections.singleton("t1")));
+		nodes.takePseudonyms(Collections.singleton("t2"));
+
+		assertEquals(3000, transport.requests.get(0).getTimeout());
+		assertTrue(transport.requests.get(2).getTimeout() <= 1000);
+		assertTrue(transport.requests.get(2).getTimeout() > 0);
+		assertEquals(3000, transport.requests.get(4).getTimeout());
+		assertTrue(transport.finished().isEmpty());
+	}
+
+	@Test
+	void asksPeersAtOnceAndConfirmsTheirReservationsTest() {
+		final PeerTransport transport = new PeerTransport("{\"t1\":\"pid1\"}", "{\"t2\":\"pid2\"}");
+		final Map<String, String> taken = nodes(transport).takePseudonyms(Arrays.asList("t1", "t2"));
+
+		assertEquals(Map.of("t1", "pid1", "t2", "pid2"), taken);
+		assertEquals("[\"t1\",\"t2\"]", new String(transport.requests.get(1).getBody(), StandardCharsets.UTF_8));
+		assertEquals("http://c" + PeerNodes.TAKE_PATH, transport.requests.get(1).getUrl());
+		assertEquals(transport.requests.get(0).getHeaders().get(PeerNodes.RESERVATION_HEADER),
+				transport.requests.get(1).getHeaders().get(PeerNodes.RESERVATION_HEADER));
+		assertEquals(List.of("POST http://b", "POST http://c"), transport.finished());
+	}
+
+	@Test
+	void cancelsReservationOfFailedTakeTest() {
+		final PeerTransport transport = new PeerTransport(new ConnectException("refused"),
+				new HttpTimeoutException("timed out"));
+		final PeerNodes nodes = nodes(transport);
+
+		assertTrue(nodes.takePseudonyms(Arrays.asList("t1", "t2")).isEmpty());
+		assertEquals(List.of("DELETE http://c"), transport.finished());
+		assertEquals(0, nodes.getUnconfirmed());
+	}
+
+	@Test
+	void countsReservationsNotConfirmedTest() {
+		final PeerTransport transport = new PeerTransport("{\"t1\":\"pid1\"}", "{}");
+		transport.finishStatus = 404;
+		final PeerNodes nodes = nodes(transport);
+
+		assertEquals(Map.of("t1", "pid1"), nodes.takePseudonyms(List.of("t1")));
+		assertEquals(List.of("POST http://b"), transport.finished());
+		assertEquals(1, nodes.getUnconfirmed());
+	}
+
+}
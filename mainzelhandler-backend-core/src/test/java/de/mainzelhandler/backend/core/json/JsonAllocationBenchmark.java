@@ -0,0 +1,131 @@
+package de.mainzelhandler.backend.core.json;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import de.mainzelhandler.backend.core.mainzelliste.ReadPatientsTemplate;
+
+/**
+ * Compares the allocation per operation of the streaming JSON reader and the
+ * precomputed request bodies with parsing into a JSONObject and building the
+ * bodies as a JSONObject tree. Not run by the tests, start the main method
+ * with the test classpath, see the README.
+ */
+public class JsonAllocationBenchmark {
+
+	private static final byte[] SESSION_RESPONSE = ("{\"sessionId\":\"5b1c3a4e-8a63-4cf2-9a4e-0c6c1d0f5e21\","
+			+ "\"uri\":\"http://mainzelliste/sessions/5b1c3a4e-8a63-4cf2-9a4e-0c6c1d0f5e21\"}")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] TOKEN_RESPONSE = ("{\"id\":\"c3a1d3f0-5f6e-4b86-9d3e-2f4a0e6b7c18\","
+			+ "\"type\":\"addPatient\",\"allowedUses\":1,\"remainingUses\":1,"
+			+ "\"data\":{\"callback\":\"http://mainzelhandler/api/patients/callback\"},"
+			+ "\"uri\":\"http://mainzelliste/sessions/5b1c3a4e/tokens/c3a1d3f0-5f6e-4b86-9d3e-2f4a0e6b7c18\"}")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] CALLBACK_BODY = ("{\"tokenId\":\"c3a1d3f0-5f6e-4b86-9d3e-2f4a0e6b7c18\","
+			+ "\"id\":\"c3a1d3f0-5f6e-4b86-9d3e-2f4a0e6b7c18\","
+			+ "\"ids\":[{\"idType\":\"pid\",\"idString\":\"0003Y0WZ\",\"tentative\":false}],"
+			+ "\"fields\":{\"vorname\":\"Max\",\"nachname\":\"Mustermann\",\"geburtstag\":\"01\"}}")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * Prevents the JIT from removing the measured operations.
+	 */
+	private static int sink;
+
+	public static void main(final String[] args) {
+		final List<String> pseudonyms = new ArrayList<String>();
+
+		for (int i = 0; i < 1000; i++)
+			pseudonyms.add(String.format("%08d", i));
+
+		final List<String> resultFields = Arrays.asList("vorname", "nachname", "geburtstag");
+		final ReadPatientsTemplate template = new ReadPatientsTemplate(resultFields);
+		final JSONArray resultFieldArray = new JSONArray(resultFields);
+
+		compare("session response", 20000,
+				() -> new JSONObject(new String(SESSION_RESPONSE, StandardCharsets.UTF_8)).getString("sessionId"),
+				() -> JsonFieldReader.readField(SESSION_RESPONSE, "sessionId"));
+		compare("token response", 20000,
+				() -> new JSONObject(new String(TOKEN_RESPONSE, StandardCharsets.UTF_8)).getString("id"),
+				() -> JsonFieldReader.readField(TOKEN_RESPONSE, "id"));
+		compare("callback body", 20000, () -> {
+			final JSONObject callback = new JSONObject(new String(CALLBACK_BODY, StandardCharsets.UTF_8));
+			return callback.getString("tokenId")
+					+ callback.getJSONArray("ids").getJSONObject(0).getString("idString");
+		}, () -> {
+			final String[] fields = JsonFieldReader.readFields(CALLBACK_BODY, "tokenId", "ids.idString");
+			return fields[0] + fields[1];
+		});
+		compare("readPatients body/1000", 500,
+				() -> readPatientsBody(pseudonyms, resultFieldArray).toString().getBytes(StandardCharsets.UTF_8),
+				() -> template.createBody(pseudonyms));
+	}
+
+	/**
+	 * Builds a readPatients body like the Mainzelliste session did before the
+	 * template.
+	 */
+	private static JSONObject readPatientsBody(final List<String> pseudonyms, final JSONArray resultFields) {
+		final JSONObject data = new JSONObject();
+		data.put("resultFields", resultFields);
+		data.put("resultIds", new JSONArray("[pid]"));
+
+		final JSONArray searchIds = new JSONArray();
+
+		for (final String pseudonym : pseudonyms) {
+			final JSONObject searchId = new JSONObject();
+			searchId.put("idType", "pid");
+			searchId.put("idString", pseudonym);
+			searchIds.put(searchId);
+		}
+
+		data.put("searchIds", searchIds);
+
+		final JSONObject body = new JSONObject();
+		body.put("type", "readPatients");
+		body.put("data", data);
+		return body;
+	}
+
+	private static void compare(final String name, final int iterations, final Supplier<Object> previous,
+			final Supplier<Object> current) {
+		final long[] old = measure(previous, iterations);
+		final long[] now = measure(current, iterations);
+
+		System.out.printf("%-24s %10d -> %8d B/op  %8.2f -> %6.2f us/op%n", name, old[0], now[0], old[1] / 1000.0,
+				now[1] / 1000.0);
+	}
+
+	/**
+	 * @return Allocated bytes and nanoseconds per operation.
+	 */
+	private static long[] measure(final Supplier<Object> operation, final int iterations) {
+		for (int i = 0; i < iterations; i++)
+			sink += operation.get().hashCode();
+
+		final long thread = Thread.currentThread().getId();
+		final long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+		final long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++)
+			sink += operation.get().hashCode();
+
+		final long time = System.nanoTime() - start;
+		final long allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+		return new long[] { allocated / iterations, time / iterations };
+	}
+
+}
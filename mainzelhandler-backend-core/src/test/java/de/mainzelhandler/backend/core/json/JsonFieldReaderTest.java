@@ -0,0 +1,114 @@
+package de.mainzelhandler.backend.core.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.jupiter.api.Test;
+
+class JsonFieldReaderTest {
+
+	private static byte[] utf8(final String json) {
+		return json.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Stream returning a single byte per read, so every value crosses the
+	 * boundary of the read buffer.
+	 */
+	private static InputStream trickle(final String json) {
+		return new FilterInputStream(new ByteArrayInputStream(utf8(json))) {
+
+			@Override
+			public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+				return super.read(buffer, offset, Math.min(1, length));
+			}
+
+		};
+	}
+
+	@Test
+	void readsNestedFieldsTest() {
+		final String[] fields = JsonFieldReader.readFields(
+				utf8("{\"tokenId\":\"t1\",\"data\":{\"ids\":[{\"idString\":\"p1\"},{\"idString\":\"p2\"}]},"
+						+ "\"count\": 12, \"valid\":true}"),
+				"data.ids.idString", "count", "valid", "missing", "tokenId");
+
+		assertArrayEquals(new String[] { "p1", "12", "true", null, "t1" }, fields);
+	}
+
+	@Test
+	void decodesEscapesTest() {
+		final byte[] json = utf8("{\"id\":\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00E9\\ud83d\\ude00\"}");
+
+		assertEquals("a\"b\\c/d\b\f\n\r\t\u00e9\ud83d\ude00", JsonFieldReader.readField(json, "id"));
+	}
+
+	@Test
+	void matchesEscapedMemberNamesTest() {
+		assertEquals("x", JsonFieldReader.readField(utf8("{\"skip\":\"\\\"}\",\"s\\u0065ssionId\":\"x\"}"),
+				"sessionId"));
+	}
+
+	@Test
+	void decodesMultiByteUtf8Test() throws IOException {
+		final String value = "M\u00fcller \u20ac \u4e2d \ud83d\ude00";
+		final String json = "{\"name\":\"" + value + "\"}";
+
+		assertEquals(value, JsonFieldReader.readField(utf8(json), "name"));
+		assertEquals(value, JsonFieldReader.readFields(trickle(json), "name")[0]);
+	}
+
+	@Test
+	void readsElementsOfArrayTest() throws IOException {
+		final List<String[]> elements = JsonFieldReader.readElements(
+				trickle("[{\"tokenId\":\"t1\",\"ids\":[{\"idString\":\"p1\"}]}, {\"id\":\"t2\"} ,{}]"), "tokenId", "id",
+				"ids.idString");
+
+		assertEquals(3, elements.size());
+		assertArrayEquals(new String[] { "t1", null, "p1" }, elements.get(0));
+		assertArrayEquals(new String[] { null, "t2", null }, elements.get(1));
+		assertArrayEquals(new String[] { null, null, null }, elements.get(2));
+	}
+
+	@Test
+	void readsSingleObjectAsElementTest() throws IOException {
+		final List<String[]> elements = JsonFieldReader.readElements(trickle(" {\"tokenId\":\"t1\"} "), "tokenId");
+
+		assertEquals(1, elements.size());
+		assertEquals("t1", elements.get(0)[0]);
+		assertTrue(JsonFieldReader.readElements(trickle("[ ]"), "tokenId").isEmpty());
+	}
+
+	@Test
+	void stopsAfterLastFieldTest() {
+		assertEquals("s1", JsonFieldReader.readField(utf8("{\"sessionId\":\"s1\", this is not read"), "sessionId"));
+	}
+
+	@Test
+	void rejectsTruncatedDocumentsTest() {
+		assertThrows(JSONException.class, () -> JsonFieldReader.readField(utf8("{\"sessionId\":\"s1"), "sessionId"));
+		assertThrows(JSONException.class, () -> JsonFieldReader.readField(utf8("{\"a\":\"\\u00"), "a"));
+		assertThrows(JSONException.class, () -> JsonFieldReader.readField(utf8("{\"a\":1,"), "b"));
+		assertThrows(JSONException.class, () -> JsonFieldReader.readField(utf8(""), "a"));
+		assertThrows(JSONException.class,
+				() -> JsonFieldReader.readField(new byte[] { '{', '"', 'a', '"', ':', '"', (byte) 0xE2, (byte) 0x82 },
+						"a"));
+	}
+
+	@Test
+	void rejectsInvalidDocumentsTest() {
+		assertThrows(JSONException.class, () -> JsonFieldReader.readField(utf8("{\"a\":\"\\x\"}"), "a"));
+		assertThrows(JSONException.class, () -> JsonFieldReader.readField(utf8("{a:1}"), "a"));
+		assertThrows(JSONException.class,
+				() -> JsonFieldReader.readField(new byte[] { '{', '"', 'a', '"', ':', '"', (byte) 0xE2, 'x', '"', '}' },
+						"a"));
+	}
+
+}
@@ -0,0 +1,72 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class AddPatientTokenReservoirTest {
+
+	private final MainzellisteSession session = new MainzellisteSession(new FakeTransport().connection(), "s");
+
+	@Test
+	void servesTokensOldestFirstTest() {
+		final AddPatientTokenReservoir reservoir = new AddPatientTokenReservoir(1, 10, 0);
+		reservoir.add("a", session);
+		reservoir.add("b", session);
+		reservoir.add("c", session);
+
+		assertEquals(Arrays.asList("a", "b"), reservoir.take(2));
+		assertEquals(Arrays.asList("c"), reservoir.take(5));
+		assertEquals(0, reservoir.getSize());
+		assertEquals(3, reservoir.getHits());
+		assertEquals(4, reservoir.getMisses());
+	}
+
+	@Test
+	void discardsTokensOfExpiringSessionsTest() {
+		final AddPatientTokenReservoir reservoir = new AddPatientTokenReservoir(1, 10, 60000);
+		final MainzellisteSession expiring = new MainzellisteSession(new FakeTransport().connection(), "e");
+		expiring.setExpirationTime(System.currentTimeMillis() + 1000);
+		reservoir.add("expiring", expiring);
+		reservoir.add("valid", session);
+
+		final List<String> urls = reservoir.take(2);
+
+		assertEquals(Arrays.asList("valid"), urls);
+		assertEquals(0, reservoir.getSize());
+	}
+
+	@Test
+	void refillDropsExpiringTokensTest() {
+		final AddPatientTokenReservoir reservoir = new AddPatientTokenReservoir(3, 10, 60000);
+		final MainzellisteSession expired = new MainzellisteSession(new FakeTransport().connection(), "e");
+		expired.setExpirationTime(0);
+		reservoir.add("valid", session);
+		reservoir.add("expired", expired);
+
+		assertEquals(2, reservoir.computeRefillAmount());
+		assertEquals(1, reservoir.getSize());
+	}
+
+	@Test
+	void targetLevelFollowsDemandBetweenWatermarksTest() {
+		final AddPatientTokenReservoir reservoir = new AddPatientTokenReservoir(2, 50, 0);
+		assertEquals(2, reservoir.computeRefillAmount());
+
+		for (int i = 0; i < 20; i++) {
+			reservoir.take(20);
+			reservoir.computeRefillAmount();
+		}
+
+		assertEquals(50, reservoir.getTargetLevel());
+
+		for (int i = 0; i < 50; i++)
+			reservoir.computeRefillAmount();
+
+		assertEquals(2, reservoir.getTargetLevel());
+	}
+
+}
@@ -0,0 +1,144 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteUnavailableException;
+import de.mainzelhandler.backend.core.transport.TransportRequest;
+
+class CircuitBreakerTest {
+
+	private static final long OPEN_DURATION = 5000;
+
+	private static final long NOW = 1_000_000;
+
+	/**
+	 * @return A breaker opened at NOW by three failures.
+	 */
+	private static CircuitBreaker openBreaker() {
+		final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_DURATION);
+
+		for (int i = 0; i < 3; i++)
+			breaker.onFailure(breaker.acquire(NOW), NOW);
+
+		return breaker;
+	}
+
+	@Test
+	void opensAfterConsecutiveFailuresTest() {
+		final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_DURATION);
+
+		breaker.onFailure(false, NOW);
+		breaker.onFailure(false, NOW);
+		breaker.onSuccess(false);
+		breaker.onFailure(false, NOW);
+		breaker.onFailure(false, NOW);
+
+		assertFalse(breaker.acquire(NOW));
+		assertEquals(0, breaker.retryAfter(NOW));
+
+		breaker.onFailure(false, NOW);
+
+		final MainzellisteUnavailableException exception = assertThrows(MainzellisteUnavailableException.class,
+				() -> breaker.acquire(NOW + 1000));
+		assertEquals(4000, exception.getRetryAfter());
+		assertEquals(4000, breaker.retryAfter(NOW + 1000));
+		assertEquals(1, breaker.getRejections());
+	}
+
+	@Test
+	void closesAfterSuccessfulProbeTest() {
+		final CircuitBreaker breaker = openBreaker();
+
+		assertThrows(MainzellisteUnavailableException.class, () -> breaker.acquire(NOW + OPEN_DURATION - 1));
+		assertTrue(breaker.acquire(NOW + OPEN_DURATION));
+
+		final MainzellisteUnavailableException exception = assertThrows(MainzellisteUnavailableException.class,
+				() -> breaker.acquire(NOW + OPEN_DURATION + 1));
+		assertEquals(1000, exception.getRetryAfter());
+
+		breaker.onSuccess(true);
+
+		assertFalse(breaker.acquire(NOW + OPEN_DURATION + 2));
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+		assertEquals(2, breaker.getRejections());
+	}
+
+	@Test
+	void reopensAfterFailedProbeTest() {
+		final CircuitBreaker breaker = openBreaker();
+		final long probe = NOW + OPEN_DURATION;
+
+		assertTrue(breaker.acquire(probe));
+		breaker.onFailure(true, probe + 100);
+
+		assertThrows(MainzellisteUnavailableException.class, () -> breaker.acquire(probe + 100 + OPEN_DURATION - 1));
+		assertTrue(breaker.acquire(probe + 100 + OPEN_DURATION));
+	}
+
+	@Test
+	void replacesProbeWithoutResultTest() {
+		final CircuitBreaker breaker = openBreaker();
+		final long probe = NOW + OPEN_DURATION;
+
+		assertTrue(breaker.acquire(probe));
+		assertThrows(MainzellisteUnavailableException.class, () -> breaker.acquire(probe + OPEN_DURATION - 1));
+		assertTrue(breaker.acquire(probe + OPEN_DURATION));
+	}
+
+	@Test
+	void reportsStateTest() {
+		final CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+		final long now = System.currentTimeMillis();
+
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+
+		breaker.onFailure(false, now);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState());
+
+		breaker.onFailure(true, now - 120000);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+	}
+
+	@Test
+	void cancelledProbeLetsAnotherRequestProbeTest() {
+		final CircuitBreaker breaker = openBreaker();
+
+		assertTrue(breaker.acquire(NOW + OPEN_DURATION));
+		assertThrows(MainzellisteUnavailableException.class, () -> breaker.acquire(NOW + OPEN_DURATION + 1));
+
+		breaker.cancel(true);
+
+		assertTrue(breaker.acquire(NOW + OPEN_DURATION + 2));
+	}
+
+	@Test
+	void failsFastWithoutWaitingForTheLimiterTest() {
+		final MainzellisteConnection connection = new FakeTransport().connection();
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10, 5000);
+		final CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+		connection.setConcurrencyLimiter(limiter);
+		connection.setCircuitBreaker(breaker);
+
+		limiter.acquireBlocking();
+		breaker.onFailure(false, System.currentTimeMillis());
+
+		final long start = System.nanoTime();
+
+		assertThrows(MainzellisteUnavailableException.class, connection::createMainzellisteSession);
+		final CompletionException exception = assertThrows(CompletionException.class,
+				() -> connection.executeAsync(new TransportRequest("GET", FakeTransport.URL)).join());
+		assertTrue(exception.getCause() instanceof MainzellisteUnavailableException);
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	void rejectsInvalidThresholdTest() {
+		assertThrows(IllegalArgumentException.class, () -> new CircuitBreaker(0, OPEN_DURATION));
+	}
+
+}
@@ -0,0 +1,126 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.DeadlineExceededException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteUnavailableException;
+
+class ConcurrencyLimiterTest {
+
+	@Test
+	void grantsWaitingRequestOnReleaseTest() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 2, 10, 60000);
+		final long start = limiter.acquire().get();
+		limiter.acquire().get();
+		final CompletableFuture<Long> waiting = limiter.acquire();
+
+		assertFalse(waiting.isDone());
+		assertEquals(1, limiter.getQueued());
+
+		limiter.release(start, false);
+
+		assertTrue(waiting.isDone());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	void rejectsRequestWhenQueueIsFullTest() {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1, 60000);
+		limiter.acquire();
+		limiter.acquire();
+
+		final ExecutionException exception = assertThrows(ExecutionException.class,
+				() -> limiter.acquire().get(5, TimeUnit.SECONDS));
+		assertTrue(exception.getCause() instanceof MainzellisteUnavailableException);
+		assertEquals(1, limiter.getRejections());
+	}
+
+	@Test
+	void removesTimedOutRequestFromQueueTest() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1, 50);
+		final long start = limiter.acquire().get();
+
+		final ExecutionException exception = assertThrows(ExecutionException.class,
+				() -> limiter.acquire().get(5, TimeUnit.SECONDS));
+		assertTrue(exception.getCause() instanceof MainzellisteUnavailableException);
+		assertEquals(0, limiter.getQueued());
+		assertEquals(1, limiter.getRejections());
+
+		final CompletableFuture<Long> waiting = limiter.acquire();
+		assertEquals(1, limiter.getQueued());
+
+		limiter.release(start, false);
+		assertTrue(waiting.isDone());
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	void boundsWaitByDeadlineTest() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10, 60000);
+		limiter.acquire().get();
+		final long start = System.currentTimeMillis();
+		final CompletableFuture<Long> waiting = Deadline.call(start + 50, limiter::acquire);
+
+		final ExecutionException exception = assertThrows(ExecutionException.class,
+				() -> waiting.get(5, TimeUnit.SECONDS));
+		assertTrue(exception.getCause() instanceof DeadlineExceededException);
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	void givesUpPermitOfInterruptedThreadTest() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10, 60000);
+		final long start = limiter.acquire().get();
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+		final Thread waiter = new Thread(() -> {
+			try {
+				limiter.acquireBlocking();
+			} catch (final RuntimeException exception) {
+				failure.set(exception);
+				interrupted.set(Thread.currentThread().isInterrupted());
+			}
+		});
+		waiter.start();
+
+		while (limiter.getQueued() == 0)
+			Thread.sleep(1);
+
+		waiter.interrupt();
+		waiter.join(5000);
+
+		assertTrue(failure.get() instanceof MainzellisteConnectionException);
+		assertTrue(interrupted.get());
+		assertEquals(0, limiter.getQueued());
+
+		limiter.release(start, false);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	void shrinksLimitAfterFailureTest() {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20, 10, 60000);
+
+		limiter.release(limiter.acquireBlocking(), true);
+
+		assertEquals(9, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	void rejectsInvalidLimitsTest() {
+		assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(1, 0, 1, 10, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter(1, 2, 1, 10, 1000));
+	}
+
+}
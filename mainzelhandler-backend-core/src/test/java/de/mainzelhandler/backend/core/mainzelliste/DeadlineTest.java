@@ -0,0 +1,19 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class DeadlineTest {
+
+	@Test
+	void countsTimeoutFromArrivalTest() {
+		assertEquals(1_002_500, Deadline.parse(" 2500 ", 1_000_000));
+		assertEquals(1_000_000, Deadline.parse("0", 1_000_000));
+		assertEquals(Deadline.NONE, Deadline.parse(null, 1_000_000));
+		assertEquals(Deadline.NONE, Deadline.parse("-1", 1_000_000));
+		assertEquals(Deadline.NONE, Deadline.parse("soon", 1_000_000));
+		assertEquals(Deadline.NONE, Deadline.parse(Long.toString(Long.MAX_VALUE), 1_000_000));
+	}
+
+}
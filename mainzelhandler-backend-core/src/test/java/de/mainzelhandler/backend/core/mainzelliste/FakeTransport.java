@@ -0,0 +1,155 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import de.mainzelhandler.backend.core.transport.MainzellisteTransport;
+import de.mainzelhandler.backend.core.transport.TransportRequest;
+import de.mainzelhandler.backend.core.transport.TransportResponse;
+
+/**
+ * In-memory Mainzelliste answering session and token requests without a
+ * network. Unknown sessions are answered with 404, readPatients tokens
+ * containing an invalid pid with 400 naming the first invalid pid.
+ */
+public class FakeTransport implements MainzellisteTransport {
+
+	public static final String URL = "http://mainzelliste";
+
+	public final Set<String> sessions = ConcurrentHashMap.newKeySet();
+
+	public final Set<String> invalidPids = ConcurrentHashMap.newKeySet();
+
+	public final List<List<String>> readPatientsRequests = Collections
+			.synchronizedList(new ArrayList<List<String>>());
+
+	public final AtomicInteger sessionRequests = new AtomicInteger();
+
+	public final AtomicInteger tokenRequests = new AtomicInteger();
+
+	/**
+	 * Status of all responses to session lookups if not 0.
+	 */
+	public volatile int sessionStatus;
+
+	/**
+	 * Status of all token responses if not 0.
+	 */
+	public volatile int tokenStatus;
+
+	/**
+	 * Body of all successful token responses if not null.
+	 */
+	public volatile String tokenBody;
+
+	/**
+	 * Every token response with a multiple of this number is malformed if not 0.
+	 */
+	public volatile int malformedEvery;
+
+	/**
+	 * Whether all requests fail with an IOException.
+	 */
+	public volatile boolean down;
+
+	public MainzellisteConnection connection() {
+		final MainzellisteConnection connection = new MainzellisteConnection("http://handler/callback", false, "key",
+				"3.0", URL, this);
+		connection.setConcurrencyLimiter(null);
+		connection.setCircuitBreaker(null);
+		connection.setRetryPolicy(new RetryPolicy(1, 0, 0));
+		return connection;
+	}
+
+	@Override
+	public TransportResponse execute(final TransportRequest request) throws IOException {
+		if (down)
+			throw new IOException("Connection refused");
+
+		final String path = request.getUrl().substring(URL.length());
+
+		if (path.equals("/sessions") && request.getMethod().equals("POST")) {
+			sessionRequests.incrementAndGet();
+			final String id = UUID.randomUUID().toString();
+			sessions.add(id);
+			return response(201, "{\"sessionId\":\"" + id + "\",\"uri\":\"" + URL + "/sessions/" + id + "\"}");
+		}
+
+		final String[] parts = path.split("/");
+		final String id = parts[2];
+
+		if (!sessions.contains(id))
+			return response(404, "Session " + id + " not found");
+
+		if (parts.length == 3) {
+			if (request.getMethod().equals("DELETE")) {
+				sessions.remove(id);
+				return response(204, "");
+			}
+
+			if (sessionStatus != 0)
+				return response(sessionStatus, "Failure");
+
+			return response(200, "{\"sessionId\":\"" + id + "\"}");
+		}
+
+		final int tokenNumber = tokenRequests.incrementAndGet();
+
+		if (malformedEvery != 0 && tokenNumber % malformedEvery == 0)
+			return response(201, "{\"unexpected\":true}");
+
+		if (tokenStatus != 0)
+			return response(tokenStatus, "Failure");
+
+		final JSONObject body = new JSONObject(new String(request.getBody(), StandardCharsets.UTF_8));
+
+		if (body.getString("type").equals("readPatients")) {
+			final JSONArray searchIds = body.getJSONObject("data").getJSONArray("searchIds");
+			final List<String> pids = new ArrayList<String>();
+
+			for (int i = 0; i < searchIds.length(); i++)
+				pids.add(searchIds.getJSONObject(i).getString("idString"));
+
+			readPatientsRequests.add(pids);
+
+			for (final String pid : pids) {
+				if (invalidPids.contains(pid))
+					return response(400, "No patient found with provided pid '" + pid + "'");
+			}
+		}
+
+		if (tokenBody != null)
+			return response(201, tokenBody);
+
+		return response(201, "{\"id\":\"" + UUID.randomUUID() + "\",\"type\":\"" + body.getString("type") + "\"}");
+	}
+
+	@Override
+	public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		try {
+			return CompletableFuture.completedFuture(execute(request));
+		} catch (final IOException exception) {
+			return CompletableFuture.failedFuture(exception);
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private static TransportResponse response(final int status, final String body) {
+		return new TransportResponse(status, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
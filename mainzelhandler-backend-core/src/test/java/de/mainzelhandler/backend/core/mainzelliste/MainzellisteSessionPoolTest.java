@@ -0,0 +1,108 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class MainzellisteSessionPoolTest {
+
+	private final FakeTransport mainzelliste = new FakeTransport();
+
+	private MainzellisteSessionPool createPool(final int size, final long ttl, final int maxTokens) {
+		return new MainzellisteSessionPool(mainzelliste.connection(),
+				new SessionPoolConfig(size, ttl, maxTokens, 0, 0));
+	}
+
+	@Test
+	void createsSessionsLazilyAndLeasesRoundRobinTest() {
+		final MainzellisteSessionPool pool = createPool(2, 60000, 100);
+		assertEquals(0, mainzelliste.sessionRequests.get());
+
+		final MainzellisteSession first = pool.leaseSession();
+		final MainzellisteSession second = pool.leaseSession();
+
+		assertNotSame(first, second);
+		assertSame(first, pool.leaseSession());
+		assertSame(second, pool.leaseSession());
+		assertEquals(2, mainzelliste.sessionRequests.get());
+		assertEquals(2, pool.getLiveSessionCount());
+	}
+
+	@Test
+	void retiresExhaustedSessionTest() {
+		final MainzellisteSessionPool pool = createPool(1, 60000, 2);
+		final MainzellisteSession session = pool.leaseSession();
+
+		session.createAddPatientUrl();
+		session.createAddPatientUrl();
+
+		final MainzellisteSession replacement = pool.leaseSession();
+		assertNotSame(session, replacement);
+		assertTrue(session.getExpirationTime() < Long.MAX_VALUE);
+
+		pool.refreshSessions();
+		assertFalse(mainzelliste.sessions.contains(session.getSessionId()));
+		assertTrue(mainzelliste.sessions.contains(replacement.getSessionId()));
+	}
+
+	@Test
+	void refreshDropsVanishedSessionTest() {
+		final MainzellisteSessionPool pool = createPool(1, 60000, 100);
+		final MainzellisteSession session = pool.leaseSession();
+
+		mainzelliste.sessions.remove(session.getSessionId());
+		pool.refreshSessions();
+
+		assertEquals(0, pool.getLiveSessionCount());
+		assertNotSame(session, pool.leaseSession());
+	}
+
+	@Test
+	void refreshKeepsSessionOnServerErrorTest() {
+		final MainzellisteSessionPool pool = createPool(1, 60000, 100);
+		final MainzellisteSession session = pool.leaseSession();
+
+		mainzelliste.sessionStatus = 503;
+		pool.refreshSessions();
+
+		assertEquals(1, pool.getLiveSessionCount());
+		assertSame(session, pool.leaseSession());
+		assertTrue(mainzelliste.sessions.contains(session.getSessionId()));
+	}
+
+	@Test
+	void deletesInvalidatedSessionAfterRetireDelayTest() {
+		final MainzellisteSessionPool pool = createPool(1, 60000, 100);
+		final MainzellisteSession session = pool.leaseSession();
+
+		pool.invalidateSession(session);
+		pool.refreshSessions();
+
+		assertFalse(mainzelliste.sessions.contains(session.getSessionId()));
+	}
+
+	@Test
+	void invalidateSessionRemovesItFromThePoolTest() {
+		final MainzellisteSessionPool pool = createPool(1, 60000, 100);
+		final MainzellisteSession session = pool.leaseSession();
+
+		pool.invalidateSession(session);
+
+		assertEquals(0, pool.getLiveSessionCount());
+		assertTrue(session.getExpirationTime() <= System.currentTimeMillis());
+		assertNotSame(session, pool.leaseSession());
+	}
+
+	@Test
+	void closeDeletesAllSessionsTest() {
+		final MainzellisteSessionPool pool = createPool(3, 60000, 100);
+
+		for (int i = 0; i < 3; i++)
+			pool.leaseSession();
+
+		assertEquals(3, mainzelliste.sessions.size());
+		pool.close();
+		assertTrue(mainzelliste.sessions.isEmpty());
+	}
+
+}
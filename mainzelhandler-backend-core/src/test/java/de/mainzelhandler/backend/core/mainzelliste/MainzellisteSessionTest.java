@@ -0,0 +1,99 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import de.mainzelhandler.backend.core.model.PseudonymizationUrlResponse;
+import de.mainzelhandler.backend.core.transport.TransportRequest;
+import de.mainzelhandler.backend.core.transport.TransportResponse;
+
+class MainzellisteSessionTest {
+
+	/**
+	 * Token requests sent but not answered yet.
+	 */
+	private final ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+
+	private final FakeTransport mainzelliste = new FakeTransport() {
+
+		@Override
+		public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+			final CompletableFuture<TransportResponse> response = new CompletableFuture<TransportResponse>();
+			pending.add(() -> response.complete(super.executeAsync(request).join()));
+			return response;
+		}
+
+	};
+
+	@Test
+	void boundsConcurrentTokenRequestsTest() {
+		final MainzellisteSession session = mainzelliste.connection().createMainzellisteSession();
+
+		final CompletableFuture<PseudonymizationUrlResponse> response = session.createAddPatientTokensAsync(20);
+		int maxPending = 0;
+
+		while (!pending.isEmpty()) {
+			maxPending = Math.max(maxPending, pending.size());
+			pending.poll().run();
+		}
+
+		final String[] urls = response.join().getUrlTokens();
+		assertEquals(8, maxPending);
+		assertEquals(20, urls.length);
+		assertEquals(20, new HashSet<String>(Arrays.asList(urls)).size());
+	}
+
+	@Test
+	void failsBatchWithoutCreatedTokenTest() {
+		final FakeTransport failing = new FakeTransport();
+		final MainzellisteSession session = failing.connection().createMainzellisteSession();
+		failing.tokenStatus = 500;
+
+		assertThrows(MainzellisteRuntimeException.class, () -> session.createAddPatientTokens(20));
+		assertEquals(20, failing.tokenRequests.get());
+	}
+
+	@Test
+	void stopsBatchAfterConnectionErrorTest() {
+		final AtomicInteger requests = new AtomicInteger();
+		final FakeTransport failing = new FakeTransport() {
+
+			@Override
+			public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+				requests.incrementAndGet();
+				return super.executeAsync(request);
+			}
+
+		};
+		final MainzellisteSession session = failing.connection().createMainzellisteSession();
+		failing.down = true;
+		requests.set(0);
+
+		assertThrows(MainzellisteConnectionException.class, () -> session.createAddPatientTokens(20));
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	void reportsFailedTokensOfBatchTest() {
+		final FakeTransport malformed = new FakeTransport();
+		final MainzellisteSession session = malformed.connection().createMainzellisteSession();
+		malformed.malformedEvery = 4;
+
+		final PseudonymizationUrlResponse response = session.createAddPatientTokens(20);
+
+		assertEquals(15, response.getUrlTokens().length);
+		assertEquals(5, response.getFailedCount());
+		assertEquals(1, response.getErrors().size());
+		assertEquals(20, malformed.tokenRequests.get());
+	}
+
+}
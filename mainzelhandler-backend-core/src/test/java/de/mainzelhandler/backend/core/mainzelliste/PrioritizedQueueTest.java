@@ -0,0 +1,91 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PrioritizedQueueTest {
+
+	private static List<String> pollAll(final PrioritizedQueue<String> queue) {
+		final List<String> polled = new ArrayList<String>();
+		String element;
+
+		while ((element = queue.poll()) != null)
+			polled.add(element);
+
+		return polled;
+	}
+
+	@Test
+	void pollsInteractiveBeforeBulkTest() {
+		final PrioritizedQueue<String> queue = new PrioritizedQueue<String>(10);
+		queue.add(Priority.BULK, "b1");
+		queue.add(Priority.INTERACTIVE, "i1");
+		queue.add(Priority.BULK, "b2");
+		queue.add(Priority.INTERACTIVE, "i2");
+
+		assertEquals(List.of("i1", "i2", "b1", "b2"), pollAll(queue));
+		assertEquals(0, queue.getPromotions());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	void promotesBulkAfterInteractiveBurstTest() {
+		final PrioritizedQueue<String> queue = new PrioritizedQueue<String>(2);
+		queue.add(Priority.BULK, "b1");
+		queue.add(Priority.BULK, "b2");
+
+		for (int i = 1; i <= 5; i++)
+			queue.add(Priority.INTERACTIVE, "i" + i);
+
+		assertEquals(List.of("i1", "i2", "b1", "i3", "i4", "b2", "i5"), pollAll(queue));
+		assertEquals(2, queue.getPromotions());
+	}
+
+	@Test
+	void startsBurstAgainWhenNoBulkIsWaitingTest() {
+		final PrioritizedQueue<String> queue = new PrioritizedQueue<String>(2);
+		queue.add(Priority.INTERACTIVE, "i1");
+		queue.add(Priority.INTERACTIVE, "i2");
+		queue.add(Priority.INTERACTIVE, "i3");
+
+		assertEquals("i1", queue.poll());
+		assertEquals("i2", queue.poll());
+
+		queue.add(Priority.BULK, "b1");
+
+		assertEquals("i3", queue.poll());
+		assertEquals("b1", queue.poll());
+		assertEquals(0, queue.getPromotions());
+	}
+
+	@Test
+	void countsAndRemovesElementsPerPriorityTest() {
+		final PrioritizedQueue<String> queue = new PrioritizedQueue<String>(1);
+		queue.add(Priority.INTERACTIVE, "i1");
+		queue.add(Priority.BULK, "b1");
+		queue.add(Priority.BULK, "b2");
+
+		assertEquals(3, queue.size());
+		assertEquals(1, queue.size(Priority.INTERACTIVE));
+		assertEquals(2, queue.size(Priority.BULK));
+
+		assertTrue(queue.remove("b1"));
+		assertFalse(queue.remove("b1"));
+		assertEquals(1, queue.size(Priority.BULK));
+
+		queue.clear();
+
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	void rejectsInvalidBurstTest() {
+		assertThrows(IllegalArgumentException.class, () -> new PrioritizedQueue<String>(0));
+	}
+
+}
@@ -0,0 +1,128 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class PrioritySchedulerTest {
+
+	private final List<String> started = new CopyOnWriteArrayList<String>();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private PriorityScheduler scheduler;
+
+	/**
+	 * Creates a scheduler with a single thread and occupies it until
+	 * {@link #release} is counted down, so the following tasks queue up.
+	 */
+	private PriorityScheduler blockedScheduler(final int interactiveBurst) throws InterruptedException {
+		scheduler = new PriorityScheduler(1, interactiveBurst, task -> {
+			final Thread thread = new Thread(task);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+		scheduler.execute(() -> {
+			blocked.countDown();
+
+			try {
+				release.await();
+			} catch (final InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		return scheduler;
+	}
+
+	private void submit(final Priority priority, final String name) {
+		Priority.call(priority, () -> {
+			scheduler.execute(() -> started.add(name + ":" + Priority.get()));
+			return null;
+		});
+	}
+
+	@AfterEach
+	void closeScheduler() throws InterruptedException {
+		release.countDown();
+
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	void runsInteractiveTasksFirstWithTheirPriorityTest() throws InterruptedException {
+		final PriorityScheduler scheduler = blockedScheduler(2);
+		submit(Priority.BULK, "b1");
+		submit(Priority.BULK, "b2");
+
+		for (int i = 1; i <= 3; i++)
+			submit(Priority.INTERACTIVE, "i" + i);
+
+		assertEquals(3, scheduler.getQueued(Priority.INTERACTIVE));
+		assertEquals(2, scheduler.getQueued(Priority.BULK));
+
+		release.countDown();
+		scheduler.shutdown();
+
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(List.of("i1:INTERACTIVE", "i2:INTERACTIVE", "b1:BULK", "i3:INTERACTIVE", "b2:BULK"), started);
+		assertEquals(1, scheduler.getPromotions());
+	}
+
+	@Test
+	void runsQueuedTasksAfterShutdownTest() throws InterruptedException {
+		final PriorityScheduler scheduler = blockedScheduler(10);
+		submit(Priority.INTERACTIVE, "i1");
+
+		scheduler.shutdown();
+
+		assertThrows(RejectedExecutionException.class, () -> submit(Priority.INTERACTIVE, "i2"));
+		assertTrue(scheduler.isShutdown());
+
+		release.countDown();
+
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(scheduler.isTerminated());
+		assertEquals(List.of("i1:INTERACTIVE"), started);
+	}
+
+	@Test
+	void returnsQueuedTasksOnShutdownNowTest() throws InterruptedException {
+		final PriorityScheduler scheduler = blockedScheduler(10);
+		submit(Priority.BULK, "b1");
+		submit(Priority.INTERACTIVE, "i1");
+
+		assertEquals(2, scheduler.shutdownNow().size());
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(started.isEmpty());
+	}
+
+	@Test
+	void keepsRunningAfterFailedTaskTest() throws InterruptedException {
+		final PriorityScheduler scheduler = blockedScheduler(10);
+		scheduler.execute(() -> {
+			throw new IllegalStateException("Task failed");
+		});
+		submit(Priority.INTERACTIVE, "i1");
+
+		release.countDown();
+		scheduler.shutdown();
+
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(List.of("i1:INTERACTIVE"), started);
+	}
+
+}
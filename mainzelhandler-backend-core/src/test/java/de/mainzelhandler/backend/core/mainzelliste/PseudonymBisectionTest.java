@@ -0,0 +1,167 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+
+class PseudonymBisectionTest {
+
+	/**
+	 * Pseudonyms of the created tokens.
+	 */
+	private final Map<String, List<String>> tokens = new HashMap<String, List<String>>();
+
+	private final Set<String> invalid = new HashSet<String>();
+
+	private boolean reportLastInvalid;
+
+	private final PseudonymBisection bisection = new PseudonymBisection(this::request);
+
+	/**
+	 * Answers like the Mainzelliste: reports one invalid pid of the list or
+	 * creates a token.
+	 */
+	private CompletableFuture<String> request(final List<String> pseudonyms) {
+		String reported = null;
+
+		for (final String pseudonym : pseudonyms) {
+			if (invalid.contains(pseudonym) && (reported == null || reportLastInvalid))
+				reported = pseudonym;
+		}
+
+		if (reported != null)
+			return CompletableFuture.failedFuture(new MainzellisteRuntimeException(
+					"Token request failed: No patient found with provided pid '" + reported + "'"));
+
+		final String token = "token" + tokens.size();
+		tokens.put(token, new ArrayList<String>(pseudonyms));
+		return CompletableFuture.completedFuture(token);
+	}
+
+	private static List<String> pseudonyms(final int count) {
+		final List<String> pseudonyms = new ArrayList<String>(count);
+
+		for (int i = 0; i < count; i++)
+			pseudonyms.add("pid" + i);
+
+		return pseudonyms;
+	}
+
+	/**
+	 * Asserts that the tokens cover every valid pseudonym exactly once in order,
+	 * with one token per group of valid pseudonyms.
+	 */
+	private void assertCovers(final List<String> pseudonyms, final List<String> result, final int groups) {
+		final List<String> covered = new ArrayList<String>();
+
+		for (final String token : result)
+			covered.addAll(tokens.get(token));
+
+		final List<String> valid = new ArrayList<String>(pseudonyms);
+		valid.removeAll(invalid);
+
+		assertEquals(valid, covered);
+		assertEquals(groups, result.size());
+	}
+
+	@Test
+	void createsOneTokenForValidListTest() {
+		final List<String> pseudonyms = pseudonyms(100);
+		final Set<String> found = new HashSet<String>();
+
+		final List<String> result = bisection.createTokens(Collections.singletonList(pseudonyms), found);
+
+		assertEquals(1, result.size());
+		assertTrue(found.isEmpty());
+		assertEquals(0, bisection.getRetryCount());
+		assertCovers(pseudonyms, result, 1);
+	}
+
+	@Test
+	void findsInvalidPseudonymsWithLogarithmicRequestsTest() {
+		final List<String> pseudonyms = pseudonyms(1024);
+		invalid.addAll(Arrays.asList("pid3", "pid500", "pid501", "pid1000"));
+		final Set<String> found = new HashSet<String>();
+
+		final List<String> result = bisection.createTokens(Collections.singletonList(pseudonyms), found);
+
+		assertEquals(invalid, found);
+		assertCovers(pseudonyms, result, 1);
+		assertTrue(bisection.getRetryCount() <= 2 * invalid.size() * 10, "Retries: " + bisection.getRetryCount());
+	}
+
+	@Test
+	void doesNotDependOnCheckOrderTest() {
+		reportLastInvalid = true;
+		final List<String> pseudonyms = pseudonyms(64);
+		invalid.addAll(Arrays.asList("pid0", "pid31", "pid32", "pid63"));
+		final Set<String> found = new HashSet<String>();
+
+		final List<String> result = bisection.createTokens(Collections.singletonList(pseudonyms), found);
+
+		assertEquals(invalid, found);
+		assertCovers(pseudonyms, result, 1);
+	}
+
+	@Test
+	void keepsGroupsInOrderTest() {
+		final List<String> pseudonyms = pseudonyms(30);
+		invalid.addAll(Arrays.asList("pid4", "pid12", "pid20", "pid21", "pid22", "pid23", "pid24", "pid25", "pid26",
+				"pid27", "pid28", "pid29"));
+		final Set<String> found = new HashSet<String>();
+
+		final List<String> result = bisection.createTokens(PseudonymBisection.chunk(pseudonyms, 10), found);
+
+		assertEquals(invalid, found);
+		assertCovers(pseudonyms, result, 2);
+	}
+
+	@Test
+	void searchesFinalTokenAgainIfPseudonymTurnedInvalidTest() {
+		final List<String> pseudonyms = pseudonyms(16);
+		invalid.add("pid5");
+		final Set<String> found = new HashSet<String>();
+		final PseudonymBisection deleting = new PseudonymBisection(searchIds -> {
+			// pid9 gets deleted before the final token of the valid pseudonyms
+			if (searchIds.size() == pseudonyms.size() - 1)
+				invalid.add("pid9");
+
+			return request(searchIds);
+		});
+
+		final List<String> result = deleting.createTokens(Collections.singletonList(pseudonyms), found);
+
+		assertEquals(invalid, found);
+		assertCovers(pseudonyms, result, 1);
+	}
+
+	@Test
+	void failsOnOtherErrorsTest() {
+		final PseudonymBisection failing = new PseudonymBisection(pseudonyms -> CompletableFuture
+				.failedFuture(new MainzellisteRuntimeException("Session expired")));
+
+		assertThrows(MainzellisteRuntimeException.class,
+				() -> failing.createTokens(Collections.singletonList(pseudonyms(4)), new HashSet<String>()));
+	}
+
+	@Test
+	void parseInvalidPseudonymTest() {
+		assertEquals("A1",
+				PseudonymBisection.parseInvalidPseudonym("Error: No patient found with provided pid 'A1'"));
+		assertNull(PseudonymBisection.parseInvalidPseudonym("Session not found"));
+		assertNull(PseudonymBisection.parseInvalidPseudonym(null));
+	}
+
+}
@@ -0,0 +1,44 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+
+	@Test
+	void doublesBoundOfDelayUpToMaximumTest() {
+		final RetryPolicy policy = new RetryPolicy(5, 100, 1000, bound -> bound - 1);
+
+		assertEquals(100, policy.delay(1));
+		assertEquals(200, policy.delay(2));
+		assertEquals(400, policy.delay(3));
+		assertEquals(800, policy.delay(4));
+		assertEquals(1000, policy.delay(5));
+		assertEquals(1000, policy.delay(64));
+	}
+
+	@Test
+	void drawsDelayFromZeroTest() {
+		final RetryPolicy policy = new RetryPolicy(3, 100, 1000, bound -> 0);
+
+		assertEquals(0, policy.delay(1));
+		assertEquals(0, policy.delay(3));
+	}
+
+	@Test
+	void skipsDrawWithoutDelayTest() {
+		final RetryPolicy policy = new RetryPolicy(3, 0, 0, bound -> {
+			throw new AssertionError("Drawn delay of bound " + bound);
+		});
+
+		assertEquals(0, policy.delay(1));
+		assertEquals(3, policy.getMaxAttempts());
+	}
+
+	@Test
+	void rejectsInvalidAttemptsTest() {
+		assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(0, 100, 1000));
+	}
+
+}
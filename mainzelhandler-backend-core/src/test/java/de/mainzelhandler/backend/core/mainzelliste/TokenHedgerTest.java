@@ -0,0 +1,120 @@
+package de.mainzelhandler.backend.core.mainzelliste;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TokenHedgerTest {
+
+	private static final long MIN_DELAY = 20;
+
+	private final List<String> losers = new CopyOnWriteArrayList<String>();
+
+	private TokenHedger hedger;
+
+	/**
+	 * Creates a hedger and lets it observe enough fast requests to derive its
+	 * delay.
+	 */
+	private TokenHedger warmHedger(final double budget) {
+		hedger = new TokenHedger(0.9, MIN_DELAY, budget);
+
+		for (int i = 0; i < 64; i++)
+			hedger.hedge(() -> CompletableFuture.completedFuture("fast"), () -> fail("Hedged fast request"),
+					losers::add);
+
+		return hedger;
+	}
+
+	@AfterEach
+	void closeHedger() {
+		if (hedger != null)
+			hedger.close();
+	}
+
+	@Test
+	void doesNotHedgeBeforeLatenciesAreKnownTest() {
+		hedger = new TokenHedger(0.9, MIN_DELAY, 1.0);
+		final CompletableFuture<String> primary = new CompletableFuture<String>();
+		final CompletableFuture<String> result = hedger.hedge(() -> primary, () -> fail("Hedged request"),
+				losers::add);
+
+		assertEquals(-1, hedger.getDelay());
+		primary.complete("primary");
+
+		assertEquals("primary", result.join());
+		assertEquals(0, hedger.getHedges());
+	}
+
+	@Test
+	void hedgesSlowRequestAndHandsOverLoserTest() throws Exception {
+		final TokenHedger hedger = warmHedger(1.0);
+		final CompletableFuture<String> primary = new CompletableFuture<String>();
+
+		assertEquals(MIN_DELAY, hedger.getDelay());
+
+		final CompletableFuture<String> result = hedger.hedge(() -> primary,
+				() -> CompletableFuture.completedFuture("hedge"), losers::add);
+
+		assertEquals("hedge", result.get(5, TimeUnit.SECONDS));
+		assertEquals(1, hedger.getHedges());
+
+		// the win is counted by the timer thread after completing the result
+		for (int i = 0; i < 5000 && hedger.getWins() == 0; i++)
+			Thread.sleep(1);
+
+		assertEquals(1, hedger.getWins());
+
+		primary.complete("primary");
+
+		assertEquals(List.of("primary"), losers);
+		assertEquals(1, hedger.getLosers());
+	}
+
+	@Test
+	void limitsHedgesToBudgetTest() throws Exception {
+		// 64 requests earn 6.4 hedges, every further request another 0.1
+		final TokenHedger hedger = warmHedger(0.1);
+
+		for (int i = 0; i < 7; i++)
+			assertEquals("hedge", hedger.hedge(CompletableFuture::new,
+					() -> CompletableFuture.completedFuture("hedge"), losers::add).get(5, TimeUnit.SECONDS));
+
+		final CompletableFuture<String> primary = new CompletableFuture<String>();
+		final CompletableFuture<String> result = hedger.hedge(() -> primary,
+				() -> CompletableFuture.completedFuture("hedge"), losers::add);
+
+		Thread.sleep(MIN_DELAY * 10);
+		primary.complete("primary");
+
+		assertEquals("primary", result.get(5, TimeUnit.SECONDS));
+		assertEquals(7, hedger.getHedges());
+		assertTrue(losers.isEmpty());
+	}
+
+	@Test
+	void failsWithExceptionOfLastRequestTest() {
+		hedger = new TokenHedger(0.9, MIN_DELAY, 1.0);
+		final CompletableFuture<String> result = hedger.hedge(() -> {
+			throw new IllegalStateException("Mainzelliste down");
+		}, () -> fail("Hedged failed request"), losers::add);
+
+		final ExecutionException exception = assertThrows(ExecutionException.class,
+				() -> result.get(5, TimeUnit.SECONDS));
+		assertTrue(exception.getCause() instanceof IllegalStateException);
+	}
+
+	@Test
+	void rejectsInvalidPercentileTest() {
+		assertThrows(IllegalArgumentException.class, () -> new TokenHedger(1.0, MIN_DELAY, 0.1));
+		assertThrows(IllegalArgumentException.class, () -> new TokenHedger(0, MIN_DELAY, 0.1));
+	}
+
+}
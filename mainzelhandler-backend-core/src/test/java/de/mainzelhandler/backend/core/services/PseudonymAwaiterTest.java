@@ -0,0 +1,40 @@
+package de.mainzelhandler.backend.core.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.model.TokenStatus;
+
+class PseudonymAwaiterTest {
+
+	@Test
+	void listsMissingTokensInHeaderTest() {
+		final Map<String, TokenStatus> statuses = new LinkedHashMap<String, TokenStatus>();
+		statuses.put("t1", TokenStatus.STORED);
+		assertNull(PseudonymAwaiter.statusHeader(statuses));
+
+		statuses.put("t2", TokenStatus.PENDING);
+		statuses.put("t3", TokenStatus.EXPIRED);
+		assertEquals("t2=pending, t3=expired", PseudonymAwaiter.statusHeader(statuses));
+	}
+
+	@Test
+	void boundsHeaderOfLargeBatchesTest() {
+		final Map<String, TokenStatus> statuses = new LinkedHashMap<String, TokenStatus>();
+
+		for (int i = 0; i < 10000; i++)
+			statuses.put(new UUID(0, i).toString(), i % 2 == 0 ? TokenStatus.PENDING : TokenStatus.STORED);
+
+		final String header = PseudonymAwaiter.statusHeader(statuses);
+
+		assertTrue(header.length() < 4096);
+		assertEquals(PseudonymAwaiter.MAX_REPORTED_TOKENS + 1, header.split(", ").length);
+		assertTrue(header.endsWith(", ...=" + (5000 - PseudonymAwaiter.MAX_REPORTED_TOKENS)));
+	}
+
+}
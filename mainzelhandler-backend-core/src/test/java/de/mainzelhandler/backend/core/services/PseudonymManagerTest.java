@@ -0,0 +1,149 @@
+package de.mainzelhandler.backend.core.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.cluster.PeerNodes;
+import de.mainzelhandler.backend.core.model.Patient;
+import de.mainzelhandler.backend.core.model.TokenStatus;
+import de.mainzelhandler.backend.core.store.HeapPseudonymStore;
+import de.mainzelhandler.backend.core.store.OverflowPolicy;
+import de.mainzelhandler.backend.core.store.PseudonymStore;
+
+class PseudonymManagerTest {
+
+	private static final long AWAIT_TIMEOUT = 10000;
+
+	private PseudonymManager manager;
+
+	/**
+	 * Heap store posing as store shared with other instances.
+	 */
+	private static class SharedStore extends HeapPseudonymStore {
+
+		private SharedStore() {
+			super(60000, 100, OverflowPolicy.REJECT);
+		}
+
+		@Override
+		public boolean isShared() {
+			return true;
+		}
+
+	}
+
+	private PseudonymManager manager(final PseudonymStore store) {
+		manager = new PseudonymManager(store);
+		manager.setAwaiter(new PseudonymAwaiter(AWAIT_TIMEOUT, 60000, 100, 1));
+		manager.expectTokens(new String[] { "http://ml/patients?tokenId=t1", "http://ml/patients?tokenId=t2" });
+		return manager;
+	}
+
+	private static List<Patient> patients(final List<String> pseudonyms) {
+		return pseudonyms.stream().map(pseudonym -> new Patient(pseudonym, "mdat of " + pseudonym))
+				.collect(Collectors.toList());
+	}
+
+	@AfterEach
+	void closeManager() {
+		if (manager != null)
+			manager.close();
+	}
+
+	@Test
+	void wakesRequestByLocalCallbackTest() throws Exception {
+		final PseudonymManager manager = manager(new HeapPseudonymStore(60000, 100, OverflowPolicy.REJECT));
+		final Map<String, TokenStatus> statuses = new LinkedHashMap<String, TokenStatus>();
+		final CompletableFuture<List<Patient>> result = manager.processRequestAsync(List.of("t1"),
+				PseudonymManagerTest::patients, true, statuses);
+
+		assertFalse(result.isDone());
+		manager.putPseudonym("t1", "pid1");
+
+		assertEquals("mdat of pid1", result.get(5, TimeUnit.SECONDS).get(0).getMdat());
+		assertEquals(TokenStatus.STORED, statuses.get("t1"));
+	}
+
+	@Test
+	void refusesAwaiterWithSharedStoreOrPeersTest() throws Exception {
+		final PseudonymManager shared = new PseudonymManager(new SharedStore());
+		final PseudonymAwaiter awaiter = new PseudonymAwaiter(AWAIT_TIMEOUT, 60000, 100, 1);
+
+		assertThrows(IllegalStateException.class, () -> shared.setAwaiter(awaiter));
+		assertNull(shared.getAwaiter());
+		awaiter.close();
+		shared.close();
+
+		final PseudonymManager manager = manager(new HeapPseudonymStore(60000, 100, OverflowPolicy.REJECT));
+
+		try (PeerNodes peerNodes = new PeerNodes("a", Map.of("b", "http://b"), "secret", 1000)) {
+			assertThrows(IllegalStateException.class, () -> manager.setPeerNodes(peerNodes));
+		}
+	}
+
+	@Test
+	void keepsCreationTimeOfPutBackPseudonymsTest() {
+		final PseudonymStore store = new HeapPseudonymStore(60000, 100, OverflowPolicy.REJECT);
+		manager = new PseudonymManager(store);
+		final long createdAt = System.currentTimeMillis() - 30000;
+		store.put("t1", "pid1", createdAt);
+		store.put("t2", "pid2", createdAt + 1);
+
+		assertEquals(Map.of("t1", true, "t2", false), manager.processPatients(patients(List.of("t1", "t2")),
+				patients -> Map.of("pid1", true, "pid2", false), true));
+
+		final Map<String, Long> createdAts = new HashMap<String, Long>();
+		final Map<String, String> stored = store.removeAll(List.of("t1", "t2"), System.currentTimeMillis(), createdAts);
+
+		assertEquals(Map.of("t2", "pid2"), stored);
+		assertEquals(Map.of("t2", createdAt + 1), createdAts);
+	}
+
+	@Test
+	void reportsTokensMissingAfterTimeoutTest() throws Exception {
+		final PseudonymManager manager = new PseudonymManager(new HeapPseudonymStore(60000, 100,
+				OverflowPolicy.REJECT));
+		this.manager = manager;
+		manager.setAwaiter(new PseudonymAwaiter(100, 60000, 100, 1));
+		manager.expectTokens(new String[] { "http://ml/patients?tokenId=t1" });
+		final Map<String, TokenStatus> statuses = new LinkedHashMap<String, TokenStatus>();
+
+		assertTrue(manager.processRequestAsync(List.of("t1", "t3"), PseudonymManagerTest::patients, true, statuses)
+				.get(5, TimeUnit.SECONDS).isEmpty());
+		assertEquals(TokenStatus.PENDING, statuses.get("t1"));
+		assertEquals(TokenStatus.EXPIRED, statuses.get("t3"));
+	}
+
+	@Test
+	void putsBackCancelledAndUnconfirmedReservationsTest() {
+		final PseudonymStore store = new HeapPseudonymStore(60000, 100, OverflowPolicy.REJECT);
+		manager = new PseudonymManager(store);
+		manager.putAll(Map.of("t1", "pid1", "t2", "pid2", "t3", "pid3"));
+
+		assertEquals(Map.of("t1", "pid1"), manager.reserveTokens("r1", List.of("t1", "t4"), 60000));
+		assertEquals(Map.of("t2", "pid2"), manager.reserveTokens("r2", List.of("t2"), 60000));
+		assertEquals(Map.of("t3", "pid3"), manager.reserveTokens("r3", List.of("t3"), 0));
+		assertNull(manager.getPseudonym("t1"));
+
+		assertTrue(manager.confirmReservation("r1"));
+		assertFalse(manager.confirmReservation("r1"));
+		manager.cancelReservation("r2");
+		manager.cleanPseudonyms();
+
+		assertNull(manager.getPseudonym("t1"));
+		assertEquals("pid2", manager.getPseudonym("t2"));
+		assertEquals("pid3", manager.getPseudonym("t3"));
+		assertFalse(manager.confirmReservation("r3"));
+	}
+
+}
@@ -0,0 +1,112 @@
+package de.mainzelhandler.backend.core.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import de.mainzelhandler.backend.core.exceptions.SessionNotFoundException;
+import de.mainzelhandler.backend.core.mainzelliste.AddPatientTokenReservoir;
+import de.mainzelhandler.backend.core.mainzelliste.FakeTransport;
+import de.mainzelhandler.backend.core.mainzelliste.MainzellisteSession;
+import de.mainzelhandler.backend.core.mainzelliste.MainzellisteSessionPool;
+import de.mainzelhandler.backend.core.mainzelliste.Priority;
+import de.mainzelhandler.backend.core.mainzelliste.SessionPoolConfig;
+import de.mainzelhandler.backend.core.model.PseudonymizationUrlResponse;
+
+class TokenManagerTest {
+
+	private final FakeTransport mainzelliste = new FakeTransport();
+
+	private final MainzellisteSessionPool sessionPool = new MainzellisteSessionPool(mainzelliste.connection(),
+			new SessionPoolConfig(1, 60000, 100000, 0, 0));
+
+	private final TokenManager tokenManager = new TokenManager(sessionPool, 4, true);
+
+	@AfterEach
+	void close() {
+		tokenManager.close();
+	}
+
+	@Test
+	void createsAllTokensTest() {
+		final PseudonymizationUrlResponse response = tokenManager.createAddPatientTokens(50);
+
+		assertEquals(50, response.getUrlTokens().length);
+		assertEquals(0, response.getFailedCount());
+		assertEquals(50, mainzelliste.tokenRequests.get());
+	}
+
+	@Test
+	void reportsMalformedResponsesPerTokenTest() {
+		mainzelliste.malformedEvery = 5;
+
+		final PseudonymizationUrlResponse response = tokenManager.createAddPatientTokens(20);
+
+		assertEquals(16, response.getUrlTokens().length);
+		assertEquals(4, response.getFailedCount());
+		assertTrue(response.getErrors().get(0).startsWith("Invalid token response"));
+	}
+
+	@Test
+	void failsWithRuntimeExceptionIfAllResponsesAreMalformedTest() {
+		mainzelliste.malformedEvery = 1;
+
+		assertThrows(MainzellisteRuntimeException.class, () -> tokenManager.createAddPatientTokens(3));
+	}
+
+	@Test
+	void keepsSessionIfCredentialsAreRejectedTest() {
+		mainzelliste.tokenStatus = 401;
+
+		final MainzellisteRuntimeException exception = assertThrows(MainzellisteRuntimeException.class,
+				() -> tokenManager.createAddPatientTokens(3));
+
+		assertFalse(exception instanceof SessionNotFoundException);
+		assertEquals(1, mainzelliste.sessionRequests.get());
+		assertEquals(1, sessionPool.getLiveSessionCount());
+	}
+
+	@Test
+	void replacesVanishedSessionTest() {
+		final MainzellisteSession session = sessionPool.leaseSession();
+		mainzelliste.sessions.remove(session.getSessionId());
+
+		final PseudonymizationUrlResponse response = tokenManager.createAddPatientTokens(3);
+
+		assertEquals(3, response.getUrlTokens().length);
+		assertEquals(0, response.getFailedCount());
+		assertNotSame(session, sessionPool.leaseSession());
+		assertEquals(2, mainzelliste.sessionRequests.get());
+	}
+
+	@Test
+	void servesReservoirOnlyToInteractiveRequestsTest() {
+		final AddPatientTokenReservoir reservoir = new AddPatientTokenReservoir(10, 10, 0);
+		final TokenManager tokenManager = new TokenManager(sessionPool, 4, true, reservoir);
+
+		try {
+			tokenManager.refillReservoir();
+
+			assertEquals(10, reservoir.getSize());
+			assertEquals(10, mainzelliste.tokenRequests.get());
+
+			final PseudonymizationUrlResponse bulk = Priority.call(Priority.BULK,
+					() -> tokenManager.createAddPatientTokens(5));
+
+			assertEquals(5, bulk.getUrlTokens().length);
+			assertEquals(10, reservoir.getSize());
+			assertEquals(15, mainzelliste.tokenRequests.get());
+
+			final PseudonymizationUrlResponse interactive = tokenManager.createAddPatientTokens(5);
+
+			assertEquals(5, interactive.getUrlTokens().length);
+			assertEquals(5, reservoir.getSize());
+			assertEquals(15, mainzelliste.tokenRequests.get());
+		} finally {
+			tokenManager.close();
+		}
+	}
+
+}
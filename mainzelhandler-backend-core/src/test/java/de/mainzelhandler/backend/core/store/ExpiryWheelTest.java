@@ -0,0 +1,147 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+class ExpiryWheelTest {
+
+	private static final long TIME_TO_LIVE = 100;
+
+	private static final long TICK = 10;
+
+	/**
+	 * Element with a fixed expiration time.
+	 */
+	private static class Expiring {
+
+		private final long expiration;
+
+		private Expiring(final long expiration) {
+			this.expiration = expiration;
+		}
+
+	}
+
+	private static ExpiryWheel<Expiring> wheel() {
+		return new ExpiryWheel<Expiring>(TIME_TO_LIVE, TICK, element -> element.expiration);
+	}
+
+	@Test
+	void expiresAcrossFullRotationsTest() {
+		final ExpiryWheel<Expiring> wheel = wheel();
+		final Set<Expiring> live = new HashSet<Expiring>();
+		final int[] expired = new int[1];
+
+		for (long now = 1000; now < 1000 + 5 * TIME_TO_LIVE; now += 3) {
+			final long time = now;
+			final Expiring element = new Expiring(now + TIME_TO_LIVE);
+			wheel.add(element);
+			live.add(element);
+
+			wheel.advance(now, removed -> {
+				assertTrue(live.remove(removed), "Expired twice");
+				assertTrue(removed.expiration <= time, "Expired early");
+				assertTrue(time - removed.expiration < 2 * TICK, "Expired late");
+				expired[0]++;
+			});
+		}
+
+		assertEquals(500 / 3 + 1, expired[0] + live.size());
+
+		for (final Expiring element : live)
+			assertTrue(element.expiration > 1000 + 5 * TIME_TO_LIVE - 3 - TICK);
+	}
+
+	@Test
+	void expiresReAddedElementWithPastExpirationTest() {
+		final ExpiryWheel<Expiring> wheel = wheel();
+		final Expiring later = new Expiring(1050);
+		final Expiring past = new Expiring(950);
+		final List<Expiring> expired = new ArrayList<Expiring>();
+
+		wheel.advance(1000, expired::add);
+		wheel.add(later);
+		wheel.add(past);
+
+		assertSame(past, wheel.peekFirst(1000));
+		assertSame(past, wheel.pollFirst(1000));
+		assertSame(later, wheel.pollFirst(1000));
+		assertNull(wheel.pollFirst(1000));
+
+		wheel.add(later);
+		wheel.add(past);
+		wheel.advance(1001, expired::add);
+
+		assertEquals(List.of(past), expired);
+
+		wheel.add(past);
+		wheel.remove(past);
+		wheel.advance(1002, expired::add);
+
+		assertEquals(List.of(past), expired);
+		assertSame(later, wheel.peekFirst(1002));
+	}
+
+	@Test
+	void pollsInOrderOfExpirationTest() {
+		final ExpiryWheel<Expiring> wheel = wheel();
+		final List<Long> expirations = List.of(1095L, 1010L, 1055L, 1030L, 1071L);
+
+		for (final long expiration : expirations)
+			wheel.add(new Expiring(expiration));
+
+		final List<Long> polled = new ArrayList<Long>();
+
+		for (Expiring element = wheel.pollFirst(1000); element != null; element = wheel.pollFirst(1000))
+			polled.add(element.expiration);
+
+		assertEquals(List.of(1010L, 1030L, 1055L, 1071L, 1095L), polled);
+	}
+
+	@Test
+	void removesConcurrentlyToAdvanceTest() throws Exception {
+		final ExpiryWheel<Expiring> wheel = wheel();
+		final List<Expiring> elements = new ArrayList<Expiring>();
+		final Set<Expiring> expired = ConcurrentHashMap.newKeySet();
+
+		for (int i = 0; i < 100000; i++) {
+			final Expiring element = new Expiring(1000 + i % TIME_TO_LIVE);
+			elements.add(element);
+			wheel.add(element);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread remover = new Thread(() -> {
+			try {
+				start.await();
+			} catch (final InterruptedException exception) {
+				return;
+			}
+
+			for (int i = 0; i < elements.size(); i += 2)
+				wheel.remove(elements.get(i));
+		});
+		remover.start();
+		start.countDown();
+
+		for (long now = 1000; now <= 1000 + TIME_TO_LIVE + TICK; now++)
+			wheel.advance(now, element -> assertTrue(expired.add(element), "Expired twice"));
+
+		remover.join();
+		wheel.advance(1000 + 2 * TIME_TO_LIVE, element -> assertTrue(expired.add(element), "Expired twice"));
+
+		for (int i = 1; i < elements.size(); i += 2)
+			assertTrue(expired.contains(elements.get(i)));
+
+		assertNull(wheel.peekFirst(1000 + 2 * TIME_TO_LIVE));
+	}
+
+}
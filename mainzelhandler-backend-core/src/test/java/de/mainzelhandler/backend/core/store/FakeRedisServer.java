@@ -0,0 +1,302 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Redis server in memory speaking the RESP2 protocol. Knows the commands the
+ * {@link RedisPseudonymStore} sends, one thread per connection and one lock
+ * for all data, so a MULTI/EXEC transaction runs without other commands in
+ * between.
+ */
+class FakeRedisServer implements Closeable {
+
+	private final ServerSocket serverSocket;
+
+	private final Map<String, Map<String, String>> hashes = new HashMap<String, Map<String, String>>();
+
+	private final Map<String, Map<String, Double>> sortedSets = new HashMap<String, Map<String, Double>>();
+
+	private final List<Socket> sockets = new ArrayList<Socket>();
+
+	private int commands;
+
+	private String failingCommand;
+
+	FakeRedisServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		final Thread acceptor = new Thread(this::accept, "fake-redis");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	String getUrl() {
+		return "redis://127.0.0.1:" + serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return Number of commands executed so far, without MULTI and EXEC.
+	 */
+	synchronized int getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Lets the server answer a command with an error reply.
+	 *
+	 * @param name Name of the command or null to answer all commands.
+	 */
+	synchronized void setFailingCommand(final String name) {
+		failingCommand = name;
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+
+		synchronized (sockets) {
+			for (final Socket socket : sockets)
+				socket.close();
+		}
+	}
+
+	private void accept() {
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+
+				synchronized (sockets) {
+					sockets.add(socket);
+				}
+
+				final Thread handler = new Thread(() -> serve(socket), "fake-redis-connection");
+				handler.setDaemon(true);
+				handler.start();
+			}
+		} catch (final IOException exception) {
+			// closed
+		}
+	}
+
+	private void serve(final Socket socket) {
+		try (Socket closed = socket) {
+			final InputStream input = new BufferedInputStream(socket.getInputStream());
+			final OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+			List<String[]> queued = null;
+			String[] command;
+
+			while ((command = readCommand(input)) != null) {
+				final String name = command[0].toUpperCase();
+
+				if ("MULTI".equals(name)) {
+					queued = new ArrayList<String[]>();
+					write(output, "OK");
+				} else if ("EXEC".equals(name)) {
+					final List<Object> replies = new ArrayList<Object>();
+
+					synchronized (this) {
+						for (final String[] transactional : queued)
+							replies.add(execute(transactional));
+					}
+
+					queued = null;
+					write(output, replies);
+				} else if (queued != null) {
+					queued.add(command);
+					write(output, "QUEUED");
+				} else {
+					final Object reply;
+
+					synchronized (this) {
+						reply = execute(command);
+					}
+
+					write(output, reply);
+				}
+
+				output.flush();
+			}
+		} catch (final IOException exception) {
+			// connection closed
+		}
+	}
+
+	private Object execute(final String[] command) {
+		commands++;
+
+		final String name = command[0].toUpperCase();
+
+		if (name.equals(failingCommand))
+			return new ErrorReply("ERR injected failure");
+
+		final Map<String, String> hash = command.length > 1
+				? hashes.computeIfAbsent(command[1], key -> new HashMap<String, String>())
+				: null;
+		final Map<String, Double> sortedSet = command.length > 1
+				? sortedSets.computeIfAbsent(command[1], key -> new HashMap<String, Double>())
+				: null;
+
+		switch (name) {
+		case "AUTH":
+		case "SELECT":
+			return "OK";
+		case "HGET":
+			return hash.get(command[2]);
+		case "HMGET":
+			return Arrays.stream(command, 2, command.length).map(hash::get).collect(Collectors.toList());
+		case "HSET": {
+			long added = 0;
+
+			for (int i = 2; i < command.length; i += 2) {
+				if (hash.put(command[i], command[i + 1]) == null)
+					added++;
+			}
+
+			return added;
+		}
+		case "HDEL":
+			return Arrays.stream(command, 2, command.length).filter(field -> hash.remove(field) != null).count();
+		case "HLEN":
+			return (long) hash.size();
+		case "ZADD": {
+			long added = 0;
+
+			for (int i = 2; i < command.length; i += 2) {
+				if (sortedSet.put(command[i + 1], Double.valueOf(command[i])) == null)
+					added++;
+			}
+
+			return added;
+		}
+		case "ZREM":
+			return Arrays.stream(command, 2, command.length).filter(member -> sortedSet.remove(member) != null)
+					.count();
+		case "ZRANGE": {
+			final List<String> members = sorted(sortedSet, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			final int stop = Math.min(members.size() - 1, Integer.parseInt(command[3]));
+			final List<String> range = members.subList(Math.min(members.size(), Integer.parseInt(command[2])),
+					stop + 1);
+
+			if (command.length > 4 && "WITHSCORES".equalsIgnoreCase(command[4])) {
+				final List<String> withScores = new ArrayList<String>();
+
+				for (final String member : range) {
+					withScores.add(member);
+					withScores.add(Double.toString(sortedSet.get(member)));
+				}
+
+				return withScores;
+			}
+
+			return new ArrayList<String>(range);
+		}
+		case "ZRANGEBYSCORE": {
+			final List<String> members = sorted(sortedSet, score(command[2]), score(command[3]));
+			final int offset = command.length > 5 ? Integer.parseInt(command[5]) : 0;
+			final int count = command.length > 6 ? Integer.parseInt(command[6]) : members.size();
+
+			return new ArrayList<String>(
+					members.subList(Math.min(members.size(), offset), Math.min(members.size(), offset + count)));
+		}
+		default:
+			return new ErrorReply("ERR unknown command '" + command[0] + "'");
+		}
+	}
+
+	private static List<String> sorted(final Map<String, Double> sortedSet, final double min, final double max) {
+		return sortedSet.entrySet().stream().filter(entry -> entry.getValue() >= min && entry.getValue() <= max)
+				.sorted(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+				.map(Map.Entry::getKey).collect(Collectors.toList());
+	}
+
+	private static double score(final String bound) {
+		switch (bound) {
+		case "-inf":
+			return Double.NEGATIVE_INFINITY;
+		case "+inf":
+			return Double.POSITIVE_INFINITY;
+		default:
+			return Double.parseDouble(bound);
+		}
+	}
+
+	private static String[] readCommand(final InputStream input) throws IOException {
+		final String header = readLine(input);
+
+		if (header == null)
+			return null;
+
+		final String[] command = new String[Integer.parseInt(header.substring(1))];
+
+		for (int i = 0; i < command.length; i++) {
+			final int length = Integer.parseInt(readLine(input).substring(1));
+			final byte[] bytes = input.readNBytes(length + 2);
+			command[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+
+		return command;
+	}
+
+	private static String readLine(final InputStream input) throws IOException {
+		final StringBuilder line = new StringBuilder();
+
+		for (int c = input.read(); c != '\r'; c = input.read()) {
+			if (c == -1)
+				return null;
+
+			line.append((char) c);
+		}
+
+		input.read();
+		return line.toString();
+	}
+
+	private static void write(final OutputStream output, final Object reply) throws IOException {
+		if (reply == null) {
+			output.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+		} else if (reply instanceof ErrorReply) {
+			output.write(("-" + ((ErrorReply) reply).message + "\r\n").getBytes(StandardCharsets.UTF_8));
+		} else if (reply instanceof Long) {
+			output.write((":" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+		} else if (reply instanceof List) {
+			final List<?> elements = (List<?>) reply;
+			output.write(("*" + elements.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+
+			for (final Object element : elements)
+				write(output, element);
+		} else if ("OK".equals(reply) || "QUEUED".equals(reply)) {
+			output.write(("+" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+		} else {
+			final byte[] bytes = ((String) reply).getBytes(StandardCharsets.UTF_8);
+			output.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+			output.write(bytes);
+			output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	private static class ErrorReply {
+
+		private final String message;
+
+		private ErrorReply(final String message) {
+			this.message = message;
+		}
+
+	}
+
+}
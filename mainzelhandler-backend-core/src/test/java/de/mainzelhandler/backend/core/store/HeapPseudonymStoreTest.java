@@ -0,0 +1,28 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class HeapPseudonymStoreTest extends PseudonymStoreContractTest {
+
+	@Override
+	PseudonymStore createStore(final long pseudonymTimeout, final int capacity,
+			final OverflowPolicy overflowPolicy) {
+		return new HeapPseudonymStore(pseudonymTimeout, capacity, overflowPolicy);
+	}
+
+	@Test
+	void evictsOldestPairTest() {
+		final PseudonymStore store = store(10, OverflowPolicy.EVICT_OLDEST);
+
+		for (int i = 0; i < 10; i++)
+			store.put(token(i), "pid" + i, NOW + i * TIMEOUT / 10);
+
+		store.put(token(10), "pid10", NOW + TIMEOUT - 1);
+
+		assertNull(store.get(token(0), NOW + TIMEOUT - 1));
+		assertEquals("pid1", store.get(token(1), NOW + TIMEOUT - 1));
+	}
+
+}
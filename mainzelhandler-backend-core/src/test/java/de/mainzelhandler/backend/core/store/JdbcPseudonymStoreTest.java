@@ -0,0 +1,120 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+
+class JdbcPseudonymStoreTest extends PseudonymStoreContractTest {
+
+	private static final AtomicInteger DATABASES = new AtomicInteger();
+
+	private JdbcDataSource dataSource;
+
+	@Override
+	PseudonymStore createStore(final long pseudonymTimeout, final int capacity, final OverflowPolicy overflowPolicy) {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:pseudonyms" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		return new JdbcPseudonymStore(dataSource, JdbcPseudonymStore.DEFAULT_TABLE, pseudonymTimeout, capacity,
+				overflowPolicy);
+	}
+
+	@Test
+	void sharesTableWithOtherInstanceTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+		store.put(token(2), "pid2", NOW);
+
+		final PseudonymStore other = new JdbcPseudonymStore(dataSource, JdbcPseudonymStore.DEFAULT_TABLE, TIMEOUT,
+				100, OverflowPolicy.REJECT);
+
+		assertEquals(2, other.size());
+		assertEquals("pid1", other.remove(token(1), NOW));
+		assertNull(store.remove(token(1), NOW));
+		assertEquals("pid2", store.remove(token(2), NOW));
+	}
+
+	@Test
+	void evictsOldestPairTest() {
+		final PseudonymStore store = store(10, OverflowPolicy.EVICT_OLDEST);
+
+		for (int i = 0; i < 10; i++)
+			store.put(token(i), "pid" + i, NOW + 10 - i);
+
+		store.put(token(10), "pid10", NOW + 10);
+
+		assertNull(store.get(token(9), NOW + 10));
+		assertEquals("pid0", store.get(token(0), NOW + 10));
+	}
+
+	@Test
+	void rejectsInvalidTableNameTest() {
+		assertThrows(IllegalArgumentException.class, () -> new JdbcPseudonymStore(new JdbcDataSource(),
+				"pairs; DROP TABLE users", TIMEOUT, 10, OverflowPolicy.REJECT));
+	}
+
+	/**
+	 * Lets the other instance insert the tokens right before this instance
+	 * inserts them, after this instance did not find them.
+	 */
+	private static DataSource collidingDataSource(final DataSource dataSource, final PseudonymStore other,
+			final Map<String, String> pairs) {
+		final AtomicInteger collisions = new AtomicInteger();
+
+		return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+				new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+					final Object result = invoke(dataSource, method, args);
+
+					if (!(result instanceof Connection))
+						return result;
+
+					return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+							new Class<?>[] { Connection.class }, (connection, statement, statementArgs) -> {
+								if ("prepareStatement".equals(statement.getName())
+										&& ((String) statementArgs[0]).startsWith("INSERT")
+										&& collisions.getAndIncrement() == 0)
+									other.putAll(pairs, NOW);
+
+								return invoke(result, statement, statementArgs);
+							});
+				});
+	}
+
+	private static Object invoke(final Object target, final Method method, final Object[] args)
+			throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (final InvocationTargetException exception) {
+			throw exception.getCause();
+		}
+	}
+
+	@Test
+	void updatesTokenInsertedConcurrentlyTest() {
+		store(100, OverflowPolicy.REJECT);
+		final PseudonymStore other = new JdbcPseudonymStore(dataSource, JdbcPseudonymStore.DEFAULT_TABLE, TIMEOUT,
+				100, OverflowPolicy.REJECT);
+		final PseudonymStore store = new JdbcPseudonymStore(collidingDataSource(dataSource, other,
+				Map.of(token(1), "other1")), JdbcPseudonymStore.DEFAULT_TABLE, TIMEOUT, 100, OverflowPolicy.REJECT);
+
+		assertEquals("other1", store.put(token(1), "pid1", NOW + 1));
+		assertEquals("pid1", other.get(token(1), NOW + 1));
+
+		final PseudonymStore batch = new JdbcPseudonymStore(collidingDataSource(dataSource, other,
+				Map.of(token(2), "other2")), JdbcPseudonymStore.DEFAULT_TABLE, TIMEOUT, 100, OverflowPolicy.REJECT);
+		batch.putAll(Map.of(token(2), "pid2", token(3), "pid3"), NOW + 1);
+
+		assertEquals("pid2", other.get(token(2), NOW + 1));
+		assertEquals("pid3", other.get(token(3), NOW + 1));
+	}
+
+}
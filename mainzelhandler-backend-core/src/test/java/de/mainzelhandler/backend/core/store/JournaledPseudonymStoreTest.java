@@ -0,0 +1,86 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournaledPseudonymStoreTest extends PseudonymStoreContractTest {
+
+	@TempDir
+	Path directory;
+
+	@Override
+	PseudonymStore createStore(final long pseudonymTimeout, final int capacity,
+			final OverflowPolicy overflowPolicy) {
+		return new JournaledPseudonymStore(new HeapPseudonymStore(pseudonymTimeout, capacity, overflowPolicy),
+				directory, 4096, false, pseudonymTimeout);
+	}
+
+	@Test
+	void restoresPairsAfterRestartTest() {
+		final long now = System.currentTimeMillis();
+		final PseudonymStore store = new JournaledPseudonymStore(
+				new HeapPseudonymStore(60000, 10, OverflowPolicy.REJECT), directory, 4096, true, 60000);
+		store.put(token(1), "pid1", now);
+		store.put(token(2), "pid2", now);
+		store.put(token(3), "pid3", now - 60000);
+		store.remove(token(2), now);
+		store.close();
+
+		final PseudonymStore restored = new JournaledPseudonymStore(
+				new HeapPseudonymStore(60000, 10, OverflowPolicy.REJECT), directory, 4096, true, 60000);
+
+		assertEquals("pid1", restored.get(token(1), now));
+		assertNull(restored.get(token(2), now));
+		assertNull(restored.get(token(3), now));
+		assertEquals(1, restored.size());
+		restored.close();
+	}
+
+	@Test
+	void doesNotRestoreEvictedPairsTest() {
+		final long now = System.currentTimeMillis();
+		final PseudonymStore store = new JournaledPseudonymStore(
+				new OffHeapPseudonymStore(60000, 2, OverflowPolicy.EVICT_OLDEST), directory, 4096, true, 60000);
+		store.put(token(1), "pid1", now - 2);
+		store.put(token(2), "pid2", now - 1);
+		store.put(token(3), "pid3", now);
+		store.close();
+
+		final PseudonymStore restored = new JournaledPseudonymStore(
+				new OffHeapPseudonymStore(60000, 10, OverflowPolicy.REJECT), directory, 4096, true, 60000);
+
+		assertNull(restored.get(token(1), now));
+		assertEquals("pid2", restored.get(token(2), now));
+		assertEquals("pid3", restored.get(token(3), now));
+		restored.close();
+	}
+
+	@Test
+	void doesNotRestoreFailedPutTest() {
+		final long now = System.currentTimeMillis();
+		final PseudonymStore store = new JournaledPseudonymStore(new HeapPseudonymStore(60000, 10,
+				OverflowPolicy.REJECT) {
+
+			@Override
+			public String put(final String token, final String pseudonym, final long now) {
+				throw new IllegalStateException("failed");
+			}
+
+		}, directory, 4096, true, 60000);
+
+		assertThrows(IllegalStateException.class, () -> store.put(token(1), "pid1", now));
+		store.close();
+
+		final PseudonymStore restored = new JournaledPseudonymStore(
+				new HeapPseudonymStore(60000, 10, OverflowPolicy.REJECT), directory, 4096, true, 60000);
+
+		assertNull(restored.get(token(1), now));
+		assertEquals(0, restored.size());
+		restored.close();
+	}
+
+}
@@ -0,0 +1,151 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+class OffHeapPseudonymStoreTest extends PseudonymStoreContractTest {
+
+	@Override
+	PseudonymStore createStore(final long pseudonymTimeout, final int capacity,
+			final OverflowPolicy overflowPolicy) {
+		return new OffHeapPseudonymStore(pseudonymTimeout, capacity, overflowPolicy);
+	}
+
+	@Test
+	void reusesTablesUnderChurnTest() {
+		final OffHeapPseudonymStore store = (OffHeapPseudonymStore) store(1000, OverflowPolicy.REJECT);
+		final long initial = store.getAllocatedBytes();
+		final List<String> tokens = new ArrayList<String>();
+
+		for (int i = 0; tokens.size() < 20000; i++) {
+			if (OffHeapPseudonymStore.segmentIndex(token(i)) == 0)
+				tokens.add(token(i));
+		}
+
+		for (int i = 0; i < tokens.size(); i++) {
+			store.put(tokens.get(i), "pid" + i, NOW);
+
+			if (i >= 80)
+				assertEquals("pid" + (i - 80), store.remove(tokens.get(i - 80), NOW));
+		}
+
+		assertEquals(80, store.size());
+		assertEquals(initial + initial / 16, store.getAllocatedBytes());
+	}
+
+	@Test
+	void sharesCapacityWithHeapPairsTest() {
+		final PseudonymStore store = store(4, OverflowPolicy.REJECT);
+		store.put("token-1", "pid1", NOW);
+		store.put("token-2", "pid2", NOW);
+		store.put(token(1), "pid3", NOW);
+		store.put(token(2), "pid4", NOW);
+
+		assertThrows(PseudonymStoreFullException.class, () -> store.put(token(3), "pid5", NOW));
+		assertThrows(PseudonymStoreFullException.class, () -> store.put("token-3", "pid6", NOW));
+		assertEquals(4, store.size());
+		assertEquals(2, store.getRejections());
+
+		final PseudonymStore evicting = store(4, OverflowPolicy.EVICT_OLDEST);
+		evicting.put("token-1", "pid1", NOW);
+		evicting.put("token-2", "pid2", NOW + 1);
+		evicting.put(token(1), "pid3", NOW + 2);
+		evicting.put(token(2), "pid4", NOW + 3);
+		evicting.put("token-3", "pid5", NOW + 4);
+
+		assertEquals(4, evicting.size());
+		assertEquals(1, evicting.getEvictions());
+		assertEquals("pid5", evicting.get("token-3", NOW + 4));
+	}
+
+	@Test
+	void keepsPairsOfFullSegmentOnHeapTest() {
+		final PseudonymStore store = store(40, OverflowPolicy.REJECT);
+		final List<String> tokens = new ArrayList<String>();
+
+		for (int i = 0; tokens.size() < 25; i++) {
+			if (OffHeapPseudonymStore.segmentIndex(token(i)) == 0)
+				tokens.add(token(i));
+		}
+
+		for (int i = 0; i < tokens.size(); i++)
+			assertNull(store.put(tokens.get(i), "pid" + i, NOW));
+
+		assertEquals(25, store.size());
+		assertEquals(0, store.getRejections());
+
+		for (int i = 0; i < tokens.size(); i++)
+			assertEquals("pid" + i, store.remove(tokens.get(i), NOW));
+
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	void rejectsWholeBatchTest() {
+		final PseudonymStore store = store(4, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+		store.put("token-2", "pid2", NOW);
+
+		final Map<String, String> pairs = new HashMap<String, String>();
+		pairs.put(token(3), "pid3");
+		pairs.put("token-4", "pid4");
+		pairs.put(token(5), "pid5");
+
+		assertThrows(PseudonymStoreFullException.class, () -> store.putAll(pairs, NOW));
+		assertEquals(2, store.size());
+		assertNull(store.get(token(3), NOW));
+		assertNull(store.get("token-4", NOW));
+		assertNull(store.get(token(5), NOW));
+	}
+
+	@Test
+	void matchesReferenceMapTest() {
+		final PseudonymStore store = store(300, OverflowPolicy.REJECT);
+		final Map<String, String> reference = new HashMap<String, String>();
+		final Map<String, Long> createdAt = new HashMap<String, Long>();
+		final Random random = new Random(42);
+		long now = NOW;
+
+		for (int i = 0; i < 200000; i++) {
+			now += random.nextInt(3);
+			final String token = random.nextInt(20) == 0 ? "token-" + random.nextInt(50) : token(random.nextInt(500));
+			final Long created = createdAt.get(token);
+			final String expected = created != null && created + TIMEOUT > now ? reference.get(token) : null;
+
+			switch (random.nextInt(4)) {
+			case 0:
+				final String pseudonym = "pid" + random.nextInt(1000);
+
+				try {
+					assertEquals(expected, store.put(token, pseudonym, now));
+					reference.put(token, pseudonym);
+					createdAt.put(token, now);
+				} catch (final PseudonymStoreFullException exception) {
+					assertTrue(store.size() >= 250, "Rejected with size " + store.size());
+				}
+
+				break;
+			case 1:
+				assertEquals(expected, store.remove(token, now));
+				reference.remove(token);
+				createdAt.remove(token);
+				break;
+			case 2:
+				store.removeExpired(now);
+				break;
+			default:
+				assertEquals(expected, store.get(token, now));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PseudonymJournalTest {
+
+	private static final long TIMEOUT = 10000;
+
+	private static final long NOW = 1_000_000;
+
+	@TempDir
+	Path directory;
+
+	private static String token(final int number) {
+		return PseudonymStoreContractTest.token(number);
+	}
+
+	/**
+	 * @return Length of the put record of token(number) with pseudonym "pid" +
+	 *         number for numbers below 10.
+	 */
+	private static int putLength() {
+		return 8 + 1 + 8 + 4 + 36 + 4 + 4;
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static List<String> tokens(final List<PseudonymJournal.Pair> pairs) {
+		return pairs.stream().map(PseudonymJournal.Pair::getToken).collect(Collectors.toList());
+	}
+
+	@Test
+	void replaysPutsAndRemovesTest() throws IOException {
+		final PseudonymJournal journal = new PseudonymJournal(directory, 4096, false);
+		assertTrue(journal.open(NOW, TIMEOUT).isEmpty());
+
+		journal.appendPut(token(1), "pid1", NOW + 3);
+		journal.appendPut(token(2), "pid2", NOW + 1);
+		journal.appendPut(token(3), "pid3", NOW + 2);
+		journal.appendRemove(token(3), NOW + 4);
+		journal.appendPut(token(1), "pid4", NOW + 5);
+		journal.close();
+
+		final PseudonymJournal reopened = new PseudonymJournal(directory, 4096, false);
+		final List<PseudonymJournal.Pair> pairs = reopened.open(NOW + 6, TIMEOUT);
+		reopened.close();
+
+		assertEquals(List.of(token(2), token(1)), tokens(pairs));
+		assertEquals("pid4", pairs.get(1).getPseudonym());
+		assertEquals(NOW + 5, pairs.get(1).getCreatedAt());
+	}
+
+	@Test
+	void dropsExpiredPairsOnOpenTest() throws IOException {
+		final PseudonymJournal journal = new PseudonymJournal(directory, 4096, true);
+		journal.open(NOW, TIMEOUT);
+		journal.awaitDurable(journal.appendPut(token(1), "pid1", NOW));
+		journal.awaitDurable(journal.appendPut(token(2), "pid2", NOW + TIMEOUT / 2));
+		journal.close();
+
+		final PseudonymJournal reopened = new PseudonymJournal(directory, 4096, false);
+		final List<PseudonymJournal.Pair> pairs = reopened.open(NOW + TIMEOUT, TIMEOUT);
+		reopened.close();
+
+		assertEquals(List.of(token(2)), tokens(pairs));
+	}
+
+	@Test
+	void stopsAtTornRecordTest() throws IOException {
+		final PseudonymJournal journal = new PseudonymJournal(directory, 4096, false);
+		journal.open(NOW, TIMEOUT);
+
+		for (int i = 0; i < 4; i++)
+			journal.appendPut(token(i), "pid" + i, NOW + i);
+
+		journal.close();
+
+		// the length of the third record was not written yet
+		try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4), 2 * putLength());
+		}
+
+		final PseudonymJournal reopened = new PseudonymJournal(directory, 4096, false);
+		final List<PseudonymJournal.Pair> pairs = reopened.open(NOW + 10, TIMEOUT);
+		reopened.close();
+
+		assertEquals(List.of(token(0), token(1)), tokens(pairs));
+	}
+
+	@Test
+	void stopsAtCorruptRecordTest() throws IOException {
+		final PseudonymJournal journal = new PseudonymJournal(directory, 4096, false);
+		journal.open(NOW, TIMEOUT);
+
+		for (int i = 0; i < 4; i++)
+			journal.appendPut(token(i), "pid" + i, NOW + i);
+
+		journal.close();
+
+		// flips the last byte of the pseudonym of the second record
+		try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 'X' }), 2 * putLength() - 1);
+		}
+
+		final PseudonymJournal reopened = new PseudonymJournal(directory, 4096, false);
+		final List<PseudonymJournal.Pair> pairs = reopened.open(NOW + 10, TIMEOUT);
+		reopened.close();
+
+		assertEquals(List.of(token(0)), tokens(pairs));
+	}
+
+	@Test
+	void startsNewSegmentsWhenFullTest() throws IOException {
+		final PseudonymJournal journal = new PseudonymJournal(directory, 4096, false);
+		journal.open(NOW, TIMEOUT);
+
+		for (int i = 0; i < 200; i++)
+			journal.appendPut(token(i), "pid" + i, NOW + i);
+
+		assertTrue(segments().size() > 1);
+		journal.close();
+
+		final PseudonymJournal reopened = new PseudonymJournal(directory, 4096, false);
+		final List<PseudonymJournal.Pair> pairs = reopened.open(NOW + 200, TIMEOUT);
+		reopened.close();
+
+		assertEquals(200, pairs.size());
+		assertEquals(token(199), pairs.get(199).getToken());
+	}
+
+	@Test
+	void compactsSealedSegmentsTest() throws IOException {
+		final PseudonymJournal journal = new PseudonymJournal(directory, 4096, false);
+		journal.open(NOW, TIMEOUT);
+		assertEquals(-1, journal.compact(NOW, TIMEOUT));
+
+		for (int i = 0; i < 100; i++)
+			journal.appendPut(token(i), "pid" + i, NOW + i * 100);
+
+		for (int i = 0; i < 100; i += 2)
+			journal.appendRemove(token(i), NOW + TIMEOUT);
+
+		// 50 pairs are left, the first 5 of them are expired
+		assertEquals(45, journal.compact(NOW + TIMEOUT + 1000, TIMEOUT));
+		assertEquals(1, segments().size());
+		assertEquals(-1, journal.compact(NOW + TIMEOUT + 1000, TIMEOUT));
+
+		journal.appendPut(token(100), "pid100", NOW + TIMEOUT + 1000);
+		journal.close();
+
+		final PseudonymJournal reopened = new PseudonymJournal(directory, 4096, false);
+		final List<PseudonymJournal.Pair> pairs = reopened.open(NOW + TIMEOUT + 1000, TIMEOUT);
+		reopened.close();
+
+		assertEquals(46, pairs.size());
+		assertEquals(token(11), pairs.get(0).getToken());
+		assertEquals(token(100), pairs.get(45).getToken());
+	}
+
+}
@@ -0,0 +1,166 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the throughput of a single ConcurrentHashMap of immutable entries
+ * with the same map behind one lock, and counts the pairs lost by the two
+ * unsynchronized HashMaps the PseudonymManager used before. Every operation
+ * puts a pair, reads it back and removes it. Not run by the tests, start the
+ * main method with the test classpath, see the README.
+ */
+public class PseudonymMapContentionBenchmark {
+
+	private static final long DURATION = 2000;
+
+	private static final int[] THREAD_COUNTS = { 1, 4, 16, 64 };
+
+	public static void main(final String[] args) throws InterruptedException {
+		System.out.println("threads  one lock ops/s  ConcurrentHashMap ops/s  lost (old maps)");
+
+		for (final int threads : THREAD_COUNTS) {
+			final Map<String, Entry> locked = new HashMap<String, Entry>();
+			final Map<String, Entry> concurrent = new ConcurrentHashMap<String, Entry>();
+			final OldMaps old = new OldMaps();
+
+			final double lockedRate = run(threads, token -> {
+				synchronized (locked) {
+					locked.put(token, new Entry(token, System.currentTimeMillis()));
+				}
+
+				synchronized (locked) {
+					if (locked.get(token) == null)
+						return false;
+				}
+
+				synchronized (locked) {
+					return locked.remove(token) != null;
+				}
+			}).rate;
+			final double concurrentRate = run(threads, token -> {
+				concurrent.put(token, new Entry(token, System.currentTimeMillis()));
+				return concurrent.get(token) != null && concurrent.remove(token) != null;
+			}).rate;
+			final long lost = run(threads, old::cycle).failures;
+
+			System.out.printf("%7d  %11.2f M  %20.2f M  %15d%n", threads, lockedRate / 1e6, concurrentRate / 1e6,
+					lost);
+		}
+	}
+
+	/**
+	 * Runs the operation on the given number of threads for the duration.
+	 */
+	private static Result run(final int threads, final Operation operation) throws InterruptedException {
+		final AtomicLong operations = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] workers = new Thread[threads];
+		final long end = System.currentTimeMillis() + DURATION;
+
+		for (int i = 0; i < threads; i++) {
+			final String prefix = UUID.randomUUID().toString();
+			workers[i] = new Thread(() -> {
+				long count = 0;
+				long failed = 0;
+
+				try {
+					start.await();
+				} catch (final InterruptedException exception) {
+					return;
+				}
+
+				while ((count & 0xFF) != 0 || System.currentTimeMillis() < end) {
+					try {
+						if (!operation.cycle(prefix + count))
+							failed++;
+					} catch (final RuntimeException exception) {
+						failed++;
+					}
+
+					count++;
+				}
+
+				operations.addAndGet(count);
+				failures.addAndGet(failed);
+			});
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		final long started = System.nanoTime();
+		start.countDown();
+
+		for (final Thread worker : workers)
+			worker.join();
+
+		return new Result(operations.get() * 1e9 / (System.nanoTime() - started), failures.get());
+	}
+
+	@FunctionalInterface
+	private interface Operation {
+
+		/**
+		 * Puts, reads and removes the pair of the token.
+		 *
+		 * @return false if the pair got lost.
+		 */
+		boolean cycle(String token);
+
+	}
+
+	private static class Result {
+
+		private final double rate;
+
+		private final long failures;
+
+		private Result(final double rate, final long failures) {
+			this.rate = rate;
+			this.failures = failures;
+		}
+
+	}
+
+	private static class Entry {
+
+		private final String pseudonym;
+
+		private final long creationTime;
+
+		private Entry(final String pseudonym, final long creationTime) {
+			this.pseudonym = pseudonym;
+			this.creationTime = creationTime;
+		}
+
+	}
+
+	/**
+	 * The pseudonyms and their creation times in two maps without
+	 * synchronization, as the PseudonymManager kept them before.
+	 */
+	private static class OldMaps {
+
+		private final Map<String, String> pseudonyms = new HashMap<String, String>();
+
+		private final Map<String, Long> creationTimes = new HashMap<String, Long>();
+
+		private boolean cycle(final String token) {
+			pseudonyms.put(token, token);
+			creationTimes.put(token, System.currentTimeMillis());
+
+			if (!pseudonyms.containsKey(token))
+				return false;
+
+			creationTimes.remove(token);
+			return pseudonyms.remove(token) != null;
+		}
+
+	}
+
+}
@@ -0,0 +1,203 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
+
+/**
+ * Behaviour every {@link PseudonymStore} has to provide. The subclasses create
+ * the store under test.
+ */
+abstract class PseudonymStoreContractTest {
+
+	static final long TIMEOUT = 10000;
+
+	static final long NOW = 1_000_000;
+
+	private PseudonymStore store;
+
+	/**
+	 * Creates an empty store.
+	 */
+	abstract PseudonymStore createStore(long pseudonymTimeout, int capacity, OverflowPolicy overflowPolicy);
+
+	PseudonymStore store(final int capacity, final OverflowPolicy overflowPolicy) {
+		store = createStore(TIMEOUT, capacity, overflowPolicy);
+		return store;
+	}
+
+	static String token(final int number) {
+		return new UUID(0x5EED, number).toString();
+	}
+
+	@AfterEach
+	void closeStore() {
+		if (store != null)
+			store.close();
+	}
+
+	@Test
+	void putGetRemoveTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+
+		assertNull(store.put(token(1), "pid1", NOW));
+		assertEquals("pid1", store.put(token(1), "pid2", NOW));
+		assertEquals("pid2", store.get(token(1), NOW));
+		assertNull(store.get(token(2), NOW));
+		assertEquals(1, store.size());
+
+		assertEquals("pid2", store.remove(token(1), NOW));
+		assertNull(store.remove(token(1), NOW));
+		assertNull(store.get(token(1), NOW));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	void keepsTokensThatAreNoUuidTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		final String pseudonym = "a pseudonym longer than the off-heap slots äöü";
+
+		store.put("token-1", "pid1", NOW);
+		store.put(token(1), pseudonym, NOW);
+
+		assertEquals("pid1", store.get("token-1", NOW));
+		assertEquals(pseudonym, store.remove(token(1), NOW));
+		assertEquals("pid1", store.remove("token-1", NOW));
+	}
+
+	@Test
+	void expiresPairsAfterTimeoutTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+		store.put(token(2), "pid2", NOW + TIMEOUT / 2);
+
+		assertEquals("pid1", store.get(token(1), NOW + TIMEOUT - 1));
+		assertNull(store.get(token(1), NOW + TIMEOUT));
+
+		assertEquals(1, store.removeExpired(NOW + TIMEOUT * 5 / 4));
+		assertEquals("pid2", store.get(token(2), NOW + TIMEOUT * 5 / 4));
+		assertEquals(1, store.getExpirations());
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	void replacesExpiredPairTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+
+		assertNull(store.put(token(1), "pid2", NOW + TIMEOUT));
+		assertEquals("pid2", store.get(token(1), NOW + TIMEOUT));
+	}
+
+	@Test
+	void countsExpiredRemovalTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+
+		assertNull(store.remove(token(1), NOW + TIMEOUT));
+		assertEquals(1, store.getExpirations());
+	}
+
+	@Test
+	void rejectsPairsWhenFullTest() {
+		final PseudonymStore store = store(10, OverflowPolicy.REJECT);
+
+		for (int i = 0; i < 10; i++)
+			store.put(token(i), "pid" + i, NOW);
+
+		final PseudonymStoreFullException exception = assertThrows(PseudonymStoreFullException.class,
+				() -> store.put(token(10), "pid10", NOW));
+		assertTrue(exception.getRetryAfter() > 0);
+		assertEquals(1, store.getRejections());
+		assertEquals("pid1", store.put(token(1), "pid1", NOW));
+
+		store.remove(token(0), NOW);
+		store.put(token(10), "pid10", NOW);
+		assertEquals(10, store.size());
+	}
+
+	@Test
+	void makesRoomByRemovingExpiredPairsTest() {
+		final PseudonymStore store = store(10, OverflowPolicy.REJECT);
+
+		for (int i = 0; i < 10; i++)
+			store.put(token(i), "pid" + i, NOW);
+
+		store.put(token(10), "pid10", NOW + TIMEOUT * 2);
+
+		assertEquals("pid10", store.get(token(10), NOW + TIMEOUT * 2));
+		assertEquals(0, store.getRejections());
+	}
+
+	@Test
+	void evictsPairWhenFullTest() {
+		final PseudonymStore store = store(10, OverflowPolicy.EVICT_OLDEST);
+
+		for (int i = 0; i < 10; i++)
+			store.put(token(i), "pid" + i, NOW + i);
+
+		store.put(token(10), "pid10", NOW + 10);
+
+		assertEquals("pid10", store.get(token(10), NOW + 10));
+		assertEquals(1, store.getEvictions());
+		assertEquals(0, store.getRejections());
+		assertEquals(10, store.size());
+	}
+
+	@Test
+	void putsAndRemovesBatchesTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		final Map<String, String> pairs = new LinkedHashMap<String, String>();
+
+		for (int i = 0; i < 50; i++)
+			pairs.put(token(i), "pid" + i);
+
+		pairs.put("token-50", "pid50");
+		store.putAll(pairs, NOW);
+
+		assertEquals(51, store.size());
+		assertEquals("pid7", store.get(token(7), NOW));
+
+		final Map<String, String> removed = store.removeAll(Arrays.asList(token(3), "token-50", token(99)), NOW);
+		final Map<String, String> expected = new HashMap<String, String>();
+		expected.put(token(3), "pid3");
+		expected.put("token-50", "pid50");
+
+		assertEquals(expected, removed);
+		assertEquals(49, store.size());
+	}
+
+	@Test
+	void putsBackPairsWithCreationTimeTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+		store.put("token-2", "pid2", NOW + 1);
+		store.put(token(3), "pid3", NOW + 2);
+
+		final Map<String, Long> createdAts = new HashMap<String, Long>();
+		final Map<String, String> removed = store.removeAll(Arrays.asList(token(1), "token-2"), NOW + TIMEOUT / 2,
+				createdAts);
+		final Map<String, Long> expected = new HashMap<String, Long>();
+		expected.put(token(1), NOW);
+		expected.put("token-2", NOW + 1);
+
+		assertEquals(expected, createdAts);
+
+		store.putAll(removed, createdAts, NOW + TIMEOUT / 2);
+
+		assertEquals("pid1", store.get(token(1), NOW + TIMEOUT - 1));
+		assertNull(store.get(token(1), NOW + TIMEOUT));
+		assertEquals(2, store.removeExpired(NOW + TIMEOUT + 1));
+		assertEquals("pid3", store.get(token(3), NOW + TIMEOUT + 1));
+	}
+
+}
@@ -0,0 +1,176 @@
+package de.mainzelhandler.backend.core.store;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures the heap, the direct memory and the garbage collection time of the
+ * pseudonym stores holding a number of live pairs while pairs are put and
+ * removed. Compares the ConcurrentHashMap the PseudonymManager used before the
+ * stores with the heap and the off-heap store. Not run by the tests, start the
+ * main method with the test classpath and -Xmx2g, see the README. The
+ * arguments are the number of live pairs and the number of put and remove
+ * operations, 1000000 and 5000000 by default.
+ */
+public class PseudonymStoreFootprintBenchmark {
+
+	private static final long TIMEOUT = 3600000;
+
+	public static void main(final String[] args) {
+		final int live = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final int churn = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+
+		System.out.println("store           heap MB  direct MB  GC total ms  GC max ms");
+		run("previous map", live, churn, new MapStore());
+		run("heap store", live, churn, new HeapPseudonymStore(TIMEOUT, live, OverflowPolicy.REJECT));
+		run("off-heap", live, churn, new OffHeapPseudonymStore(TIMEOUT, live, OverflowPolicy.REJECT));
+	}
+
+	private static void run(final String name, final int live, final int churn, final PseudonymStore store) {
+		final long heapBefore = usedHeap();
+		final long gcBefore = gcTime();
+		long gcMax = 0;
+		long now = 1;
+
+		for (int i = 0; i < live; i++)
+			store.put(new UUID(1, i).toString(), "PID" + i, now);
+
+		for (int i = 0; i < churn; i++) {
+			now++;
+			store.remove(new UUID(1, i).toString(), now);
+			store.put(new UUID(1, live + i).toString(), "PID" + (live + i), now);
+
+			if ((i & 0xFFFF) == 0)
+				gcMax = Math.max(gcMax, maxPause());
+		}
+
+		final long gcTotal = gcTime() - gcBefore;
+		final long heap = usedHeap() - heapBefore;
+		final long direct = store instanceof OffHeapPseudonymStore
+				? ((OffHeapPseudonymStore) store).getAllocatedBytes()
+				: 0;
+
+		System.out.printf("%-14s %8d %10d %12d %10d%n", name, heap >> 20, direct >> 20, gcTotal,
+				Math.max(gcMax, maxPause()));
+		store.close();
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+
+		final Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long gcTime() {
+		long time = 0;
+
+		for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			time += collector.getCollectionTime();
+
+		return time;
+	}
+
+	/**
+	 * @return Duration of the last collection in milliseconds, if the collector
+	 *         reports it.
+	 */
+	private static long maxPause() {
+		long max = 0;
+
+		for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof com.sun.management.GarbageCollectorMXBean) {
+				final com.sun.management.GcInfo info = ((com.sun.management.GarbageCollectorMXBean) collector)
+						.getLastGcInfo();
+
+				if (info != null)
+					max = Math.max(max, info.getDuration());
+			}
+		}
+
+		return max;
+	}
+
+	/**
+	 * The ConcurrentHashMap of immutable entries the PseudonymManager used
+	 * before the stores.
+	 */
+	private static class MapStore implements PseudonymStore {
+
+		private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+		@Override
+		public String put(final String token, final String pseudonym, final long now) {
+			final Entry previous = entries.put(token, new Entry(pseudonym, now));
+			return previous != null ? previous.pseudonym : null;
+		}
+
+		@Override
+		public String get(final String token, final long now) {
+			final Entry entry = entries.get(token);
+			return entry != null ? entry.pseudonym : null;
+		}
+
+		@Override
+		public String remove(final String token, final long now) {
+			final Entry entry = entries.remove(token);
+			return entry != null ? entry.pseudonym : null;
+		}
+
+		@Override
+		public int removeExpired(final long now) {
+			int removed = 0;
+
+			for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+				if (entry.getValue().createdAt + TIMEOUT <= now && entries.remove(entry.getKey(), entry.getValue()))
+					removed++;
+			}
+
+			return removed;
+		}
+
+		@Override
+		public int size() {
+			return entries.size();
+		}
+
+		@Override
+		public long getExpirations() {
+			return 0;
+		}
+
+		@Override
+		public int getCapacity() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public long getRejections() {
+			return 0;
+		}
+
+		@Override
+		public long getEvictions() {
+			return 0;
+		}
+
+	}
+
+	private static class Entry {
+
+		private final String pseudonym;
+
+		private final long createdAt;
+
+		private Entry(final String pseudonym, final long createdAt) {
+			this.pseudonym = pseudonym;
+			this.createdAt = createdAt;
+		}
+
+	}
+
+}
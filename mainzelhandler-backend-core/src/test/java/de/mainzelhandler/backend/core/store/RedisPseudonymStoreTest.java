@@ -0,0 +1,111 @@
+package de.mainzelhandler.backend.core.store;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreException;
+
+class RedisPseudonymStoreTest extends PseudonymStoreContractTest {
+
+	private FakeRedisServer server;
+
+	@Override
+	PseudonymStore createStore(final long pseudonymTimeout, final int capacity,
+			final OverflowPolicy overflowPolicy) {
+		try {
+			server = new FakeRedisServer();
+		} catch (final IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+
+		return new RedisPseudonymStore(server.getUrl(), RedisPseudonymStore.DEFAULT_KEY_PREFIX, 2, 1000,
+				pseudonymTimeout, capacity, overflowPolicy);
+	}
+
+	@AfterEach
+	void stopServer() throws IOException {
+		if (server != null)
+			server.close();
+	}
+
+	@Test
+	void sharesPairsWithOtherInstanceTest() {
+		final PseudonymStore store = store(100, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+		store.put(token(2), "pid2", NOW);
+
+		final PseudonymStore other = new RedisPseudonymStore(server.getUrl() + "/0",
+				RedisPseudonymStore.DEFAULT_KEY_PREFIX, 1, 1000, TIMEOUT, 100, OverflowPolicy.REJECT);
+
+		assertEquals(2, other.size());
+		assertEquals("pid1", other.remove(token(1), NOW));
+		assertNull(store.remove(token(1), NOW));
+		assertEquals("pid2", store.remove(token(2), NOW));
+		other.close();
+	}
+
+	@Test
+	void evictsOldestPairTest() {
+		final PseudonymStore store = store(10, OverflowPolicy.EVICT_OLDEST);
+
+		for (int i = 0; i < 10; i++)
+			store.put(token(i), "pid" + i, NOW + 10 - i);
+
+		store.put(token(10), "pid10", NOW + 10);
+
+		assertNull(store.get(token(9), NOW + 10));
+		assertEquals("pid0", store.get(token(0), NOW + 10));
+	}
+
+	@Test
+	void putsBatchesInChunksTest() {
+		final PseudonymStore store = store(2000, OverflowPolicy.REJECT);
+		final Map<String, String> pairs = new HashMap<String, String>();
+
+		for (int i = 0; i < 1200; i++)
+			pairs.put(token(i), "pid" + i);
+
+		final int before = server.getCommands();
+		store.putAll(pairs, NOW);
+
+		// HSET and ZADD per chunk of 500 pairs
+		assertEquals(6, server.getCommands() - before);
+		assertEquals(1200, store.size());
+		assertEquals(1200, store.removeAll(pairs.keySet(), NOW).size());
+	}
+
+	@Test
+	void keepsConnectionUsableAfterErrorTest() {
+		final PseudonymStore store = store(10, OverflowPolicy.REJECT);
+		store.put(token(1), "pid1", NOW);
+		server.setFailingCommand("HDEL");
+
+		assertThrows(PseudonymStoreException.class, () -> store.remove(token(1), NOW));
+
+		server.setFailingCommand(null);
+		assertEquals("pid1", store.remove(token(1), NOW));
+	}
+
+	@Test
+	void rejectsInvalidUrlTest() {
+		assertThrows(IllegalArgumentException.class, () -> new RedisPseudonymStore("http://localhost", "", 1, 1000,
+				TIMEOUT, 10, OverflowPolicy.REJECT));
+	}
+
+	@Test
+	void rejectsUnsupportedUrlTest() {
+		final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+				() -> new RedisPseudonymStore("rediss://localhost:6380", RedisPseudonymStore.DEFAULT_KEY_PREFIX, 1,
+						100, TIMEOUT, 10, OverflowPolicy.REJECT));
+
+		assertTrue(exception.getMessage().contains("TLS"));
+	}
+
+}
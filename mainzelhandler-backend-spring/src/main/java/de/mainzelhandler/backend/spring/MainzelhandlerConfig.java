@@ -1,8 +1,14 @@
 package de.mainzelhandler.backend.spring;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import de.mainzelhandler.backend.spring.controller.DeadlineInterceptor;
+import de.mainzelhandler.backend.spring.controller.PriorityInterceptor;
 
 /**
  * Configuration class of the pseudonym-handler library. Needs to be included in
@@ -11,6 +17,42 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 @Configuration
 @ComponentScan({ "de.mainzelhandler.backend.spring.services", "de.mainzelhandler.backend.spring.controller" })
 @EnableScheduling
-public class MainzelhandlerConfig {
+public class MainzelhandlerConfig implements WebMvcConfigurer {
+
+	/**
+	 * Path prefix of the Mainzelhandler controllers.
+	 */
+	private final String requestPath;
+
+	/**
+	 * Construct a new MainzelhandlerConfig.
+	 *
+	 * @param requestPath Path prefix of the Mainzelhandler controllers.
+	 */
+	public MainzelhandlerConfig(@Value("${mainzelhandler.request-path:}") final String requestPath) {
+		this.requestPath = requestPath;
+	}
+
+	/**
+	 * Registers the {@link DeadlineInterceptor} and the
+	 * {@link PriorityInterceptor}, so the deadline of a client request bounds its
+	 * requests to the Mainzelliste and its priority orders them. Both only apply
+	 * to the paths of the Mainzelhandler controllers, the other controllers of
+	 * the application are left alone.
+	 *
+	 * @param registry Registry of the interceptors.
+	 */
+	@Override
+	public void addInterceptors(final InterceptorRegistry registry) {
+		registry.addInterceptor(new DeadlineInterceptor()).addPathPatterns(controllerPaths());
+		registry.addInterceptor(new PriorityInterceptor()).addPathPatterns(controllerPaths());
+	}
+
+	/**
+	 * @return Path patterns of the Mainzelhandler controllers.
+	 */
+	private String[] controllerPaths() {
+		return new String[] { requestPath + "/tokens/**", requestPath + "/patients/**" };
+	}
 
 }
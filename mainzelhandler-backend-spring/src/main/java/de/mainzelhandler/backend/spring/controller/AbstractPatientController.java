@@ -1,22 +1,39 @@
 package de.mainzelhandler.backend.spring.controller;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 
+import de.mainzelhandler.backend.core.cluster.PeerNodes;
+import de.mainzelhandler.backend.core.exceptions.DeadlineExceededException;
 import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
 import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreException;
+import de.mainzelhandler.backend.core.exceptions.PseudonymStoreFullException;
 import de.mainzelhandler.backend.core.interfaces.PatientInterface;
 import de.mainzelhandler.backend.core.model.Patient;
+import de.mainzelhandler.backend.core.model.TokenStatus;
+import de.mainzelhandler.backend.core.services.PseudonymAwaiter;
+import de.mainzelhandler.backend.core.transport.TransportResponse;
+import de.mainzelhandler.backend.spring.services.PeerNodesSpring;
 import de.mainzelhandler.backend.spring.services.PseudonymManagerSpring;
 
 /**
@@ -39,10 +56,19 @@ public abstract class AbstractPatientController implements PatientInterface {
 	@Autowired
 	private PseudonymManagerSpring pseudonymManager;
 
+	/**
+	 * Identity of this node and its peers.
+	 */
+	@Autowired
+	private PeerNodesSpring peerNodes;
+
 	/**
 	 * Accepts a list of patients to be handled by the application. If the callback
 	 * function is active, the pseudonym of the patient has to be replaced with the
-	 * token used for the pseudonymization.
+	 * token used for the pseudonymization. If pseudonyms are awaited, the
+	 * request is answered asynchronously after the missing pseudonyms arrived or
+	 * the await timeout passed, the tokens without pseudonym are reported in the
+	 * {@link PseudonymAwaiter#STATUS_HEADER}.
 	 *
 	 * @param patients List of patients.
 	 * @return Key-value-pairs. The Key is either the pseudonym if
@@ -51,21 +77,141 @@ public abstract class AbstractPatientController implements PatientInterface {
 	 *         handled by the application.
 	 */
 	@PostMapping("/send")
-	public final Map<String, Boolean> acceptPatientsRequest(@RequestBody final List<Patient> patients) {
+	public final CompletableFuture<ResponseEntity<Map<String, Boolean>>> acceptPatientsRequest(
+			@RequestBody final List<Patient> patients) {
 		LOGGER.info("Recieved " + patients.size() + " patients");
-		return pseudonymManager.processPatients(patients, this::acceptPatients, useCallback);
+
+		final Map<String, TokenStatus> statuses = new LinkedHashMap<String, TokenStatus>();
+
+		return pseudonymManager.processPatientsAsync(patients, this::acceptPatients, useCallback, statuses)
+				.thenApply(result -> withStatuses(statuses, result));
 	}
 
 	/**
 	 * Accepts the callback request from the Mainzelliste. Saves the containing
-	 * token and pseudonym with the pseudonymManager.
+	 * token and pseudonym with the pseudonymManager. The body is read directly
+	 * from the request stream. An array of callback bodies is saved with one
+	 * request to the store.
 	 *
-	 * @param requestBody Token and pseudonym of the pseudonymization.
+	 * @param requestBody Stream of the body containing the token and pseudonym of
+	 *                    the pseudonymization, or an array of such bodies.
+	 * @throws IOException If the request body could not be read.
 	 */
 	@PostMapping("/send/pseudonyms")
-	public final void acceptPatientsPseudonymsRequest(@RequestBody final String requestBody) {
-		LOGGER.info("Recieved pseudonym from mainzelliste: " + requestBody);
-		pseudonymManager.putPseudonym(requestBody);
+	public final void acceptPatientsPseudonymsRequest(final InputStream requestBody) throws IOException {
+		final int count = pseudonymManager.putPseudonyms(requestBody);
+		LOGGER.info("Recieved " + count + " pseudonyms from mainzelliste");
+	}
+
+	/**
+	 * Accepts the callback request from the Mainzelliste for the token issued by
+	 * the given node. Forwards the request to the issuing node, so the pseudonym
+	 * is stored where the patient data will arrive. The request is handled
+	 * locally if it was issued by this node, was already forwarded or the issuing
+	 * node is unknown or fails, the issuing node takes the pseudonym from here
+	 * then.
+	 *
+	 * @param node        Id of the node that issued the token.
+	 * @param forwardedBy Id of the node that forwarded the request, null if the
+	 *                    request comes from the Mainzelliste.
+	 * @param requestBody Stream of the body containing the token and pseudonym of
+	 *                    the pseudonymization.
+	 * @return The response, the status of the issuing node if the request got
+	 *         forwarded.
+	 * @throws IOException If the request body could not be read.
+	 */
+	@PostMapping("/send/pseudonyms/{node}")
+	public final ResponseEntity<Object> acceptNodePseudonymsRequest(@PathVariable final String node,
+			@RequestHeader(name = PeerNodes.FORWARDED_HEADER, required = false) final String forwardedBy,
+			final InputStream requestBody) throws IOException {
+		if (forwardedBy == null && !peerNodes.isLocal(node)) {
+			final byte[] body = requestBody.readAllBytes();
+
+			try {
+				final TransportResponse response = peerNodes.forwardCallback(node, body);
+
+				if (response.getStatusCode() < 500) {
+					LOGGER.info("Forwarded pseudonym from mainzelliste to node " + node);
+					return ResponseEntity.status(response.getStatusCode()).build();
+				}
+
+				LOGGER.warn("Node " + node + " answered the forwarded pseudonym with status "
+						+ response.getStatusCode() + ", keeping it locally");
+			} catch (final IOException | DeadlineExceededException exception) {
+				LOGGER.warn("Could not forward pseudonym to node " + node + ", keeping it locally: "
+						+ exception.getMessage());
+			}
+
+			acceptPatientsPseudonymsRequest(new ByteArrayInputStream(body));
+		} else {
+			acceptPatientsPseudonymsRequest(requestBody);
+		}
+
+		return ResponseEntity.ok().build();
+	}
+
+	/**
+	 * Hands the pseudonyms of the given tokens over to a peer that received the
+	 * patient request for them. Requires the secret shared by the nodes. The
+	 * pseudonyms are only reserved until the peer confirms or cancels the
+	 * reservation.
+	 *
+	 * @param secret      Secret sent by the peer.
+	 * @param reservation Id of the reservation chosen by the peer.
+	 * @param tokens      Tokens not found by the peer.
+	 * @return The tokens found by this node with their pseudonyms, removed from
+	 *         the local store. 403 if the secret does not match.
+	 */
+	@PostMapping("/peer/pseudonyms")
+	public final ResponseEntity<Map<String, String>> takePseudonymsRequest(
+			@RequestHeader(name = PeerNodes.SECRET_HEADER, required = false) final String secret,
+			@RequestHeader(PeerNodes.RESERVATION_HEADER) final String reservation,
+			@RequestBody final List<String> tokens) {
+		if (!peerNodes.isTrusted(secret))
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+		return ResponseEntity.ok(pseudonymManager.reserveTokens(reservation, tokens,
+				peerNodes.getReservationTimeout()));
+	}
+
+	/**
+	 * Confirms a reservation after the peer received its pseudonyms.
+	 *
+	 * @param secret      Secret sent by the peer.
+	 * @param reservation Id of the reservation.
+	 * @return 204, 404 if the reservation is unknown or was already cancelled,
+	 *         403 if the secret does not match.
+	 */
+	@PostMapping("/peer/pseudonyms/{reservation}")
+	public final ResponseEntity<Object> confirmReservationRequest(
+			@RequestHeader(name = PeerNodes.SECRET_HEADER, required = false) final String secret,
+			@PathVariable final String reservation) {
+		if (!peerNodes.isTrusted(secret))
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+		if (!pseudonymManager.confirmReservation(reservation))
+			return ResponseEntity.notFound().build();
+
+		return ResponseEntity.noContent().build();
+	}
+
+	/**
+	 * Cancels a reservation whose take failed at the peer and puts its
+	 * pseudonyms back.
+	 *
+	 * @param secret      Secret sent by the peer.
+	 * @param reservation Id of the reservation.
+	 * @return 204, 403 if the secret does not match.
+	 */
+	@DeleteMapping("/peer/pseudonyms/{reservation}")
+	public final ResponseEntity<Object> cancelReservationRequest(
+			@RequestHeader(name = PeerNodes.SECRET_HEADER, required = false) final String secret,
+			@PathVariable final String reservation) {
+		if (!peerNodes.isTrusted(secret))
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+
+		pseudonymManager.cancelReservation(reservation);
+		return ResponseEntity.noContent().build();
 	}
 
 	/**
@@ -73,27 +219,82 @@ public abstract class AbstractPatientController implements PatientInterface {
 	 * application. The id's are either the patients pseudonyms if
 	 * {@link #useCallback} is false or the token used for the pseudonymization if
 	 * {@link #useCallback} is true. The value of {@link #useCallback} gets send to
-	 * the client with the request of the tokens.
+	 * the client with the request of the tokens. Missing pseudonyms are awaited
+	 * like in {@link #acceptPatientsRequest(List)}.
 	 *
 	 * @param ids List containing id's of the requested patients. An id is either a
 	 *            pseudonym or the token used for the pseudonymization.
 	 * @return Map containing the id's and the corresponding MDAT.
 	 */
 	@PostMapping("/request")
-	public final List<Patient> requestPatientsRequest(@RequestBody List<String> ids) {
+	public final CompletableFuture<ResponseEntity<List<Patient>>> requestPatientsRequest(
+			@RequestBody List<String> ids) {
 		LOGGER.info("Requesting " + ids.size() + " patients");
-		return pseudonymManager.processRequest(ids, this::requestPatients, useCallback);
+
+		final Map<String, TokenStatus> statuses = new LinkedHashMap<String, TokenStatus>();
+
+		return pseudonymManager.processRequestAsync(ids, this::requestPatients, useCallback, statuses)
+				.thenApply(result -> withStatuses(statuses, result));
 	}
 
-	@ExceptionHandler({ MainzellisteRuntimeException.class, MainzellisteConnectionException.class })
+	/**
+	 * Builds the response with the {@link PseudonymAwaiter#STATUS_HEADER}
+	 * listing the tokens that are pending or expired. Tokens missing in the
+	 * header are stored. The header is written by Spring when the result of the
+	 * asynchronous request is dispatched, not by the thread completing it.
+	 *
+	 * @param <T>      Type of the result.
+	 * @param statuses The status of each token.
+	 * @param result   The result of the request.
+	 * @return The response.
+	 */
+	private static <T> ResponseEntity<T> withStatuses(final Map<String, TokenStatus> statuses, final T result) {
+		final String header = PseudonymAwaiter.statusHeader(statuses);
+
+		if (header == null)
+			return ResponseEntity.ok(result);
+
+		return ResponseEntity.ok().header(PseudonymAwaiter.STATUS_HEADER, header).body(result);
+	}
+
+	@ExceptionHandler({ MainzellisteRuntimeException.class, MainzellisteConnectionException.class,
+			PseudonymStoreException.class })
 	public final ResponseEntity<Object> handlePseudonymizationServerException(final Exception exception) {
 		return new ResponseEntity<>(exception.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
 	}
 
+	/**
+	 * Answers a callback request rejected by the full pseudonym store with 503
+	 * and the number of seconds after which the Mainzelliste may retry.
+	 *
+	 * @param exception The rejection.
+	 * @return The response.
+	 */
+	@ExceptionHandler(PseudonymStoreFullException.class)
+	public final ResponseEntity<Object> handlePseudonymStoreFullException(final PseudonymStoreFullException exception) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, (exception.getRetryAfter() + 999) / 1000)))
+				.body(exception.getMessage());
+	}
+
+	/**
+	 * Answers a request whose deadline passed before it could be handled with
+	 * 504.
+	 *
+	 * @param exception The failure.
+	 * @return The response.
+	 */
+	@ExceptionHandler(DeadlineExceededException.class)
+	public final ResponseEntity<Object> handleDeadlineExceededException(final DeadlineExceededException exception) {
+		return new ResponseEntity<>(exception.getMessage(), HttpStatus.GATEWAY_TIMEOUT);
+	}
+
 	/**
 	 * Abstract method to be implemented by the application. Accepts a list of
 	 * patients to get handled by the application. Returns an indicator, whether the
-	 * handling was successful.
+	 * handling was successful. If the callback function is active, the tokens of
+	 * patients not handled successfully stay valid, so the client can send them
+	 * again.
 	 *
 	 * @param patients List of patients.
 	 * @return Map containing the pseudonym of the patients and a boolean that
@@ -0,0 +1,75 @@
+package de.mainzelhandler.backend.spring.controller;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import de.mainzelhandler.backend.core.mainzelliste.Deadline;
+
+/**
+ * Sets the {@link Deadline} of the request thread from the timeout in the
+ * {@link Deadline#HEADER} of the client request, counted from the arrival of
+ * the request, so it bounds all requests to the Mainzelliste and the peers.
+ * Requests with a timeout of 0 are answered with 504 without being handled.
+ */
+public class DeadlineInterceptor implements AsyncHandlerInterceptor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeadlineInterceptor.class);
+
+	/**
+	 * Sets the deadline of the request thread.
+	 *
+	 * @param request  The request.
+	 * @param response The response.
+	 * @param handler  The handler of the request.
+	 * @return false if the deadline already passed.
+	 */
+	@Override
+	public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler) {
+		final long now = System.currentTimeMillis();
+		final long deadline = Deadline.parse(request.getHeader(Deadline.HEADER), now);
+
+		if (deadline != Deadline.NONE && deadline <= now) {
+			LOGGER.debug("Rejected request to " + request.getRequestURI() + " after its deadline");
+			response.setStatus(HttpStatus.GATEWAY_TIMEOUT.value());
+			return false;
+		}
+
+		Deadline.set(deadline);
+		return true;
+	}
+
+	/**
+	 * Removes the deadline from the request thread once an asynchronous request
+	 * released it.
+	 *
+	 * @param request  The request.
+	 * @param response The response.
+	 * @param handler  The handler of the request.
+	 */
+	@Override
+	public void afterConcurrentHandlingStarted(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler) {
+		Deadline.clear();
+	}
+
+	/**
+	 * Removes the deadline from the request thread.
+	 *
+	 * @param request   The request.
+	 * @param response  The response.
+	 * @param handler   The handler of the request.
+	 * @param exception Exception thrown by the handler, if any.
+	 */
+	@Override
+	public void afterCompletion(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler, final Exception exception) {
+		Deadline.clear();
+	}
+
+}
@@ -0,0 +1,61 @@
+package de.mainzelhandler.backend.spring.controller;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import de.mainzelhandler.backend.core.mainzelliste.Priority;
+
+/**
+ * Sets the {@link Priority} of the request thread from the
+ * {@link Priority#HEADER} of the client request, so interactive requests to the
+ * Mainzelliste overtake queued bulk requests. Requests without or with an
+ * invalid header are interactive.
+ */
+public class PriorityInterceptor implements AsyncHandlerInterceptor {
+
+	/**
+	 * Sets the priority of the request thread.
+	 *
+	 * @param request  The request.
+	 * @param response The response.
+	 * @param handler  The handler of the request.
+	 * @return Always true.
+	 */
+	@Override
+	public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler) {
+		Priority.set(Priority.parse(request.getHeader(Priority.HEADER)));
+		return true;
+	}
+
+	/**
+	 * Removes the priority from the request thread once an asynchronous request
+	 * released it.
+	 *
+	 * @param request  The request.
+	 * @param response The response.
+	 * @param handler  The handler of the request.
+	 */
+	@Override
+	public void afterConcurrentHandlingStarted(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler) {
+		Priority.clear();
+	}
+
+	/**
+	 * Removes the priority from the request thread.
+	 *
+	 * @param request   The request.
+	 * @param response  The response.
+	 * @param handler   The handler of the request.
+	 * @param exception Exception thrown by the handler, if any.
+	 */
+	@Override
+	public void afterCompletion(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler, final Exception exception) {
+		Priority.clear();
+	}
+
+}
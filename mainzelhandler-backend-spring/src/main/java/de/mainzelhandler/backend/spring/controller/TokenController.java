@@ -1,8 +1,6 @@
 package de.mainzelhandler.backend.spring.controller;
 
-import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -11,15 +9,19 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import de.mainzelhandler.backend.core.exceptions.DeadlineExceededException;
 import de.mainzelhandler.backend.core.exceptions.MainzellisteConnectionException;
 import de.mainzelhandler.backend.core.exceptions.MainzellisteRuntimeException;
+import de.mainzelhandler.backend.core.exceptions.MainzellisteUnavailableException;
 import de.mainzelhandler.backend.core.interfaces.TokenInterface;
-import de.mainzelhandler.backend.core.mainzelliste.MainzellisteConnection;
-import de.mainzelhandler.backend.core.mainzelliste.MainzellisteSession;
+import de.mainzelhandler.backend.core.mainzelliste.Priority;
 import de.mainzelhandler.backend.core.model.DepseudonymizationUrlRequest;
 import de.mainzelhandler.backend.core.model.DepseudonymizationUrlResponse;
 import de.mainzelhandler.backend.core.model.PseudonymizationUrlRequest;
 import de.mainzelhandler.backend.core.model.PseudonymizationUrlResponse;
+import de.mainzelhandler.backend.spring.services.MainzellisteConnectionSpring;
+import de.mainzelhandler.backend.spring.services.PseudonymManagerSpring;
+import de.mainzelhandler.backend.spring.services.TokenManagerSpring;
 
 /**
  * Interface for the token resource.
@@ -29,42 +31,42 @@ import de.mainzelhandler.backend.core.model.PseudonymizationUrlResponse;
 public class TokenController implements TokenInterface {
 
 	/**
-	 * Connection to the Mainzelliste.
+	 * Service for requesting tokens from the Mainzelliste.
 	 */
-	private MainzellisteConnection mainzellisteConnection;
+	private final TokenManagerSpring tokenManager;
 
 	/**
-	 * Construct a new TokenContoller.
-	 *
-	 * @param mainzellisteUrl        URL of the Mainzelliste.
-	 * @param mainzellisteApiKey     API key of the Mainzelliste.
-	 * @param mainzellisteApiVersion API version of the Mainzelliste to use.
-	 * @param serverPort             Port of the application.
-	 * @param contextPath            Context path of the application.
-	 * @param requestPath            Path of the controller.
-	 * @param serverUrl              URL of the application's server
-	 * @param useCallback            Whether the callback function of the
-	 *                               Mainzelliste should be activated.
+	 * Service awaiting the callback requests of the handed out tokens.
 	 */
-	public TokenController(@Value("${mainzelhandler.mainzelliste.url}") final String mainzellisteUrl,
-			@Value("${mainzelhandler.mainzelliste.api.key}") final String mainzellisteApiKey,
-			@Value("${mainzelhandler.mainzelliste.api.version:3.0}") final String mainzellisteApiVersion,
-			@Value("${server.port}") final String serverPort,
-			@Value("${server.servlet.context-path}") final String contextPath,
-			@Value("${mainzelhandler.request-path:}") final String requestPath,
-			@Value("${mainzelhandler.url}") final String serverUrl,
-			@Value("${mainzelhandler.useCallback:false}") final boolean useCallback) {
+	private final PseudonymManagerSpring pseudonymManager;
 
-		final String callbackUrl = serverUrl + ":" + serverPort + contextPath + requestPath
-				+ "/patients/send/pseudonyms";
+	/**
+	 * Connection to the Mainzelliste, asked for the state of its circuit breaker.
+	 */
+	private final MainzellisteConnectionSpring mainzellisteConnection;
 
-		mainzellisteConnection = new MainzellisteConnection(callbackUrl, useCallback, mainzellisteApiKey,
-				mainzellisteApiVersion, mainzellisteUrl);
+	/**
+	 * Construct a new TokenContoller.
+	 *
+	 * @param tokenManager           Service for requesting tokens from the
+	 *                               Mainzelliste.
+	 * @param pseudonymManager       Service awaiting the callback requests of the
+	 *                               handed out tokens.
+	 * @param mainzellisteConnection Connection to the Mainzelliste, asked for the
+	 *                               state of its circuit breaker.
+	 */
+	public TokenController(final TokenManagerSpring tokenManager, final PseudonymManagerSpring pseudonymManager,
+			final MainzellisteConnectionSpring mainzellisteConnection) {
+		this.tokenManager = tokenManager;
+		this.pseudonymManager = pseudonymManager;
+		this.mainzellisteConnection = mainzellisteConnection;
 	}
 
 	/**
 	 * Request addPatient tokens from the Mainzelliste. Returns the requested amount
-	 * of urls.
+	 * of urls. Tokens that could not be created are reported in the response. The
+	 * callback requests of the tokens are awaited by the patient requests. The
+	 * priority of the request overrides the priority header.
 	 *
 	 * @param amount Amount of requested addPatient token.
 	 * @return PseudonymizationUrlResponse containing the array of urls for
@@ -72,16 +74,21 @@ public class TokenController implements TokenInterface {
 	 */
 	@PostMapping("/addPatient")
 	public PseudonymizationUrlResponse getPseudonymizationUrl(@RequestBody final PseudonymizationUrlRequest request) {
-		final HttpClient httpClient = HttpClientBuilder.create().build();
-		final MainzellisteSession session = mainzellisteConnection.createMainzellisteSession(httpClient);
-		return session.createAddPatientTokens(httpClient, request.getCount());
+		final PseudonymizationUrlResponse response = Priority.call(Priority.parse(request.getPriority()),
+				() -> tokenManager.createAddPatientTokens(request.getCount()));
+
+		if (response.isUseCallback())
+			pseudonymManager.expectTokens(response.getUrlTokens());
+
+		return response;
 	}
 
 	/**
 	 * Creates an url for the depsudonymization of the given pseudonyms. The url can
 	 * be used to depseudonymize all given pseudonyms that are valid. Returns the
 	 * url and a list containing all invalid pseudonyms that can't get
-	 * depseudonymized with the returned url.
+	 * depseudonymized with the returned url. The priority of the request
+	 * overrides the priority header.
 	 *
 	 * @param pseudonyms Pseudonyms to depseudonymize.
 	 * @return DepseudonymizationResponse containing the url and the invalid
@@ -90,14 +97,39 @@ public class TokenController implements TokenInterface {
 	@PostMapping("/readPatients")
 	public DepseudonymizationUrlResponse getDepseudonymizationUrl(
 			@RequestBody final DepseudonymizationUrlRequest request) {
-		final HttpClient httpClient = HttpClientBuilder.create().build();
-		final MainzellisteSession session = mainzellisteConnection.createMainzellisteSession(httpClient);
-		return session.createReadPatientsToken(httpClient, request.getPseudonyms(), request.getResultFields());
+		return Priority.call(Priority.parse(request.getPriority()),
+				() -> tokenManager.createReadPatientsToken(request.getPseudonyms(), request.getResultFields()));
 	}
 
+	/**
+	 * Answers a failed request to the Mainzelliste with 503 and the number of
+	 * seconds after which the client may retry. The time is taken from the
+	 * circuit breaker of the connection, at least one second.
+	 *
+	 * @param exception The failure.
+	 * @return The response.
+	 */
 	@ExceptionHandler({ MainzellisteRuntimeException.class, MainzellisteConnectionException.class })
 	public final ResponseEntity<Object> handlePseudonymizationServerException(final Exception exception) {
-		return new ResponseEntity<>(exception.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+		final long retryAfter = exception instanceof MainzellisteUnavailableException
+				? ((MainzellisteUnavailableException) exception).getRetryAfter()
+				: mainzellisteConnection.getRetryAfter();
+
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, (retryAfter + 999) / 1000)))
+				.body(exception.getMessage());
+	}
+
+	/**
+	 * Answers a request whose deadline passed before the tokens could be created
+	 * with 504.
+	 *
+	 * @param exception The failure.
+	 * @return The response.
+	 */
+	@ExceptionHandler(DeadlineExceededException.class)
+	public final ResponseEntity<Object> handleDeadlineExceededException(final DeadlineExceededException exception) {
+		return new ResponseEntity<>(exception.getMessage(), HttpStatus.GATEWAY_TIMEOUT);
 	}
 
 }
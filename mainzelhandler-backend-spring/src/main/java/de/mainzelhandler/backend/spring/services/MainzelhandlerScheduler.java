@@ -0,0 +1,123 @@
+package de.mainzelhandler.backend.spring.services;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import de.mainzelhandler.backend.core.services.PseudonymManager;
+
+/**
+ * Runs the periodic tasks of the library on its own pool of threads. The
+ * refill of the reservoir blocks on the Mainzelliste and would delay the
+ * refresh of the sessions and the expiry of the pseudonyms on a single thread.
+ * The pool is not registered as a TaskScheduler bean and the tasks are not
+ * annotated as scheduled, so the scheduling of the application is left alone.
+ */
+@Service
+public class MainzelhandlerScheduler {
+
+	/**
+	 * Pool running the tasks.
+	 */
+	private final ThreadPoolTaskScheduler taskScheduler;
+
+	/**
+	 * Pool of sessions on the Mainzelliste.
+	 */
+	private final MainzellisteSessionPoolSpring sessionPool;
+
+	/**
+	 * Service requesting the tokens.
+	 */
+	private final TokenManagerSpring tokenManager;
+
+	/**
+	 * Service storing the pseudonyms.
+	 */
+	private final PseudonymManagerSpring pseudonymManager;
+
+	/**
+	 * Time in milliseconds between the starts of two session refreshes.
+	 */
+	private final long refreshInterval;
+
+	/**
+	 * Time in milliseconds between the end of a refill and the start of the
+	 * next one.
+	 */
+	private final long refillInterval;
+
+	/**
+	 * Time in milliseconds between the starts of two cleanings of the
+	 * pseudonyms.
+	 */
+	private final long cleanInterval;
+
+	/**
+	 * Time in milliseconds between the end of a journal compaction and the
+	 * start of the next one.
+	 */
+	private final long compactInterval;
+
+	/**
+	 * Constructs a new MainzelhandlerScheduler.
+	 *
+	 * @param poolSize         Number of threads running the tasks.
+	 * @param sessionPool      Pool of sessions on the Mainzelliste.
+	 * @param tokenManager     Service requesting the tokens.
+	 * @param pseudonymManager Service storing the pseudonyms.
+	 * @param refreshInterval  Time in milliseconds between two session
+	 *                         refreshes.
+	 * @param refillInterval   Time in milliseconds between two refills of the
+	 *                         reservoir.
+	 * @param pseudonymTimeout Timeout of pseudonyms in milliseconds, the
+	 *                         pseudonyms are cleaned every 1/64 of it.
+	 * @param compactInterval  Time in milliseconds between two journal
+	 *                         compactions.
+	 */
+	public MainzelhandlerScheduler(@Value("${mainzelhandler.scheduling.pool-size:4}") final int poolSize,
+			final MainzellisteSessionPoolSpring sessionPool, final TokenManagerSpring tokenManager,
+			final PseudonymManagerSpring pseudonymManager,
+			@Value("${mainzelhandler.mainzelliste.session.refresh-interval:10000}") final long refreshInterval,
+			@Value("${mainzelhandler.mainzelliste.reservoir.refill-interval:1000}") final long refillInterval,
+			@Value("${mainzelhandler.pseudonym-timeout:300000}") final long pseudonymTimeout,
+			@Value("${mainzelhandler.pseudonym-store.journal.compact-interval:60000}") final long compactInterval) {
+		this.taskScheduler = new ThreadPoolTaskScheduler();
+		this.taskScheduler.setPoolSize(poolSize);
+		this.taskScheduler.setThreadNamePrefix("mainzelhandler-schedule-");
+		this.taskScheduler.setDaemon(true);
+		this.sessionPool = sessionPool;
+		this.tokenManager = tokenManager;
+		this.pseudonymManager = pseudonymManager;
+		this.refreshInterval = refreshInterval;
+		this.refillInterval = refillInterval;
+		this.cleanInterval = PseudonymManager.expiryTick(pseudonymTimeout);
+		this.compactInterval = compactInterval;
+	}
+
+	/**
+	 * Starts the pool and schedules the tasks. Called by Spring Boot after the
+	 * services are constructed.
+	 */
+	@PostConstruct
+	public void start() {
+		taskScheduler.initialize();
+		taskScheduler.scheduleAtFixedRate(sessionPool::refreshSessionsSchedule, refreshInterval);
+		taskScheduler.scheduleWithFixedDelay(tokenManager::refillReservoirSchedule, refillInterval);
+		taskScheduler.scheduleAtFixedRate(pseudonymManager::cleanPseudonymsSchedule, cleanInterval);
+		taskScheduler.scheduleWithFixedDelay(pseudonymManager::compactStoreSchedule, compactInterval);
+	}
+
+	/**
+	 * Stops the pool. Called by Spring Boot on shutdown before the services
+	 * are closed.
+	 */
+	@PreDestroy
+	public void destroy() {
+		taskScheduler.shutdown();
+	}
+
+}
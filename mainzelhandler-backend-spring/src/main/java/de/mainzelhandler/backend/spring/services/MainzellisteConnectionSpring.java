@@ -0,0 +1,131 @@
+package de.mainzelhandler.backend.spring.services;
+
+import java.io.IOException;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.mainzelhandler.backend.core.cluster.PeerNodes;
+import de.mainzelhandler.backend.core.mainzelliste.CircuitBreaker;
+import de.mainzelhandler.backend.core.mainzelliste.ConcurrencyLimiter;
+import de.mainzelhandler.backend.core.mainzelliste.ConnectionPoolConfig;
+import de.mainzelhandler.backend.core.mainzelliste.MainzellisteConnection;
+import de.mainzelhandler.backend.core.mainzelliste.RetryPolicy;
+import de.mainzelhandler.backend.core.transport.MainzellisteTransport;
+
+/**
+ * Connection to the Mainzelliste shared by all controllers. Owns the HTTP
+ * transport used for all requests to the Mainzelliste.
+ */
+@Service
+public class MainzellisteConnectionSpring extends MainzellisteConnection {
+
+	/**
+	 * Construct a new MainzellisteConnectionSpring.
+	 *
+	 * @param mainzellisteUrl        URL of the Mainzelliste.
+	 * @param mainzellisteApiKey     API key of the Mainzelliste.
+	 * @param mainzellisteApiVersion API version of the Mainzelliste to use.
+	 * @param serverPort             Port of the application.
+	 * @param contextPath            Context path of the application.
+	 * @param requestPath            Path of the controller.
+	 * @param serverUrl              URL of the application's server
+	 * @param useCallback            Whether the callback function of the
+	 *                               Mainzelliste should be activated.
+	 * @param maxTotal               Maximum number of pooled connections.
+	 * @param maxPerRoute            Maximum number of pooled connections per
+	 *                               route.
+	 * @param idleTimeout            Time in milliseconds after which idle
+	 *                               connections get evicted.
+	 * @param keepAlive              Time in milliseconds a connection is kept
+	 *                               alive if the Mainzelliste does not send a
+	 *                               Keep-Alive header.
+	 * @param transport              Name of the HTTP transport, apache or jdk.
+	 * @param connectTimeout         Time in milliseconds to establish a
+	 *                               connection or to lease one from the pool.
+	 * @param sessionTimeout         Time in milliseconds to wait for the
+	 *                               response to a session request.
+	 * @param tokenTimeout           Time in milliseconds to wait for the
+	 *                               response to a token request.
+	 * @param failureThreshold       Number of consecutive failures opening the
+	 *                               circuit breaker, 0 to disable it.
+	 * @param openDuration           Time in milliseconds the circuit breaker
+	 *                               stays open.
+	 * @param retryAttempts          Maximum number of attempts of the
+	 *                               idempotent requests.
+	 * @param retryBaseDelay         Bound of the delay before the first retry in
+	 *                               milliseconds.
+	 * @param retryMaxDelay          Maximum bound of the delay before a retry in
+	 *                               milliseconds.
+	 * @param initialLimit           Limit of the requests in flight before round
+	 *                               trip times are observed.
+	 * @param minLimit               Lower bound of the limit of the requests in
+	 *                               flight.
+	 * @param maxLimit               Upper bound of the limit of the requests in
+	 *                               flight, 0 to disable the limiter. Capped at
+	 *                               the connections of the transport.
+	 * @param queueSize              Maximum number of requests waiting for a
+	 *                               permit.
+	 * @param queueTimeout           Maximum time in milliseconds a request waits
+	 *                               for a permit.
+	 * @param interactiveBurst       Number of interactive requests granted a
+	 *                               permit in a row while bulk requests are
+	 *                               waiting, after which a bulk request is
+	 *                               granted one.
+	 * @param peerNodes              Identity of this node, appended to the
+	 *                               callback URL.
+	 */
+	public MainzellisteConnectionSpring(@Value("${mainzelhandler.mainzelliste.url}") final String mainzellisteUrl,
+			@Value("${mainzelhandler.mainzelliste.api.key}") final String mainzellisteApiKey,
+			@Value("${mainzelhandler.mainzelliste.api.version:3.0}") final String mainzellisteApiVersion,
+			@Value("${server.port}") final String serverPort,
+			@Value("${server.servlet.context-path}") final String contextPath,
+			@Value("${mainzelhandler.request-path:}") final String requestPath,
+			@Value("${mainzelhandler.url}") final String serverUrl,
+			@Value("${mainzelhandler.useCallback:false}") final boolean useCallback,
+			@Value("${mainzelhandler.mainzelliste.connection-pool.max-total:20}") final int maxTotal,
+			@Value("${mainzelhandler.mainzelliste.connection-pool.max-per-route:20}") final int maxPerRoute,
+			@Value("${mainzelhandler.mainzelliste.connection-pool.idle-timeout:30000}") final long idleTimeout,
+			@Value("${mainzelhandler.mainzelliste.connection-pool.keep-alive:30000}") final long keepAlive,
+			@Value("${mainzelhandler.mainzelliste.transport:apache}") final String transport,
+			@Value("${mainzelhandler.mainzelliste.timeout.connect:5000}") final long connectTimeout,
+			@Value("${mainzelhandler.mainzelliste.timeout.session:10000}") final long sessionTimeout,
+			@Value("${mainzelhandler.mainzelliste.timeout.token:10000}") final long tokenTimeout,
+			@Value("${mainzelhandler.mainzelliste.circuit-breaker.failure-threshold:5}") final int failureThreshold,
+			@Value("${mainzelhandler.mainzelliste.circuit-breaker.open-duration:10000}") final long openDuration,
+			@Value("${mainzelhandler.mainzelliste.retry.max-attempts:3}") final int retryAttempts,
+			@Value("${mainzelhandler.mainzelliste.retry.base-delay:100}") final long retryBaseDelay,
+			@Value("${mainzelhandler.mainzelliste.retry.max-delay:2000}") final long retryMaxDelay,
+			@Value("${mainzelhandler.mainzelliste.limiter.initial-limit:8}") final int initialLimit,
+			@Value("${mainzelhandler.mainzelliste.limiter.min-limit:1}") final int minLimit,
+			@Value("${mainzelhandler.mainzelliste.limiter.max-limit:64}") final int maxLimit,
+			@Value("${mainzelhandler.mainzelliste.limiter.queue-size:10000}") final int queueSize,
+			@Value("${mainzelhandler.mainzelliste.limiter.queue-timeout:5000}") final long queueTimeout,
+			@Value("${mainzelhandler.mainzelliste.priority.interactive-burst:10}") final int interactiveBurst,
+			final PeerNodesSpring peerNodes) {
+		super(peerNodes.callbackUrl(serverUrl + ":" + serverPort + contextPath + requestPath
+				+ PeerNodes.CALLBACK_PATH), useCallback, mainzellisteApiKey, mainzellisteApiVersion, mainzellisteUrl,
+				MainzellisteTransport.create(transport,
+						new ConnectionPoolConfig(maxTotal, maxPerRoute, idleTimeout, keepAlive, connectTimeout)));
+		setSessionTimeout(sessionTimeout);
+		setTokenTimeout(tokenTimeout);
+		final int limit = Math.min(maxLimit, getTransport().getMaxConcurrency());
+		setConcurrencyLimiter(maxLimit > 0
+				? new ConcurrencyLimiter(initialLimit, Math.min(minLimit, limit), limit, queueSize, queueTimeout,
+						interactiveBurst)
+				: null);
+		setCircuitBreaker(failureThreshold > 0 ? new CircuitBreaker(failureThreshold, openDuration) : null);
+		setRetryPolicy(new RetryPolicy(retryAttempts, retryBaseDelay, retryMaxDelay));
+	}
+
+	/**
+	 * Closes the HTTP transport. Called by Spring Boot on shutdown.
+	 */
+	@PreDestroy
+	public void destroy() throws IOException {
+		close();
+	}
+
+}
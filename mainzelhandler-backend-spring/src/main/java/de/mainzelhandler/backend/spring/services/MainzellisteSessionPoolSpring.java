@@ -0,0 +1,55 @@
+package de.mainzelhandler.backend.spring.services;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.mainzelhandler.backend.core.mainzelliste.MainzellisteSessionPool;
+import de.mainzelhandler.backend.core.mainzelliste.SessionPoolConfig;
+
+/**
+ * Pool of sessions on the Mainzelliste shared by all controllers.
+ */
+@Service
+public class MainzellisteSessionPoolSpring extends MainzellisteSessionPool {
+
+	/**
+	 * Construct a new MainzellisteSessionPoolSpring.
+	 *
+	 * @param mainzellisteConnection Connection to the Mainzelliste.
+	 * @param size                   Number of sessions kept alive by the pool.
+	 * @param ttl                    Time in milliseconds a session gets leased.
+	 * @param maxTokens              Number of tokens after which a session is
+	 *                               retired.
+	 * @param refreshAhead           Time in milliseconds before the end of the ttl
+	 *                               at which a session gets replaced.
+	 * @param retireDelay            Time in milliseconds a retired session is kept
+	 *                               before it gets deleted.
+	 */
+	public MainzellisteSessionPoolSpring(final MainzellisteConnectionSpring mainzellisteConnection,
+			@Value("${mainzelhandler.mainzelliste.session.pool-size:2}") final int size,
+			@Value("${mainzelhandler.mainzelliste.session.ttl:300000}") final long ttl,
+			@Value("${mainzelhandler.mainzelliste.session.max-tokens:10000}") final int maxTokens,
+			@Value("${mainzelhandler.mainzelliste.session.refresh-ahead:60000}") final long refreshAhead,
+			@Value("${mainzelhandler.mainzelliste.session.retire-delay:600000}") final long retireDelay) {
+		super(mainzellisteConnection, new SessionPoolConfig(size, ttl, maxTokens, refreshAhead, retireDelay));
+	}
+
+	/**
+	 * Refreshes the pooled sessions. Called by the
+	 * {@link MainzelhandlerScheduler} every 10 seconds by default.
+	 */
+	public void refreshSessionsSchedule() {
+		refreshSessions();
+	}
+
+	/**
+	 * Deletes the pooled sessions. Called by Spring Boot on shutdown.
+	 */
+	@PreDestroy
+	public void destroy() {
+		close();
+	}
+
+}
@@ -0,0 +1,43 @@
+package de.mainzelhandler.backend.spring.services;
+
+import java.io.IOException;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.mainzelhandler.backend.core.cluster.PeerNodes;
+
+/**
+ * Identity of this instance of the application and its peers shared by the
+ * connection, the pseudonym manager and the controllers.
+ */
+@Service
+public class PeerNodesSpring extends PeerNodes {
+
+	/**
+	 * Constructs a new PeerNodesSpring.
+	 *
+	 * @param nodeId  Id of this node, empty if the instance runs alone.
+	 * @param peers   URLs of the other nodes in the format {@code id=url,id=url}.
+	 * @param secret  Secret shared by the nodes.
+	 * @param timeout Time in milliseconds to connect to a peer and to wait for its
+	 *                response.
+	 */
+	public PeerNodesSpring(@Value("${mainzelhandler.node.id:}") final String nodeId,
+			@Value("${mainzelhandler.node.peers:}") final String peers,
+			@Value("${mainzelhandler.node.secret:}") final String secret,
+			@Value("${mainzelhandler.node.timeout:5000}") final long timeout) {
+		super(nodeId.trim(), PeerNodes.parsePeers(peers), secret, timeout);
+	}
+
+	/**
+	 * Closes the HTTP transport. Called by Spring Boot on shutdown.
+	 */
+	@PreDestroy
+	public void destroy() throws IOException {
+		close();
+	}
+
+}
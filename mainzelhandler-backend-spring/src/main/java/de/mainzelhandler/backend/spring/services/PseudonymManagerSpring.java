@@ -1,10 +1,17 @@
 package de.mainzelhandler.backend.spring.services;
 
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import de.mainzelhandler.backend.core.services.PseudonymAwaiter;
 import de.mainzelhandler.backend.core.services.PseudonymManager;
+import de.mainzelhandler.backend.core.store.OverflowPolicy;
+import de.mainzelhandler.backend.core.store.PseudonymStore;
+import de.mainzelhandler.backend.core.store.PseudonymStoreConfig;
 
 /**
  * Service for temporary storage of token and pseudonyms.
@@ -12,16 +19,119 @@ import de.mainzelhandler.backend.core.services.PseudonymManager;
 @Service
 public class PseudonymManagerSpring extends PseudonymManager {
 
-	public PseudonymManagerSpring(@Value("${mainzelhandler.pseudonym-timeout:300000}") final long pseudonymTimeout) {
-		super(pseudonymTimeout);
+	/**
+	 * Constructs a new PseudonymManagerSpring.
+	 *
+	 * @param pseudonymTimeout Timeout of pseudonyms in milliseconds.
+	 * @param storeType        Name of the pseudonym store, 'heap', 'off-heap',
+	 *                         'jdbc' or 'redis'.
+	 * @param capacity         Maximum number of pseudonyms.
+	 * @param overflowPolicy   Behaviour of the full store, 'reject' or
+	 *                         'evict-oldest'.
+	 * @param jdbcTable        Table of the jdbc store.
+	 * @param redisUrl         URL of the Redis server of the redis store.
+	 * @param redisKeyPrefix   Prefix of the keys of the redis store.
+	 * @param redisPoolSize    Number of idle connections kept by the redis
+	 *                         store.
+	 * @param redisTimeout     Connect and read timeout in milliseconds of the
+	 *                         redis store.
+	 * @param journalPath      Directory of the journal of the heap and off-heap
+	 *                         stores, empty for no journal.
+	 * @param journalSize      Size of a journal segment in bytes.
+	 * @param journalSync      Whether a callback request waits until its
+	 *                         pseudonym is forced to the disk.
+	 * @param awaitTimeout     Maximum time in milliseconds a patient request
+	 *                         waits for missing pseudonyms, 0 to not wait.
+	 * @param awaitThreads     Number of threads continuing the patient requests
+	 *                         after their wait.
+	 * @param dataSource       DataSource of the application, used by the jdbc
+	 *                         store.
+	 * @param peerNodes        Other instances of the application.
+	 */
+	public PseudonymManagerSpring(@Value("${mainzelhandler.pseudonym-timeout:300000}") final long pseudonymTimeout,
+			@Value("${mainzelhandler.pseudonym-store.type:heap}") final String storeType,
+			@Value("${mainzelhandler.pseudonym-store.capacity:100000}") final int capacity,
+			@Value("${mainzelhandler.pseudonym-store.overflow-policy:reject}") final String overflowPolicy,
+			@Value("${mainzelhandler.pseudonym-store.jdbc.table:mainzelhandler_pseudonyms}") final String jdbcTable,
+			@Value("${mainzelhandler.pseudonym-store.redis.url:redis://localhost:6379}") final String redisUrl,
+			@Value("${mainzelhandler.pseudonym-store.redis.key-prefix:mainzelhandler:pseudonyms:}")
+			final String redisKeyPrefix,
+			@Value("${mainzelhandler.pseudonym-store.redis.pool-size:8}") final int redisPoolSize,
+			@Value("${mainzelhandler.pseudonym-store.redis.timeout:2000}") final int redisTimeout,
+			@Value("${mainzelhandler.pseudonym-store.journal.path:}") final String journalPath,
+			@Value("${mainzelhandler.pseudonym-store.journal.segment-size:67108864}") final int journalSize,
+			@Value("${mainzelhandler.pseudonym-store.journal.sync:true}") final boolean journalSync,
+			@Value("${mainzelhandler.await-pseudonyms.timeout:0}") final long awaitTimeout,
+			@Value("${mainzelhandler.await-pseudonyms.threads:8}") final int awaitThreads,
+			final ObjectProvider<DataSource> dataSource, final PeerNodesSpring peerNodes) {
+		super(PseudonymStore.create(config(pseudonymTimeout, storeType, capacity, overflowPolicy, jdbcTable,
+				redisUrl, redisKeyPrefix, redisPoolSize, redisTimeout, journalPath, journalSize, journalSync),
+				dataSource.getIfAvailable()));
+		setPeerNodes(peerNodes);
+
+		if (awaitTimeout > 0)
+			setAwaiter(new PseudonymAwaiter(awaitTimeout, pseudonymTimeout, capacity, awaitThreads));
 	}
 
 	/**
-	 * Cleans the timeouted pseudonyms. Called by Spring Boot every 5 minutes.
+	 * Cleans the timeouted pseudonyms. Called by the
+	 * {@link MainzelhandlerScheduler} every 1/64 of the pseudonym timeout.
 	 */
-	@Scheduled(fixedRate = 300000)
 	public void cleanPseudonymsSchedule() {
 		cleanPseudonyms();
 	}
 
+	/**
+	 * Compacts the journal of the pseudonym store into a snapshot. Called by
+	 * the {@link MainzelhandlerScheduler} every compact-interval.
+	 */
+	public void compactStoreSchedule() {
+		compactStore();
+	}
+
+	/**
+	 * Closes the pseudonym store and the awaiter. Called by Spring Boot on shutdown.
+	 */
+	@PreDestroy
+	public void destroy() {
+		close();
+	}
+
+	/**
+	 * Builds the configuration of the store.
+	 *
+	 * @param pseudonymTimeout Timeout of pseudonyms in milliseconds.
+	 * @param storeType        Name of the pseudonym store.
+	 * @param capacity         Maximum number of pseudonyms.
+	 * @param overflowPolicy   Behaviour of the full store.
+	 * @param jdbcTable        Table of the jdbc store.
+	 * @param redisUrl         URL of the Redis server of the redis store.
+	 * @param redisKeyPrefix   Prefix of the keys of the redis store.
+	 * @param redisPoolSize    Number of idle connections kept by the redis
+	 *                         store.
+	 * @param redisTimeout     Connect and read timeout in milliseconds of the
+	 *                         redis store.
+	 * @param journalPath      Directory of the journal, empty for no journal.
+	 * @param journalSize      Size of a journal segment in bytes.
+	 * @param journalSync      Whether a put waits until the journal is forced to
+	 *                         the disk.
+	 * @return The configuration.
+	 */
+	private static PseudonymStoreConfig config(final long pseudonymTimeout, final String storeType,
+			final int capacity, final String overflowPolicy, final String jdbcTable, final String redisUrl,
+			final String redisKeyPrefix, final int redisPoolSize, final int redisTimeout, final String journalPath,
+			final int journalSize, final boolean journalSync) {
+		final PseudonymStoreConfig config = new PseudonymStoreConfig(storeType, pseudonymTimeout, capacity,
+				OverflowPolicy.of(overflowPolicy));
+		config.setJdbcTable(jdbcTable);
+		config.setRedisUrl(redisUrl);
+		config.setRedisKeyPrefix(redisKeyPrefix);
+		config.setRedisPoolSize(redisPoolSize);
+		config.setRedisTimeout(redisTimeout);
+		config.setJournalPath(journalPath);
+		config.setJournalSegmentSize(journalSize);
+		config.setJournalSync(journalSync);
+		return config;
+	}
+
 }
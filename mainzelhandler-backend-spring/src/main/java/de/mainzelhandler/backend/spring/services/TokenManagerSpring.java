@@ -0,0 +1,81 @@
+package de.mainzelhandler.backend.spring.services;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.mainzelhandler.backend.core.mainzelliste.AddPatientTokenReservoir;
+import de.mainzelhandler.backend.core.mainzelliste.TokenHedger;
+import de.mainzelhandler.backend.core.services.TokenManager;
+
+/**
+ * Service for requesting tokens from the Mainzelliste.
+ */
+@Service
+public class TokenManagerSpring extends TokenManager {
+
+	/**
+	 * Construct a new TokenManagerSpring.
+	 *
+	 * @param sessionPool            Pool of sessions on the Mainzelliste.
+	 * @param maxInFlight            Maximum number of token requests in flight.
+	 * @param spreadSessions         Whether the tokens of a single request get
+	 *                               spread over several pooled sessions.
+	 * @param reservoirEnabled       Whether addPatient tokens get pre-created in a
+	 *                               reservoir.
+	 * @param reservoirLowWatermark  Minimum fill level of the reservoir.
+	 * @param reservoirHighWatermark Maximum fill level of the reservoir.
+	 * @param reservoirMinRemaining  Minimum time in milliseconds a reserved token
+	 *                               has to stay valid to be served.
+	 * @param readPatientsChunkSize  Maximum number of pseudonyms per readPatients
+	 *                               token, 0 to disable the split.
+	 * @param hedgingEnabled         Whether slow addPatient token requests get
+	 *                               hedged.
+	 * @param hedgingPercentile      Percentile of the latencies after which a
+	 *                               request is hedged.
+	 * @param hedgingMinDelay        Minimum time in milliseconds before a request
+	 *                               is hedged.
+	 * @param hedgingBudget          Fraction of the requests that may be hedged.
+	 * @param interactiveBurst       Number of interactive token requests started
+	 *                               in a row while bulk token requests are
+	 *                               waiting, after which a bulk one is started.
+	 */
+	public TokenManagerSpring(final MainzellisteSessionPoolSpring sessionPool,
+			@Value("${mainzelhandler.mainzelliste.tokens.max-in-flight:8}") final int maxInFlight,
+			@Value("${mainzelhandler.mainzelliste.tokens.spread-sessions:true}") final boolean spreadSessions,
+			@Value("${mainzelhandler.mainzelliste.reservoir.enabled:false}") final boolean reservoirEnabled,
+			@Value("${mainzelhandler.mainzelliste.reservoir.low-watermark:10}") final int reservoirLowWatermark,
+			@Value("${mainzelhandler.mainzelliste.reservoir.high-watermark:200}") final int reservoirHighWatermark,
+			@Value("${mainzelhandler.mainzelliste.reservoir.min-remaining:120000}") final long reservoirMinRemaining,
+			@Value("${mainzelhandler.mainzelliste.read-patients.chunk-size:0}") final int readPatientsChunkSize,
+			@Value("${mainzelhandler.mainzelliste.hedging.enabled:false}") final boolean hedgingEnabled,
+			@Value("${mainzelhandler.mainzelliste.hedging.percentile:0.95}") final double hedgingPercentile,
+			@Value("${mainzelhandler.mainzelliste.hedging.min-delay:20}") final long hedgingMinDelay,
+			@Value("${mainzelhandler.mainzelliste.hedging.budget:0.05}") final double hedgingBudget,
+			@Value("${mainzelhandler.mainzelliste.priority.interactive-burst:10}") final int interactiveBurst) {
+		super(sessionPool, maxInFlight, spreadSessions, reservoirEnabled
+				? new AddPatientTokenReservoir(reservoirLowWatermark, reservoirHighWatermark, reservoirMinRemaining)
+				: null, readPatientsChunkSize, interactiveBurst);
+
+		if (hedgingEnabled)
+			setHedger(new TokenHedger(hedgingPercentile, hedgingMinDelay, hedgingBudget));
+	}
+
+	/**
+	 * Refills the reservoir of addPatient tokens. Called by the
+	 * {@link MainzelhandlerScheduler} every second by default.
+	 */
+	public void refillReservoirSchedule() {
+		refillReservoir();
+	}
+
+	/**
+	 * Stops the worker threads and the hedger. Called by Spring Boot on shutdown.
+	 */
+	@PreDestroy
+	public void destroy() {
+		close();
+	}
+
+}
@@ -0,0 +1,51 @@
+package de.mainzelhandler.backend.spring;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.bind.annotation.RestController;
+
+import de.mainzelhandler.backend.core.model.Patient;
+import de.mainzelhandler.backend.spring.controller.AbstractPatientController;
+
+/**
+ * Application serving the controllers of the library with a patient controller
+ * that keeps nothing, so the controllers can be tested with MockMvc. Lies
+ * outside of the scanned packages of the {@link MainzelhandlerConfig}.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@Import({ MainzelhandlerConfig.class, TestApplication.EchoPatientController.class })
+public class TestApplication {
+
+	/**
+	 * Accepts every patient and answers every requested pseudonym with a
+	 * patient.
+	 */
+	@RestController
+	static class EchoPatientController extends AbstractPatientController {
+
+		@Override
+		public Map<String, Boolean> acceptPatients(final List<Patient> patients) {
+			final Map<String, Boolean> accepted = new LinkedHashMap<String, Boolean>();
+
+			for (final Patient patient : patients)
+				accepted.put(patient.getPseudonym(), true);
+
+			return accepted;
+		}
+
+		@Override
+		public List<Patient> requestPatients(final List<String> pseudonyms) {
+			return pseudonyms.stream().map(pseudonym -> new Patient(pseudonym, "mdat of " + pseudonym))
+					.collect(Collectors.toList());
+		}
+
+	}
+
+}
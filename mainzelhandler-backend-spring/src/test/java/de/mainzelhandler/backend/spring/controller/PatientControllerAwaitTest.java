@@ -0,0 +1,82 @@
+package de.mainzelhandler.backend.spring.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import de.mainzelhandler.backend.core.services.PseudonymAwaiter;
+import de.mainzelhandler.backend.spring.TestApplication;
+import de.mainzelhandler.backend.spring.services.PseudonymManagerSpring;
+
+/**
+ * Patient requests waiting for the callback requests of their tokens. The
+ * Mainzelliste is not reachable, the tokens are registered as handed out
+ * directly.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = TestApplication.class, properties = {
+		"mainzelhandler.mainzelliste.url=http://127.0.0.1:1", "mainzelhandler.useCallback=true",
+		"mainzelhandler.await-pseudonyms.timeout=300" })
+@AutoConfigureMockMvc
+class PatientControllerAwaitTest {
+
+	private static final String PATIENTS = "/api/patients";
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private PseudonymManagerSpring pseudonymManager;
+
+	private void handOut(final String token) {
+		pseudonymManager.expectTokens(new String[] { "http://127.0.0.1:1/patients?tokenId=" + token });
+	}
+
+	@Test
+	void reportsMissingTokensInStatusHeaderTest() throws Exception {
+		handOut("pending1");
+
+		final MvcResult result = mvc.perform(post(PATIENTS + "/request").contentType(MediaType.APPLICATION_JSON)
+				.content("[\"pending1\",\"unknown1\"]"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(header().string(PseudonymAwaiter.STATUS_HEADER, "pending1=pending, unknown1=expired"))
+				.andExpect(jsonPath("$.length()").value(0));
+	}
+
+	@Test
+	void answersAfterCallbackArrivedTest() throws Exception {
+		handOut("arriving1");
+
+		final MvcResult result = mvc.perform(post(PATIENTS + "/request").contentType(MediaType.APPLICATION_JSON)
+				.content("[\"arriving1\"]"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mvc.perform(post(PATIENTS + "/send/pseudonyms").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"tokenId\":\"arriving1\",\"id\":\"pid1\"}"))
+				.andExpect(status().isOk());
+
+		mvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist(PseudonymAwaiter.STATUS_HEADER))
+				.andExpect(jsonPath("$[0].mdat").value("mdat of pid1"));
+	}
+
+}
@@ -0,0 +1,152 @@
+package de.mainzelhandler.backend.spring.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import de.mainzelhandler.backend.core.cluster.PeerNodes;
+import de.mainzelhandler.backend.spring.TestApplication;
+import de.mainzelhandler.backend.spring.services.PseudonymManagerSpring;
+
+/**
+ * Callback and peer requests of the patient controller on node a. Its peer b
+ * and the Mainzelliste are not reachable.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = TestApplication.class, properties = {
+		"mainzelhandler.mainzelliste.url=http://127.0.0.1:1", "mainzelhandler.node.id=a",
+		"mainzelhandler.node.peers=b=http://127.0.0.1:1", "mainzelhandler.node.secret=secret",
+		"mainzelhandler.pseudonym-store.capacity=20" })
+@AutoConfigureMockMvc
+class PatientControllerTest {
+
+	private static final String PATIENTS = "/api/patients";
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private PseudonymManagerSpring pseudonymManager;
+
+	private static String callback(final String token, final String pseudonym) {
+		return "{\"tokenId\":\"" + token + "\",\"id\":\"" + pseudonym + "\"}";
+	}
+
+	private static MockHttpServletRequestBuilder json(final MockHttpServletRequestBuilder request,
+			final String body) {
+		return request.contentType(MediaType.APPLICATION_JSON).content(body);
+	}
+
+	private static MockHttpServletRequestBuilder peer(final MockHttpServletRequestBuilder request) {
+		return request.header(PeerNodes.SECRET_HEADER, "secret");
+	}
+
+	@Test
+	void rejectsCallbacksOfFullStoreTest() throws Exception {
+		final List<String> callbacks = new ArrayList<String>();
+
+		for (int i = 0; i < 21; i++)
+			callbacks.add(callback("full" + i, "pid" + i));
+
+		final String retryAfter = mvc
+				.perform(json(post(PATIENTS + "/send/pseudonyms"), "[" + String.join(",", callbacks) + "]"))
+				.andExpect(status().isServiceUnavailable())
+				.andReturn().getResponse().getHeader(HttpHeaders.RETRY_AFTER);
+
+		assertTrue(Long.parseLong(retryAfter) >= 1);
+		assertFalse(pseudonymManager.containsToken("full0"));
+	}
+
+	@Test
+	void storesArrayOfCallbacksTest() throws Exception {
+		mvc.perform(json(post(PATIENTS + "/send/pseudonyms"),
+				"[" + callback("array1", "pid1") + "," + callback("array2", "pid2") + "]"))
+				.andExpect(status().isOk());
+
+		assertTrue(pseudonymManager.containsToken("array1"));
+		assertTrue(pseudonymManager.containsToken("array2"));
+	}
+
+	@Test
+	void keepsCallbackOfNodeLocallyTest() throws Exception {
+		mvc.perform(json(post(PATIENTS + "/send/pseudonyms/a"), callback("node1", "pid1")))
+				.andExpect(status().isOk());
+		mvc.perform(json(post(PATIENTS + "/send/pseudonyms/b"), callback("node2", "pid2"))
+				.header(PeerNodes.FORWARDED_HEADER, "b"))
+				.andExpect(status().isOk());
+		// peer b is not reachable
+		mvc.perform(json(post(PATIENTS + "/send/pseudonyms/b"), callback("node3", "pid3")))
+				.andExpect(status().isOk());
+
+		assertTrue(pseudonymManager.containsToken("node1"));
+		assertTrue(pseudonymManager.containsToken("node2"));
+		assertTrue(pseudonymManager.containsToken("node3"));
+	}
+
+	@Test
+	void confirmsReservationOfPeerTest() throws Exception {
+		pseudonymManager.putPseudonym("take1", "pid1");
+
+		mvc.perform(json(peer(post(PATIENTS + "/peer/pseudonyms")), "[\"take1\",\"take2\"]")
+				.header(PeerNodes.RESERVATION_HEADER, "r1"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.take1").value("pid1"))
+				.andExpect(jsonPath("$.take2").doesNotExist());
+
+		assertFalse(pseudonymManager.containsToken("take1"));
+
+		mvc.perform(peer(post(PATIENTS + "/peer/pseudonyms/r1"))).andExpect(status().isNoContent());
+		mvc.perform(peer(post(PATIENTS + "/peer/pseudonyms/r1"))).andExpect(status().isNotFound());
+		mvc.perform(peer(delete(PATIENTS + "/peer/pseudonyms/r1"))).andExpect(status().isNoContent());
+
+		assertFalse(pseudonymManager.containsToken("take1"));
+	}
+
+	@Test
+	void putsBackCancelledReservationTest() throws Exception {
+		pseudonymManager.putPseudonym("cancel1", "pid1");
+
+		mvc.perform(json(peer(post(PATIENTS + "/peer/pseudonyms")), "[\"cancel1\"]")
+				.header(PeerNodes.RESERVATION_HEADER, "r2"))
+				.andExpect(status().isOk());
+		mvc.perform(peer(delete(PATIENTS + "/peer/pseudonyms/r2"))).andExpect(status().isNoContent());
+
+		assertTrue(pseudonymManager.containsToken("cancel1"));
+		mvc.perform(peer(post(PATIENTS + "/peer/pseudonyms/r2"))).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void refusesUntrustedPeerTest() throws Exception {
+		pseudonymManager.putPseudonym("secret1", "pid1");
+
+		mvc.perform(json(post(PATIENTS + "/peer/pseudonyms"), "[\"secret1\"]")
+				.header(PeerNodes.RESERVATION_HEADER, "r3"))
+				.andExpect(status().isForbidden());
+		mvc.perform(json(post(PATIENTS + "/peer/pseudonyms"), "[\"secret1\"]")
+				.header(PeerNodes.SECRET_HEADER, "wrong").header(PeerNodes.RESERVATION_HEADER, "r3"))
+				.andExpect(status().isForbidden());
+		mvc.perform(json(peer(post(PATIENTS + "/peer/pseudonyms")), "[\"secret1\"]"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(post(PATIENTS + "/peer/pseudonyms/r3")).andExpect(status().isForbidden());
+		mvc.perform(delete(PATIENTS + "/peer/pseudonyms/r3")).andExpect(status().isForbidden());
+
+		assertTrue(pseudonymManager.containsToken("secret1"));
+	}
+
+}
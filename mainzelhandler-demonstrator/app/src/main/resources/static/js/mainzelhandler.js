@@ -381,14 +381,15 @@ function Mainzelhandler(mainzelhandlerConfig) {
         if (pseudonyms.length === 0)
             return { depseudonymized, invalid: [] };
 
-        const { url, invalidPseudonyms } = await getDepseudonymizationURL(pseudonyms, resultFields);
+        const { url, urls, invalidPseudonyms } = await getDepseudonymizationURL(pseudonyms, resultFields);
+        const chunkURLs = (typeof urls === 'undefined') ? [url] : urls;
 
-        if (url === "")
+        if (chunkURLs.length === 0 || chunkURLs[0] === "")
             return { depseudonymized, invalid: invalidPseudonyms };
 
-        const responseArray = await getPatientData(url);
+        const responseArrays = await Promise.all(chunkURLs.map(chunkURL => getPatientData(chunkURL)));
 
-        for (const entry of responseArray) {
+        for (const entry of responseArrays.flat()) {
             const pseudonym = entry.ids[0].idString;
 
             const idat = {};
@@ -623,14 +624,15 @@ function Mainzelhandler(mainzelhandlerConfig) {
     }
 
     /**
-     * Creates a depseudonymization url for the given pseudonyms.
+     * Creates depseudonymization urls for the given pseudonyms.
      * Can be used to request the IDAT of all givane and valid pseudonyms.
-     * Returns the url and a list containing all invalid pseudonyms
-     * that can't get depseudonymized with the returned url.
+     * Large requests are split into chunks by the server, each chunk has its own url.
+     * Returns the urls and a list containing all invalid pseudonyms
+     * that can't get depseudonymized with the returned urls.
      * Duplicated pseudonyms will be removed.
      * @param {string[]} pseudonyms Pseudonyms to depseudonymize.
      * @param {string[]} [resultFields=[]] IDAT fields to return. By default, every field will be returned.
-     * @returns {Promise<{url: string; invalidPseudonyms: string[];}>} URL for the depseudonymization and all invalid pseudonyms.
+     * @returns {Promise<{url: string; urls: string[]; invalidPseudonyms: string[];}>} URLs for the depseudonymization and all invalid pseudonyms.
      * @throws Throws an exception if the server is not available.
      */
     async function getDepseudonymizationURL(pseudonyms, resultFields = []) {
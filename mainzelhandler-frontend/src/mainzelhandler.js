@@ -79,6 +79,7 @@ const PatientStatus = Object.freeze({
  * @property {string} [mainzellisteApiVersion=3.0] Version of the Mainzelliste api to be used. Default is 3.0.
  * @property {Object.<string, IDATEntry>} idatFields Field definitions of the Maintelliste.
  * @property {string} serverURL URL of the MDAT server.
+ * @property {number} [maxChunkRequests=4] Maximum number of chunk URLs of a depseudonymization fetched at the same time. Default is 4.
  */
 
 /**
@@ -90,6 +91,7 @@ function Mainzelhandler(mainzelhandlerConfig) {
     const mainzellisteApiVersion = mainzelhandlerConfig.mainzellisteApiVersion ?? "3.0";
     const idatFields = mainzelhandlerConfig.idatFields;
     const serverURL = mainzelhandlerConfig.serverURL;
+    const maxChunkRequests = mainzelhandlerConfig.maxChunkRequests ?? 4;
 
     const mainzelhandler = {};
 
@@ -381,14 +383,15 @@ function Mainzelhandler(mainzelhandlerConfig) {
         if (pseudonyms.length === 0)
             return { depseudonymized, invalid: [] };
 
-        const { url, invalidPseudonyms } = await getDepseudonymizationURL(pseudonyms, resultFields);
+        const { url, urls, invalidPseudonyms } = await getDepseudonymizationURL(pseudonyms, resultFields);
+        const chunkURLs = (typeof urls === 'undefined') ? [url] : urls;
 
-        if (url === "")
+        if (chunkURLs.length === 0 || chunkURLs[0] === "")
             return { depseudonymized, invalid: invalidPseudonyms };
 
-        const responseArray = await getPatientData(url);
+        const responseArrays = await fetchChunks(chunkURLs);
 
-        for (const entry of responseArray) {
+        for (const entry of responseArrays.flat()) {
             const pseudonym = entry.ids[0].idString;
 
             const idat = {};
@@ -415,6 +418,33 @@ function Mainzelhandler(mainzelhandlerConfig) {
         return { depseudonymized, invalid: invalidPseudonyms };
     }
 
+    /**
+     * Fetches the patient data of the chunk URLs of a depseudonymization.
+     * At most maxChunkRequests chunks are fetched at the same time.
+     * @param {string[]} chunkURLs URLs of the chunks.
+     * @returns {Promise<DepseudonymizationResponse[][]>} Patient data of the chunks in the order of the URLs.
+     * @throws Throws an exception if the Mainzelliste is not available.
+     */
+    async function fetchChunks(chunkURLs) {
+        const responseArrays = new Array(chunkURLs.length);
+        let next = 0;
+
+        const fetchNext = async function () {
+            while (next < chunkURLs.length) {
+                const index = next++;
+                responseArrays[index] = await getPatientData(chunkURLs[index]);
+            }
+        };
+
+        const workers = [];
+
+        for (let i = 0; i < Math.min(maxChunkRequests, chunkURLs.length); ++i)
+            workers.push(fetchNext());
+
+        await Promise.all(workers);
+        return responseArrays;
+    }
+
     /**
      * Sends patients to the server.
      * The patients must have a pseudonym.
@@ -623,14 +653,15 @@ function Mainzelhandler(mainzelhandlerConfig) {
     }
 
     /**
-     * Creates a depseudonymization url for the given pseudonyms.
+     * Creates depseudonymization urls for the given pseudonyms.
      * Can be used to request the IDAT of all givane and valid pseudonyms.
-     * Returns the url and a list containing all invalid pseudonyms
-     * that can't get depseudonymized with the returned url.
+     * Large requests are split into chunks by the server, each chunk has its own url.
+     * Returns the urls and a list containing all invalid pseudonyms
+     * that can't get depseudonymized with the returned urls.
      * Duplicated pseudonyms will be removed.
      * @param {string[]} pseudonyms Pseudonyms to depseudonymize.
      * @param {string[]} [resultFields=[]] IDAT fields to return. By default, every field will be returned.
-     * @returns {Promise<{url: string; invalidPseudonyms: string[];}>} URL for the depseudonymization and all invalid pseudonyms.
+     * @returns {Promise<{url: string; urls: string[]; invalidPseudonyms: string[];}>} URLs for the depseudonymization and all invalid pseudonyms.
      * @throws Throws an exception if the server is not available.
      */
     async function getDepseudonymizationURL(pseudonyms, resultFields = []) {